@@ -141,6 +141,7 @@ public class AuthenticationService implements ServerComponent {
 		URI baseUri = URI.create(this.config.getBindUrl(Role.AUTH));
 		this.httpServer = GrizzlyHttpServerFactory.createHttpServer(baseUri, rc, false);
 		RestUtils.configureGrizzlyThreads(httpServer, Role.AUTH, false, config);
+		RestUtils.configureGrizzlyCompression(httpServer, Role.AUTH, config);
 		RestUtils.configureGrizzlyRequestLog(this.httpServer, Role.AUTH, LogType.API);
 
 		jerseyStatisticsSource.collectConnectionStatistics(httpServer);
@@ -186,7 +187,7 @@ public class AuthenticationService implements ServerComponent {
 
 		RestUtils.waitForShutdown("authentication service", service.getHttpServer());
 
-		hibernate.getSessionFactory().close();
+		hibernate.close();
 	}
 
 	private HttpServer getHttpServer() {
@@ -200,7 +201,7 @@ public class AuthenticationService implements ServerComponent {
 	public void close() {
 		RestUtils.shutdown("auth-admin", adminServer);
 		RestUtils.shutdown("auth", httpServer);
-		hibernate.getSessionFactory().close();
+		hibernate.close();
 		adminAuthClient.close();
 	}
 }
@@ -0,0 +1,124 @@
+package fi.csc.chipster.comp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import fi.csc.chipster.sessiondb.RestException;
+import fi.csc.chipster.sessiondb.SessionDbClient;
+import fi.csc.chipster.sessiondb.model.JobProgress;
+import jakarta.ws.rs.core.Response.Status;
+
+/**
+ * Send the progress of running jobs to session-db
+ *
+ * The first update of the job and the final result are sent as a whole Job
+ * object, but the updates between those are sent as JobProgress objects,
+ * which contain only the appended screen output. This remembers what has been
+ * sent already.
+ *
+ * The stateDetail is a large object in the db and each update of it creates a
+ * new one, so it's sent only when it has changed.
+ */
+public class JobProgressSender {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	private static class SentOutput {
+		private String text;
+		private long bytes;
+		private String stateDetail;
+
+		public SentOutput(String text, String stateDetail) {
+			this.text = text;
+			this.bytes = text.getBytes(StandardCharsets.UTF_8).length;
+			this.stateDetail = stateDetail;
+		}
+	}
+
+	private ConcurrentHashMap<UUID, SentOutput> sentOutputs = new ConcurrentHashMap<>();
+
+	private SessionDbClient sessionDbClient;
+
+	public JobProgressSender(SessionDbClient sessionDbClient) {
+		this.sessionDbClient = sessionDbClient;
+	}
+
+	/**
+	 * Try to send the progress of a running job
+	 *
+	 * @param sessionId
+	 * @param jobId
+	 * @param result
+	 * @param stateDetail
+	 * @param memoryUsage
+	 * @param storageUsage
+	 * @return true if the progress was sent, false if the whole job has to be
+	 *         updated instead
+	 * @throws RestException
+	 */
+	public boolean sendProgress(UUID sessionId, UUID jobId, GenericResultMessage result, String stateDetail,
+			Long memoryUsage, Long storageUsage) throws RestException {
+
+		SentOutput sent = sentOutputs.get(jobId);
+		String output = result.getOutputText() == null ? "" : result.getOutputText();
+
+		// the output of finished jobs is cleaned up, so it isn't necessarily an
+		// extension of the previous output anymore
+		if (sent == null || result.getState().isFinished() || !output.startsWith(sent.text)) {
+			return false;
+		}
+
+		JobProgress progress = new JobProgress();
+		progress.setState(result.getState());
+		// null keeps the old value in the db
+		progress.setStateDetail(Objects.equals(stateDetail, sent.stateDetail) ? null : stateDetail);
+		progress.setStartTime(result.getStartTime());
+		progress.setMemoryUsage(memoryUsage);
+		progress.setStorageUsage(storageUsage);
+		progress.setScreenOutputOffset(sent.bytes);
+		progress.setScreenOutputAppend(output.substring(sent.text.length()));
+
+		try {
+			sessionDbClient.updateJobProgress(sessionId, jobId, progress);
+		} catch (RestException e) {
+			if (e.getResponse() != null && e.getResponse().getStatus() == Status.CONFLICT.getStatusCode()) {
+				// someone else has modified the screen output, send the whole job
+				logger.warn("screen output conflict in job " + jobId + ", update the whole job");
+				sentOutputs.remove(jobId);
+				return false;
+			}
+			throw e;
+		}
+
+		sent.text = output;
+		sent.stateDetail = stateDetail;
+		sent.bytes += progress.getScreenOutputAppend().getBytes(StandardCharsets.UTF_8).length;
+
+		return true;
+	}
+
+	/**
+	 * Remember the screen output and stateDetail sent in the whole Job object
+	 *
+	 * @param jobId
+	 * @param state
+	 * @param screenOutput
+	 * @param stateDetail
+	 */
+	public void jobUpdated(UUID jobId, JobState state, String screenOutput, String stateDetail) {
+		if (state.isFinished()) {
+			sentOutputs.remove(jobId);
+		} else {
+			sentOutputs.put(jobId, new SentOutput(screenOutput == null ? "" : screenOutput, stateDetail));
+		}
+	}
+
+	public void remove(UUID jobId) {
+		sentOutputs.remove(jobId);
+	}
+}
@@ -127,6 +127,7 @@ public class RestCompServer
 	private final Config config;
 	private AuthenticationClient authClient;
 	private SessionDbClient sessionDbClient;
+	private JobProgressSender jobProgressSender;
 
 	private ResourceMonitor resourceMonitor;
 	private int monitoringInterval;
@@ -216,6 +217,7 @@ public class RestCompServer
 		schedulerClient = new WebSocketClient(schedulerUri, this, true, "comps-scheduler-client",
 				authClient.getCredentials());
 		sessionDbClient = new SessionDbClient(serviceLocator, authClient.getCredentials(), Role.SERVER);
+		jobProgressSender = new JobProgressSender(sessionDbClient);
 		fileBroker = new RestFileBrokerClient(serviceLocator, authClient.getCredentials(), Role.SERVER);
 
 		logger.info("starting the admin rest server");
@@ -389,6 +391,7 @@ public class RestCompServer
 
 		if (result.getState() == JobState.CANCELLED) {
 			// scheduler has already removed the cancelled job from the session-db
+			jobProgressSender.remove(UUID.fromString(result.getJobId()));
 			return;
 		}
 
@@ -396,18 +399,33 @@ public class RestCompServer
 
 		try {
 			JobCommand jobCommand = ((RestJobMessage) jobMessage).getJobCommand();
-			Job dbJob = sessionDbClient.getJob(jobCommand.getSessionId(), jobCommand.getJobId());
 
-			dbJob.setStartTime(result.getStartTime());
-			dbJob.setEndTime(result.getEndTime());
-			dbJob.setScreenOutput(result.getOutputText());
-			dbJob.setState(result.getState());
 			String details = "";
 			if (result.getErrorMessage() != null) {
 				details = result.getErrorMessage();
 			} else if (result.getStateDetail() != null) {
 				details = result.getStateDetail();
 			}
+
+			compJob = this.runningJobs.get(jobMessage.getJobId());
+			Long memoryUsage = null;
+			if (compJob != null) {
+				memoryUsage = this.resourceMonitor.getMaxMem(compJob.getProcess());
+			}
+
+			// send only the new screen output while the job is running
+			if (jobProgressSender.sendProgress(jobCommand.getSessionId(), jobCommand.getJobId(), result, details,
+					memoryUsage, null)) {
+				logger.debug("progress sent (" + result.getJobId() + " " + result.getState() + ")");
+				return;
+			}
+
+			Job dbJob = sessionDbClient.getJob(jobCommand.getSessionId(), jobCommand.getJobId());
+
+			dbJob.setStartTime(result.getStartTime());
+			dbJob.setEndTime(result.getEndTime());
+			dbJob.setScreenOutput(result.getOutputText());
+			dbJob.setState(result.getState());
 			dbJob.setStateDetail(details);
 			dbJob.setSourceCode(result.getSourceCode());
 			dbJob.setComp(this.hostname);
@@ -420,12 +438,13 @@ public class RestCompServer
 				dbJob.setParameters(List.copyOf(result.getParameters().values()));
 			}
 
-			compJob = this.runningJobs.get(jobMessage.getJobId());
-			if (compJob != null) {
-				dbJob.setMemoryUsage(this.resourceMonitor.getMaxMem(compJob.getProcess()));
+			if (memoryUsage != null) {
+				dbJob.setMemoryUsage(memoryUsage);
 			}
 
 			sessionDbClient.updateJob(jobCommand.getSessionId(), dbJob);
+			jobProgressSender.jobUpdated(jobCommand.getJobId(), result.getState(), result.getOutputText(),
+					details);
 
 			logger.info("result message sent (" + result.getJobId() + " " + result.getState() + ")");
 
@@ -103,6 +103,7 @@ public class SingleShotComp
 	private ServiceLocatorClient serviceLocator;
 
 	private SessionDbClient sessionDbClient;
+	private JobProgressSender jobProgressSender;
 
 	private SingleShotResourceMonitor resourceMonitor;
 	private final int monitoringInterval;
@@ -168,6 +169,7 @@ public class SingleShotComp
 		resourceMonitor = new SingleShotResourceMonitor(this, monitoringInterval);
 
 		sessionDbClient = new SessionDbClient(serviceLocator, sessionTokenCredentials, Role.SERVER);
+		jobProgressSender = new JobProgressSender(sessionDbClient);
 		fileBroker = new RestFileBrokerClient(serviceLocator, sessionTokenCredentials, Role.SERVER, inputFileTlsVersion,
 				inputFileHttp2, inputFileCipher);
 
@@ -267,23 +269,33 @@ public class SingleShotComp
 
 		if (result.getState() == JobState.CANCELLED) {
 			// scheduler has already removed the cancelled job from the session-db
+			jobProgressSender.remove(UUID.fromString(result.getJobId()));
 			return;
 		}
 
 		try {
 			JobCommand jobCommand = ((RestJobMessage) jobMessage).getJobCommand();
-			Job dbJob = sessionDbClient.getJob(jobCommand.getSessionId(), jobCommand.getJobId());
 
-			dbJob.setStartTime(result.getStartTime());
-			dbJob.setEndTime(result.getEndTime());
-			dbJob.setScreenOutput(result.getOutputText());
-			dbJob.setState(result.getState());
 			String details = "";
 			if (result.getErrorMessage() != null) {
 				details = result.getErrorMessage();
 			} else if (result.getStateDetail() != null) {
 				details = result.getStateDetail();
 			}
+
+			// send only the new screen output while the job is running
+			if (jobProgressSender.sendProgress(jobCommand.getSessionId(), jobCommand.getJobId(), result, details,
+					this.resourceMonitor.getMaxMem(), this.resourceMonitor.getMaxStorage())) {
+				logger.debug("progress sent (" + result.getJobId() + " " + result.getState() + ")");
+				return;
+			}
+
+			Job dbJob = sessionDbClient.getJob(jobCommand.getSessionId(), jobCommand.getJobId());
+
+			dbJob.setStartTime(result.getStartTime());
+			dbJob.setEndTime(result.getEndTime());
+			dbJob.setScreenOutput(result.getOutputText());
+			dbJob.setState(result.getState());
 			dbJob.setStateDetail(details);
 			dbJob.setSourceCode(result.getSourceCode());
 			dbJob.setComp(this.hostname);
@@ -329,6 +341,8 @@ public class SingleShotComp
 			}
 
 			sessionDbClient.updateJob(jobCommand.getSessionId(), dbJob);
+			jobProgressSender.jobUpdated(jobCommand.getJobId(), result.getState(), result.getOutputText(),
+					details);
 
 			logger.info("result message sent (" + result.getJobId() + " " + result.getState() + ")");
 
@@ -16,6 +16,7 @@ import org.hibernate.query.Query;
 import fi.csc.chipster.auth.model.Role;
 import fi.csc.chipster.rest.AdminResource;
 import fi.csc.chipster.rest.Config;
+import fi.csc.chipster.rest.StatusSource;
 import fi.csc.chipster.rest.hibernate.HibernateUtil;
 import fi.csc.chipster.rest.hibernate.Transaction;
 import jakarta.annotation.security.RolesAllowed;
@@ -51,8 +52,8 @@ public class JobHistoryResource extends AdminResource {
 	public static final String FILTER_ATTRIBUTE_TIME = "created";
 	public static final String FILTER_ATTRIBUTE_PAGE = "page";
 
-	public JobHistoryResource(HibernateUtil hibernate, Config config) {
-		super(config);
+	public JobHistoryResource(HibernateUtil hibernate, Config config, StatusSource... stats) {
+		super(config, stats);
 		this.config = config;
 		this.hibernate = hibernate;
 	}
@@ -62,7 +63,7 @@ public class JobHistoryResource extends AdminResource {
 	@Path("jobhistory")
 	@RolesAllowed({ Role.ADMIN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response getJobHistory(@Context UriInfo uriInfo) {
 
 		int pageNumber = 1;
@@ -105,7 +106,7 @@ public class JobHistoryResource extends AdminResource {
 	@Path("jobhistory/rowcount")
 	@RolesAllowed({ Role.ADMIN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response getJobHistoryRowCount(@Context UriInfo uriInfo) {
 
 		MultivaluedMap<String, String> queryParams = uriInfo.getQueryParameters();
@@ -142,7 +143,7 @@ public class JobHistoryResource extends AdminResource {
 	@Path("jobhistory/statistics")
 	@RolesAllowed({ Role.ADMIN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response getJobHistoryStatistics(@Context UriInfo uriInfo) {
 		// TODO figure out date time zones
 
@@ -36,8 +36,11 @@ import fi.csc.chipster.sessiondb.RestException;
 import fi.csc.chipster.sessiondb.SessionDbClient;
 import fi.csc.chipster.sessiondb.SessionDbClient.SessionEventListener;
 import fi.csc.chipster.sessiondb.SessionDbTopicConfig;
+import fi.csc.chipster.sessiondb.SessionEventDispatcher;
+import fi.csc.chipster.sessiondb.SessionEventFilter;
 import fi.csc.chipster.sessiondb.model.Job;
 import fi.csc.chipster.sessiondb.model.JobIdPair;
+import fi.csc.chipster.sessiondb.model.JobProgress;
 import fi.csc.chipster.sessiondb.model.SessionEvent;
 import fi.csc.chipster.sessiondb.model.SessionEvent.ResourceType;
 import jakarta.persistence.criteria.CriteriaBuilder;
@@ -62,6 +65,7 @@ public class JobHistoryService implements SessionEventListener, MessageHandler,
 	private ServiceLocatorClient serviceLocator;
 	private AuthenticationClient authService;
 	private SessionDbClient sessionDbClient;
+	private SessionEventDispatcher eventDispatcher;
 	private TokenRequestFilter tokenRequestFilter;
 
 	public JobHistoryService(Config config) {
@@ -95,9 +99,17 @@ public class JobHistoryService implements SessionEventListener, MessageHandler,
 		this.sessionDbClient = new SessionDbClient(serviceLocator, authService.getCredentials(), Role.SERVER);
 
 		// we are ready to handle events after this.hibernate has been set
-		this.sessionDbClient.subscribe(SessionDbTopicConfig.ALL_JOBS_TOPIC, this, "job-history");
-
-		this.jobHistoryResource = new JobHistoryResource(hibernate, config);
+		// the progress updates of the running jobs don't change the state
+		SessionEventFilter jobStateFilter = new SessionEventFilter();
+		jobStateFilter.setProgress(false);
+		// get the jobs from the session-db without blocking the websocket
+		this.eventDispatcher = new SessionEventDispatcher(this,
+				config.getInt(Config.KEY_SESSION_EVENT_DISPATCH_THREADS),
+				config.getInt(Config.KEY_SESSION_EVENT_DISPATCH_QUEUE_SIZE), "job-history");
+		this.sessionDbClient.subscribe(SessionDbTopicConfig.ALL_JOBS_TOPIC, eventDispatcher, "job-history",
+				jobStateFilter);
+
+		this.jobHistoryResource = new JobHistoryResource(hibernate, config, eventDispatcher);
 
 		// why does this even have this public api server, when all resources are
 		// in the admin api server?
@@ -109,6 +121,7 @@ public class JobHistoryService implements SessionEventListener, MessageHandler,
 		URI baseUri = URI.create(this.config.getBindUrl(Role.JOB_HISTORY));
 		httpServer = GrizzlyHttpServerFactory.createHttpServer(baseUri, rc, false);
 		RestUtils.configureGrizzlyThreads(this.httpServer, Role.JOB_HISTORY, false, config);
+		RestUtils.configureGrizzlyCompression(this.httpServer, Role.JOB_HISTORY, config);
 		RestUtils.configureGrizzlyRequestLog(this.httpServer, Role.JOB_HISTORY, LogType.API);
 		httpServer.start();
 
@@ -234,7 +247,8 @@ public class JobHistoryService implements SessionEventListener, MessageHandler,
 		// logger.info("received a job event: " + e.getResourceType() + " " +
 		// e.getType());
 		try {
-			if (e.getResourceType() == ResourceType.JOB) {
+			// progress updates of running jobs don't change the state
+			if (e.getResourceType() == ResourceType.JOB && !JobProgress.isProgressEvent(e)) {
 				handleDbEvent(e, new IdPair(e.getSessionId(), e.getResourceId()), JobState.valueOf(e.getState()));
 			}
 		} catch (Exception ex) {
@@ -367,7 +381,10 @@ public class JobHistoryService implements SessionEventListener, MessageHandler,
 		} catch (IOException e) {
 			logger.warn("failed to shutdown session-db client", e);
 		}
-		hibernate.getSessionFactory().close();
+		if (eventDispatcher != null) {
+			eventDispatcher.close();
+		}
+		hibernate.close();
 
 		RestUtils.shutdown("job-history-admin", jobHistoryAdminServer);
 		RestUtils.shutdown("job-history", httpServer);
@@ -9,10 +9,12 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.hibernate.stat.Statistics;
 
 import com.nimbusds.jose.util.IOUtils;
 
@@ -49,14 +51,19 @@ public class AdminResource {
 		this.hibernate = hibernate;
 		this.dbTables = dbTables;
 		if (stats != null) {
-			this.statusSources = new ArrayList(Arrays.asList(stats));
+			// optional components are null when they are disabled
+			this.statusSources = new ArrayList(Arrays.stream(stats).filter(Objects::nonNull).toList());
 		} else {
 			this.statusSources = new ArrayList<StatusSource>();
 		}
 		this.fileSystems.put("root", new File("."));
 
 		if (this.hibernate != null) {
-			hibernate.getSessionFactory().getStatistics().setStatisticsEnabled(true);
+			// statistics are collected only if enabled with db-statistics
+			StatusSource statisticsSource = hibernate.getStatisticsSource();
+			if (statisticsSource != null) {
+				this.statusSources.add(statisticsSource);
+			}
 		}
 
 		this.statusSources.add(new BuildVersionStatusSource(config));
@@ -91,12 +98,20 @@ public class AdminResource {
 
 		}
 
-		if (this.hibernate != null) {
-			long openCount = hibernate.getSessionFactory().getStatistics().getSessionOpenCount();
-			long closeCount = hibernate.getSessionFactory().getStatistics().getSessionCloseCount();
+		if (this.hibernate != null && hibernate.getSessionFactory().getStatistics().isStatisticsEnabled()) {
+			Statistics statistics = hibernate.getSessionFactory().getStatistics();
+			long openCount = statistics.getSessionOpenCount();
+			long closeCount = statistics.getSessionCloseCount();
 			status.put("dbSessionOpenCount", openCount);
 			status.put("dbSessionCloseCount", closeCount);
 			status.put("dbSessionsOpen", openCount - closeCount);
+
+			// growing fetch counts compared to the query count reveal n+1 queries
+			status.put("dbPrepareStatementCount", statistics.getPrepareStatementCount());
+			status.put("dbQueryExecutionCount", statistics.getQueryExecutionCount());
+			status.put("dbEntityLoadCount", statistics.getEntityLoadCount());
+			status.put("dbEntityFetchCount", statistics.getEntityFetchCount());
+			status.put("dbCollectionFetchCount", statistics.getCollectionFetchCount());
 		}
 
 		if (statusSources != null) {
@@ -51,6 +51,18 @@ public class Config {
 	public static final String KEY_SESSION_DB_HIBERNATE_SCHEMA = "session-db-hibernate-schema";
 	public static final String KEY_SESSION_DB_RESTRICT_SHARING_TO_EVERYONE = "session-db-restrict-sharing-to-everyone";
 	public static final String KEY_SESSION_DB_MAX_SHARE_COUNT = "session-db-max-share-count";
+	public static final String KEY_SESSION_DB_AUTHORIZATION_CACHE_SIZE = "session-db-authorization-cache-size";
+	public static final String KEY_SESSION_DB_ACCESSED_FLUSH_INTERVAL = "session-db-accessed-flush-interval";
+	public static final String KEY_SESSION_DB_CACHE_PEERS = "session-db-cache-peers";
+	public static final String KEY_SESSION_DB_USAGE_RECONCILE_INTERVAL = "session-db-usage-reconcile-interval";
+	public static final String KEY_SESSION_DB_USAGE_RECONCILE_ALL_INTERVAL = "session-db-usage-reconcile-all-interval";
+	public static final String KEY_SESSION_DB_ORPHAN_CHUNK_SIZE = "session-db-orphan-chunk-size";
+	public static final String KEY_SESSION_DB_ORPHAN_CHUNK_DELAY = "session-db-orphan-chunk-delay";
+	public static final String KEY_SESSION_DB_CHANGE_LOG_SESSIONS = "session-db-change-log-sessions";
+	public static final String KEY_SESSION_DB_CHANGE_LOG_SIZE = "session-db-change-log-size";
+	public static final String KEY_SESSION_DB_EVENT_BUS = "session-db-event-bus";
+	public static final String KEY_SESSION_EVENT_DISPATCH_THREADS = "session-event-dispatch-threads";
+	public static final String KEY_SESSION_EVENT_DISPATCH_QUEUE_SIZE = "session-event-dispatch-queue-size";
 
 	public static final String KEY_WEB_SERVER_WEB_ROOT_PATH = "web-server-web-root-path";
 
@@ -72,6 +72,14 @@ public class RestMethods {
 		return response.readEntity(responseType);
 	}
 
+	public static Response postNoContent(WebTarget target, Object obj) throws RestException {
+		Response response = target.request().post(Entity.entity(obj, MediaType.APPLICATION_JSON), Response.class);
+		if (!RestUtils.isSuccessful(response.getStatus())) {
+			throw new RestException("post " + obj.getClass().getSimpleName() + " failed ", response, target.getUri());
+		}
+		return response;
+	}
+
 	public static Response put(WebTarget target, Object obj) throws RestException {
 		Response response = target.request().put(Entity.entity(obj, MediaType.APPLICATION_JSON), Response.class);
 		if (!RestUtils.isSuccessful(response.getStatus())) {
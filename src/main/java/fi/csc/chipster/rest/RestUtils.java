@@ -35,6 +35,8 @@ import org.eclipse.jetty.server.handler.StatisticsHandler;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.util.thread.ThreadPool;
 import org.glassfish.grizzly.GrizzlyFuture;
+import org.glassfish.grizzly.http.CompressionConfig;
+import org.glassfish.grizzly.http.CompressionConfig.CompressionMode;
 import org.glassfish.grizzly.http.server.HttpServer;
 import org.glassfish.grizzly.http.server.NetworkListener;
 import org.glassfish.grizzly.http.server.accesslog.AccessLogBuilder;
@@ -90,6 +92,7 @@ import fi.csc.chipster.sessiondb.model.Session;
 import fi.csc.chipster.toolbox.sadl.SADLSyntax.ParameterType;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.ws.rs.InternalServerErrorException;
+import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response.ResponseBuilder;
 
 public class RestUtils {
@@ -97,6 +100,7 @@ public class RestUtils {
 	private static final String CONF_SERVER_THREADS_WORKER_MAX = "server-threads-worker-max";
 	private static final String CONF_SERVER_THREADS_WORKER_MIN = "server-threads-worker-min";
 	private static final String CONF_SERVER_THREADS_SELECTOR = "server-threads-selector";
+	public static final String CONF_SERVER_COMPRESSION_MIN_SIZE = "server-compression-min-size";
 
 	public static final String X_FORWARDED_FOR = "X-Forwarded-For";
 
@@ -458,6 +462,7 @@ public class RestUtils {
 		HttpServer server = GrizzlyHttpServerFactory.createHttpServer(baseUri, rc, false);
 
 		configureGrizzlyThreads(server, role + "-admin", true, config);
+		configureGrizzlyCompression(server, role, config);
 		RestUtils.configureGrizzlyRequestLog(server, role, LogType.ADMIN);
 
 		server.start();
@@ -756,6 +761,36 @@ public class RestUtils {
 				+ workerConfig.getCorePoolSize() + "-" + workerConfig.getMaxPoolSize() + " worker threads");
 	}
 
+	/**
+	 * Configure gzip compression of the json responses
+	 * 
+	 * Grizzly compresses the response if the client accepts gzip and the response
+	 * is larger than the configured minimum size. Streamed responses don't have a
+	 * content length and are always compressed.
+	 * 
+	 * @param server
+	 * @param name
+	 * @param config
+	 */
+	public static void configureGrizzlyCompression(HttpServer server, String name, Config config) {
+
+		int minSize = Integer.parseInt(config.getString(CONF_SERVER_COMPRESSION_MIN_SIZE, name));
+
+		for (NetworkListener listener : server.getListeners()) {
+			CompressionConfig compressionConfig = listener.getCompressionConfig();
+
+			if (minSize < 0) {
+				compressionConfig.setCompressionMode(CompressionMode.OFF);
+			} else {
+				compressionConfig.setCompressionMode(CompressionMode.ON);
+				compressionConfig.setCompressionMinSize(minSize);
+				compressionConfig.setCompressibleMimeTypes(MediaType.APPLICATION_JSON);
+			}
+		}
+
+		logger.info(name + " compression " + (minSize < 0 ? "disabled" : "enabled above " + minSize + " bytes"));
+	}
+
 	public static void configureGrizzlyRequestLog(HttpServer httpServer, String name, LogType type) {
 		try {
 			AccessLogBuilder builder = new AccessLogBuilder("logs/" + name + "." + type.getType() + ".request.log");
@@ -1,11 +1,18 @@
 package fi.csc.chipster.rest.hibernate;
 
+import java.lang.reflect.Method;
+
 import jakarta.ws.rs.container.ContainerRequestContext;
 import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.SecurityContext;
 import jakarta.ws.rs.ext.Provider;
 
 import org.hibernate.Session;
 
+import fi.csc.chipster.auth.model.Role;
+
 @Provider
 @Transaction
 public class HibernateRequestFilter implements ContainerRequestFilter {
@@ -13,13 +20,49 @@ public class HibernateRequestFilter implements ContainerRequestFilter {
 	public static final String PROP_HIBERNATE_SESSION = "hibernateSession";
 	private HibernateUtil hibernate;
 
+	@Context
+	private ResourceInfo resourceInfo;
+
 	public HibernateRequestFilter(HibernateUtil hibernate) {
 		this.hibernate = hibernate;
 	}
 
 	@Override
 	public void filter(ContainerRequestContext requestContext) {
-		Session session = hibernate.beginTransactionAndBind();
+		Session session = hibernate.beginTransactionAndBind(isReplicaAllowed(requestContext.getSecurityContext()));
 		requestContext.setProperty(PROP_HIBERNATE_SESSION, session);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Use the read replica only for read-only methods and only when the client
+	 * doesn't expect to see its own writes
+	 * 
+	 * Servers react to the events of the primary db, so they always use the
+	 * primary. Other users use the primary for a while after their own writes.
+	 * 
+	 * @param sc
+	 * @return
+	 */
+	private boolean isReplicaAllowed(SecurityContext sc) {
+		if (!hibernate.hasReplica()) {
+			return false;
+		}
+
+		Method method = resourceInfo.getResourceMethod();
+		Transaction transaction = method != null ? method.getAnnotation(Transaction.class) : null;
+
+		if (transaction == null || !transaction.readOnly()) {
+			return false;
+		}
+
+		if (sc == null || sc.getUserPrincipal() == null) {
+			return true;
+		}
+
+		if (sc.isUserInRole(Role.SERVER)) {
+			return false;
+		}
+
+		return !hibernate.isRecentWriter(sc.getUserPrincipal().getName());
+	}
+}
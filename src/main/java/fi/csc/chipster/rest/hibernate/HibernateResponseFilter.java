@@ -2,6 +2,7 @@ package fi.csc.chipster.rest.hibernate;
 
 import org.glassfish.jersey.server.ContainerResponse;
 
+import jakarta.ws.rs.HttpMethod;
 import jakarta.ws.rs.container.ContainerRequestContext;
 import jakarta.ws.rs.container.ContainerResponseContext;
 import jakarta.ws.rs.container.ContainerResponseFilter;
@@ -56,5 +57,13 @@ public class HibernateResponseFilter implements ContainerResponseFilter {
 			}
 		}
 		hibernate.commitAndUnbind();
+
+		// the following reads of this user should see this write
+		String method = requestContext.getMethod();
+		if (!HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method)
+				&& requestContext.getSecurityContext() != null
+				&& requestContext.getSecurityContext().getUserPrincipal() != null) {
+			hibernate.recordWrite(requestContext.getSecurityContext().getUserPrincipal().getName());
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,111 @@
+package fi.csc.chipster.rest.hibernate;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.Statistics;
+
+import com.mchange.v2.c3p0.PooledDataSource;
+
+import fi.csc.chipster.rest.StatusSource;
+
+/**
+ * Detailed db statistics for the admin status
+ *
+ * Hibernate statistics (query timings, entity and second-level cache counts)
+ * and the figures of the c3p0 connection pool. Enable with the config key
+ * db-statistics.
+ */
+public class HibernateStatisticsSource implements StatusSource {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	private SessionFactory sessionFactory;
+	private long slowQueryThreshold;
+
+	public HibernateStatisticsSource(SessionFactory sessionFactory, long slowQueryThreshold) {
+		this.sessionFactory = sessionFactory;
+		this.slowQueryThreshold = slowQueryThreshold;
+	}
+
+	@Override
+	public Map<String, Object> getStatus() {
+		HashMap<String, Object> status = new HashMap<>();
+
+		Statistics statistics = sessionFactory.getStatistics();
+
+		status.put("dbQueryExecutionMaxTime", statistics.getQueryExecutionMaxTime());
+		status.put("dbQueryExecutionMaxTimeQuery", statistics.getQueryExecutionMaxTimeQueryString());
+
+		// average over all queries. Hibernate keeps only the max time of each query
+		// string, so the slow ones can be counted per query string, not per execution
+		long executionCount = 0;
+		long executionTotalTime = 0;
+		long slowQueryTypes = 0;
+
+		for (String query : statistics.getQueries()) {
+			QueryStatistics queryStatistics = statistics.getQueryStatistics(query);
+			executionCount += queryStatistics.getExecutionCount();
+			executionTotalTime += queryStatistics.getExecutionTotalTime();
+
+			if (slowQueryThreshold > 0 && queryStatistics.getExecutionMaxTime() > slowQueryThreshold) {
+				slowQueryTypes++;
+			}
+		}
+
+		status.put("dbQueryExecutionAvgTime", executionCount == 0 ? 0 : executionTotalTime / executionCount);
+		status.put("dbSlowQueryTypes", slowQueryTypes);
+
+		status.put("dbEntityInsertCount", statistics.getEntityInsertCount());
+		status.put("dbEntityUpdateCount", statistics.getEntityUpdateCount());
+		status.put("dbEntityDeleteCount", statistics.getEntityDeleteCount());
+		status.put("dbTransactionCount", statistics.getTransactionCount());
+		status.put("dbConnectCount", statistics.getConnectCount());
+
+		status.put("dbSecondLevelCacheHitCount", statistics.getSecondLevelCacheHitCount());
+		status.put("dbSecondLevelCacheMissCount", statistics.getSecondLevelCacheMissCount());
+		status.put("dbSecondLevelCachePutCount", statistics.getSecondLevelCachePutCount());
+
+		status.putAll(getPoolStatus());
+
+		return status;
+	}
+
+	private Map<String, Object> getPoolStatus() {
+		HashMap<String, Object> status = new HashMap<>();
+
+		ConnectionProvider connectionProvider = sessionFactory.unwrap(SessionFactoryImplementor.class)
+				.getServiceRegistry().getService(ConnectionProvider.class);
+
+		if (connectionProvider == null || !connectionProvider.isUnwrappableAs(DataSource.class)) {
+			return status;
+		}
+
+		DataSource dataSource = connectionProvider.unwrap(DataSource.class);
+
+		if (dataSource instanceof PooledDataSource) {
+			PooledDataSource pool = (PooledDataSource) dataSource;
+			try {
+				status.put("dbPoolConnections", pool.getNumConnectionsDefaultUser());
+				status.put("dbPoolBusy", pool.getNumBusyConnectionsDefaultUser());
+				status.put("dbPoolIdle", pool.getNumIdleConnectionsDefaultUser());
+				// requests waiting for a connection
+				status.put("dbPoolWaiting", pool.getNumThreadsAwaitingCheckoutDefaultUser());
+				status.put("dbPoolFailedCheckouts", pool.getNumFailedCheckoutsDefaultUser());
+			} catch (SQLException e) {
+				logger.warn("failed to get the connection pool status", e);
+			}
+		}
+
+		return status;
+	}
+}
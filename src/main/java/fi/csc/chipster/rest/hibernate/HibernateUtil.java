@@ -1,5 +1,6 @@
 package fi.csc.chipster.rest.hibernate;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -7,9 +8,13 @@ import java.sql.SQLException;
 import java.util.List;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.boot.registry.StandardServiceRegistry;
@@ -17,11 +22,18 @@ import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.cfg.Environment;
 import org.hibernate.context.internal.ManagedSessionContext;
+import org.hibernate.query.SelectionQuery;
 import org.hibernate.tool.schema.spi.SchemaManagementException;
 import org.postgresql.util.PSQLException;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+
 import fi.csc.chipster.rest.Config;
+import fi.csc.chipster.rest.RestUtils;
+import fi.csc.chipster.rest.StatusSource;
 import jakarta.persistence.EntityManager;
+import jakarta.ws.rs.core.StreamingOutput;
 
 public class HibernateUtil {
 
@@ -42,6 +54,18 @@ public class HibernateUtil {
 	private static final String CONF_DB_SHOW_SQL = "db-show-sql";
 	private static final String CONF_DB_DIALECT = "db-dialect";
 	private static final String CONF_DB_DRIVER = "db-driver";
+	private static final String CONF_DB_BATCH_FETCH_SIZE = "db-batch-fetch-size";
+	private static final String CONF_DB_STATISTICS = "db-statistics";
+	private static final String CONF_DB_SLOW_QUERY_THRESHOLD = "db-slow-query-threshold";
+	private static final String CONF_DB_SECOND_LEVEL_CACHE = "db-second-level-cache";
+	private static final String CONF_DB_REPLICA_URL = "db-replica-url";
+	private static final String CONF_DB_REPLICA_STICKINESS = "db-replica-stickiness";
+
+	// region sizes are configured in this file
+	private static final String CACHE_CONFIG = "classpath:hibernate-cache.conf";
+
+	// rows to write between the persistence context clears in streamJsonArray()
+	private static final int STREAM_BATCH_SIZE = 500;
 
 	public static final String CONF_DB_PASS = "db-pass";
 	public static final String CONF_DB_USER = "db-user";
@@ -52,6 +76,16 @@ public class HibernateUtil {
 
 	private SessionFactory sessionFactory;
 
+	// read-only transactions, null if the replica isn't configured
+	private SessionFactory replicaSessionFactory;
+
+	// the factory of the transaction bound to the current thread
+	private ThreadLocal<SessionFactory> boundSessionFactory = new ThreadLocal<>();
+
+	// last write of each user, milliseconds since epoch
+	private ConcurrentHashMap<String, Long> lastWrites = new ConcurrentHashMap<>();
+	private long replicaStickiness;
+
 	private Config config;
 
 	private String role;
@@ -100,6 +134,11 @@ public class HibernateUtil {
 			this.sessionFactory = buildSessionFactory(hibernateConf);
 			logger.info("connected");
 
+			String replicaUrl = config.getString(CONF_DB_REPLICA_URL, role);
+			if (!replicaUrl.isEmpty()) {
+				this.initReplica(hibernateClasses, replicaUrl, user, password);
+			}
+
 		} catch (DatabaseConnectionRefused e) {
 
 			throw new RuntimeException(role + " db not available\n"
@@ -119,6 +158,23 @@ public class HibernateUtil {
 		}
 	}
 
+	private void initReplica(List<Class<?>> hibernateClasses, String replicaUrl, String user, String password) {
+
+		// the schema was already validated and migrated in the primary
+		Configuration replicaConf = getHibernateConf(hibernateClasses, replicaUrl, "none", user, password, config,
+				role);
+		// evictions of the primary wouldn't reach the cache of the replica factory
+		replicaConf.setProperty(Environment.USE_SECOND_LEVEL_CACHE, "false");
+
+		this.replicaStickiness = Long.parseLong(config.getString(CONF_DB_REPLICA_STICKINESS, role)) * 1000;
+
+		testConnection(replicaUrl, user, password);
+
+		logger.info("connect to db replica " + replicaUrl);
+		this.replicaSessionFactory = buildSessionFactory(replicaConf);
+		logger.info("connected");
+	}
+
 	public static void testConnection(String url, String user, String password) {
 
 		try {
@@ -145,6 +201,26 @@ public class HibernateUtil {
 		}
 	}
 
+	/**
+	 * Open a connection outside of the connection pool
+	 *
+	 * For connections that stay open for a long time, like the LISTEN connection
+	 * of the session-db event bus. The db url and credentials are the same that
+	 * the pool uses. The caller must close the connection.
+	 *
+	 * @param properties additional connection properties of the JDBC driver
+	 * @return
+	 * @throws SQLException
+	 */
+	public Connection openUnpooledConnection(Properties properties) throws SQLException {
+		Properties connectionProps = new Properties();
+		connectionProps.putAll(properties);
+		connectionProps.put("user", config.getString(CONF_DB_USER, role));
+		connectionProps.put("password", config.getString(CONF_DB_PASS, role));
+
+		return DriverManager.getConnection(config.getString(CONF_DB_URL, role), connectionProps);
+	}
+
 	public static Configuration getHibernateConf(List<Class<?>> hibernateClasses, String url, String hbm2ddlAuto,
 			String user, String password, Config config, String role) {
 
@@ -163,6 +239,30 @@ public class HibernateUtil {
 		hibernateConf.setProperty("hibernate.c3p0.acquireRetryAttempts", "1"); // throw on connection errors immediately
 																				// in startup
 		hibernateConf.setProperty("hibernate.hbm2ddl.auto", hbm2ddlAuto);
+		// avoid n+1 queries when an association isn't fetched in the query
+		hibernateConf.setProperty(Environment.DEFAULT_BATCH_FETCH_SIZE,
+				config.getString(CONF_DB_BATCH_FETCH_SIZE, role));
+		// the statistics have some overhead in every query, so they are opt-in
+		hibernateConf.setProperty(Environment.GENERATE_STATISTICS, config.getString(CONF_DB_STATISTICS, role));
+		// log queries slower than this (milliseconds) to the logger org.hibernate.SQL_SLOW
+		hibernateConf.setProperty(Environment.LOG_SLOW_QUERY, config.getString(CONF_DB_SLOW_QUERY_THRESHOLD, role));
+
+		if (config.getBoolean(CONF_DB_SECOND_LEVEL_CACHE, role)) {
+			// cache the entities and collections annotated with @Cache in bounded in-heap
+			// regions
+			hibernateConf.setProperty(Environment.USE_SECOND_LEVEL_CACHE, "true");
+			hibernateConf.setProperty(Environment.CACHE_REGION_FACTORY, "jcache");
+			hibernateConf.setProperty("hibernate.javax.cache.provider",
+					"com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider");
+			hibernateConf.setProperty("hibernate.javax.cache.uri", CACHE_CONFIG);
+			// warn if a region is missing from the config, because it wouldn't be bounded
+			hibernateConf.setProperty("hibernate.javax.cache.missing_cache_strategy", "create-warn");
+			// inverse collections (e.g. Session.rules) are not evicted by default when
+			// the owning side changes
+			hibernateConf.setProperty(Environment.AUTO_EVICT_COLLECTION_CACHE, "true");
+		} else {
+			hibernateConf.setProperty(Environment.USE_SECOND_LEVEL_CACHE, "false");
+		}
 		// following two for debugging connection leaks
 		// hibernateConf.setProperty("hibernate.c3p0.debugUnreturnedConnectionStackTraces",
 		// "true");
@@ -187,18 +287,210 @@ public class HibernateUtil {
 		return sessionFactory;
 	}
 
+	public boolean hasReplica() {
+		return replicaSessionFactory != null;
+	}
+
+	/**
+	 * @return true if the transaction of the current request is in the read
+	 *         replica
+	 */
+	public boolean isReplicaBound() {
+		return replicaSessionFactory != null && boundSessionFactory.get() == replicaSessionFactory;
+	}
+
+	/**
+	 * Writes the scrolled query results as json
+	 *
+	 * @param <R> type of the result rows
+	 */
+	public interface JsonStreamWriter<R> {
+
+		public void writeStart(JsonGenerator jg) throws IOException;
+
+		/**
+		 * @return false to stop the scrolling
+		 */
+		public boolean write(JsonGenerator jg, R row) throws IOException;
+
+		public void writeEnd(JsonGenerator jg) throws IOException;
+	}
+
+	/**
+	 * Stream the query results as a json array
+	 * 
+	 * See {@link #streamJson(Function, JsonStreamWriter)}.
+	 * 
+	 * @param <R>
+	 * @param createQuery create the query in the given Hibernate session
+	 * @param convert     convert a result row to the object to write
+	 * @return
+	 */
+	public <R> StreamingOutput streamJsonArray(Function<Session, SelectionQuery<R>> createQuery,
+			Function<R, Object> convert) {
+
+		return streamJson(createQuery, new JsonStreamWriter<R>() {
+			@Override
+			public void writeStart(JsonGenerator jg) throws IOException {
+				jg.writeStartArray();
+			}
+
+			@Override
+			public boolean write(JsonGenerator jg, R row) throws IOException {
+				jg.writeObject(convert.apply(row));
+				return true;
+			}
+
+			@Override
+			public void writeEnd(JsonGenerator jg) throws IOException {
+				jg.writeEndArray();
+			}
+		});
+	}
+
+	/**
+	 * Stream the query results as json
+	 * 
+	 * Building the whole result list would keep all entities in the persistence
+	 * context until the response is written. Instead, scroll the results with a db
+	 * cursor and write them in batches, clearing the persistence context after each
+	 * batch, so that the heap usage doesn't grow with the number of results.
+	 * 
+	 * The output is written after the request transaction has been closed, so it
+	 * runs in its own transaction. Call this in the request to read from the same
+	 * db as the request.
+	 * 
+	 * If the transaction fails, the json isn't closed and the response is aborted,
+	 * so that the client doesn't get a truncated list that looks complete.
+	 * 
+	 * @param <R>
+	 * @param createQuery create the query in the given Hibernate session
+	 * @param writer      writes the json
+	 * @return
+	 */
+	public <R> StreamingOutput streamJson(Function<Session, SelectionQuery<R>> createQuery,
+			JsonStreamWriter<R> writer) {
+
+		boolean replica = isReplicaBound();
+
+		return output -> {
+			Boolean completed = runInTransaction(replica, hibernateSession -> {
+
+				SelectionQuery<R> query = createQuery.apply(hibernateSession);
+				query.setReadOnly(true);
+				// otherwise the postgres driver reads all rows to memory
+				query.setFetchSize(STREAM_BATCH_SIZE);
+
+				try (ScrollableResults<R> results = query.scroll(ScrollMode.FORWARD_ONLY);
+						JsonGenerator jg = RestUtils.getObjectMapper(false).getFactory().createGenerator(output,
+								JsonEncoding.UTF8)) {
+
+					// if the scroll fails, don't close the json
+					jg.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+
+					writer.writeStart(jg);
+
+					long count = 0;
+					while (results.next()) {
+						if (!writer.write(jg, results.get())) {
+							break;
+						}
+
+						if (++count % STREAM_BATCH_SIZE == 0) {
+							jg.flush();
+							hibernateSession.clear();
+						}
+					}
+
+					writer.writeEnd(jg);
+
+				} catch (IOException e) {
+					logger.error("failed to write the json", e);
+					// rollback the transaction
+					throw new RuntimeException(e);
+				}
+				return true;
+			});
+
+			// runInTransaction() logs the error and returns null. The response has been
+			// committed already, but failing here aborts it, so that the client notices
+			if (completed == null) {
+				throw new IOException("failed to stream the json");
+			}
+		};
+	}
+
+	/**
+	 * Remember that the user has written to the primary db
+	 * 
+	 * @param username
+	 */
+	void recordWrite(String username) {
+		if (replicaSessionFactory == null) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		lastWrites.put(username, now);
+
+		// forget old writes
+		if (lastWrites.size() > 10_000) {
+			lastWrites.values().removeIf(time -> time < now - replicaStickiness);
+		}
+	}
+
+	/**
+	 * Check if the user has written to the primary db so recently that the
+	 * replica might not have the changes yet
+	 * 
+	 * @param username
+	 * @return
+	 */
+	boolean isRecentWriter(String username) {
+		Long lastWrite = lastWrites.get(username);
+		return lastWrite != null && lastWrite > System.currentTimeMillis() - replicaStickiness;
+	}
+
+	public void close() {
+		sessionFactory.close();
+		if (replicaSessionFactory != null) {
+			replicaSessionFactory.close();
+		}
+	}
+
+	/**
+	 * Get the detailed db statistics for the admin status, if enabled in the config
+	 * 
+	 * @return status source or null if the statistics are disabled
+	 */
+	public StatusSource getStatisticsSource() {
+		if (!config.getBoolean(CONF_DB_STATISTICS, role)) {
+			return null;
+		}
+		long slowQueryThreshold = Long.parseLong(config.getString(CONF_DB_SLOW_QUERY_THRESHOLD, role));
+		return new HibernateStatisticsSource(sessionFactory, slowQueryThreshold);
+	}
+
 	/**
 	 * Use only in HibernateRequestFilter or through runInTransaction() to avoid
 	 * connection leaks
 	 * 
 	 * @return
 	 */
-	org.hibernate.Session beginTransactionAndBind() {
-		Session session = beginTransaction(getSessionFactory());
+	org.hibernate.Session beginTransactionAndBind(boolean replica) {
+		SessionFactory factory = replica && replicaSessionFactory != null ? replicaSessionFactory
+				: getSessionFactory();
+		Session session = beginTransaction(factory);
 		ManagedSessionContext.bind(session);
+		boundSessionFactory.set(factory);
 		return session;
 	}
 
+	private SessionFactory getBoundSessionFactory() {
+		SessionFactory factory = boundSessionFactory.get();
+		return factory != null ? factory : getSessionFactory();
+	}
+
 	private static org.hibernate.Session beginTransaction(SessionFactory sessionFactory2) {
 
 		Session session = sessionFactory2.withOptions()
@@ -222,7 +514,8 @@ public class HibernateUtil {
 	 * Use only in HibernateResponseFilter or through runInTransaction()
 	 */
 	void commitAndUnbind() {
-		commitAndUnbind(getSessionFactory());
+		commitAndUnbind(getBoundSessionFactory());
+		boundSessionFactory.remove();
 	}
 
 	private static void commitAndUnbind(SessionFactory sessionFactory) {
@@ -239,7 +532,8 @@ public class HibernateUtil {
 	 * Use only in HibernateResponseFilter
 	 */
 	void rollbackAndUnbind() {
-		Session session = ManagedSessionContext.unbind(sessionFactory);
+		Session session = ManagedSessionContext.unbind(getBoundSessionFactory());
+		boundSessionFactory.remove();
 		rollback(session);
 	}
 
@@ -260,11 +554,36 @@ public class HibernateUtil {
 	}
 
 	public org.hibernate.Session session() {
-		return getSessionFactory().getCurrentSession();
+		return getBoundSessionFactory().getCurrentSession();
 	}
 
 	public <T> T runInTransaction(HibernateRunnable<T> runnable) {
-		return runInTransaction(runnable, getSessionFactory());
+		// always in the primary, even if called from a read-only request
+		return runInTransaction(false, runnable);
+	}
+
+	/**
+	 * Run in a new transaction
+	 * 
+	 * @param <T>
+	 * @param replica  use the read replica, if configured
+	 * @param runnable
+	 * @return
+	 */
+	public <T> T runInTransaction(boolean replica, HibernateRunnable<T> runnable) {
+		SessionFactory factory = replica && replicaSessionFactory != null ? replicaSessionFactory
+				: getSessionFactory();
+		SessionFactory previous = boundSessionFactory.get();
+		boundSessionFactory.set(factory);
+		try {
+			return runInTransaction(runnable, factory);
+		} finally {
+			if (previous != null) {
+				boundSessionFactory.set(previous);
+			} else {
+				boundSessionFactory.remove();
+			}
+		}
 	}
 
 	public static <T> T runInTransaction(HibernateRunnable<T> runnable, SessionFactory sessionFactory) {
@@ -9,4 +9,14 @@ import jakarta.ws.rs.NameBinding;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Transaction {
 
+	/**
+	 * Allow running this transaction in the read replica, if configured
+	 * 
+	 * The replica may lag behind the primary db. Use only in methods that don't
+	 * write to the db and can show slightly outdated results. See
+	 * HibernateRequestFilter for the requests that use the primary anyway.
+	 * 
+	 * @return
+	 */
+	boolean readOnly() default false;
 }
@@ -0,0 +1,19 @@
+package fi.csc.chipster.rest.websocket;
+
+/**
+ * Server-side filter of a subscriber
+ * 
+ * PubSubServer checks each message against the filters of the subscribers
+ * before the message is queued for sending. Messages that the subscriber would
+ * discard anyway don't need to be sent at all.
+ * 
+ * @see TopicConfig#getFilter(String, java.util.Map)
+ */
+public interface MessageFilter {
+
+	/**
+	 * @param message the published object before it's converted to json
+	 * @return true if the message should be sent to the subscriber
+	 */
+	public boolean accept(Object message);
+}
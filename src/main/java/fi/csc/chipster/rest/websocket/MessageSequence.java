@@ -0,0 +1,55 @@
+package fi.csc.chipster.rest.websocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sequence numbers of the published messages
+ *
+ * The subscribers use the numbers for resuming after a reconnection. Services
+ * that number their messages already, like the events of the session-db, can
+ * give the same numbers to the topics, so that the clients have only one
+ * number to follow.
+ *
+ * @see PubSubServer#setSequence(MessageSequence)
+ */
+public interface MessageSequence {
+
+	/**
+	 * Number of the published message
+	 *
+	 * Called in the lock of the topic. The numbers should increase in the
+	 * publishing order. If a smaller number comes after a bigger one, the topic
+	 * can't replay the messages before it anymore.
+	 *
+	 * @param message the published object before it's converted to json or null
+	 * @return
+	 */
+	public long next(Object message);
+
+	/**
+	 * @return the latest number
+	 */
+	public long latest();
+
+	/**
+	 * Sequence of one counter
+	 *
+	 * @param start the first number is bigger than this
+	 * @return
+	 */
+	public static MessageSequence counter(long start) {
+		AtomicLong counter = new AtomicLong(start);
+
+		return new MessageSequence() {
+			@Override
+			public long next(Object message) {
+				return counter.incrementAndGet();
+			}
+
+			@Override
+			public long latest() {
+				return counter.get();
+			}
+		};
+	}
+}
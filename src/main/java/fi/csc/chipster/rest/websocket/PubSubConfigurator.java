@@ -2,11 +2,13 @@ package fi.csc.chipster.rest.websocket;
 
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.jetty.ee10.websocket.jakarta.server.internal.JakartaWebSocketCreator;
 
+import jakarta.websocket.Extension;
 import jakarta.websocket.HandshakeResponse;
 import jakarta.websocket.Session;
 import jakarta.websocket.server.HandshakeRequest;
@@ -37,6 +39,7 @@ import jakarta.websocket.server.ServerEndpointConfig.Configurator;
 public class PubSubConfigurator extends Configurator {
 
 	public static final String X_FORWARDED_FOR = "X-Forwarded-For";
+	public static final String PERMESSAGE_DEFLATE = "permessage-deflate";
 
 	@SuppressWarnings("unused")
 	private static final Logger logger = LogManager.getLogger();
@@ -77,6 +80,22 @@ public class PubSubConfigurator extends Configurator {
 		config.getUserProperties().put(X_FORWARDED_FOR, xForwaredFor);
 	}
 
+	/**
+	 * Leave out the compression extension if it's disabled
+	 * 
+	 * Jetty would negotiate it always when the client asks for it.
+	 */
+	@Override
+	public List<Extension> getNegotiatedExtensions(List<Extension> installed, List<Extension> requested) {
+		List<Extension> negotiated = super.getNegotiatedExtensions(installed, requested);
+		if (server.isCompression()) {
+			return negotiated;
+		}
+		return negotiated.stream()
+				.filter(e -> !PERMESSAGE_DEFLATE.equals(e.getName()))
+				.collect(Collectors.toList());
+	}
+
 	@Override
 	public <T> T getEndpointInstance(Class<T> endpointClass) throws InstantiationException {
 		// let Jetty to create the PubSubServer
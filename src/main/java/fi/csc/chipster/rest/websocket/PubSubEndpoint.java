@@ -39,6 +39,8 @@ public class PubSubEndpoint {
 	public static final Logger logger = LogManager.getLogger();
 
 	public static final String TOPIC_KEY = "topic";
+	public static final String RESUME_FROM_KEY = "resumeFrom";
+	public static final String BATCH_KEY = "batch";
 
 	private PubSubServer server;
 
@@ -118,6 +120,32 @@ public class PubSubEndpoint {
 			// authentication ok
 			logger.debug("authentication ok");
 
+			MessageFilter filter = null;
+			try {
+				filter = this.server.getFilter(topic, requestParameters);
+			} catch (IllegalArgumentException e) {
+				throw new WebSocketClosedException(CloseReason.CloseCodes.CANNOT_ACCEPT,
+						"invalid filter: " + e.getMessage());
+			}
+
+			// the client can parse JSON arrays of messages
+			List<String> batchParameters = requestParameters.get(BATCH_KEY);
+			boolean batch = batchParameters != null && batchParameters.size() == 1
+					&& Boolean.parseBoolean(batchParameters.get(0));
+
+			// the latest sequence number that the client has received, see Topic
+			List<String> resumeFromParameters = requestParameters.get(RESUME_FROM_KEY);
+			Long resumeFrom = null;
+
+			if (resumeFromParameters != null && resumeFromParameters.size() == 1) {
+				try {
+					resumeFrom = Long.parseLong(resumeFromParameters.get(0));
+				} catch (NumberFormatException e) {
+					throw new WebSocketClosedException(CloseReason.CloseCodes.CANNOT_ACCEPT,
+							"invalid " + RESUME_FROM_KEY + ": " + resumeFromParameters.get(0));
+				}
+			}
+
 			// store topic to user properties, because we need it when we unsubscribe
 			session.getUserProperties().put(TOPIC_KEY, topic);
 
@@ -128,8 +156,11 @@ public class PubSubEndpoint {
 				subscriber = Subscriber.create(
 						session,
 						principal.getName(),
-						server.getMaxQueueSize());
-				this.server.subscribe(topic, subscriber);
+						server.getMaxQueueSize(),
+						resumeFrom != null,
+						batch ? server.getMaxBatchBytes() : 0);
+				subscriber.setFilter(filter);
+				this.server.subscribe(topic, subscriber, resumeFrom);
 			} catch (RuntimeException e) {
 				if (subscriber != null) {
 					// stop the sender thread unconditionally — if subscribe() threw before
@@ -10,6 +10,7 @@ import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
@@ -18,6 +19,7 @@ import org.apache.logging.log4j.Logger;
 import org.eclipse.jetty.ee10.servlet.FilterHolder;
 import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
 import org.eclipse.jetty.ee10.websocket.jakarta.server.config.JakartaWebSocketServletContainerInitializer;
+import org.eclipse.jetty.io.ConnectionStatistics;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 
@@ -58,7 +60,24 @@ public class PubSubServer implements StatusSource {
 	private final LongAdder bytesReceived = new LongAdder();
 	private final LongAdder bytesEnqueued = new LongAdder();
 	private final LongAdder bytesSent = new LongAdder();
+	// UTF-8 bytes before the compression, counted when sent
+	private final LongAdder payloadBytesSent = new LongAdder();
 	private final LongAdder queueFullDisconnects = new LongAdder();
+	private final LongAdder batchesSent = new LongAdder();
+	private final LongAdder compressedSubscribeCount = new LongAdder();
+	// bytes on the network, after the compression
+	private final ConnectionStatistics connectionStatistics = new ConnectionStatistics();
+	// filtered messages of the removed topics by monitoring tag
+	private final HashMap<String, Long> filteredRemovedTopics = new HashMap<>();
+	private final LongAdder replayHits = new LongAdder();
+	private final LongAdder replayMisses = new LongAdder();
+	private final LongAdder replayMessages = new LongAdder();
+
+	// sequence numbers of all topics, start from the current time in microseconds
+	// to keep them increasing over restarts
+	private MessageSequence sequence = MessageSequence.counter(System.currentTimeMillis() * 1000);
+	// characters in the replay buffers of all topics
+	private final AtomicLong replayBytes = new AtomicLong();
 
 	private long idleTimeout = 0;
 
@@ -68,11 +87,23 @@ public class PubSubServer implements StatusSource {
 	public static final String KEY_WEBSOCKET_IDLE_TIMEOUT = "websocket-idle-timeout";
 	public static final String KEY_WEBSOCKET_PING_INTERVAL = "websocket-ping-interval";
 	public static final String KEY_WEBSOCKET_SUBSCRIBER_QUEUE_SIZE = "websocket-subscriber-queue-size";
+	public static final String KEY_WEBSOCKET_COMPRESSION = "websocket-compression";
+	public static final String KEY_WEBSOCKET_BATCH_MAX_BYTES = "websocket-batch-max-bytes";
+	public static final String KEY_WEBSOCKET_REPLAY_SIZE = "websocket-replay-size";
+	public static final String KEY_WEBSOCKET_REPLAY_RETENTION = "websocket-replay-retention";
+	public static final String KEY_WEBSOCKET_REPLAY_MAX_BYTES = "websocket-replay-max-bytes";
 
 	// set before server.start() via setMaxQueueSize() (which enforces >= 1);
 	// server.start() establishes the happens-before edge to any subsequently accepted connection — no volatile needed
 	private int maxQueueSize = 1000;
 
+	// like maxQueueSize, set before start()
+	private int maxBatchBytes = 0;
+	private boolean compression = true;
+	private int replaySize = 0;
+	private long replayRetention = 0;
+	private long maxReplayBytes = 0;
+
 	public PubSubServer(String baseUri, MessageHandler.Whole<String> replyHandler, TopicConfig topicCheck, String name)
 			throws ServletException {
 		this.baseUri = baseUri;
@@ -92,6 +123,7 @@ public class PubSubServer implements StatusSource {
 		ServerConnector connector = new ServerConnector(server);
 		connector.setHost(uri.getHost());
 		connector.setPort(uri.getPort());
+		connector.addBean(connectionStatistics);
 		server.addConnector(connector);
 
 		// Setup the basic application "context" for this application at "/"
@@ -129,11 +161,11 @@ public class PubSubServer implements StatusSource {
 	}
 
 	public void publish(Object obj) {
-		publish(DEFAULT_TOPIC, RestUtils.asJson(obj));
+		publish(DEFAULT_TOPIC, obj);
 	}
 
 	public void publish(String topic, Object obj) {
-		publish(topic, RestUtils.asJson(obj));
+		publish(topic, obj, RestUtils.asJson(obj));
 	}
 
 	public void publishAllTopics(Object obj, Set<String> topicsToSkip) {
@@ -146,10 +178,10 @@ public class PubSubServer implements StatusSource {
 		}
 	}
 
-	private void publish(String topicName, String msg) {
+	private void publish(String topicName, Object obj, String msg) {
 		Topic topic = topics.get(topicName);
 		if (topic != null) {
-			int n = topic.publish(msg);
+			int n = topic.publish(obj, msg);
 			this.messagesEnqueued.add(n);
 			this.bytesEnqueued.add((long) n * msg.length());
 		} else {
@@ -161,6 +193,16 @@ public class PubSubServer implements StatusSource {
 	}
 
 	public void subscribe(String topicName, Subscriber s) {
+		subscribe(topicName, s, null);
+	}
+
+	/**
+	 * @param topicName
+	 * @param s
+	 * @param resumeFrom the latest sequence number that the subscriber has
+	 *                   received or null to start from the new messages
+	 */
+	public void subscribe(String topicName, Subscriber s, Long resumeFrom) {
 
 		if (topicName == null) {
 			topicName = DEFAULT_TOPIC;
@@ -169,10 +211,24 @@ public class PubSubServer implements StatusSource {
 		synchronized (topics) {
 			if (!topics.containsKey(topicName)) {
 				logger.debug("topic " + topicName + " not found, create it");
-				topics.put(topicName, new Topic());
+				topics.put(topicName, new Topic(replaySize, maxReplayBytes, replayBytes, sequence));
 			}
 			Topic topic = topics.get(topicName);
-			topic.add(s);
+			if (s.isCompressed()) {
+				this.compressedSubscribeCount.increment();
+			}
+			s.setPayloadBytesCounter(this.payloadBytesSent);
+			if (resumeFrom != null) {
+				int replayed = topic.add(s, resumeFrom);
+				if (replayed >= 0) {
+					this.replayHits.increment();
+					this.replayMessages.add(replayed);
+				} else {
+					this.replayMisses.increment();
+				}
+			} else {
+				topic.add(s);
+			}
 			this.subscribeCount.increment();
 		}
 	}
@@ -194,13 +250,15 @@ public class PubSubServer implements StatusSource {
 					// monitoring counters; do not use for billing or SLA purposes.
 					this.messagesSent.add(s.getMessagesSent());
 					this.bytesSent.add(s.getBytesSent());
+					this.batchesSent.add(s.getBatchesSent());
 					if (s.isQueueFullDisconnect()) {
 						this.queueFullDisconnects.increment();
 					}
 				}
-				if (topic.isEmpty()) {
+				// resumable topics are removed later in removeExpiredTopics()
+				if (topic.isExpired(replayRetention)) {
 					logger.debug("topic " + topicName + " is empty, remove it");
-					topics.remove(topicName);
+					removeTopic(topicName);
 				}
 			} else {
 				// expected when onError and onClose both fire, or when auth failed in onOpen
@@ -228,6 +286,37 @@ public class PubSubServer implements StatusSource {
 				}
 			}, pingInterval, pingInterval);
 		}
+
+		if (replaySize > 0 && replayRetention > 0) {
+			pingTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					removeExpiredTopics();
+				}
+			}, replayRetention, replayRetention);
+		}
+	}
+
+	private void removeExpiredTopics() {
+		synchronized (topics) {
+			for (String topicName : new ArrayList<>(topics.keySet())) {
+				if (topics.get(topicName).isExpired(replayRetention)) {
+					logger.debug("topic " + topicName + " has been empty for " + replayRetention + "ms, remove it");
+					removeTopic(topicName);
+				}
+			}
+		}
+	}
+
+	// call in synchronized(topics)
+	private void removeTopic(String topicName) {
+		Topic topic = topics.remove(topicName);
+		if (topic != null) {
+			topic.clearReplay();
+		}
+		if (topic != null && topic.getFiltered() > 0) {
+			filteredRemovedTopics.merge(topicConfig.getMonitoringTag(topicName), topic.getFiltered(), Long::sum);
+		}
 	}
 
 	public void stopPingTimer() {
@@ -282,6 +371,20 @@ public class PubSubServer implements StatusSource {
 		return this.topicConfig;
 	}
 
+	/**
+	 * @param topicName
+	 * @param parameters query parameters of the websocket connection
+	 * @return filter or null to send all messages
+	 * @throws IllegalArgumentException if the filter parameters are invalid
+	 */
+	public MessageFilter getFilter(String topicName, Map<String, List<String>> parameters) {
+		if (topicConfig != null) {
+			return topicConfig.getFilter(topicName, parameters);
+		} else {
+			return null;
+		}
+	}
+
 	public boolean isTopicAuthorized(AuthPrincipal principal, String topic) throws NotAuthorizedException {
 		if (topicConfig != null) {
 			return topicConfig.isAuthorized(principal, topic);
@@ -314,6 +417,10 @@ public class PubSubServer implements StatusSource {
 				// total count of subscribers in the topics with this tag
 				status.put("wsSubscribersCurrent" + tag, tagTopics.stream()
 						.mapToInt(t -> topics.get(t).getSubscribers().size()).sum());
+
+				// messages that were not sent because of the subscribers' filters
+				status.put("wsMessagesFiltered" + tag, filteredRemovedTopics.getOrDefault(tag, 0l)
+						+ tagTopics.stream().mapToLong(t -> topics.get(t).getFiltered()).sum());
 			}
 			status.put("wsMessagesNoTopic", this.messagesNoTopic.sum());
 			status.put("wsMessagesReceived", this.messagesReceived.sum());
@@ -321,9 +428,21 @@ public class PubSubServer implements StatusSource {
 			status.put("wsMessagesSent", this.messagesSent.sum());
 			status.put("wsSubscribersTotal", this.subscribeCount.sum());
 			status.put("wsBytesEnqueued", this.bytesEnqueued.sum());
+			// characters, updated when the subscriber leaves
 			status.put("wsBytesSent", this.bytesSent.sum());
+			status.put("wsBatchesSent", this.batchesSent.sum());
+			// compression ratio is roughly wsPayloadBytesSent / wsNetworkBytesSent. The
+			// network bytes include also the frame headers, pings and handshakes
+			status.put("wsPayloadBytesSent", this.payloadBytesSent.sum());
+			status.put("wsNetworkBytesSent", this.connectionStatistics.getSentBytes());
+			status.put("wsNetworkBytesReceived", this.connectionStatistics.getReceivedBytes());
+			status.put("wsSubscribersCompressedTotal", this.compressedSubscribeCount.sum());
 			status.put("wsBytesReceived", this.bytesReceived.sum());
 			status.put("wsQueueFullDisconnects", this.queueFullDisconnects.sum());
+			status.put("wsReplayHits", this.replayHits.sum());
+			status.put("wsReplayMisses", this.replayMisses.sum());
+			status.put("wsReplayMessages", this.replayMessages.sum());
+			status.put("wsReplayBytes", this.replayBytes.get());
 		}
 
 		return status;
@@ -400,4 +519,77 @@ public class PubSubServer implements StatusSource {
 	public int getMaxQueueSize() {
 		return maxQueueSize;
 	}
+
+	/**
+	 * Allow the clients to negotiate the permessage-deflate compression
+	 * 
+	 * Jetty compresses then all messages of the connection. It saves bandwidth,
+	 * especially for the large events of the remote users, but costs CPU time.
+	 * 
+	 * @param compression
+	 */
+	public void setCompression(boolean compression) {
+		logger.info(name + " compression: " + compression);
+		this.compression = compression;
+	}
+
+	public boolean isCompression() {
+		return compression;
+	}
+
+	/**
+	 * Send the queued messages of the subscribers in JSON arrays, if they ask for it
+	 * with the batch parameter
+	 * 
+	 * A subscriber that falls behind can catch up with fewer and larger frames.
+	 * 
+	 * @param maxBatchBytes stop adding messages to the array when it's over this
+	 *                      size, 0 to disable
+	 */
+	public void setMaxBatchBytes(int maxBatchBytes) {
+		if (maxBatchBytes < 0) {
+			throw new IllegalArgumentException("maxBatchBytes must not be negative, got: " + maxBatchBytes);
+		}
+		logger.info(name + " max batch bytes: " + maxBatchBytes);
+		this.maxBatchBytes = maxBatchBytes;
+	}
+
+	public int getMaxBatchBytes() {
+		return maxBatchBytes;
+	}
+
+	/**
+	 * Keep the latest messages of each topic for the resuming subscribers
+	 * 
+	 * Settings this is only effective before the method start() is called.
+	 * 
+	 * @param replaySize      number of messages in each topic, 0 to disable
+	 * @param replayRetention milliseconds to keep the topic after the last
+	 *                        subscriber has left
+	 * @param maxReplayBytes  maximum characters in the replay buffers of all
+	 *                        topics together
+	 */
+	public void setReplay(int replaySize, long replayRetention, long maxReplayBytes) {
+		if (replaySize < 0 || replayRetention < 0 || maxReplayBytes < 0) {
+			throw new IllegalArgumentException("replay size, retention and max bytes must not be negative, got: "
+					+ replaySize + ", " + replayRetention + ", " + maxReplayBytes);
+		}
+		logger.info(name + " replay size: " + replaySize + ", retention: " + replayRetention + "ms, max bytes: "
+				+ maxReplayBytes);
+		this.replaySize = replaySize;
+		this.replayRetention = replayRetention;
+		this.maxReplayBytes = maxReplayBytes;
+	}
+
+	/**
+	 * Number the messages with the numbers of the service
+	 * 
+	 * By default the messages are numbered with a counter of this server. Settings
+	 * this is only effective before the method start() is called.
+	 * 
+	 * @param sequence
+	 */
+	public void setSequence(MessageSequence sequence) {
+		this.sequence = sequence;
+	}
 }
@@ -6,6 +6,7 @@ import java.time.Instant;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -29,6 +30,18 @@ public class Subscriber {
 	private final Basic remote;
 	private final String username;
 	private final Instant created;
+	// send messages in envelopes with their sequence numbers, see Topic
+	private final boolean sequenced;
+	// send the queued messages together in JSON arrays of this size, 0 to send one at a time
+	private final int maxBatchBytes;
+	// permessage-deflate was negotiated
+	private final boolean compressed;
+	// set before the subscriber is added to the topic, which publishes it to the
+	// publishing threads
+	private MessageFilter filter;
+	// shared counter of the UTF-8 bytes before the compression, null if not counted.
+	// Set like the filter, and the queue publishes it to the sender thread
+	private LongAdder payloadBytesSent;
 
 	private final LinkedBlockingQueue<SendTask> queue;
 	private final Thread senderThread;
@@ -42,20 +55,34 @@ public class Subscriber {
 	// counters only; do not use these values for correctness decisions.
 	private volatile int messagesSent;
 	private volatile long bytesSent;
+	private volatile int batchesSent;
 	// volatile: written by enqueue() caller, read by unsubscribe() caller on a different thread
 	private volatile boolean queueFullDisconnect;
 
 	public static Subscriber create(Session session, String username, int maxQueueSize) {
-		Subscriber s = new Subscriber(session, username, maxQueueSize);
+		return create(session, username, maxQueueSize, false);
+	}
+
+	public static Subscriber create(Session session, String username, int maxQueueSize, boolean sequenced) {
+		return create(session, username, maxQueueSize, sequenced, 0);
+	}
+
+	public static Subscriber create(Session session, String username, int maxQueueSize, boolean sequenced,
+			int maxBatchBytes) {
+		Subscriber s = new Subscriber(session, username, maxQueueSize, sequenced, maxBatchBytes);
 		s.senderThread.start();
 		return s;
 	}
 
-	private Subscriber(Session session, String username, int maxQueueSize) {
+	private Subscriber(Session session, String username, int maxQueueSize, boolean sequenced, int maxBatchBytes) {
 		this.session = session;
 		this.remote = session.getBasicRemote();
 		this.username = username;
 		this.created = Instant.now();
+		this.sequenced = sequenced;
+		this.maxBatchBytes = maxBatchBytes;
+		this.compressed = session.getNegotiatedExtensions().stream()
+				.anyMatch(e -> PubSubConfigurator.PERMESSAGE_DEFLATE.equals(e.getName()));
 		this.queue = new LinkedBlockingQueue<>(maxQueueSize);
 		this.senderThread = Thread.ofVirtual()
 				// behind a proxy all connections share the same socket IP; the counter makes names unique
@@ -67,7 +94,9 @@ public class Subscriber {
 		try {
 			while (true) {
 				SendTask task = queue.take();
-				if (task instanceof TextMessage m) {
+				if (task instanceof TextMessage m && maxBatchBytes > 0) {
+					sendBatch(m);
+				} else if (task instanceof TextMessage m) {
 					// Jetty's write path (Jetty 12.1.8) uses synchronized internally, which pins
 					// this virtual thread to its carrier thread for the duration of the send.
 					// Other subscribers are unaffected (each has its own virtual thread), but under
@@ -76,6 +105,7 @@ public class Subscriber {
 					remote.sendText(m.text());
 					messagesSent++;
 					bytesSent += m.text().length();
+					countPayloadBytes(m.text());
 				} else {
 					// allocate fresh: a shared static ByteBuffer would race on its mutable position;
 					// IOException here is caught below and closes the session, same as for sendText
@@ -99,6 +129,35 @@ public class Subscriber {
 		}
 	}
 
+	/**
+	 * Send the first message and the messages that are already in the queue in one
+	 * JSON array
+	 * 
+	 * Stops when the batch has grown over maxBatchBytes or when the next task is a
+	 * ping, so that the order is kept. A single message is sent in an array too,
+	 * to keep the format the same for the client.
+	 */
+	private void sendBatch(TextMessage first) throws IOException {
+		StringBuilder batch = new StringBuilder("[").append(first.text());
+		int count = 1;
+
+		// this is the only consumer, so the peeked message is still the head when
+		// polled
+		while (batch.length() < maxBatchBytes && queue.peek() instanceof TextMessage next) {
+			queue.poll();
+			batch.append(',').append(next.text());
+			count++;
+		}
+		batch.append(']');
+
+		String text = batch.toString();
+		remote.sendText(text);
+		messagesSent += count;
+		bytesSent += text.length();
+		countPayloadBytes(text);
+		batchesSent++;
+	}
+
 	/**
 	 * Enqueue a text message for sending. Returns false and closes the connection
 	 * if the queue is full.
@@ -188,10 +247,72 @@ public class Subscriber {
 		return bytesSent;
 	}
 
+	public int getBatchesSent() {
+		return batchesSent;
+	}
+
 	public boolean isQueueFullDisconnect() {
 		return queueFullDisconnect;
 	}
 
+	/**
+	 * @return filter or null if this subscriber wants all messages of the topic
+	 */
+	public MessageFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Call before the subscriber is added to the topic
+	 * 
+	 * @param filter
+	 */
+	public void setFilter(MessageFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Count the UTF-8 bytes of the sent messages right away
+	 * 
+	 * Call before the subscriber is added to the topic.
+	 * 
+	 * @param payloadBytesSent
+	 */
+	public void setPayloadBytesCounter(LongAdder payloadBytesSent) {
+		this.payloadBytesSent = payloadBytesSent;
+	}
+
+	private void countPayloadBytes(String text) {
+		if (payloadBytesSent == null) {
+			return;
+		}
+		// without encoding the text again. Guava's Utf8.encodedLength() would do the
+		// same, but Guava isn't a dependency
+		long bytes = text.length();
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c >= 0x800) {
+				// surrogate pairs are 4 bytes, two chars of 2 bytes
+				bytes += Character.isSurrogate(c) ? 1 : 2;
+			} else if (c >= 0x80) {
+				bytes += 1;
+			}
+		}
+		payloadBytesSent.add(bytes);
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	public boolean isSequenced() {
+		return sequenced;
+	}
+
+	public int getRemainingCapacity() {
+		return queue.remainingCapacity();
+	}
+
 	public String clientAddress() {
 		return PubSubConfigurator.clientAddress(session);
 	}
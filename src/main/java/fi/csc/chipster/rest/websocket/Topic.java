@@ -1,44 +1,256 @@
 package fi.csc.chipster.rest.websocket;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import jakarta.websocket.RemoteEndpoint.Basic;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * Subscribers of one topic and the latest messages for resuming
+ *
+ * Each published message gets a sequence number. The numbers come from a
+ * MessageSequence that is shared by all topics of the server, so they increase
+ * also when a topic is removed and created again. A subscriber that asks for
+ * sequence numbers gets each message in an envelope with its number. When it
+ * reconnects, it can give the latest number it received and the messages after
+ * that are sent from the replay buffer before the new messages.
+ *
+ * Most topics never have such subscribers, so the replay buffer is started only
+ * when the first one subscribes. The buffer keeps the latest replaySize
+ * messages, but the buffers of all topics of the server together are limited
+ * to maxReplayBytes characters. When a new message would exceed that, the
+ * oldest messages of the same topic are dropped.
+ */
 public class Topic {
 
 	private static final Logger logger = LogManager.getLogger();
 
+	// the object is kept for the filters
+	private record Message(long sequence, Object object, String text) {
+	}
+
 	private final ConcurrentHashMap<Basic, Subscriber> subscribers = new ConcurrentHashMap<>();
 
-	public void add(Subscriber s) {
+	private final int replaySize;
+	private final long maxReplayBytes;
+	// characters in the replay buffers of all topics
+	private final AtomicLong replayBytes;
+	private final MessageSequence sequence;
+
+	// oldest first, null until a sequenced subscriber arrives
+	private ArrayDeque<Message> replayBuffer;
+
+	// the replay buffer contains all messages after this
+	private long floor;
+	// the biggest number that the subscribers may have seen
+	private long latest;
+
+	// keep the topic for a while after the last subscriber has left, if someone may
+	// want to resume
+	private volatile boolean resumable;
+	private volatile long emptySince;
+
+	private final LongAdder filtered = new LongAdder();
+
+	/**
+	 * Topic without the replay buffer
+	 */
+	public Topic() {
+		this(0, 0, new AtomicLong(), MessageSequence.counter(0));
+	}
+
+	/**
+	 * @param replaySize     number of the latest messages to keep for resuming
+	 * @param maxReplayBytes maximum characters in the replay buffers of all topics
+	 * @param replayBytes    characters in the replay buffers of all topics
+	 * @param sequence       sequence numbers, shared by all topics
+	 */
+	public Topic(int replaySize, long maxReplayBytes, AtomicLong replayBytes, MessageSequence sequence) {
+		this.replaySize = replaySize;
+		this.maxReplayBytes = maxReplayBytes;
+		this.replayBytes = replayBytes;
+		this.sequence = sequence;
+		this.latest = sequence.latest();
+		this.floor = latest;
+	}
+
+	public synchronized void add(Subscriber s) {
 		subscribers.put(s.getRemote(), s);
+		if (s.isSequenced() && !resumable) {
+			resumable = true;
+			if (replaySize > 0) {
+				// keep the messages after this for resuming
+				replayBuffer = new ArrayDeque<>();
+			}
+		}
 		logger.debug("subscribers: " + subscribers.size());
 	}
 
-	public Subscriber remove(Basic basicRemote) {
-		return subscribers.remove(basicRemote);
+	/**
+	 * Add a subscriber and send it the messages after the sequence number
+	 *
+	 * The subscriber gets first a message {"sequence": N, "resumed": true|false}.
+	 * If resumed is false, the messages after the given number weren't available
+	 * anymore and the subscriber must load its state again. Otherwise the missed
+	 * messages follow. Live messages continue after that. The given number N can be
+	 * used for resuming, if no other messages arrive before the next disconnection.
+	 *
+	 * @param s          sequenced subscriber
+	 * @param resumeFrom the latest sequence number that the subscriber has received
+	 * @return number of replayed messages or -1 if the missed messages weren't
+	 *         available
+	 */
+	public synchronized int add(Subscriber s, long resumeFrom) {
+
+		// the subscriber may resume from this number, so the later messages must have
+		// bigger numbers
+		latest = Math.max(latest, sequence.latest());
+
+		List<Message> missed = null;
+		if (resumeFrom >= floor && resumeFrom <= latest) {
+			missed = new ArrayList<>();
+			// without the buffer, the floor is the latest message
+			if (replayBuffer != null) {
+				for (Message message : replayBuffer) {
+					if (message.sequence() > resumeFrom && accept(s, message.object())) {
+						missed.add(message);
+					}
+				}
+			}
+
+			// the control message needs one more slot
+			if (missed.size() >= s.getRemainingCapacity()) {
+				missed = null;
+			}
+		}
+
+		s.enqueue("{\"sequence\":" + latest + ",\"resumed\":" + (missed != null) + "}");
+
+		if (missed != null) {
+			for (Message message : missed) {
+				s.enqueue(envelope(message.sequence(), message.text()));
+			}
+		}
+
+		add(s);
+
+		return missed != null ? missed.size() : -1;
+	}
+
+	public synchronized Subscriber remove(Basic basicRemote) {
+		Subscriber s = subscribers.remove(basicRemote);
+		if (subscribers.isEmpty()) {
+			emptySince = System.currentTimeMillis();
+		}
+		return s;
 	}
 
 	public boolean isEmpty() {
 		return subscribers.isEmpty();
 	}
 
-	// No global ordering guarantee: two concurrent publish() calls may interleave enqueues,
-	// so different subscribers can see messages in different orders.
-	// Returns the number of subscribers that successfully accepted the message.
+	/**
+	 * @param retention milliseconds to keep resumable topics after the last
+	 *                  subscriber has left
+	 * @return true if this topic isn't needed anymore
+	 */
+	public boolean isExpired(long retention) {
+		if (!subscribers.isEmpty()) {
+			return false;
+		}
+		if (!resumable || replaySize == 0 || retention == 0) {
+			return true;
+		}
+		return System.currentTimeMillis() - emptySince > retention;
+	}
+
 	public int publish(String msg) {
+		return publish(null, msg);
+	}
+
+	// Synchronized to give each message its sequence number and to replay and add
+	// new subscribers without gaps. All subscribers of this topic see the
+	// messages in the same order.
+	// The object is checked against the filters of the subscribers, the msg is
+	// its json which is sent.
+	// Returns the number of subscribers that successfully accepted the message.
+	public synchronized int publish(Object obj, String msg) {
+		long seq = sequence.next(obj);
+
+		if (seq <= latest) {
+			// a subscriber may have received a bigger number without this message. Nothing
+			// can be replayed to the subscribers that have seen the current numbers
+			latest = Math.max(latest, sequence.latest());
+			clearReplay();
+			floor = latest + 1;
+		} else if (replayBuffer != null) {
+			latest = seq;
+			replayBuffer.add(new Message(seq, obj, msg));
+			replayBytes.addAndGet(msg.length());
+
+			while (!replayBuffer.isEmpty()
+					&& (replayBuffer.size() > replaySize || replayBytes.get() > maxReplayBytes)) {
+				Message removed = replayBuffer.remove();
+				replayBytes.addAndGet(-removed.text().length());
+				floor = removed.sequence();
+			}
+		} else {
+			latest = seq;
+			floor = seq;
+		}
+
+		String envelope = null;
 		int enqueued = 0;
 		for (Subscriber s : subscribers.values()) {
-			if (s.enqueue(msg)) {
+			if (!accept(s, obj)) {
+				filtered.increment();
+				continue;
+			}
+			String text = msg;
+			if (s.isSequenced()) {
+				if (envelope == null) {
+					envelope = envelope(seq, msg);
+				}
+				text = envelope;
+			}
+			if (s.enqueue(text)) {
 				enqueued++;
 			}
 		}
 		return enqueued;
 	}
 
+	/**
+	 * Release the replay buffer
+	 *
+	 * Call when the topic is removed, to release its share of the maximum bytes.
+	 */
+	public synchronized void clearReplay() {
+		if (replayBuffer != null) {
+			for (Message message : replayBuffer) {
+				replayBytes.addAndGet(-message.text().length());
+			}
+			replayBuffer.clear();
+		}
+		floor = latest;
+	}
+
+	private static boolean accept(Subscriber s, Object obj) {
+		// plain strings can't be filtered
+		return s.getFilter() == null || obj == null || s.getFilter().accept(obj);
+	}
+
+	private static String envelope(long seq, String msg) {
+		return "{\"sequence\":" + seq + ",\"message\":" + msg + "}";
+	}
+
 	public void ping() {
 		for (Subscriber s : subscribers.values()) {
 			s.enqueuePing();
@@ -56,6 +268,14 @@ public class Topic {
 		}
 	}
 
+	/**
+	 * @return number of messages that were not sent to the subscribers because of
+	 *         their filters
+	 */
+	public long getFiltered() {
+		return filtered.sum();
+	}
+
 	public ConcurrentHashMap<Basic, Subscriber> getSubscribers() {
 		return subscribers;
 	}
@@ -1,6 +1,7 @@
 package fi.csc.chipster.rest.websocket;
 
 import java.util.List;
+import java.util.Map;
 
 import fi.csc.chipster.auth.resource.AuthPrincipal;
 
@@ -59,4 +60,19 @@ public interface TopicConfig {
 	 * @return
 	 */
 	public AuthPrincipal getUserPrincipal(String tokenKey);
+
+	/**
+	 * Create a filter for the messages of a subscriber
+	 * 
+	 * Implement this if the subscribers can choose the messages they want to
+	 * receive from a topic. By default all messages are sent.
+	 * 
+	 * @param topicName
+	 * @param parameters query parameters of the websocket connection
+	 * @return filter or null to send all messages
+	 * @throws IllegalArgumentException if the filter parameters are invalid
+	 */
+	public default MessageFilter getFilter(String topicName, Map<String, List<String>> parameters) {
+		return null;
+	}
 }
@@ -42,6 +42,10 @@ public class WebSocketClient implements EndpointListener {
 
 	private boolean close;
 
+	private volatile boolean opened;
+
+	private volatile Runnable reconnectListener;
+
 	public WebSocketClient(final String uri, final Whole<String> messageHandler, boolean retry, final String name,
 			CredentialsProvider credentials)
 			throws InterruptedException, WebSocketErrorException, WebSocketClosedException {
@@ -149,12 +153,27 @@ public class WebSocketClient implements EndpointListener {
 		endpoint.ping();
 	}
 
+	/**
+	 * Called after the connection has been opened again
+	 * 
+	 * The messages sent while the connection was down are lost.
+	 * 
+	 * @param reconnectListener
+	 */
+	public void setReconnectListener(Runnable reconnectListener) {
+		this.reconnectListener = reconnectListener;
+	}
+
 	@Override
 	public void onOpen(Session session, EndpointConfig config) {
 		logger.info("websocket client " + name + " connected succesfully: " + uri);
 		if (retryHandler != null) {
 			retryHandler.reset();
 		}
+		if (opened && reconnectListener != null) {
+			reconnectListener.run();
+		}
+		opened = true;
 	}
 
 	@Override
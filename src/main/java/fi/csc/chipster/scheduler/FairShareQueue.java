@@ -0,0 +1,172 @@
+package fi.csc.chipster.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Order of the waiting jobs when the resources are freed
+ *
+ * Offering the jobs oldest first lets one user who submits thousands of jobs
+ * delay everyone else. Instead, the waiting jobs are put in sub-queues per
+ * user, oldest first. The sub-queues are served with deficit round-robin:
+ * every round each user gets slots according to the user's weight, and the
+ * jobs are taken while their slots fit in the user's accumulated share. Users
+ * with higher weight get more slots per round.
+ *
+ * Tools can have priority classes. Jobs of a higher class are offered before
+ * the lower classes, and the round-robin is done within each class. To prevent
+ * starvation, the oldest job of each user is offered before all others, if it
+ * has waited longer than the starvation timeout. Only one job per user is
+ * promoted at a time, so that the backlog of one user can't take over the
+ * queue again, when all its jobs have waited that long.
+ *
+ * Not thread-safe, Scheduler synchronizes the access.
+ */
+public class FairShareQueue {
+
+	private static final int DEFAULT_WEIGHT = 1;
+	private static final int DEFAULT_PRIORITY = 0;
+
+	private boolean enabled;
+	private Map<String, Integer> userWeights;
+	private Map<String, Integer> toolPriorities;
+	private long starvationTimeout;
+
+	/**
+	 * @param enabled           false to offer all jobs oldest first
+	 * @param userWeights       weight of each user, 1 by default
+	 * @param toolPriorities    priority class of each tool, 0 by default, higher
+	 *                          first
+	 * @param starvationTimeout seconds, the oldest job of each user is offered
+	 *                          first after waiting longer than this
+	 */
+	public FairShareQueue(boolean enabled, Map<String, Integer> userWeights, Map<String, Integer> toolPriorities,
+			long starvationTimeout) {
+		this.enabled = enabled;
+		this.userWeights = userWeights;
+		this.toolPriorities = toolPriorities;
+		this.starvationTimeout = starvationTimeout;
+	}
+
+	/**
+	 * @param newJobs
+	 * @return the order in which the jobs should be offered to the job scheduler
+	 */
+	public List<IdPair> order(Map<IdPair, SchedulerJob> newJobs) {
+
+		List<Entry<IdPair, SchedulerJob>> oldestFirst = newJobs.entrySet().stream()
+				.sorted(Comparator.comparing(e -> e.getValue().getNewTimestamp()))
+				.collect(Collectors.toList());
+
+		if (!enabled) {
+			return oldestFirst.stream().map(Entry::getKey).collect(Collectors.toList());
+		}
+
+		List<IdPair> order = new ArrayList<>();
+
+		// priority class -> user -> jobs, highest class first
+		TreeMap<Integer, Map<String, ArrayDeque<Entry<IdPair, SchedulerJob>>>> classes = new TreeMap<>(
+				Comparator.reverseOrder());
+
+		// users whose oldest job has been seen already
+		HashSet<String> users = new HashSet<>();
+
+		for (Entry<IdPair, SchedulerJob> entry : oldestFirst) {
+			SchedulerJob job = entry.getValue();
+
+			if (users.add(job.getUserId()) && job.getTimeSinceNew() > starvationTimeout) {
+				order.add(entry.getKey());
+				continue;
+			}
+
+			// LinkedHashMap keeps the users in the order of their oldest jobs
+			classes.computeIfAbsent(getPriority(job), p -> new LinkedHashMap<>())
+					.computeIfAbsent(job.getUserId(), u -> new ArrayDeque<>())
+					.add(entry);
+		}
+
+		for (Map<String, ArrayDeque<Entry<IdPair, SchedulerJob>>> userQueues : classes.values()) {
+			roundRobin(userQueues, order);
+		}
+
+		return order;
+	}
+
+	private void roundRobin(Map<String, ArrayDeque<Entry<IdPair, SchedulerJob>>> userQueues, List<IdPair> order) {
+
+		HashMap<String, Integer> deficits = new HashMap<>();
+
+		while (!userQueues.isEmpty()) {
+			Iterator<Entry<String, ArrayDeque<Entry<IdPair, SchedulerJob>>>> iterator = userQueues.entrySet()
+					.iterator();
+			while (iterator.hasNext()) {
+				Entry<String, ArrayDeque<Entry<IdPair, SchedulerJob>>> userQueue = iterator.next();
+				String userId = userQueue.getKey();
+				ArrayDeque<Entry<IdPair, SchedulerJob>> queue = userQueue.getValue();
+
+				int deficit = deficits.getOrDefault(userId, 0) + getWeight(userId);
+
+				while (!queue.isEmpty() && queue.peek().getValue().getSlots() <= deficit) {
+					Entry<IdPair, SchedulerJob> entry = queue.poll();
+					deficit -= entry.getValue().getSlots();
+					order.add(entry.getKey());
+				}
+
+				if (queue.isEmpty()) {
+					iterator.remove();
+				} else {
+					deficits.put(userId, deficit);
+				}
+			}
+		}
+	}
+
+	private int getWeight(String userId) {
+		return Math.max(1, userWeights.getOrDefault(userId, DEFAULT_WEIGHT));
+	}
+
+	private int getPriority(SchedulerJob job) {
+		if (job.getTool() == null) {
+			return DEFAULT_PRIORITY;
+		}
+		return toolPriorities.getOrDefault(job.getTool().getId(), DEFAULT_PRIORITY);
+	}
+
+	/**
+	 * Queue depth and the longest wait of each user
+	 *
+	 * @param newJobs
+	 * @return
+	 */
+	public Map<String, Object> getStatus(Map<IdPair, SchedulerJob> newJobs) {
+		HashMap<String, Object> status = new HashMap<>();
+
+		Map<String, List<SchedulerJob>> userJobs = newJobs.values().stream()
+				.collect(Collectors.groupingBy(j -> String.valueOf(j.getUserId())));
+
+		long maxWait = 0;
+		for (Entry<String, List<SchedulerJob>> entry : userJobs.entrySet()) {
+			String tag = ",user=" + entry.getKey();
+			long userMaxWait = entry.getValue().stream()
+					.mapToLong(SchedulerJob::getTimeSinceNew)
+					.max().orElse(0);
+			status.put("newJobCount" + tag, entry.getValue().size());
+			status.put("newJobMaxWait" + tag, userMaxWait);
+			maxWait = Math.max(maxWait, userMaxWait);
+		}
+		status.put("newJobMaxWait", maxWait);
+		status.put("newJobUserCount", userJobs.size());
+
+		return status;
+	}
+}
@@ -29,6 +29,7 @@ import fi.csc.chipster.rest.LogType;
 import fi.csc.chipster.rest.RestUtils;
 import fi.csc.chipster.rest.ServerComponent;
 import fi.csc.chipster.rest.StatusSource;
+import fi.csc.chipster.scheduler.SchedulerJob.State;
 import fi.csc.chipster.scheduler.bash.BashJobScheduler;
 import fi.csc.chipster.scheduler.offer.OfferJobScheduler;
 import fi.csc.chipster.scheduler.resource.SchedulerResource;
@@ -37,7 +38,10 @@ import fi.csc.chipster.sessiondb.RestException;
 import fi.csc.chipster.sessiondb.SessionDbClient;
 import fi.csc.chipster.sessiondb.SessionDbClient.SessionEventListener;
 import fi.csc.chipster.sessiondb.SessionDbTopicConfig;
+import fi.csc.chipster.sessiondb.SessionEventDispatcher;
+import fi.csc.chipster.sessiondb.SessionEventFilter;
 import fi.csc.chipster.sessiondb.model.Job;
+import fi.csc.chipster.sessiondb.model.JobProgress;
 import fi.csc.chipster.sessiondb.model.SessionEvent;
 import fi.csc.chipster.sessiondb.model.SessionEvent.EventType;
 import fi.csc.chipster.sessiondb.model.SessionEvent.ResourceType;
@@ -63,6 +67,10 @@ public class Scheduler implements SessionEventListener, StatusSource, JobSchedul
 	public static final String CONF_DEFAULT_STORAGE_PER_JOB = "scheduler-default-storage-per-job";
 	public static final String CONF_PREFERRED_MAX_SLOTS_PER_JOB = "scheduler-preferred-max-slots-per-job";
 	public static final String CONF_PREFERRED_MAX_STORAGE_PER_JOB = "scheduler-preferred-max-storage-per-job";
+	public static final String CONF_FAIR_SHARE = "scheduler-fair-share";
+	public static final String CONF_FAIR_SHARE_STARVATION_TIMEOUT = "scheduler-fair-share-starvation-timeout";
+	public static final String CONF_FAIR_SHARE_WEIGHT = "scheduler-fair-share-weight";
+	public static final String CONF_TOOL_PRIORITY = "scheduler-tool-priority";
 
 	@SuppressWarnings("unused")
 	private String serviceId;
@@ -71,6 +79,7 @@ public class Scheduler implements SessionEventListener, StatusSource, JobSchedul
 	private AuthenticationClient authService;
 	private ServiceLocatorClient serviceLocator;
 	private SessionDbClient sessionDbClient;
+	private SessionEventDispatcher eventDispatcher;
 	private ToolboxClientComp toolbox;
 
 	private long jobTimerInterval;
@@ -81,6 +90,7 @@ public class Scheduler implements SessionEventListener, StatusSource, JobSchedul
 
 	private Timer jobTimer;
 	private SchedulerJobs jobs = new SchedulerJobs();
+	private FairShareQueue fairShareQueue;
 	private HttpServer adminServer;
 
 	private BashJobScheduler bashJobScheduler;
@@ -117,6 +127,9 @@ public class Scheduler implements SessionEventListener, StatusSource, JobSchedul
 		this.waitTimeout = config.getLong(CONF_WAIT_TIMEOUT);
 		this.getJobsFromDb = config.getBoolean(CONF_GET_JOBS_FROM_DB);
 		this.bashJobSchedulerEnabled = config.getBoolean(CONF_BASH_ENABLED);
+		this.fairShareQueue = new FairShareQueue(config.getBoolean(CONF_FAIR_SHARE),
+				getIntEntries(CONF_FAIR_SHARE_WEIGHT + "-"), getIntEntries(CONF_TOOL_PRIORITY + "-"),
+				config.getLong(CONF_FAIR_SHARE_STARVATION_TIMEOUT));
 
 		logger.info("runnable jobs can wait " + waitRunnableTimeout + " seconds in queue");
 		logger.info("check jobs every " + jobTimerInterval / 1000 + " second(s)");
@@ -132,7 +145,15 @@ public class Scheduler implements SessionEventListener, StatusSource, JobSchedul
 		this.toolbox = new ToolboxClientComp(toolboxUrl);
 
 		this.sessionDbClient = new SessionDbClient(serviceLocator, authService.getCredentials(), Role.SERVER);
-		this.sessionDbClient.subscribe(SessionDbTopicConfig.ALL_JOBS_TOPIC, this, "scheduler-job-listener");
+		// the progress updates of the running jobs don't change the state
+		SessionEventFilter jobStateFilter = new SessionEventFilter();
+		jobStateFilter.setProgress(false);
+		// get the jobs from the session-db without blocking the websocket
+		this.eventDispatcher = new SessionEventDispatcher(this,
+				config.getInt(Config.KEY_SESSION_EVENT_DISPATCH_THREADS),
+				config.getInt(Config.KEY_SESSION_EVENT_DISPATCH_QUEUE_SIZE), "scheduler-job-listener");
+		this.sessionDbClient.subscribe(SessionDbTopicConfig.ALL_JOBS_TOPIC, eventDispatcher, "scheduler-job-listener",
+				jobStateFilter);
 
 		logger.info("start " + BashJobScheduler.class.getSimpleName());
 		this.bashJobScheduler = new BashJobScheduler(this, this.sessionDbClient, this.serviceLocator, config);
@@ -183,6 +204,7 @@ public class Scheduler implements SessionEventListener, StatusSource, JobSchedul
 		URI baseUri = URI.create(config.getBindUrl(Role.SCHEDULER));
 		this.httpServer = GrizzlyHttpServerFactory.createHttpServer(baseUri, rc, false);
 		RestUtils.configureGrizzlyThreads(httpServer, Role.SCHEDULER, false, config);
+		RestUtils.configureGrizzlyCompression(httpServer, Role.SCHEDULER, config);
 		RestUtils.configureGrizzlyRequestLog(this.httpServer, Role.SCHEDULER, LogType.API);
 
 		jerseyStatisticsSource.collectConnectionStatistics(httpServer);
@@ -310,6 +332,18 @@ public class Scheduler implements SessionEventListener, StatusSource, JobSchedul
 		}
 	}
 
+	/**
+	 * Get the config entries with the prefix as integers
+	 * 
+	 * @param prefix
+	 * @return
+	 */
+	private Map<String, Integer> getIntEntries(String prefix) {
+		return config.getConfigEntries(prefix).entrySet().stream()
+				.filter(e -> !e.getValue().isEmpty())
+				.collect(Collectors.toMap(e -> e.getKey(), e -> Integer.parseInt(e.getValue().trim())));
+	}
+
 	private int getSlots(Job job, ToolboxTool tool) {
 
 		if (job.getSlotLimit() != null && job.getSlotLimit() > 0) {
@@ -386,6 +420,10 @@ public class Scheduler implements SessionEventListener, StatusSource, JobSchedul
 			logger.warn("failed to stop the session-db client", e);
 		}
 
+		if (this.eventDispatcher != null) {
+			this.eventDispatcher.close();
+		}
+
 		if (this.offerJobScheduler != null) {
 			this.offerJobScheduler.close();
 		}
@@ -417,6 +455,12 @@ public class Scheduler implements SessionEventListener, StatusSource, JobSchedul
 	 */
 	private void handleDbEvent(SessionEvent e, IdPair jobIdPair) throws RestException {
 
+		// progress updates of running jobs don't change the state, no need to get the
+		// job
+		if (JobProgress.isProgressEvent(e)) {
+			return;
+		}
+
 		// get the job and tool before taking the lock
 		Job job = null;
 		ToolboxTool tool = null;
@@ -800,18 +844,20 @@ public class Scheduler implements SessionEventListener, StatusSource, JobSchedul
 
 	public Map<String, Object> getStatus() {
 		HashMap<String, Object> status = new HashMap<>();
-		status.put("newJobCount", jobs.getNewJobs().size());
-		status.put("runningJobCount", jobs.getRunningJobs().size());
-		status.put("scheduledJobCount", jobs.getScheduledJobs().size());
+		status.put("newJobCount", jobs.getJobCount(State.NEW));
+		status.put("runningJobCount", jobs.getJobCount(State.RUNNING));
+		status.put("scheduledJobCount", jobs.getJobCount(State.SCHEDULED));
 
-		status.put("newSlotCount", SchedulerJobs.getSlots(jobs.getNewJobs().values()));
-		status.put("runningSlotCount", SchedulerJobs.getSlots(jobs.getRunningJobs().values()));
-		status.put("scheduledSlotCount", SchedulerJobs.getSlots(jobs.getScheduledJobs().values()));
+		status.put("newSlotCount", jobs.getSlots(State.NEW));
+		status.put("runningSlotCount", jobs.getSlots(State.RUNNING));
+		status.put("scheduledSlotCount", jobs.getSlots(State.SCHEDULED));
 
 		if (this.offerJobScheduler != null) {
 			status.putAll(this.offerJobScheduler.getStatus());
 		}
 		status.putAll(this.bashJobScheduler.getStatus());
+		status.putAll(this.eventDispatcher.getStatus());
+		status.putAll(this.fairShareQueue.getStatus(jobs.getNewJobs()));
 
 		return status;
 	}
@@ -822,8 +868,8 @@ public class Scheduler implements SessionEventListener, StatusSource, JobSchedul
 	 * We have to send all of them, because we can't know what kind of jobs are
 	 * accepted by different comps.
 	 * 
-	 * The oldest jobs jobs are sent first although the previous failed attempts
-	 * have most likely already reseted the timestamp.
+	 * The jobs are sent in the order of the FairShareQueue, so that the jobs of
+	 * one user don't block everyone else.
 	 * 
 	 * @throws RestException
 	 */
@@ -834,10 +880,11 @@ public class Scheduler implements SessionEventListener, StatusSource, JobSchedul
 
 		synchronized (jobs) {
 
-			newJobs = jobs.getNewJobs().entrySet().stream()
-					.filter(e -> getJobScheduler(jobs.get(e.getKey())) == jobScheduler)
-					.sorted((e1, e2) -> e1.getValue().getNewTimestamp().compareTo(e2.getValue().getNewTimestamp()))
-					.map(e -> e.getKey()).collect(Collectors.toList());
+			Map<IdPair, SchedulerJob> schedulerJobs = jobs.getNewJobs().entrySet().stream()
+					.filter(e -> getJobScheduler(e.getValue()) == jobScheduler)
+					.collect(Collectors.toMap(e -> e.getKey(), e -> e.getValue()));
+
+			newJobs = fairShareQueue.order(schedulerJobs);
 		}
 
 		if (newJobs.size() > 0) {
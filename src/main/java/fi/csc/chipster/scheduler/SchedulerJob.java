@@ -8,6 +8,10 @@ import fi.csc.chipster.toolbox.runtime.Runtime;
 
 public class SchedulerJob {
 
+	public enum State {
+		NEW, SCHEDULED, RUNNING
+	}
+
 	private Instant newTimestamp;
 	private Instant scheduleTimestamp;
 	private Instant runningTimestamp;
@@ -18,6 +22,11 @@ public class SchedulerJob {
 	private ToolboxTool tool;
 	private Runtime runtime;
 
+	// notified about the changes of the state and storage to keep its indexes up
+	// to date
+	private SchedulerJobs jobs;
+	private IdPair idPair;
+
 	public SchedulerJob(String userId, int slots, Integer storage, ToolboxTool tool, Runtime runtime) {
 		setNewTimestamp();
 		this.userId = userId;
@@ -43,7 +52,9 @@ public class SchedulerJob {
 	}
 
 	public void setScheduleTimestamp() {
+		State stateBefore = getState();
 		this.scheduleTimestamp = Instant.now();
+		changed(stateBefore, storage);
 	}
 
 	public Instant getRunningTimestamp() {
@@ -51,7 +62,9 @@ public class SchedulerJob {
 	}
 
 	public void setRunningTimestamp() {
+		State stateBefore = getState();
 		this.runningTimestamp = Instant.now();
+		changed(stateBefore, storage);
 	}
 
 	public boolean isScheduled() {
@@ -63,13 +76,36 @@ public class SchedulerJob {
 	}
 
 	public void removeScheduled() {
+		State stateBefore = getState();
 		scheduleTimestamp = null;
+		changed(stateBefore, storage);
 	}
 
 	public boolean isNew() {
 		return runningTimestamp == null && scheduleTimestamp == null;
 	}
 
+	public State getState() {
+		if (isRunning()) {
+			return State.RUNNING;
+		}
+		if (isScheduled()) {
+			return State.SCHEDULED;
+		}
+		return State.NEW;
+	}
+
+	void setJobs(SchedulerJobs jobs, IdPair idPair) {
+		this.jobs = jobs;
+		this.idPair = idPair;
+	}
+
+	private void changed(State stateBefore, Integer storageBefore) {
+		if (jobs != null) {
+			jobs.update(idPair, this, stateBefore, storageBefore);
+		}
+	}
+
 	public long getTimeSinceNew() {
 		return newTimestamp.until(Instant.now(), ChronoUnit.SECONDS);
 	}
@@ -107,6 +143,8 @@ public class SchedulerJob {
 	}
 
 	public void setStorage(Integer storage) {
+		Integer storageBefore = this.storage;
 		this.storage = storage;
+		changed(getState(), storageBefore);
 	}
 }
\ No newline at end of file
@@ -1,60 +1,128 @@
 package fi.csc.chipster.scheduler;
 
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
 
+import fi.csc.chipster.scheduler.SchedulerJob.State;
 import fi.csc.chipster.toolbox.ToolboxTool;
 import fi.csc.chipster.toolbox.runtime.Runtime;
 
+/**
+ * Jobs of the Scheduler
+ *
+ * Scheduler checks the slots and storage of the user for every job it
+ * schedules. To keep that cheap also when there are thousands of jobs in the
+ * queue, the jobs are indexed by state and the slots and storage are counted
+ * per state and user. SchedulerJob updates the indexes when its state or
+ * storage changes.
+ *
+ * Not thread-safe, Scheduler synchronizes all access.
+ */
 public class SchedulerJobs {
 
+	private static class Usage {
+		private int jobs;
+		private int slots;
+		private int storage;
+	}
+
 	HashMap<IdPair, SchedulerJob> jobs = new HashMap<>();
 
+	private EnumMap<State, HashMap<IdPair, SchedulerJob>> jobsByState = new EnumMap<>(State.class);
+	private EnumMap<State, HashMap<String, Usage>> usageByState = new EnumMap<>(State.class);
+
+	public SchedulerJobs() {
+		for (State state : State.values()) {
+			jobsByState.put(state, new HashMap<>());
+			usageByState.put(state, new HashMap<>());
+		}
+	}
+
+	/**
+	 * @return copy of the running jobs, the caller can change the jobs while
+	 *         iterating it
+	 */
 	public Map<IdPair, SchedulerJob> getRunningJobs() {
-		Map<IdPair, SchedulerJob> runningJobs = jobs.entrySet().stream()
-				.filter(entry -> entry.getValue().isRunning())
-				.collect(Collectors.toMap(e -> e.getKey(), e -> e.getValue()));
-		return runningJobs;
+		return new HashMap<>(jobsByState.get(State.RUNNING));
 	}
 
 	public Map<IdPair, SchedulerJob> getScheduledJobs() {
-		Map<IdPair, SchedulerJob> runningJobs = jobs.entrySet().stream()
-				.filter(entry -> entry.getValue().isScheduled())
-				.collect(Collectors.toMap(e -> e.getKey(), e -> e.getValue()));
-		return runningJobs;
+		return new HashMap<>(jobsByState.get(State.SCHEDULED));
 	}
 
 	public Map<IdPair, SchedulerJob> getNewJobs() {
-		Map<IdPair, SchedulerJob> newJobs = jobs.entrySet().stream()
-				.filter(entry -> entry.getValue().isNew())
-				.collect(Collectors.toMap(e -> e.getKey(), e -> e.getValue()));
-		return newJobs;
+		return new HashMap<>(jobsByState.get(State.NEW));
+	}
+
+	public int getJobCount(State state) {
+		return jobsByState.get(state).size();
+	}
+
+	public int getSlots(State state) {
+		return usageByState.get(state).values().stream()
+				.mapToInt(u -> u.slots)
+				.sum();
 	}
 
 	public int getRunningSlots(String userId) {
-		return getSlots(getRunningJobs().values(), userId);
+		return getUsage(State.RUNNING, userId).slots;
 	}
 
 	public int getScheduledSlots(String userId) {
-		return getSlots(getScheduledJobs().values(), userId);
+		return getUsage(State.SCHEDULED, userId).slots;
 	}
 
 	public int getNewSlots(String userId) {
-		return getSlots(getNewJobs().values(), userId);
+		return getUsage(State.NEW, userId).slots;
 	}
 
 	public int getRunningStorage(String userId) {
-		return getStorage(getRunningJobs().values(), userId);
+		return getUsage(State.RUNNING, userId).storage;
 	}
 
 	public int getScheduledStorage(String userId) {
-		return getStorage(getScheduledJobs().values(), userId);
+		return getUsage(State.SCHEDULED, userId).storage;
 	}
 
 	public int getNewStorage(String userId) {
-		return getStorage(getNewJobs().values(), userId);
+		return getUsage(State.NEW, userId).storage;
+	}
+
+	private Usage getUsage(State state, String userId) {
+		return usageByState.get(state).getOrDefault(userId, new Usage());
+	}
+
+	private void addUsage(State state, SchedulerJob job, Integer storage, int sign) {
+		HashMap<String, Usage> userUsage = usageByState.get(state);
+		Usage usage = userUsage.computeIfAbsent(job.getUserId(), u -> new Usage());
+		usage.jobs += sign;
+		usage.slots += sign * job.getSlots();
+		// will count only special requests for now
+		usage.storage += sign * (storage != null ? storage : 0);
+
+		if (usage.jobs == 0) {
+			userUsage.remove(job.getUserId());
+		}
+	}
+
+	/**
+	 * Move the job to the index of its current state
+	 *
+	 * @param idPair
+	 * @param job
+	 * @param stateBefore
+	 * @param storageBefore
+	 */
+	void update(IdPair idPair, SchedulerJob job, State stateBefore, Integer storageBefore) {
+		addUsage(stateBefore, job, storageBefore, -1);
+		addUsage(job.getState(), job, job.getStorage(), 1);
+
+		if (stateBefore != job.getState()) {
+			jobsByState.get(stateBefore).remove(idPair);
+			jobsByState.get(job.getState()).put(idPair, job);
+		}
 	}
 
 	public static int getSlots(Collection<SchedulerJob> jobs) {
@@ -80,13 +148,29 @@ public class SchedulerJobs {
 	}
 
 	public SchedulerJob remove(IdPair jobId) {
-		return jobs.remove(jobId);
+		SchedulerJob job = jobs.remove(jobId);
+		if (job != null) {
+			jobsByState.get(job.getState()).remove(jobId);
+			addUsage(job.getState(), job, job.getStorage(), -1);
+			job.setJobs(null, null);
+		}
+		return job;
+	}
+
+	private void add(IdPair idPair, SchedulerJob job) {
+		// replace the old job
+		remove(idPair);
+
+		jobs.put(idPair, job);
+		jobsByState.get(job.getState()).put(idPair, job);
+		addUsage(job.getState(), job, job.getStorage(), 1);
+		job.setJobs(this, idPair);
 	}
 
 	public SchedulerJob addNewJob(IdPair idPair, String userId, int slots, Integer storage, ToolboxTool tool,
 			Runtime runtime) {
 		SchedulerJob jobState = new SchedulerJob(userId, slots, storage, tool, runtime);
-		jobs.put(idPair, jobState);
+		add(idPair, jobState);
 		return jobState;
 	}
 
@@ -94,7 +178,7 @@ public class SchedulerJobs {
 			Runtime runtime) {
 		SchedulerJob job = new SchedulerJob(userId, slots, storage, tool, runtime);
 		job.setRunningTimestamp();
-		jobs.put(idPair, job);
+		add(idPair, job);
 		return job;
 	}
 
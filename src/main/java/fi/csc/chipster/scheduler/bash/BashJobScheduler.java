@@ -6,6 +6,7 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -19,6 +20,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -61,6 +63,7 @@ public class BashJobScheduler implements JobScheduler {
 	private static final String ENV_TOOLS_BIN_HOST_MOUNT_PATH = "TOOLS_BIN_HOST_MOUNT_PATH";
 	private static final String ENV_POD_ANTI_AFFINITY = "POD_ANTI_AFFINITY";
 	private static final String ENV_ENV_PREFIX = "ENV_PREFIX";
+	private static final String ENV_POD_NAMES = "POD_NAMES";
 
 	private static final String CONF_BASH_THREADS = "scheduler-bash-threads";
 	private static final String CONF_BASH_SCRIPT_DIR_IN_JAR = "scheduler-bash-script-dir-in-jar";
@@ -68,6 +71,7 @@ public class BashJobScheduler implements JobScheduler {
 	private static final String CONF_BASH_CANCEL_SCRIPT = "scheduler-bash-cancel-script";
 	private static final String CONF_BASH_FINISHED_SCRIPT = "scheduler-bash-finished-script";
 	private static final String CONF_BASH_HEARTBEAT_SCRIPT = "scheduler-bash-heartbeat-script";
+	private static final String CONF_BASH_HEARTBEAT_ALL_SCRIPT = "scheduler-bash-heartbeat-all-script";
 	private static final String CONF_BASH_LOG_SCRIPT = "scheduler-bash-log-script";
 	private static final String CONF_BASH_POD = "scheduler-bash-pod";
 	private static final String CONF_BASH_PVC = "scheduler-bash-pvc";
@@ -102,6 +106,7 @@ public class BashJobScheduler implements JobScheduler {
 	private long bashJobTimerInterval;
 	private Timer bashJobTimer;
 	private String heartbeatScript;
+	private String heartbeatAllScript;
 
 	private BashJobs jobs = new BashJobs();
 	private int maxSlots;
@@ -129,6 +134,11 @@ public class BashJobScheduler implements JobScheduler {
 	private HashMap<String, String> environmentVariables;
 	private String imageTag;
 
+	private final LongAdder heartbeatBatches = new LongAdder();
+	private final LongAdder heartbeatBatchFailures = new LongAdder();
+	private final LongAdder heartbeatBatchJobs = new LongAdder();
+	private final LongAdder heartbeatSingleJobs = new LongAdder();
+
 	public BashJobScheduler(JobSchedulerCallback scheduler, SessionDbClient sessionDbClient,
 			ServiceLocatorClient serviceLocator, Config config) throws IOException {
 		this.config = config;
@@ -147,6 +157,7 @@ public class BashJobScheduler implements JobScheduler {
 		this.cancelScript = config.getString(CONF_BASH_CANCEL_SCRIPT);
 		this.finishedScript = config.getString(CONF_BASH_FINISHED_SCRIPT);
 		this.heartbeatScript = config.getString(CONF_BASH_HEARTBEAT_SCRIPT);
+		this.heartbeatAllScript = config.getString(CONF_BASH_HEARTBEAT_ALL_SCRIPT);
 		this.logScript = config.getString(CONF_BASH_LOG_SCRIPT);
 		this.scriptDirInJar = config.getString(CONF_BASH_SCRIPT_DIR_IN_JAR);
 		this.imageRepository = config.getString(CONF_BASH_IMAGE_REPOSITORY);
@@ -200,6 +211,15 @@ public class BashJobScheduler implements JobScheduler {
 			this.logScript = readJarFile(scriptDirInJar + "/log.bash");
 		}
 
+		// optional, null if the script dir doesn't have it
+		if (this.heartbeatAllScript.isEmpty()) {
+			this.heartbeatAllScript = readJarFile(scriptDirInJar + "/heartbeat-all.bash");
+		}
+
+		if (this.heartbeatAllScript != null) {
+			logger.info("check the heartbeats of all jobs with one script");
+		}
+
 		// parse configuration for environment variables
 		Set<String> envKeys = config.getConfigEntries(CONF_BASH_ENV_NAME + "-").keySet();
 
@@ -735,6 +755,7 @@ public class BashJobScheduler implements JobScheduler {
 			 * noticing (or even logging) any errors.
 			 */
 			Future<?> future = this.runSchedulerBash(this.heartbeatScript, "heartbeat", env, null, true);
+			heartbeatSingleJobs.increment();
 
 			// wait for the bash process
 			future.get();
@@ -774,11 +795,124 @@ public class BashJobScheduler implements JobScheduler {
 			jobKeys = new HashSet<IdPair>(this.jobs.getAllJobs().keySet());
 		}
 
-		for (IdPair idPair : jobKeys) {
+		Set<IdPair> uncheckedJobs = jobKeys;
+
+		if (this.heartbeatAllScript != null && !jobKeys.isEmpty()) {
+			uncheckedJobs = this.checkAllJobs(jobKeys);
+		}
+
+		for (IdPair idPair : uncheckedJobs) {
 			this.checkJob(idPair);
 		}
 	}
 
+	/**
+	 * Check the heartbeat of all jobs with one script
+	 * 
+	 * Running the heartbeat script for each job is slow when there are hundreds of
+	 * jobs, because each check starts a new bash process and usually a kubectl
+	 * call. The heartbeat-all script gets the pod names of all jobs in env
+	 * variable POD_NAMES, one per line, and prints one line for each pod:
+	 * "<pod name> <alive|dead> <message>".
+	 * 
+	 * @param idPairs
+	 * @return jobs that the script didn't report or all jobs if the script failed.
+	 *         These are checked with the heartbeat script of each job.
+	 */
+	private Set<IdPair> checkAllJobs(Set<IdPair> idPairs) {
+
+		HashMap<String, IdPair> podNames = new HashMap<>();
+
+		synchronized (jobs) {
+			for (IdPair idPair : idPairs) {
+				BashJob job = jobs.get(idPair);
+				if (job != null) {
+					podNames.put(getPodName(idPair, job.getTool()), idPair);
+				}
+			}
+		}
+
+		HashMap<String, String> env = new HashMap<>();
+		env.put(ENV_POD_NAMES, String.join("\n", podNames.keySet()));
+
+		for (String name : this.environmentVariables.keySet()) {
+			env.put(ENV_ENV_PREFIX + "_" + name, this.environmentVariables.get(name));
+		}
+
+		StringBuffer stdout = new StringBuffer();
+
+		heartbeatBatches.increment();
+
+		try {
+			this.runSchedulerBash(this.heartbeatAllScript, "heartbeat-all", env, stdout, true).get();
+		} catch (InterruptedException | ExecutionException e) {
+			heartbeatBatchFailures.increment();
+			logger.warn("heartbeat-all failed, check each job separately", e);
+			return idPairs;
+		}
+
+		HashSet<IdPair> uncheckedJobs = new HashSet<>(idPairs);
+
+		for (Heartbeat heartbeat : parseHeartbeats(stdout.toString(), podNames)) {
+			IdPair idPair = heartbeat.idPair();
+
+			uncheckedJobs.remove(idPair);
+			heartbeatBatchJobs.increment();
+
+			if (heartbeat.alive()) {
+				synchronized (jobs) {
+					BashJob job = jobs.get(idPair);
+					if (job != null) {
+						job.setHeartbeatTimestamp();
+					}
+				}
+			} else {
+				// Scheduler will remove the job if it doesn't get heartbeats
+				logger.info("job check was unsuccessful " + idPair + ": " + heartbeat.message());
+			}
+		}
+
+		return uncheckedJobs;
+	}
+
+	/**
+	 * Job state reported by the heartbeat-all script
+	 */
+	record Heartbeat(IdPair idPair, boolean alive, String message) {
+	}
+
+	/**
+	 * Parse the output of the heartbeat-all script
+	 * 
+	 * @param stdout   lines "<pod name> <alive|dead> <message>"
+	 * @param podNames jobs by their pod names
+	 * @return heartbeats of the given pods. Pods of the finished jobs and other
+	 *         schedulers and lines without the state are skipped.
+	 */
+	static List<Heartbeat> parseHeartbeats(String stdout, Map<String, IdPair> podNames) {
+
+		ArrayList<Heartbeat> heartbeats = new ArrayList<>();
+
+		for (String line : stdout.split("\n")) {
+			String[] parts = line.trim().split(" ", 3);
+
+			if (parts.length < 2) {
+				continue;
+			}
+
+			IdPair idPair = podNames.get(parts[0]);
+			if (idPair == null) {
+				continue;
+			}
+
+			String message = parts.length > 2 ? parts[2] : "";
+
+			heartbeats.add(new Heartbeat(idPair, "alive".equals(parts[1]), message));
+		}
+
+		return heartbeats;
+	}
+
 	/**
 	 * 
 	 * @param bashCommand
@@ -843,8 +977,10 @@ public class BashJobScheduler implements JobScheduler {
 		try {
 			Process process = pb.start();
 
+			Thread stdoutThread = null;
+
 			if (stdout != null) {
-				ProcessUtils.readLines(process.getInputStream(), line -> stdout.append(line + "\n"));
+				stdoutThread = ProcessUtils.readLines(process.getInputStream(), line -> stdout.append(line + "\n"));
 			} else {
 				ProcessUtils.readLines(process.getInputStream(), line -> logger.info(name + " stdout: " + line));
 			}
@@ -855,6 +991,11 @@ public class BashJobScheduler implements JobScheduler {
 
 			int exitCode = process.waitFor();
 
+			if (stdoutThread != null) {
+				// the caller reads the stdout, when this returns
+				stdoutThread.join();
+			}
+
 			long bashDuration = bashStart.until(Instant.now(), ChronoUnit.SECONDS);
 
 			if (bashDuration > 10) {
@@ -881,6 +1022,11 @@ public class BashJobScheduler implements JobScheduler {
 			status.put("bashJobCount", jobs.getAllJobs().size());
 		}
 
+		status.put("bashHeartbeatBatches", heartbeatBatches.sum());
+		status.put("bashHeartbeatBatchFailures", heartbeatBatchFailures.sum());
+		status.put("bashHeartbeatBatchJobs", heartbeatBatchJobs.sum());
+		status.put("bashHeartbeatSingleJobs", heartbeatSingleJobs.sum());
+
 		return status;
 	}
 
@@ -74,6 +74,11 @@ public class OfferJobScheduler implements MessageHandler.Whole<String>, JobSched
 		this.pubSubServer.setIdleTimeout(config.getLong(PubSubServer.KEY_WEBSOCKET_IDLE_TIMEOUT));
 		this.pubSubServer.setPingInterval(config.getLong(PubSubServer.KEY_WEBSOCKET_PING_INTERVAL));
 		this.pubSubServer.setMaxQueueSize(config.getInt(PubSubServer.KEY_WEBSOCKET_SUBSCRIBER_QUEUE_SIZE));
+		this.pubSubServer.setMaxBatchBytes(config.getInt(PubSubServer.KEY_WEBSOCKET_BATCH_MAX_BYTES));
+		this.pubSubServer.setCompression(config.getBoolean(PubSubServer.KEY_WEBSOCKET_COMPRESSION));
+		this.pubSubServer.setReplay(config.getInt(PubSubServer.KEY_WEBSOCKET_REPLAY_SIZE),
+				config.getLong(PubSubServer.KEY_WEBSOCKET_REPLAY_RETENTION),
+				config.getLong(PubSubServer.KEY_WEBSOCKET_REPLAY_MAX_BYTES));
 		this.pubSubServer.start();
 	}
 
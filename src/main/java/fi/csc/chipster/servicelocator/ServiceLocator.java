@@ -112,6 +112,7 @@ public class ServiceLocator implements ServerComponent {
 		URI baseUri = URI.create(this.config.getBindUrl(Role.SERVICE_LOCATOR));
 		this.httpServer = GrizzlyHttpServerFactory.createHttpServer(baseUri, rc, false);
 		RestUtils.configureGrizzlyThreads(this.httpServer, Role.SERVICE_LOCATOR, false, config);
+		RestUtils.configureGrizzlyCompression(this.httpServer, Role.SERVICE_LOCATOR, config);
 		RestUtils.configureGrizzlyRequestLog(this.httpServer, Role.SERVICE_LOCATOR, LogType.API);
 
 		jerseyStatisticsSource.collectConnectionStatistics(httpServer);
@@ -3,6 +3,7 @@ package fi.csc.chipster.sessiondb;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -30,15 +31,22 @@ import fi.csc.chipster.sessiondb.model.Label;
 import fi.csc.chipster.sessiondb.model.News;
 import fi.csc.chipster.sessiondb.model.Rule;
 import fi.csc.chipster.sessiondb.model.Session;
+import fi.csc.chipster.sessiondb.model.UserUsage;
 import fi.csc.chipster.sessiondb.resource.GlobalJobResource;
 import fi.csc.chipster.sessiondb.resource.NewsApi;
 import fi.csc.chipster.sessiondb.resource.NewsResource;
+import fi.csc.chipster.sessiondb.resource.OrphanCleaner;
 import fi.csc.chipster.sessiondb.resource.RuleTable;
+import fi.csc.chipster.sessiondb.resource.SessionAccessedUpdater;
+import fi.csc.chipster.sessiondb.resource.SessionChangeLog;
 import fi.csc.chipster.sessiondb.resource.SessionDbAdminResource;
+import fi.csc.chipster.sessiondb.resource.SessionDbCacheInvalidator;
 import fi.csc.chipster.sessiondb.resource.SessionDbApi;
+import fi.csc.chipster.sessiondb.resource.SessionDbEventBus;
 import fi.csc.chipster.sessiondb.resource.SessionDbTokenResource;
 import fi.csc.chipster.sessiondb.resource.SessionResource;
 import fi.csc.chipster.sessiondb.resource.UserResource;
+import fi.csc.chipster.sessiondb.resource.UserUsageTable;
 
 //import sun.misc.SignalHandler;
 //import sun.misc.Signal;
@@ -85,6 +93,16 @@ public class SessionDb implements ServerComponent {
 
 	private NewsApi newsApi;
 
+	private SessionAccessedUpdater sessionAccessedUpdater;
+
+	private SessionDbCacheInvalidator cacheInvalidator;
+
+	private UserUsageTable userUsageTable;
+
+	private OrphanCleaner orphanCleaner;
+
+	private SessionDbEventBus eventBus;
+
 	public SessionDb(Config config) {
 		this.config = config;
 	}
@@ -106,7 +124,7 @@ public class SessionDb implements ServerComponent {
 		this.serviceLocator.setCredentials(authService.getCredentials());
 
 		List<Class<?>> hibernateClasses = Arrays.asList(Rule.class, Session.class, Dataset.class,
-				Job.class, File.class, News.class, Label.class);
+				Job.class, File.class, News.class, Label.class, UserUsage.class);
 
 		// init Hibernate
 		hibernate = new HibernateUtil(config, Role.SESSION_DB, hibernateClasses);
@@ -114,9 +132,17 @@ public class SessionDb implements ServerComponent {
 		this.tokenRequestFilter = new TokenRequestFilter(authService);
 
 		this.ruleTable = new RuleTable(hibernate);
-		this.sessionDbApi = new SessionDbApi(hibernate, ruleTable);
+		this.userUsageTable = new UserUsageTable(hibernate,
+				config.getLong(Config.KEY_SESSION_DB_USAGE_RECONCILE_INTERVAL),
+				config.getLong(Config.KEY_SESSION_DB_USAGE_RECONCILE_ALL_INTERVAL));
+		SessionChangeLog changeLog = new SessionChangeLog(config.getInt(Config.KEY_SESSION_DB_CHANGE_LOG_SESSIONS),
+				config.getInt(Config.KEY_SESSION_DB_CHANGE_LOG_SIZE));
+		this.sessionDbApi = new SessionDbApi(hibernate, ruleTable, userUsageTable, changeLog);
 		this.datasetTokenResource = new SessionDbTokenResource(ruleTable, authService);
-		this.sessionResource = new SessionResource(hibernate, sessionDbApi, ruleTable, config);
+		this.sessionAccessedUpdater = new SessionAccessedUpdater(hibernate, changeLog,
+				config.getLong(Config.KEY_SESSION_DB_ACCESSED_FLUSH_INTERVAL));
+		this.sessionResource = new SessionResource(hibernate, sessionDbApi, ruleTable, sessionAccessedUpdater,
+				userUsageTable, changeLog, config);
 		this.globalJobResource = new GlobalJobResource(hibernate);
 		this.userResource = new UserResource(ruleTable);
 		this.newsApi = new NewsApi(hibernate, sessionDbApi);
@@ -129,10 +155,34 @@ public class SessionDb implements ServerComponent {
 		this.pubSubServer.setIdleTimeout(config.getLong(PubSubServer.KEY_WEBSOCKET_IDLE_TIMEOUT));
 		this.pubSubServer.setPingInterval(config.getLong(PubSubServer.KEY_WEBSOCKET_PING_INTERVAL));
 		this.pubSubServer.setMaxQueueSize(config.getInt(PubSubServer.KEY_WEBSOCKET_SUBSCRIBER_QUEUE_SIZE));
+		this.pubSubServer.setMaxBatchBytes(config.getInt(PubSubServer.KEY_WEBSOCKET_BATCH_MAX_BYTES));
+		this.pubSubServer.setCompression(config.getBoolean(PubSubServer.KEY_WEBSOCKET_COMPRESSION));
+		this.pubSubServer.setReplay(config.getInt(PubSubServer.KEY_WEBSOCKET_REPLAY_SIZE),
+				config.getLong(PubSubServer.KEY_WEBSOCKET_REPLAY_RETENTION),
+				config.getLong(PubSubServer.KEY_WEBSOCKET_REPLAY_MAX_BYTES));
+		// the same numbers for resuming the websocket and for the delta sync
+		this.pubSubServer.setSequence(changeLog);
 		this.pubSubServer.start();
 
 		sessionDbApi.setPubSubServer(pubSubServer);
 
+		this.cacheInvalidator = new SessionDbCacheInvalidator(hibernate, ruleTable);
+		List<String> cachePeers = Arrays.stream(config.getString(Config.KEY_SESSION_DB_CACHE_PEERS).split(","))
+				.map(String::trim).filter(url -> !url.isEmpty()).collect(Collectors.toList());
+
+		if (config.getBoolean(Config.KEY_SESSION_DB_EVENT_BUS)) {
+			// the bus evicts the changes of all replicas already
+			if (!cachePeers.isEmpty()) {
+				logger.warn(Config.KEY_SESSION_DB_CACHE_PEERS + " is ignored, because "
+						+ Config.KEY_SESSION_DB_EVENT_BUS + " is enabled");
+			}
+			this.eventBus = new SessionDbEventBus(hibernate, sessionDbApi, cacheInvalidator);
+			this.eventBus.start();
+			sessionDbApi.setEventBus(eventBus);
+		} else {
+			this.cacheInvalidator.subscribe(cachePeers, authService.getCredentials());
+		}
+
 		final ResourceConfig rc = RestUtils.getDefaultResourceConfig(this.serviceLocator)
 				.register(datasetTokenResource)
 				.register(ruleTable)
@@ -145,8 +195,11 @@ public class SessionDb implements ServerComponent {
 				.register(tokenRequestFilter);
 
 		JerseyStatisticsSource jerseyStatisticsSource = RestUtils.createJerseyStatisticsSource(rc);
+		this.orphanCleaner = new OrphanCleaner(hibernate, sessionDbApi, config.getInt(Config.KEY_SESSION_DB_ORPHAN_CHUNK_SIZE),
+				config.getLong(Config.KEY_SESSION_DB_ORPHAN_CHUNK_DELAY));
 		this.adminResource = new SessionDbAdminResource(hibernate, jerseyStatisticsSource, pubSubServer,
-				hibernateClasses.toArray(new Class[0]), newsApi, sessionDbApi, ruleTable, this.config);
+				hibernateClasses.toArray(new Class[0]), newsApi, sessionDbApi, ruleTable, sessionAccessedUpdater,
+				cacheInvalidator, userUsageTable, orphanCleaner, eventBus, this.config);
 
 		// create and start a new instance of grizzly http server
 		// exposing the Jersey application at BASE_URI
@@ -154,6 +207,7 @@ public class SessionDb implements ServerComponent {
 
 		httpServer = GrizzlyHttpServerFactory.createHttpServer(baseUri, rc, false);
 		RestUtils.configureGrizzlyThreads(this.httpServer, Role.SESSION_DB, false, config);
+		RestUtils.configureGrizzlyCompression(this.httpServer, Role.SESSION_DB, config);
 		RestUtils.configureGrizzlyRequestLog(this.httpServer, Role.SESSION_DB, LogType.API);
 
 		jerseyStatisticsSource.collectConnectionStatistics(httpServer);
@@ -183,7 +237,9 @@ public class SessionDb implements ServerComponent {
 
 		RestUtils.waitForShutdown("session-db", service.getHttpServer());
 
-		hibernate.getSessionFactory().close();
+		// write the buffered access timestamps before the db connections are closed
+		service.sessionAccessedUpdater.close();
+		hibernate.close();
 	}
 
 	public static HibernateUtil getHibernate() {
@@ -193,7 +249,14 @@ public class SessionDb implements ServerComponent {
 	public void close() {
 		RestUtils.shutdown("session-db-admin", adminServer);
 		getPubSubServer().stop();
-		hibernate.getSessionFactory().close();
+		cacheInvalidator.close();
+		if (eventBus != null) {
+			eventBus.close();
+		}
+		userUsageTable.close();
+		orphanCleaner.close();
+		sessionAccessedUpdater.close();
+		hibernate.close();
 		RestUtils.shutdown("session-db", httpServer);
 
 		authService.close();
@@ -120,6 +120,39 @@ public class SessionDbAdminClient {
 		RestMethods.delete(getUsersSessionsTarget(userId));
 	}
 
+	// recalculate the stored usage of the changed users
+	public void reconcileUsage() throws RestException {
+		WebTarget target = getSessionDbAdminTarget().path(SessionDbAdminResource.PATH_RECONCILE_USAGE);
+		RestMethods.postWithObjectResponse(target, null, String.class);
+	}
+
+	// orphan rows
+	public Map<String, Object> checkOrphans() throws RestException {
+		return postOrphans(SessionDbAdminResource.PATH_CHECK_ORPHANS);
+	}
+
+	public Map<String, Object> deleteOrphans() throws RestException {
+		return postOrphans(SessionDbAdminResource.PATH_DELETE_ORPHANS);
+	}
+
+	private Map<String, Object> postOrphans(String path) throws RestException {
+		WebTarget target = getSessionDbAdminTarget().path(path);
+		return parseMap(RestMethods.postWithObjectResponse(target, null, String.class));
+	}
+
+	public Map<String, Object> getOrphans() throws RestException {
+		return parseMap(RestMethods.getJson(getSessionDbAdminTarget().path(SessionDbAdminResource.PATH_ORPHANS)));
+	}
+
+	private Map<String, Object> parseMap(String json) {
+		try {
+			return new ObjectMapper().readValue(json, new TypeReference<HashMap<String, Object>>() {
+			});
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException("failed to parse admin response", e);
+		}
+	}
+
 	// news
 	public UUID createNews(News news) throws RestException {
 		UUID id = RestMethods.post(getNewsTarget(), news);
@@ -30,15 +30,19 @@ import fi.csc.chipster.scheduler.IdPair;
 import fi.csc.chipster.servicelocator.ServiceLocatorClient;
 import fi.csc.chipster.sessiondb.model.Dataset;
 import fi.csc.chipster.sessiondb.model.Job;
+import fi.csc.chipster.sessiondb.model.JobProgress;
 import fi.csc.chipster.sessiondb.model.Label;
 import fi.csc.chipster.sessiondb.model.News;
 import fi.csc.chipster.sessiondb.model.Rule;
 import fi.csc.chipster.sessiondb.model.Session;
+import fi.csc.chipster.sessiondb.model.SessionChanges;
 import fi.csc.chipster.sessiondb.model.SessionEvent;
 import fi.csc.chipster.sessiondb.model.SessionListStats;
+import fi.csc.chipster.sessiondb.model.SessionPage;
 import fi.csc.chipster.sessiondb.model.TableStats;
 import fi.csc.chipster.sessiondb.resource.NewsResource;
 import fi.csc.chipster.sessiondb.resource.SessionDatasetResource;
+import fi.csc.chipster.sessiondb.resource.SessionJobResource;
 import fi.csc.chipster.sessiondb.resource.SessionResource;
 import fi.csc.chipster.sessiondb.resource.UserResource;
 import jakarta.websocket.MessageHandler.Whole;
@@ -66,6 +70,8 @@ public class SessionDbClient {
 	private String sessionDbUri;
 	private String sessionDbEventsUri;
 
+	private Runnable reconnectListener;
+
 	/**
 	 * @param serviceLocator
 	 * @param credentials
@@ -111,11 +117,27 @@ public class SessionDbClient {
 	// events
 
 	public void subscribe(String topic, final SessionEventListener listener, String name) throws RestException {
+		subscribe(topic, listener, name, null);
+	}
+
+	/**
+	 * @param topic
+	 * @param listener
+	 * @param name
+	 * @param filter   events to send, null for all
+	 * @throws RestException
+	 */
+	public void subscribe(String topic, final SessionEventListener listener, String name, SessionEventFilter filter)
+			throws RestException {
 
 		try {
 
 			UriBuilder uriBuilder = UriBuilder.fromUri(sessionDbEventsUri).queryParam(PubSubEndpoint.TOPIC_KEY, topic);
 
+			if (filter != null) {
+				filter.addQueryParameters(uriBuilder);
+			}
+
 			this.client = new WebSocketClient(uriBuilder.toString(), new Whole<String>() {
 
 				@Override
@@ -124,12 +146,27 @@ public class SessionDbClient {
 				}
 
 			}, true, name, credentials);
+
+			this.client.setReconnectListener(reconnectListener);
+
 		} catch (InterruptedException | WebSocketErrorException | WebSocketClosedException e) {
 			throw new RestException("websocket error", e);
 		}
 		return;
 	}
 
+	/**
+	 * Called when the websocket has reconnected
+	 * 
+	 * The events published while the connection was down are lost. Set this
+	 * before subscribe().
+	 * 
+	 * @param reconnectListener
+	 */
+	public void setReconnectListener(Runnable reconnectListener) {
+		this.reconnectListener = reconnectListener;
+	}
+
 	public void close() throws IOException {
 		if (this.client != null) {
 			client.shutdown();
@@ -217,6 +254,31 @@ public class SessionDbClient {
 		return RestMethods.getList(target, Session.class);
 	}
 
+	/**
+	 * Get one page of the user's own sessions
+	 * 
+	 * @param sort  SessionResource.SORT_ACCESSED (default if null) or
+	 *              SessionResource.SORT_CREATED
+	 * @param after the "next" cursor of the previous page or null for the
+	 *              first page
+	 * @param limit page size or null for the server default
+	 * @return
+	 * @throws RestException
+	 */
+	public SessionPage getSessionPage(String sort, String after, Integer limit) throws RestException {
+		WebTarget target = getSessionsTarget().path(SessionResource.PATH_LIST);
+		if (sort != null) {
+			target = target.queryParam(SessionResource.QUERY_PARAM_SORT, sort);
+		}
+		if (after != null) {
+			target = target.queryParam(SessionResource.QUERY_PARAM_AFTER, after);
+		}
+		if (limit != null) {
+			target = target.queryParam(SessionResource.QUERY_PARAM_LIMIT, limit);
+		}
+		return RestMethods.get(target, SessionPage.class);
+	}
+
 	/**
 	 * @param sessionId
 	 * @return get a session object
@@ -229,6 +291,23 @@ public class SessionDbClient {
 		return session;
 	}
 
+	/**
+	 * Get the changes of the session after the given eventNumber
+	 * 
+	 * @param sessionId
+	 * @param since     eventNumber of the latest event that has been received or
+	 *                  null to get only the current eventNumber
+	 * @return changes or reload=true if the session has to be loaded again
+	 * @throws RestException
+	 */
+	public SessionChanges getSessionChanges(UUID sessionId, Long since) throws RestException {
+		WebTarget target = getSessionTarget(sessionId).path(SessionResource.PATH_CHANGES);
+		if (since != null) {
+			target = target.queryParam(SessionResource.QUERY_PARAM_SINCE, since);
+		}
+		return RestMethods.get(target, SessionChanges.class);
+	}
+
 	public SessionListStats getStats() throws RestException {
 
 		return RestMethods.get(getStatsTarget(), SessionListStats.class);
@@ -308,6 +387,24 @@ public class SessionDbClient {
 		return id;
 	}
 
+	public List<UUID> createDatasets(UUID sessionId, List<Dataset> datasets)
+			throws RestException, JsonParseException, JsonMappingException, IOException {
+
+		String json = RestMethods.postWithObjectResponse(getDatasetsTarget(sessionId).path(RestUtils.PATH_ARRAY),
+				datasets, String.class);
+		@SuppressWarnings("unchecked")
+		HashMap<String, Object> respObj = RestUtils.getObjectMapper(true).readValue(json, HashMap.class);
+		@SuppressWarnings("unchecked")
+		ArrayList<Map<String, String>> datasetListJson = (ArrayList<Map<String, String>>) respObj.get("datasets");
+
+		List<UUID> ids = datasetListJson.stream()
+				.map(o -> o.get("datasetId"))
+				.map(s -> UUID.fromString(s))
+				.collect(Collectors.toList());
+
+		return ids;
+	}
+
 	public Response updateDataset(UUID sessionId, Dataset dataset) throws RestException {
 		return RestMethods.put(getDatasetTarget(sessionId, dataset.getDatasetId()), dataset);
 	}
@@ -374,8 +471,34 @@ public class SessionDbClient {
 
 	// jobs
 
+	/**
+	 * Get all jobs of the session without the large object fields
+	 * 
+	 * See {@link #getJobs(UUID, boolean)}.
+	 * 
+	 * @param sessionId
+	 * @return
+	 * @throws RestException
+	 */
 	public HashMap<UUID, Job> getJobs(UUID sessionId) throws RestException {
-		List<Job> jobsList = RestMethods.getList(getJobsTarget(sessionId), Job.class);
+		return getJobs(sessionId, false);
+	}
+
+	/**
+	 * Get all jobs of the session
+	 * 
+	 * @param sessionId
+	 * @param allFields include the large object fields toolDescription,
+	 *                  sourceCode, screenOutput and stateDetail
+	 * @return
+	 * @throws RestException
+	 */
+	public HashMap<UUID, Job> getJobs(UUID sessionId, boolean allFields) throws RestException {
+		WebTarget target = getJobsTarget(sessionId);
+		if (allFields) {
+			target = target.queryParam(SessionJobResource.QUERY_PARAM_FIELDS, SessionJobResource.FIELDS_ALL);
+		}
+		List<Job> jobsList = RestMethods.getList(target, Job.class);
 
 		HashMap<UUID, Job> jobMap = new HashMap<>();
 
@@ -492,6 +615,20 @@ public class SessionDbClient {
 		RestMethods.put(getJobTarget(sessionId, job.getJobId()), job);
 	}
 
+	/**
+	 * Append screen output and update the state fields of a running job
+	 * 
+	 * See SessionJobResource.postProgress().
+	 * 
+	 * @param sessionId
+	 * @param jobId
+	 * @param progress
+	 * @throws RestException
+	 */
+	public void updateJobProgress(UUID sessionId, UUID jobId, JobProgress progress) throws RestException {
+		RestMethods.postNoContent(getJobTarget(sessionId, jobId).path("progress"), progress);
+	}
+
 	public void deleteJob(UUID sessionId, UUID jobId) throws RestException {
 		RestMethods.delete(getJobTarget(sessionId, jobId));
 	}
@@ -2,6 +2,7 @@ package fi.csc.chipster.sessiondb;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.apache.logging.log4j.LogManager;
@@ -14,6 +15,7 @@ import fi.csc.chipster.auth.resource.AuthPrincipal;
 import fi.csc.chipster.rest.hibernate.HibernateUtil;
 import fi.csc.chipster.rest.hibernate.HibernateUtil.HibernateRunnable;
 import fi.csc.chipster.rest.websocket.ChipsterTopicConfig;
+import fi.csc.chipster.rest.websocket.MessageFilter;
 import fi.csc.chipster.sessiondb.model.Session;
 import fi.csc.chipster.sessiondb.resource.SessionResource;
 
@@ -118,4 +120,9 @@ public class SessionDbTopicConfig extends ChipsterTopicConfig {
 		return Arrays.asList(new String[] { TOPIC_GROUP_SERVER, TOPIC_GROUP_CLIENT });
 	}
 
+	@Override
+	public MessageFilter getFilter(String topicName, Map<String, List<String>> parameters) {
+		return SessionEventFilter.fromQueryParameters(parameters);
+	}
+
 }
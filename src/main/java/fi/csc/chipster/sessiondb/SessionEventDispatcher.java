@@ -0,0 +1,171 @@
+package fi.csc.chipster.sessiondb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import fi.csc.chipster.rest.StatusSource;
+import fi.csc.chipster.sessiondb.SessionDbClient.SessionEventListener;
+import fi.csc.chipster.sessiondb.model.SessionEvent;
+
+/**
+ * Handle the session events in parallel, but keep the order of each resource
+ *
+ * SessionDbClient calls the listener on the thread of the websocket client. If
+ * the listener makes blocking calls, like getting the job from the session-db,
+ * one slow response stops the intake of all events. This dispatcher passes the
+ * events to a fixed number of lanes, each handled by its own thread. The
+ * events of the same resource (e.g. a job) always go to the same lane, so they
+ * are handled in the order of publishing, while the events of different
+ * resources are handled in parallel.
+ *
+ * Each lane has a bounded queue. When the queue is full, the websocket thread
+ * waits, which pushes the backpressure to the websocket connection. If the
+ * listener falls too far behind, the server disconnects the subscriber and the
+ * client reconnects. The waits are counted in the status.
+ */
+public class SessionEventDispatcher implements SessionEventListener, StatusSource {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	private final SessionEventListener listener;
+	private final Function<SessionEvent, Object> keyFunction;
+	private final String name;
+
+	private final List<LinkedBlockingQueue<SessionEvent>> queues = new ArrayList<>();
+	private final List<Thread> threads = new ArrayList<>();
+	private volatile boolean closed;
+
+	private final LongAdder received = new LongAdder();
+	private final LongAdder handled = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder blocked = new LongAdder();
+	private final LongAdder blockedTime = new LongAdder();
+	private final LongAccumulator maxQueued = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Keep the order of the events of each resource
+	 *
+	 * @param listener
+	 * @param threadCount number of lanes, 0 to call the listener on the websocket
+	 *                    thread
+	 * @param queueSize   max number of events waiting in each lane
+	 * @param name        for the thread names
+	 */
+	public SessionEventDispatcher(SessionEventListener listener, int threadCount, int queueSize, String name) {
+		this(listener, threadCount, queueSize, name, SessionEventDispatcher::getResourceKey);
+	}
+
+	/**
+	 * @param listener
+	 * @param threadCount
+	 * @param queueSize
+	 * @param name
+	 * @param keyFunction the events with equal keys are handled in order
+	 */
+	public SessionEventDispatcher(SessionEventListener listener, int threadCount, int queueSize, String name,
+			Function<SessionEvent, Object> keyFunction) {
+		this.listener = listener;
+		this.keyFunction = keyFunction;
+		this.name = name;
+
+		for (int i = 0; i < threadCount; i++) {
+			LinkedBlockingQueue<SessionEvent> queue = new LinkedBlockingQueue<>(queueSize);
+			Thread thread = Thread.ofVirtual()
+					.name(name + "-" + i)
+					.start(() -> handleLoop(queue));
+			this.queues.add(queue);
+			this.threads.add(thread);
+		}
+	}
+
+	private static Object getResourceKey(SessionEvent e) {
+		return e.getResourceId() != null ? e.getResourceId() : e.getSessionId();
+	}
+
+	@Override
+	public void onEvent(SessionEvent e) {
+		received.increment();
+
+		if (queues.isEmpty()) {
+			handle(e);
+			return;
+		}
+
+		LinkedBlockingQueue<SessionEvent> queue = queues
+				.get(Math.floorMod(Objects.hashCode(keyFunction.apply(e)), queues.size()));
+
+		if (!queue.offer(e)) {
+			blocked.increment();
+			long start = System.nanoTime();
+			try {
+				queue.put(e);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				logger.warn(name + " interrupted, event " + e.getType() + " of " + e.getResourceId() + " not handled");
+				return;
+			} finally {
+				blockedTime.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			}
+		}
+		maxQueued.accumulate(queue.size());
+	}
+
+	private void handleLoop(LinkedBlockingQueue<SessionEvent> queue) {
+		while (!closed) {
+			SessionEvent e;
+			try {
+				e = queue.take();
+			} catch (InterruptedException ex) {
+				break;
+			}
+			handle(e);
+		}
+	}
+
+	private void handle(SessionEvent e) {
+		try {
+			listener.onEvent(e);
+		} catch (RuntimeException ex) {
+			// keep the lane running
+			errors.increment();
+			logger.error(name + " failed to handle a session event", ex);
+		}
+		handled.increment();
+	}
+
+	/**
+	 * Stop the threads
+	 *
+	 * The events that are still in the queues are not handled.
+	 */
+	public void close() {
+		closed = true;
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+	}
+
+	@Override
+	public Map<String, Object> getStatus() {
+		HashMap<String, Object> status = new HashMap<>();
+		status.put("sessionEventDispatchReceived", received.sum());
+		status.put("sessionEventDispatchHandled", handled.sum());
+		status.put("sessionEventDispatchErrors", errors.sum());
+		status.put("sessionEventDispatchQueued", queues.stream().mapToInt(LinkedBlockingQueue::size).sum());
+		status.put("sessionEventDispatchQueuedMax", maxQueued.get());
+		status.put("sessionEventDispatchBlocked", blocked.sum());
+		status.put("sessionEventDispatchBlockedTime", blockedTime.sum());
+		return status;
+	}
+}
@@ -0,0 +1,159 @@
+package fi.csc.chipster.sessiondb;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import fi.csc.chipster.rest.websocket.MessageFilter;
+import fi.csc.chipster.sessiondb.model.JobProgress;
+import fi.csc.chipster.sessiondb.model.SessionEvent;
+import fi.csc.chipster.sessiondb.model.SessionEvent.EventType;
+import fi.csc.chipster.sessiondb.model.SessionEvent.ResourceType;
+import jakarta.ws.rs.core.UriBuilder;
+
+/**
+ * Server-side filter for the session events of a websocket subscription
+ *
+ * The subscriber gives the filter in the query parameters of the websocket
+ * connection. For example, the servers following the ALL_JOBS_TOPIC care only
+ * about the job state changes, so they can leave out the progress updates of
+ * the running jobs. Each parameter can have several comma separated values.
+ * Events are sent if they match all given parameters.
+ */
+public class SessionEventFilter implements MessageFilter {
+
+	public static final String QUERY_PARAM_RESOURCE_TYPE = "resourceType";
+	public static final String QUERY_PARAM_EVENT_TYPE = "eventType";
+	public static final String QUERY_PARAM_STATE = "state";
+	public static final String QUERY_PARAM_PROGRESS = "progress";
+
+	// null to accept all
+	private Set<ResourceType> resourceTypes;
+	private Set<EventType> eventTypes;
+	private Set<String> states;
+	private boolean progress = true;
+
+	/**
+	 * Parse the filter from the query parameters
+	 *
+	 * @param parameters
+	 * @return filter or null if there were no filter parameters
+	 * @throws IllegalArgumentException if a parameter has an unknown value
+	 */
+	public static SessionEventFilter fromQueryParameters(Map<String, List<String>> parameters) {
+
+		SessionEventFilter filter = new SessionEventFilter();
+
+		filter.setResourceTypes(parse(parameters.get(QUERY_PARAM_RESOURCE_TYPE), ResourceType::valueOf));
+		filter.setEventTypes(parse(parameters.get(QUERY_PARAM_EVENT_TYPE), EventType::valueOf));
+		filter.setStates(parse(parameters.get(QUERY_PARAM_STATE), s -> s));
+
+		List<String> progressValues = parameters.get(QUERY_PARAM_PROGRESS);
+		if (progressValues != null && !progressValues.isEmpty()) {
+			filter.setProgress(Boolean.parseBoolean(progressValues.get(0)));
+		}
+
+		if (filter.resourceTypes == null && filter.eventTypes == null && filter.states == null && filter.progress) {
+			return null;
+		}
+		return filter;
+	}
+
+	private static <T> Set<T> parse(List<String> values, Function<String, T> parser) {
+		if (values == null || values.isEmpty()) {
+			return null;
+		}
+		HashSet<T> set = new HashSet<>();
+		for (String value : values) {
+			for (String item : value.split(",")) {
+				if (!item.isBlank()) {
+					set.add(parser.apply(item.trim()));
+				}
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * Add this filter to the query parameters of the websocket connection
+	 *
+	 * @param uriBuilder
+	 * @return
+	 */
+	public UriBuilder addQueryParameters(UriBuilder uriBuilder) {
+		if (resourceTypes != null) {
+			uriBuilder.queryParam(QUERY_PARAM_RESOURCE_TYPE, join(resourceTypes));
+		}
+		if (eventTypes != null) {
+			uriBuilder.queryParam(QUERY_PARAM_EVENT_TYPE, join(eventTypes));
+		}
+		if (states != null) {
+			uriBuilder.queryParam(QUERY_PARAM_STATE, join(states));
+		}
+		if (!progress) {
+			uriBuilder.queryParam(QUERY_PARAM_PROGRESS, false);
+		}
+		return uriBuilder;
+	}
+
+	private static String join(Set<?> values) {
+		return String.join(",", values.stream().map(Object::toString).toList());
+	}
+
+	@Override
+	public boolean accept(Object message) {
+		if (!(message instanceof SessionEvent event)) {
+			return true;
+		}
+		if (resourceTypes != null && !resourceTypes.contains(event.getResourceType())) {
+			return false;
+		}
+		if (eventTypes != null && !eventTypes.contains(event.getType())) {
+			return false;
+		}
+		if (states != null && !states.contains(event.getState())) {
+			return false;
+		}
+		if (!progress && JobProgress.isProgressEvent(event)) {
+			return false;
+		}
+		return true;
+	}
+
+	public Set<ResourceType> getResourceTypes() {
+		return resourceTypes;
+	}
+
+	public void setResourceTypes(Set<ResourceType> resourceTypes) {
+		this.resourceTypes = resourceTypes;
+	}
+
+	public Set<EventType> getEventTypes() {
+		return eventTypes;
+	}
+
+	public void setEventTypes(Set<EventType> eventTypes) {
+		this.eventTypes = eventTypes;
+	}
+
+	public Set<String> getStates() {
+		return states;
+	}
+
+	public void setStates(Set<String> states) {
+		this.states = states;
+	}
+
+	public boolean isProgress() {
+		return progress;
+	}
+
+	/**
+	 * @param progress false to leave out the progress updates of the running jobs
+	 */
+	public void setProgress(boolean progress) {
+		this.progress = progress;
+	}
+}
@@ -0,0 +1,116 @@
+package fi.csc.chipster.sessiondb.model;
+
+import java.time.Instant;
+
+import fi.csc.chipster.comp.JobState;
+import fi.csc.chipster.rest.RestUtils;
+import fi.csc.chipster.sessiondb.model.SessionEvent.EventType;
+import fi.csc.chipster.sessiondb.model.SessionEvent.ResourceType;
+import jakarta.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Progress update of a running job
+ *
+ * Comps send this instead of the whole Job object while the job is running.
+ * The screen output is only appended: screenOutputOffset is the length of the
+ * already sent screen output in UTF-8 bytes and screenOutputAppend is the new
+ * text after it. Null fields are not changed.
+ *
+ * The same object is passed in the SessionEvent.newObject of the
+ * resulting UPDATE event, so that the clients following the job can append the
+ * output without getting the whole job.
+ */
+@XmlRootElement
+public class JobProgress {
+
+	private JobState state;
+	private String stateDetail;
+	private Instant startTime;
+	private Long memoryUsage;
+	private Long storageUsage;
+	private long screenOutputOffset;
+	private String screenOutputAppend;
+
+	/**
+	 * Parse the progress from a job event
+	 *
+	 * @param event
+	 * @return the progress or null if this wasn't a progress event
+	 */
+	public static JobProgress fromEvent(SessionEvent event) {
+		if (!isProgressEvent(event)) {
+			return null;
+		}
+		return RestUtils.parseJson(JobProgress.class, event.getNewObject());
+	}
+
+	/**
+	 * Check if the event is a progress update of a running job
+	 *
+	 * The job state doesn't change in progress updates, so the servers following
+	 * only the job states can ignore these.
+	 *
+	 * @param event
+	 * @return
+	 */
+	public static boolean isProgressEvent(SessionEvent event) {
+		return event.getResourceType() == ResourceType.JOB && event.getType() == EventType.UPDATE
+				&& event.getNewObject() != null;
+	}
+
+	public JobState getState() {
+		return state;
+	}
+
+	public void setState(JobState state) {
+		this.state = state;
+	}
+
+	public String getStateDetail() {
+		return stateDetail;
+	}
+
+	public void setStateDetail(String stateDetail) {
+		this.stateDetail = stateDetail;
+	}
+
+	public Instant getStartTime() {
+		return startTime;
+	}
+
+	public void setStartTime(Instant startTime) {
+		this.startTime = startTime;
+	}
+
+	public Long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	public void setMemoryUsage(Long memoryUsage) {
+		this.memoryUsage = memoryUsage;
+	}
+
+	public Long getStorageUsage() {
+		return storageUsage;
+	}
+
+	public void setStorageUsage(Long storageUsage) {
+		this.storageUsage = storageUsage;
+	}
+
+	public long getScreenOutputOffset() {
+		return screenOutputOffset;
+	}
+
+	public void setScreenOutputOffset(long screenOutputOffset) {
+		this.screenOutputOffset = screenOutputOffset;
+	}
+
+	public String getScreenOutputAppend() {
+		return screenOutputAppend;
+	}
+
+	public void setScreenOutputAppend(String screenOutputAppend) {
+		this.screenOutputAppend = screenOutputAppend;
+	}
+}
@@ -3,8 +3,12 @@ package fi.csc.chipster.sessiondb.model;
 import java.time.Instant;
 import java.util.UUID;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import com.fasterxml.jackson.annotation.JsonUnwrapped;
 
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.EmbeddedId;
 import jakarta.persistence.Entity;
@@ -13,10 +17,14 @@ import jakarta.persistence.Table;
 import jakarta.xml.bind.annotation.XmlRootElement;
 
 @Entity // db
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Label.CACHE_REGION)
 @XmlRootElement // rest
 @Table(indexes = { @Index(columnList = "sessionId", name = "label_sessionid_index"), })
 public class Label {
 
+	public static final String CACHE_REGION = "sessiondb-label";
+
 	public static final int MAX_NAME_LENGTH = 30;
 	// the database column is varchar(64)
 	public static final int MAX_COLOR_LENGTH = 64;
@@ -3,20 +3,27 @@ package fi.csc.chipster.sessiondb.model;
 import java.time.Instant;
 import java.util.UUID;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.JdbcTypeCode;
 import org.hibernate.type.SqlTypes;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.xml.bind.annotation.XmlRootElement;
 
 @Entity // db
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = News.CACHE_REGION)
 @XmlRootElement // REST
 public class News {
 
+	public static final String CACHE_REGION = "sessiondb-news";
+
 	public News() {
 	} // JAXB needs this
 
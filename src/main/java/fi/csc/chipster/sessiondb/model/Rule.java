@@ -3,6 +3,10 @@ package fi.csc.chipster.sessiondb.model;
 import java.time.Instant;
 import java.util.UUID;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.FetchType;
@@ -15,6 +19,8 @@ import jakarta.persistence.Table;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Rule.CACHE_REGION)
 @Table(indexes = {
 		@Index(columnList = "username", name = "rule_username_index"),
 		@Index(columnList = "sessionId", name = "rule_sessionid_index"),
@@ -22,6 +28,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 })
 public class Rule {
 
+	public static final String CACHE_REGION = "sessiondb-rule";
+
 	@Id // db
 	@Column(columnDefinition = "uuid", updatable = false) // uuid instead of binary
 	private UUID ruleId;
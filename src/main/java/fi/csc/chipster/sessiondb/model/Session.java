@@ -4,6 +4,10 @@ import java.time.Instant;
 import java.util.Set;
 import java.util.UUID;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.FetchType;
@@ -13,9 +17,14 @@ import jakarta.persistence.OneToMany;
 import jakarta.xml.bind.annotation.XmlRootElement;
 
 @Entity // db
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Session.CACHE_REGION)
 @XmlRootElement // REST
 public class Session {
 
+	public static final String CACHE_REGION = "sessiondb-session";
+	public static final String RULES_CACHE_REGION = "sessiondb-session-rules";
+
 	public Session() {
 	} // JAXB needs this
 
@@ -30,6 +39,7 @@ public class Session {
 	private SessionState state;
 
 	@OneToMany(fetch = FetchType.LAZY, mappedBy = "session")
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Session.RULES_CACHE_REGION)
 	private Set<Rule> rules;
 
 	public UUID getSessionId() {
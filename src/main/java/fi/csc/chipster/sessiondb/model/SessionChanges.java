@@ -0,0 +1,102 @@
+package fi.csc.chipster.sessiondb.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import jakarta.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Changes of a session after an eventNumber
+ *
+ * Contains the current versions of the objects that have changed and the ids of
+ * the objects that have been deleted. The session is included only if the
+ * session itself or its rules have changed. If reload is true, the changes are
+ * not known anymore and the client has to load the whole session. Use the
+ * eventNumber in the next request.
+ */
+@XmlRootElement
+public class SessionChanges {
+
+	private boolean reload;
+	private long eventNumber;
+	private Session session;
+	private List<Dataset> datasets = new ArrayList<>();
+	private List<Job> jobs = new ArrayList<>();
+	private List<Label> labels = new ArrayList<>();
+	private List<UUID> deletedDatasets = new ArrayList<>();
+	private List<UUID> deletedJobs = new ArrayList<>();
+	private List<UUID> deletedLabels = new ArrayList<>();
+
+	public boolean isReload() {
+		return reload;
+	}
+
+	public void setReload(boolean reload) {
+		this.reload = reload;
+	}
+
+	public long getEventNumber() {
+		return eventNumber;
+	}
+
+	public void setEventNumber(long eventNumber) {
+		this.eventNumber = eventNumber;
+	}
+
+	public Session getSession() {
+		return session;
+	}
+
+	public void setSession(Session session) {
+		this.session = session;
+	}
+
+	public List<Dataset> getDatasets() {
+		return datasets;
+	}
+
+	public void setDatasets(List<Dataset> datasets) {
+		this.datasets = datasets;
+	}
+
+	public List<Job> getJobs() {
+		return jobs;
+	}
+
+	public void setJobs(List<Job> jobs) {
+		this.jobs = jobs;
+	}
+
+	public List<Label> getLabels() {
+		return labels;
+	}
+
+	public void setLabels(List<Label> labels) {
+		this.labels = labels;
+	}
+
+	public List<UUID> getDeletedDatasets() {
+		return deletedDatasets;
+	}
+
+	public void setDeletedDatasets(List<UUID> deletedDatasets) {
+		this.deletedDatasets = deletedDatasets;
+	}
+
+	public List<UUID> getDeletedJobs() {
+		return deletedJobs;
+	}
+
+	public void setDeletedJobs(List<UUID> deletedJobs) {
+		this.deletedJobs = deletedJobs;
+	}
+
+	public List<UUID> getDeletedLabels() {
+		return deletedLabels;
+	}
+
+	public void setDeletedLabels(List<UUID> deletedLabels) {
+		this.deletedLabels = deletedLabels;
+	}
+}
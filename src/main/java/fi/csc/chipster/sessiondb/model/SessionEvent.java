@@ -25,7 +25,8 @@ public class SessionEvent {
 	 * changed.
 	 * 
 	 * At the moment this is used only when a File is deleted and s3-storage needs
-	 * to know its S3 bucket.
+	 * to know its S3 bucket and in the progress updates of running jobs, where the
+	 * newObject is a JobProgress instead of the whole Job.
 	 * 
 	 */
 	private String oldObject;
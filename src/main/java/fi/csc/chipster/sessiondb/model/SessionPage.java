@@ -0,0 +1,35 @@
+package fi.csc.chipster.sessiondb.model;
+
+import java.util.List;
+
+import jakarta.xml.bind.annotation.XmlRootElement;
+
+/**
+ * One page of the session list
+ * 
+ * The sessions contain only the fields needed in the session list and only the
+ * user's own rule. Pass the "next" cursor to get the following page. It's null
+ * on the last page.
+ */
+@XmlRootElement
+public class SessionPage {
+
+	private List<Session> sessions;
+	private String next;
+
+	public List<Session> getSessions() {
+		return sessions;
+	}
+
+	public void setSessions(List<Session> sessions) {
+		this.sessions = sessions;
+	}
+
+	public String getNext() {
+		return next;
+	}
+
+	public void setNext(String next) {
+		this.next = next;
+	}
+}
@@ -0,0 +1,94 @@
+package fi.csc.chipster.sessiondb.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+
+/**
+ * Storage usage and session counts of one user
+ *
+ * The values are maintained by UserUsageTable. The changes of the user's rules
+ * and datasets update the values and increment the changes counter in the same
+ * transaction. The values have been recalculated from scratch after the latest
+ * change when reconciledChanges equals changes.
+ */
+@Entity // db
+public class UserUsage {
+
+	@Id // db
+	private String username;
+	private long readWriteSessions;
+	private long readOnlySessions;
+	private long size;
+	private long changes;
+	private long reconciledChanges;
+	private Instant reconciled;
+
+	public UserUsage() {
+	} // Hibernate needs this
+
+	public UserUsage(String username) {
+		this.username = username;
+	}
+
+	public boolean isReconciled() {
+		return changes == reconciledChanges;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public void setUsername(String username) {
+		this.username = username;
+	}
+
+	public long getReadWriteSessions() {
+		return readWriteSessions;
+	}
+
+	public void setReadWriteSessions(long readWriteSessions) {
+		this.readWriteSessions = readWriteSessions;
+	}
+
+	public long getReadOnlySessions() {
+		return readOnlySessions;
+	}
+
+	public void setReadOnlySessions(long readOnlySessions) {
+		this.readOnlySessions = readOnlySessions;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public void setSize(long size) {
+		this.size = size;
+	}
+
+	public long getChanges() {
+		return changes;
+	}
+
+	public void setChanges(long changes) {
+		this.changes = changes;
+	}
+
+	public long getReconciledChanges() {
+		return reconciledChanges;
+	}
+
+	public void setReconciledChanges(long reconciledChanges) {
+		this.reconciledChanges = reconciledChanges;
+	}
+
+	public Instant getReconciled() {
+		return reconciled;
+	}
+
+	public void setReconciled(Instant reconciled) {
+		this.reconciled = reconciled;
+	}
+}
@@ -1,17 +1,13 @@
 package fi.csc.chipster.sessiondb.resource;
 
-import java.util.List;
-import java.util.stream.Collectors;
-
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import fi.csc.chipster.auth.model.Role;
 import fi.csc.chipster.comp.JobState;
 import fi.csc.chipster.rest.hibernate.HibernateUtil;
-import fi.csc.chipster.rest.hibernate.Transaction;
 import fi.csc.chipster.scheduler.IdPair;
-import fi.csc.chipster.sessiondb.model.Job;
+import fi.csc.chipster.sessiondb.model.JobIdPair;
 import jakarta.annotation.security.RolesAllowed;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
@@ -22,6 +18,7 @@ import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.core.StreamingOutput;
 
 @Path("jobs")
 public class GlobalJobResource {
@@ -38,7 +35,6 @@ public class GlobalJobResource {
 	@GET
 	@RolesAllowed({ Role.SCHEDULER, Role.ADMIN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
 	public Response getAll(@QueryParam("state") String stateString, @Context SecurityContext sc) {
 
 		if (stateString == null) {
@@ -49,17 +45,18 @@ public class GlobalJobResource {
 			// throws if invalid
 			JobState state = JobState.valueOf(stateString);
 
-			List<Job> jobs = hibernate.session()
-					.createQuery("from Job where state=:state", Job.class)
-					.setParameter("state", state)
-					.list();
-
+			// select only the ids, loading the whole jobs would read all their large
+			// objects too
 			// Convert to IdPairs, because the Job JSON doesn't include the sessionId
 			// update: it does now, but is thisidPair list still a good concise format?
-			List<IdPair> idPairs = jobs.stream().map(job -> new IdPair(job.getSessionId(), job.getJobId()))
-					.collect(Collectors.toList());
+			// stream in its own transaction, because the list can be long after an outage
+			StreamingOutput stream = hibernate.streamJsonArray(
+					hibernateSession -> hibernateSession
+							.createQuery("select j.jobIdPair from Job j where j.state=:state", JobIdPair.class)
+							.setParameter("state", state),
+					id -> new IdPair(id.getSessionId(), id.getJobId()));
 
-			return Response.ok(idPairs).build();
+			return Response.ok(stream).type(MediaType.APPLICATION_JSON).build();
 
 		} catch (IllegalArgumentException e) {
 			return Response.status(Status.BAD_REQUEST).entity("invalid state").build();
@@ -5,10 +5,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
-import jakarta.persistence.NoResultException;
 import jakarta.persistence.criteria.CriteriaBuilder;
 import jakarta.persistence.criteria.CriteriaQuery;
-import jakarta.persistence.criteria.Root;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -72,16 +70,13 @@ public class NewsApi {
 
 	public News getNews(UUID newsId) {
 
-		try {
-			CriteriaBuilder cb = hibernate.session().getCriteriaBuilder();
-			CriteriaQuery<News> c = cb.createQuery(News.class);
-			Root<News> r = c.from(News.class);
-			c.where(cb.equal(r.get("newsId"), newsId));
-			return hibernate.getEntityManager().createQuery(c).getSingleResult();
+		// primary key lookup can use the second-level cache
+		News news = hibernate.session().find(News.class, newsId);
 
-		} catch (NoResultException e) {
+		if (news == null) {
 			throw new NotFoundException("news not found");
 		}
+		return news;
 	}
 
 	public void delete(UUID id) {
@@ -32,7 +32,7 @@ public class NewsResource {
 	@Path("{id}")
 	@RolesAllowed({ Role.CLIENT })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public News get(@PathParam("id") UUID newsId) {
 
 		return this.newsApi.getNews(newsId);
@@ -41,7 +41,7 @@ public class NewsResource {
 	@GET
 	@RolesAllowed({ Role.CLIENT })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public List<News> getAll() {
 
 		// curl 'http://127.0.0.1:8004/news' -H "Authorization: Basic $TOKEN"
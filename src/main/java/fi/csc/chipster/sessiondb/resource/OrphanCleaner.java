@@ -0,0 +1,340 @@
+package fi.csc.chipster.sessiondb.resource;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.query.NativeQuery;
+
+import fi.csc.chipster.rest.StatusSource;
+import fi.csc.chipster.rest.hibernate.HibernateUtil;
+import fi.csc.chipster.sessiondb.SessionDbTopicConfig;
+import fi.csc.chipster.sessiondb.model.Dataset;
+import fi.csc.chipster.sessiondb.model.File;
+import fi.csc.chipster.sessiondb.model.Job;
+import fi.csc.chipster.sessiondb.model.Rule;
+import fi.csc.chipster.sessiondb.model.Session;
+import fi.csc.chipster.sessiondb.model.SessionEvent;
+import fi.csc.chipster.sessiondb.model.SessionEvent.EventType;
+import fi.csc.chipster.sessiondb.model.SessionEvent.ResourceType;
+
+/**
+ * Find and delete db rows that don't belong to any session
+ *
+ * Checking whole tables with one NOT EXISTS query would keep a transaction
+ * open for minutes. This walks each table in the order of its primary key and
+ * handles one chunk of rows in each short transaction. The chunks are limited
+ * with row comparisons of all primary key columns, so that each chunk is an
+ * index range scan also in the tables with a composite primary key. There is a configurable
+ * pause between the chunks, so that this can run while the service is in use.
+ *
+ * Only one check or deletion can run at a time. The progress is shown in the
+ * admin status.
+ *
+ * The deleted sessions and rules are published as events, because the other
+ * session-db replicas may have them in their caches.
+ */
+public class OrphanCleaner implements StatusSource {
+
+	private static Logger logger = LogManager.getLogger();
+
+	/**
+	 * Table and its orphan condition
+	 *
+	 * @param table       table name
+	 * @param key         columns of the primary key, in the order of the index
+	 * @param condition   true for the orphan rows of the table "t"
+	 * @param entityClass entity of the table, to invalidate its second-level cache
+	 * @param eventType   resource type of the delete events, null if the table
+	 *                    isn't cached
+	 */
+	private record OrphanTable(String table, List<String> key, String condition, Class<?> entityClass,
+			ResourceType eventType) {
+	}
+
+	// sessions first, because their datasets, jobs and files will be orphans after
+	// that
+	private static final List<OrphanTable> TABLES = List.of(
+			new OrphanTable("session", List.of("sessionid"),
+					"not exists (select from rule r where t.sessionid = r.sessionid)", Session.class,
+					ResourceType.SESSION),
+			new OrphanTable("rule", List.of("ruleid"),
+					"not exists (select from session s where t.sessionid = s.sessionid)", Rule.class,
+					ResourceType.RULE),
+			new OrphanTable("job", List.of("sessionid", "jobid"),
+					"not exists (select from session s where t.sessionid = s.sessionid)", Job.class, null),
+			new OrphanTable("dataset", List.of("sessionid", "datasetid"),
+					"not exists (select from session s where t.sessionid = s.sessionid)", Dataset.class, null),
+			new OrphanTable("file", List.of("fileid"),
+					"not exists (select from dataset d where t.fileid = d.fileid)", File.class, null));
+
+	private static final UUID FIRST_KEY = new UUID(0, 0);
+
+	private HibernateUtil hibernate;
+	private SessionDbApi sessionDbApi;
+	private int chunkSize;
+	private long chunkDelay;
+
+	private Thread thread;
+
+	// progress of the latest run
+	private volatile boolean delete;
+	private volatile String currentTable;
+	private volatile long chunks;
+	private volatile Instant startTime;
+	private volatile Instant endTime;
+	private volatile String error;
+	private Map<String, Long> orphans = new LinkedHashMap<>();
+
+	/**
+	 * @param hibernate
+	 * @param sessionDbApi for publishing the delete events
+	 * @param chunkSize    rows in each transaction
+	 * @param chunkDelay   milliseconds to wait between the chunks
+	 */
+	public OrphanCleaner(HibernateUtil hibernate, SessionDbApi sessionDbApi, int chunkSize, long chunkDelay) {
+		this.hibernate = hibernate;
+		this.sessionDbApi = sessionDbApi;
+		this.chunkSize = chunkSize;
+		this.chunkDelay = chunkDelay;
+
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunk size must be at least 1, got: " + chunkSize);
+		}
+	}
+
+	/**
+	 * Start counting or deleting the orphans in a background thread
+	 *
+	 * @param delete delete the orphans, otherwise only count them
+	 * @return false if the previous run hasn't finished yet
+	 */
+	public synchronized boolean start(boolean delete) {
+
+		if (isRunning()) {
+			return false;
+		}
+
+		this.delete = delete;
+		this.chunks = 0;
+		this.startTime = Instant.now();
+		this.endTime = null;
+		this.error = null;
+		synchronized (orphans) {
+			orphans.clear();
+		}
+
+		this.thread = new Thread(() -> run(), "orphan-cleaner");
+		this.thread.setDaemon(true);
+		this.thread.start();
+
+		return true;
+	}
+
+	public boolean isRunning() {
+		return thread != null && thread.isAlive();
+	}
+
+	public void close() {
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	private void run() {
+		try {
+			for (OrphanTable table : TABLES) {
+				currentTable = table.table();
+				long count = walk(table);
+
+				synchronized (orphans) {
+					orphans.put(table.table(), count);
+				}
+				logger.info((delete ? "deleted orphans: " : "check orphans: ") + table.table() + " " + count);
+			}
+		} catch (InterruptedException e) {
+			error = "interrupted";
+			logger.warn("orphan " + (delete ? "deletion" : "check") + " interrupted");
+		} catch (RuntimeException e) {
+			error = e.getMessage();
+			logger.error("orphan " + (delete ? "deletion" : "check") + " failed", e);
+		} finally {
+			currentTable = null;
+			endTime = Instant.now();
+		}
+	}
+
+	/**
+	 * Count or delete the orphans of one table
+	 *
+	 * @param table
+	 * @return number of orphans
+	 * @throws InterruptedException
+	 */
+	private long walk(OrphanTable table) throws InterruptedException {
+
+		String key = row("t.", table.key(), "");
+
+		// upper bound of the next chunk, null if it's the last chunk
+		String sqlUpper = "select " + String.join(", ", table.key()) + " from " + table.table() + " t where " + key
+				+ " > " + row(":", table.key(), "After") + " order by " + String.join(", ", table.key())
+				+ " offset :offset limit 1";
+
+		String where = " from " + table.table() + " t where " + key + " > " + row(":", table.key(), "After") + " and "
+				+ table.condition();
+		String sqlLastChunk = (delete ? "delete" : "select count(*)") + where;
+		String sqlChunk = sqlLastChunk + " and " + key + " <= " + row(":", table.key(), "Upper");
+
+		if (delete && table.eventType() != null) {
+			// the session and resource ids for the events
+			String returning = " returning t.sessionid, t." + table.key().get(table.key().size() - 1);
+			sqlLastChunk += returning;
+			sqlChunk += returning;
+		}
+
+		Object[] after = new Object[table.key().size()];
+		Arrays.fill(after, FIRST_KEY);
+		long count = 0;
+
+		while (true) {
+			final Object[] chunkAfter = after;
+
+			Object[] result = hibernate.runInTransaction(hibernateSession -> {
+
+				Object[] upper = setKey(hibernateSession.createNativeQuery(sqlUpper, Object[].class), table, "After",
+						chunkAfter)
+						.setParameter("offset", chunkSize - 1)
+						.uniqueResult();
+
+				Class<?> resultClass = !delete ? Long.class : table.eventType() != null ? Object[].class : Void.class;
+
+				NativeQuery<?> query;
+				if (upper == null) {
+					query = hibernateSession.createNativeQuery(sqlLastChunk, resultClass);
+				} else {
+					query = setKey(hibernateSession.createNativeQuery(sqlChunk, resultClass), table, "Upper", upper);
+				}
+				setKey(query, table, "After", chunkAfter);
+
+				long chunkOrphans;
+				if (!delete) {
+					chunkOrphans = (Long) query.getSingleResult();
+				} else if (table.eventType() == null) {
+					chunkOrphans = query.addSynchronizedEntityClass(table.entityClass()).executeUpdate();
+				} else {
+					List<?> deleted = query.list();
+					publishDeleted(table, deleted, hibernateSession);
+					chunkOrphans = deleted.size();
+				}
+				return new Object[] { upper, chunkOrphans };
+			});
+
+			if (result == null) {
+				// runInTransaction() has logged the exception
+				throw new RuntimeException("orphan query failed in table " + table.table());
+			}
+
+			Object[] upper = (Object[]) result[0];
+			count += (Long) result[1];
+			chunks++;
+
+			if (upper == null) {
+				// this was the last chunk
+				return count;
+			}
+
+			after = upper;
+
+			if (chunkDelay > 0) {
+				Thread.sleep(chunkDelay);
+			}
+		}
+	}
+
+	/**
+	 * Evict the deleted rows from the caches of this and the other replicas
+	 *
+	 * Hibernate doesn't know what the "delete ... returning" query does, so the
+	 * local cache region is evicted here. The events are sent after the commit.
+	 *
+	 * @param table
+	 * @param deleted          rows of the session id and the resource id
+	 * @param hibernateSession
+	 */
+	private void publishDeleted(OrphanTable table, List<?> deleted, org.hibernate.Session hibernateSession) {
+		if (deleted.isEmpty()) {
+			return;
+		}
+
+		hibernate.getSessionFactory().getCache().evictEntityData(table.entityClass());
+
+		for (Object row : deleted) {
+			UUID sessionId = (UUID) ((Object[]) row)[0];
+			UUID resourceId = (UUID) ((Object[]) row)[1];
+
+			sessionDbApi.publish(SessionDbTopicConfig.SESSIONS_TOPIC_PREFIX + sessionId,
+					new SessionEvent(sessionId, table.eventType(), resourceId, EventType.DELETE), hibernateSession);
+		}
+	}
+
+	/**
+	 * Row value of the key columns, e.g. "(t.sessionid, t.jobid)"
+	 *
+	 * @param prefix
+	 * @param columns
+	 * @param suffix
+	 * @return
+	 */
+	private static String row(String prefix, List<String> columns, String suffix) {
+		return columns.stream()
+				.map(c -> prefix + c + suffix)
+				.collect(Collectors.joining(", ", "(", ")"));
+	}
+
+	private static <T> NativeQuery<T> setKey(NativeQuery<T> query, OrphanTable table, String suffix, Object[] values) {
+		for (int i = 0; i < values.length; i++) {
+			query.setParameter(table.key().get(i) + suffix, values[i]);
+		}
+		return query;
+	}
+
+	/**
+	 * Progress of the latest run
+	 *
+	 * @return
+	 */
+	public Map<String, Object> getProgress() {
+		HashMap<String, Object> progress = new HashMap<>();
+		progress.put("running", isRunning());
+		progress.put("delete", delete);
+		progress.put("table", currentTable);
+		progress.put("chunks", chunks);
+		progress.put("startTime", startTime);
+		progress.put("endTime", endTime);
+		progress.put("error", error);
+		synchronized (orphans) {
+			progress.put("orphans", new LinkedHashMap<>(orphans));
+		}
+		return progress;
+	}
+
+	@Override
+	public Map<String, Object> getStatus() {
+		HashMap<String, Object> status = new HashMap<>();
+		status.put("orphanCleanerRunning", isRunning() ? 1 : 0);
+		status.put("orphanCleanerChunks", chunks);
+		synchronized (orphans) {
+			for (String table : orphans.keySet()) {
+				status.put("orphanCleanerOrphans,table=" + table, orphans.get(table));
+			}
+		}
+		return status;
+	}
+}
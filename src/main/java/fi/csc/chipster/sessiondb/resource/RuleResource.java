@@ -55,7 +55,7 @@ public class RuleResource {
 	@GET
 	@Path("{id}")
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response get(@PathParam("id") UUID authorizationId, @Context SecurityContext sc) throws IOException {
 
 		ruleTable.checkSessionReadAuthorization(sc, sessionId);
@@ -68,7 +68,7 @@ public class RuleResource {
 
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response getBySession(@Context SecurityContext sc) {
 		ruleTable.checkSessionReadAuthorization(sc, sessionId);
 		List<Rule> rules = this.sessionDbApi.getRules(sessionId);
@@ -2,7 +2,6 @@ package fi.csc.chipster.sessiondb.resource;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.math.BigDecimal;
 import java.security.Principal;
 import java.util.List;
 import java.util.Map;
@@ -61,12 +60,16 @@ public class RuleTable {
 	// map appId (chipster/mylly) to example session owner account for that app
 	private Map<String, String> restrictSharingToEveryone;
 
+	private SessionAuthorizationCache authorizationCache;
+
 	public RuleTable(HibernateUtil hibernate) {
 		this.hibernate = hibernate;
 		this.config = new Config();
 		this.servicesAccounts = config.getServicePasswords().keySet();
 		this.restrictSharingToEveryone = config
 				.getConfigEntries(Config.KEY_SESSION_DB_RESTRICT_SHARING_TO_EVERYONE + "-");
+		this.authorizationCache = new SessionAuthorizationCache(
+				config.getInt(Config.KEY_SESSION_DB_AUTHORIZATION_CACHE_SIZE));
 	}
 
 	public Rule getRule(UUID ruleId, org.hibernate.Session hibernateSession) {
@@ -138,7 +141,9 @@ public class RuleTable {
 	}
 
 	public List<Rule> getShares(String userIdString) {
-		return hibernate.session().createQuery("from Rule where sharedBy=:sharedBy", Rule.class)
+		// fetch sessions in the same query
+		return hibernate.session()
+				.createQuery("select r from Rule r join fetch r.session where r.sharedBy=:sharedBy", Rule.class)
 				.setParameter("sharedBy", userIdString).list();
 	}
 
@@ -292,24 +297,45 @@ public class RuleTable {
 				throw new ForbiddenException("username is null");
 			}
 
-			Session session = getSession(requestSessionId);
+			Session session;
+			SessionAuthorizationCache.Access access = authorizationCache.get(requestSessionId, username);
 
-			if (session == null) {
-				throw new NotFoundException("session not found");
-			}
+			if (access == null) {
+
+				// take the generation before the query to notice concurrent changes
+				long generation = authorizationCache.getGeneration();
+
+				session = getSession(requestSessionId);
+
+				if (session == null) {
+					throw new NotFoundException("session not found");
+				}
+
+				access = SessionAuthorizationCache.Access.of(getRule(username, session, hibernateSession));
+
+				authorizationCache.put(requestSessionId, username, access, generation, hibernate.isReplicaBound());
+
+			} else {
 
-			Rule rule = getRule(username, session, hibernateSession);
+				// rules are known already, a simple primary key lookup is enough
+				session = hibernateSession.find(Session.class, requestSessionId);
+
+				if (session == null) {
+					authorizationCache.invalidate(requestSessionId);
+					throw new NotFoundException("session not found");
+				}
+			}
 
 			if (allowAdmin && token.getRoles().contains(Role.ADMIN)) {
 				return session;
 			}
 
-			if (rule == null) {
+			if (access == SessionAuthorizationCache.Access.NONE) {
 				throw new ForbiddenException("access denied");
 			}
 
 			if (requireReadWrite) {
-				if (!rule.isReadWrite()) {
+				if (access != SessionAuthorizationCache.Access.READ_WRITE) {
 					throw new ForbiddenException("read-write access denied");
 				}
 			}
@@ -499,21 +525,19 @@ public class RuleTable {
 		return checkSessionAuthorization(token, sessionId, requireReadWrite, hibernateSession, allowAdmin);
 	}
 
-	public long getTotalSize(String username) {
-		// use native query, because Hibernate 5 doesn't support subqueries in from or
-		// join clauses
-		BigDecimal size = (BigDecimal) hibernate.session().createNativeQuery(
-				"select sum(size) from file inner join ("
-						+ "    select distinct dataset.fileid from rule "
-						+ "        inner join dataset on rule.sessionid=dataset.sessionid "
-						+ "    where rule.username=:username and readWrite=true) as dataset_fileid on dataset_fileid.fileid=file.fileid",
-				BigDecimal.class)
-				.setParameter("username", username).getSingleResult();
-
-		if (size == null) {
-			// no sessions or datasets
-			return 0;
-		}
-		return size.longValue();
+	/**
+	 * Forget the cached access levels of the session
+	 * 
+	 * Usually you should use this through SessionDbApi, which will invalidate the
+	 * session again after the transaction is completed.
+	 * 
+	 * @param sessionId
+	 */
+	public void invalidateAuthorization(UUID sessionId) {
+		authorizationCache.invalidate(sessionId);
+	}
+
+	public SessionAuthorizationCache getAuthorizationCache() {
+		return authorizationCache;
 	}
 }
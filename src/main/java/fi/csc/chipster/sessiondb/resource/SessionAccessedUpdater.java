@@ -0,0 +1,206 @@
+package fi.csc.chipster.sessiondb.resource;
+
+import java.sql.PreparedStatement;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.Cache;
+
+import fi.csc.chipster.rest.StatusSource;
+import fi.csc.chipster.rest.hibernate.HibernateUtil;
+import fi.csc.chipster.rest.hibernate.HibernateUtil.HibernateRunnable;
+import fi.csc.chipster.sessiondb.model.Session;
+
+/**
+ * Write-behind buffer for the Session.accessed timestamps
+ *
+ * Every session GET used to update the accessed timestamp in the DB, so reading
+ * a session caused a row write. Now the timestamps are collected in memory, only
+ * the latest timestamp of each session is kept and all of them are written in
+ * one JDBC batch every few seconds.
+ *
+ * The timestamp is only moved forward in the DB, so a flush won't overwrite a
+ * newer timestamp that was set e.g. in SessionResource.put().
+ *
+ * The update doesn't publish events, so the ETags of the sessions are changed
+ * in the SessionChangeLog after the flush.
+ */
+public class SessionAccessedUpdater implements StatusSource {
+
+	private static Logger logger = LogManager.getLogger();
+
+	private static final String SQL_UPDATE_ACCESSED = "update session set accessed = ? where sessionid = ? and (accessed is null or accessed < ?)";
+
+	private static final int BATCH_SIZE = 1000;
+
+	private HibernateUtil hibernate;
+	private SessionChangeLog changeLog;
+
+	private ConcurrentHashMap<UUID, Instant> pending = new ConcurrentHashMap<>();
+
+	private Timer flushTimer;
+
+	private final LongAdder updatesReceived = new LongAdder();
+	private final LongAdder updatesCoalesced = new LongAdder();
+	private final LongAdder rowsWritten = new LongAdder();
+	private final LongAdder flushCount = new LongAdder();
+	private final LongAdder flushErrors = new LongAdder();
+
+	/**
+	 * @param hibernate
+	 * @param changeLog
+	 * @param flushInterval seconds between the DB updates
+	 */
+	public SessionAccessedUpdater(HibernateUtil hibernate, SessionChangeLog changeLog, long flushInterval) {
+		this.hibernate = hibernate;
+		this.changeLog = changeLog;
+
+		if (flushInterval < 1) {
+			throw new IllegalArgumentException("flush interval must be at least 1 second, got: " + flushInterval);
+		}
+
+		this.flushTimer = new Timer("session-accessed-updater", true);
+		this.flushTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (Exception e) {
+					// keep the timer running
+					logger.error("failed to update session accessed timestamps", e);
+				}
+			}
+		}, flushInterval * 1000, flushInterval * 1000);
+	}
+
+	/**
+	 * Remember that the session was accessed
+	 *
+	 * The DB is updated later in {@link #flush()}.
+	 *
+	 * @param sessionId
+	 * @param accessed
+	 */
+	public void accessed(UUID sessionId, Instant accessed) {
+		updatesReceived.increment();
+
+		pending.merge(sessionId, accessed, (previous, next) -> {
+			updatesCoalesced.increment();
+			return next.isAfter(previous) ? next : previous;
+		});
+	}
+
+	/**
+	 * Write all pending timestamps to the DB
+	 *
+	 * Called periodically from the timer and once more in {@link #close()}.
+	 */
+	public synchronized void flush() {
+
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		// take the entries out one by one, new updates can arrive concurrently
+		HashMap<UUID, Instant> batch = new HashMap<>();
+		for (UUID sessionId : pending.keySet()) {
+			Instant accessed = pending.remove(sessionId);
+			if (accessed != null) {
+				batch.put(sessionId, accessed);
+			}
+		}
+
+		long startTime = System.currentTimeMillis();
+
+		Integer updated = hibernate.runInTransaction(new HibernateRunnable<Integer>() {
+			@Override
+			public Integer run(org.hibernate.Session hibernateSession) {
+				return hibernateSession.doReturningWork(connection -> {
+
+					int rows = 0;
+					List<UUID> sessionIds = new ArrayList<>(batch.keySet());
+
+					try (PreparedStatement statement = connection.prepareStatement(SQL_UPDATE_ACCESSED)) {
+
+						for (int i = 0; i < sessionIds.size(); i++) {
+							UUID sessionId = sessionIds.get(i);
+							Instant accessed = batch.get(sessionId);
+
+							statement.setObject(1, accessed.atOffset(ZoneOffset.UTC));
+							statement.setObject(2, sessionId);
+							statement.setObject(3, accessed.atOffset(ZoneOffset.UTC));
+							statement.addBatch();
+
+							if ((i + 1) % BATCH_SIZE == 0 || i == sessionIds.size() - 1) {
+								for (int count : statement.executeBatch()) {
+									// SUCCESS_NO_INFO is negative
+									rows += Math.max(count, 0);
+								}
+							}
+						}
+					}
+					return rows;
+				});
+			}
+		});
+
+		flushCount.increment();
+
+		if (updated == null) {
+			// the transaction failed and it was logged already. Put the timestamps back
+			// to try again later, unless there are newer ones already
+			flushErrors.increment();
+			for (UUID sessionId : batch.keySet()) {
+				pending.merge(sessionId, batch.get(sessionId), (previous, next) -> next.isAfter(previous) ? next
+						: previous);
+			}
+		} else {
+			rowsWritten.add(updated);
+
+			// the JDBC update bypasses the second-level cache
+			Cache cache = hibernate.getSessionFactory().getCache();
+			for (UUID sessionId : batch.keySet()) {
+				cache.evictEntityData(Session.class, sessionId);
+				changeLog.touch(sessionId);
+			}
+
+			logger.debug("updated accessed timestamps of " + updated + "/" + batch.size() + " sessions in "
+					+ (System.currentTimeMillis() - startTime) + " ms");
+		}
+	}
+
+	/**
+	 * Stop the timer and write the pending timestamps
+	 *
+	 * Call this before the SessionFactory is closed.
+	 */
+	public void close() {
+		flushTimer.cancel();
+		flush();
+	}
+
+	@Override
+	public Map<String, Object> getStatus() {
+		HashMap<String, Object> status = new HashMap<>();
+
+		status.put("sessionAccessedPending", pending.size());
+		status.put("sessionAccessedUpdatesReceived", updatesReceived.sum());
+		status.put("sessionAccessedUpdatesCoalesced", updatesCoalesced.sum());
+		status.put("sessionAccessedRowsWritten", rowsWritten.sum());
+		status.put("sessionAccessedFlushes", flushCount.sum());
+		status.put("sessionAccessedFlushErrors", flushErrors.sum());
+
+		return status;
+	}
+}
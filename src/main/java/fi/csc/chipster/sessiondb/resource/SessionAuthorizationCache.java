@@ -0,0 +1,170 @@
+package fi.csc.chipster.sessiondb.resource;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+import fi.csc.chipster.rest.StatusSource;
+import fi.csc.chipster.sessiondb.model.Rule;
+
+/**
+ * In-process cache of the session access levels
+ *
+ * RuleTable.checkSessionAuthorization() is called on almost every session-db
+ * request. This cache remembers the access level of each (sessionId, username)
+ * pair, so that the Rule table doesn't have to be queried again for the same
+ * session.
+ *
+ * Entries are grouped by the sessionId, because all changes that affect the
+ * access are session-level changes: rules are created, updated or deleted or
+ * the whole session is deleted. SessionDbApi invalidates the session both
+ * right away and again after the transaction has completed.
+ *
+ * The generation counter protects against a race where a reader loads the
+ * rules before a concurrent change is committed and puts the old result in
+ * the cache after the invalidation. Readers take the generation before the
+ * query and the result is stored only if no invalidation has happened in
+ * between.
+ *
+ * The generation doesn't help when the rules are read from the db replica. The
+ * replica may lag behind the primary, so it can return a revoked rule after
+ * the invalidation. Results read from the replica are not stored.
+ */
+public class SessionAuthorizationCache implements StatusSource {
+
+	public enum Access {
+		NONE, READ_ONLY, READ_WRITE;
+
+		public static Access of(Rule rule) {
+			if (rule == null) {
+				return NONE;
+			}
+			return rule.isReadWrite() ? READ_WRITE : READ_ONLY;
+		}
+	}
+
+	private final int maxSessions;
+
+	// access-ordered to evict the least recently used session first
+	private final LinkedHashMap<UUID, HashMap<String, Access>> sessions;
+
+	private long generation = 0;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+	private final LongAdder stalePuts = new LongAdder();
+	private final LongAdder replicaPuts = new LongAdder();
+
+	/**
+	 * @param maxSessions maximum number of sessions to keep in the cache, 0 to
+	 *                    disable caching
+	 */
+	public SessionAuthorizationCache(int maxSessions) {
+		this.maxSessions = maxSessions;
+		this.sessions = new LinkedHashMap<UUID, HashMap<String, Access>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<UUID, HashMap<String, Access>> eldest) {
+				if (size() > SessionAuthorizationCache.this.maxSessions) {
+					evictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param sessionId
+	 * @param username
+	 * @return cached access level or null if it isn't in the cache
+	 */
+	public synchronized Access get(UUID sessionId, String username) {
+		HashMap<String, Access> users = sessions.get(sessionId);
+		Access access = users != null ? users.get(username) : null;
+
+		if (access == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return access;
+	}
+
+	/**
+	 * Get the current generation
+	 *
+	 * Call this before loading the rules from the DB and pass the value to
+	 * {@link #put(UUID, String, Access, long, boolean)}.
+	 *
+	 * @return
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Store the access level, unless the cache was invalidated after the
+	 * generation was taken or the access level was read from the db replica
+	 *
+	 * @param sessionId
+	 * @param username
+	 * @param access
+	 * @param generation
+	 * @param replica    true if the rules were read from the db replica
+	 */
+	public synchronized void put(UUID sessionId, String username, Access access, long generation, boolean replica) {
+		if (maxSessions <= 0) {
+			return;
+		}
+
+		if (replica) {
+			replicaPuts.increment();
+			return;
+		}
+
+		if (generation != this.generation) {
+			stalePuts.increment();
+			return;
+		}
+
+		sessions.computeIfAbsent(sessionId, id -> new HashMap<>()).put(username, access);
+	}
+
+	/**
+	 * Forget everything about the session
+	 *
+	 * @param sessionId
+	 */
+	public synchronized void invalidate(UUID sessionId) {
+		sessions.remove(sessionId);
+		generation++;
+		invalidations.increment();
+	}
+
+	public synchronized void clear() {
+		sessions.clear();
+		generation++;
+		invalidations.increment();
+	}
+
+	@Override
+	public Map<String, Object> getStatus() {
+		HashMap<String, Object> status = new HashMap<>();
+
+		synchronized (this) {
+			status.put("authCacheSessions", sessions.size());
+		}
+		status.put("authCacheHits", hits.sum());
+		status.put("authCacheMisses", misses.sum());
+		status.put("authCacheEvictions", evictions.sum());
+		status.put("authCacheInvalidations", invalidations.sum());
+		status.put("authCacheStalePuts", stalePuts.sum());
+		status.put("authCacheReplicaPuts", replicaPuts.sum());
+
+		return status;
+	}
+}
@@ -0,0 +1,312 @@
+package fi.csc.chipster.sessiondb.resource;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import fi.csc.chipster.rest.RestUtils;
+import fi.csc.chipster.rest.StatusSource;
+import fi.csc.chipster.rest.websocket.MessageSequence;
+import fi.csc.chipster.sessiondb.model.SessionEvent;
+import fi.csc.chipster.sessiondb.model.SessionEvent.EventType;
+import fi.csc.chipster.sessiondb.model.SessionEvent.ResourceType;
+import jakarta.ws.rs.core.EntityTag;
+
+/**
+ * Bounded in-memory log of the latest events of each session
+ *
+ * Every session event gets an eventNumber from this log before it's published.
+ * When the websocket of a client reconnects, the client can ask for the changes
+ * after the last event it received, instead of loading the whole session again.
+ *
+ * The numbers increase over all sessions. Each session remembers the number
+ * before its oldest logged event. Older numbers can't be answered and the
+ * client has to reload the session. This happens also when the session has
+ * been evicted from the log or when there have been more events than fit in the
+ * log of one session.
+ *
+ * Each replica and each restart numbers the events independently, so a client
+ * may come back with a number that this log didn't give. The high bits of the
+ * numbers are a random prefix of this log and only the numbers with the same
+ * prefix are answered. The numbers stay below 2^53 to keep them exact in
+ * JavaScript.
+ *
+ * The websocket messages of the session-db are numbered from the same counter,
+ * so the clients can use the same number for resuming the websocket and for
+ * the delta sync.
+ */
+public class SessionChangeLog implements StatusSource, MessageSequence {
+
+	private static class Log {
+		// the log contains all events after this
+		private long floor;
+		private ArrayDeque<SessionEvent> events = new ArrayDeque<>();
+		// number of the latest change, also of the changes without an event
+		private long lastChange;
+
+		Log(long floor) {
+			this.floor = floor;
+			this.lastChange = floor;
+		}
+	}
+
+	private static final int COUNTER_BITS = 32;
+	private static final int PREFIX_BITS = 21;
+
+	private final int maxSessions;
+	private final int maxEvents;
+
+	private long prefix;
+	private long eventNumber;
+
+	// sessions without a log haven't had any events after this, if none of the
+	// logs has been evicted
+	private long startNumber;
+
+	// to make the ETags of different replicas different
+	private final String instanceId = RestUtils.createUUID().toString();
+
+	// access-ordered to evict the least recently used session first
+	private final LinkedHashMap<UUID, Log> sessions;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxSessions maximum number of sessions to keep in the log
+	 * @param maxEvents   maximum number of events to keep for each session
+	 */
+	public SessionChangeLog(int maxSessions, int maxEvents) {
+		this.maxSessions = maxSessions;
+		this.maxEvents = maxEvents;
+		this.sessions = new LinkedHashMap<UUID, Log>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<UUID, Log> eldest) {
+				if (size() > SessionChangeLog.this.maxSessions) {
+					evictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+		newPrefix();
+	}
+
+	/**
+	 * Start numbering with a new random prefix
+	 *
+	 * The numbers of the old prefix aren't answered anymore, so the logs are
+	 * cleared too.
+	 */
+	private void newPrefix() {
+		long oldPrefix = prefix;
+		do {
+			// not zero, so that the numbers are always positive and a zero from the
+			// client is never answered
+			prefix = ThreadLocalRandom.current().nextLong(1, 1l << PREFIX_BITS);
+		} while (prefix == oldPrefix);
+
+		eventNumber = prefix << COUNTER_BITS;
+		startNumber = eventNumber;
+		sessions.clear();
+	}
+
+	/**
+	 * @param number
+	 * @return true if the number was given by this log
+	 */
+	private boolean isOwn(long number) {
+		return number >>> COUNTER_BITS == prefix;
+	}
+
+	/**
+	 * Give the next eventNumber to the event and add it to the log of its session
+	 *
+	 * @param event
+	 */
+	public synchronized void add(SessionEvent event) {
+		long number = nextNumber();
+		event.setEventNumber(number);
+
+		if (event.getSessionId() == null) {
+			return;
+		}
+
+		if (ResourceType.SESSION == event.getResourceType() && EventType.DELETE == event.getType()) {
+			// there is nothing to sync anymore
+			sessions.remove(event.getSessionId());
+			return;
+		}
+
+		Log log = getLog(event.getSessionId(), number - 1);
+		log.events.add(event);
+		log.lastChange = number;
+
+		if (log.events.size() > maxEvents) {
+			log.floor = log.events.remove().getEventNumber();
+		}
+	}
+
+	/**
+	 * Change the ETag of the session without an event
+	 *
+	 * For the changes that the clients don't need to sync, e.g. the accessed
+	 * timestamp.
+	 *
+	 * @param sessionId
+	 */
+	public synchronized void touch(UUID sessionId) {
+		long number = nextNumber();
+		getLog(sessionId, number - 1).lastChange = number;
+	}
+
+	/**
+	 * Change the ETag of the session and make the clients reload it
+	 *
+	 * For the changes that don't publish events, e.g. the datasets deleted
+	 * together with their file.
+	 *
+	 * @param sessionId
+	 */
+	public synchronized void invalidate(UUID sessionId) {
+		long number = nextNumber();
+		Log log = getLog(sessionId, number);
+		log.events.clear();
+		log.floor = number;
+		log.lastChange = number;
+	}
+
+	private long nextNumber() {
+		if (!isOwn(eventNumber + 1)) {
+			// the counter is full, continue like after a restart
+			newPrefix();
+		}
+		return ++eventNumber;
+	}
+
+	/**
+	 * @param sessionId
+	 * @param floor     floor of the new log, if the session doesn't have one yet
+	 * @return
+	 */
+	private Log getLog(UUID sessionId, long floor) {
+		Log log = sessions.get(sessionId);
+		if (log == null) {
+			log = new Log(floor);
+			sessions.put(sessionId, log);
+		}
+		return log;
+	}
+
+	/**
+	 * Get the events of the session after the given eventNumber
+	 *
+	 * @param sessionId
+	 * @param since
+	 * @return events in order or null if the log doesn't reach so far back
+	 */
+	public synchronized List<SessionEvent> getEvents(UUID sessionId, long since) {
+		Log log = sessions.get(sessionId);
+
+		if (!isOwn(since) || since > eventNumber) {
+			// number from another replica or from before a restart
+			misses.increment();
+			return null;
+		}
+
+		if (log == null) {
+			// no events after this server started or the log of the session was evicted
+			if (evictions.sum() == 0 && since >= startNumber) {
+				hits.increment();
+				return new ArrayList<>();
+			}
+			misses.increment();
+			return null;
+		}
+
+		if (since < log.floor) {
+			misses.increment();
+			return null;
+		}
+
+		hits.increment();
+		ArrayList<SessionEvent> events = new ArrayList<>();
+		for (SessionEvent event : log.events) {
+			if (event.getEventNumber() > since) {
+				events.add(event);
+			}
+		}
+		return events;
+	}
+
+	/**
+	 * Weak ETag of the session, its datasets, jobs, labels and rules
+	 * 
+	 * Most changes of these objects publish an event and the rest call
+	 * {@link #touch(UUID)} or {@link #invalidate(UUID)}, so the number of the
+	 * latest change of the session is enough to identify the version. The numbers
+	 * of different session-db replicas aren't comparable, so the ETag includes
+	 * also the id of this log.
+	 * 
+	 * @param sessionId
+	 * @return ETag or null if the latest change isn't known anymore
+	 */
+	public synchronized EntityTag getEntityTag(UUID sessionId) {
+		Log log = sessions.get(sessionId);
+
+		long latest;
+		if (log != null) {
+			latest = log.lastChange;
+		} else if (evictions.sum() == 0) {
+			// no changes after the start
+			latest = startNumber;
+		} else {
+			return null;
+		}
+
+		return new EntityTag(instanceId + "-" + latest, true);
+	}
+
+	/**
+	 * @return the latest eventNumber
+	 */
+	public synchronized long getEventNumber() {
+		return eventNumber;
+	}
+
+	/**
+	 * Sequence number of a websocket message
+	 *
+	 * The session events have their number already, other messages get the next
+	 * number.
+	 */
+	@Override
+	public synchronized long next(Object message) {
+		if (message instanceof SessionEvent event && isOwn(event.getEventNumber())) {
+			return event.getEventNumber();
+		}
+		return nextNumber();
+	}
+
+	@Override
+	public long latest() {
+		return getEventNumber();
+	}
+
+	@Override
+	public synchronized Map<String, Object> getStatus() {
+		HashMap<String, Object> status = new HashMap<>();
+		status.put("changeLogSessions", sessions.size());
+		status.put("changeLogHits", hits.sum());
+		status.put("changeLogMisses", misses.sum());
+		status.put("changeLogEvictions", evictions.sum());
+		return status;
+	}
+}
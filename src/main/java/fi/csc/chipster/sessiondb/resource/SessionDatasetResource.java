@@ -3,9 +3,9 @@ package fi.csc.chipster.sessiondb.resource;
 import java.net.URI;
 import java.time.Instant;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -35,8 +35,9 @@ import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Context;
-import jakarta.ws.rs.core.GenericEntity;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.SecurityContext;
 import jakarta.ws.rs.core.UriInfo;
@@ -68,7 +69,7 @@ public class SessionDatasetResource {
 	@Path("{id}")
 	@RolesAllowed({ Role.CLIENT, Role.SERVER, Role.SESSION_TOKEN, Role.DATASET_TOKEN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response get(@PathParam("id") UUID datasetId, @QueryParam(QUERY_PARAM_READ_WRITE) boolean requireReadWrite,
 			@Context SecurityContext sc) {
 
@@ -92,16 +93,19 @@ public class SessionDatasetResource {
 	@GET
 	@RolesAllowed({ Role.CLIENT, Role.SERVER, Role.SESSION_TOKEN, Role.DATASET_TOKEN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
-	public Response getAll(@Context SecurityContext sc) {
+	@Transaction(readOnly = true)
+	public Response getAll(@Context SecurityContext sc, @Context Request request) {
 
-		// checks authorization
-		Session session = sessionResource.getRuleTable().checkSessionReadAuthorization(sc, sessionId);
+		// before reading the objects
+		EntityTag etag = sessionResource.getEntityTag(sessionId);
 
-		List<Dataset> result = SessionDbApi.getDatasets(getHibernate().session(), session);
+		// checks authorization
+		sessionResource.getRuleTable().checkSessionReadAuthorization(sc, sessionId);
 
+		// stream in batches to keep the memory usage low also in huge sessions
 		// if nothing is found, just return 200 (OK) and an empty list
-		return Response.ok(toJaxbList(result)).build();
+		return SessionResource.conditionalResponse(request, etag,
+				() -> Response.ok(sessionDbApi.streamDatasets(sessionId)).type(MediaType.APPLICATION_JSON));
 	}
 
 	@POST
@@ -203,19 +207,24 @@ public class SessionDatasetResource {
 		 */
 		Session session = sessionResource.getRuleTable().checkSessionReadWriteAuthorization(sc, sessionId);
 
-		HashMap<UUID, Dataset> dbDatasets = new HashMap<>();
-
 		for (Dataset requestDataset : requestDatasets) {
 			validateLabelIds(requestDataset);
+		}
+
+		if (requestDatasets.stream().anyMatch(d -> d.getDatasetId() == null)) {
+			throw new BadRequestException("dataset id is null");
+		}
 
-			UUID datasetId = requestDataset.getDatasetId();
-			Dataset dbDataset = SessionDbApi.getDataset(sessionId, datasetId, getHibernate().session());
+		Set<UUID> datasetIds = requestDatasets.stream().map(d -> d.getDatasetId()).collect(Collectors.toSet());
 
-			if (dbDataset == null || !dbDataset.getSessionId().equals(session.getSessionId())) {
+		// get all datasets in one query
+		Map<UUID, Dataset> dbDatasets = SessionDbApi.getDatasets(getHibernate().session(), session.getSessionId(),
+				datasetIds);
+
+		for (Dataset requestDataset : requestDatasets) {
+			if (!dbDatasets.containsKey(requestDataset.getDatasetId())) {
 				throw new NotFoundException("dataset doesn't exist");
 			}
-
-			dbDatasets.put(datasetId, dbDataset);
 		}
 
 		for (Dataset requestDataset : requestDatasets) {
@@ -274,22 +283,6 @@ public class SessionDatasetResource {
 		return Response.noContent().build();
 	}
 
-	/**
-	 * Make a collection compatible with JSON conversion
-	 * 
-	 * Default Java collections don't define the XmlRootElement annotation and thus
-	 * can't be converted directly to JSON.
-	 * 
-	 * @param <T>
-	 * 
-	 * @param result
-	 * @return
-	 */
-	public static GenericEntity<Collection<Dataset>> toJaxbList(Collection<Dataset> result) {
-		return new GenericEntity<Collection<Dataset>>(result) {
-		};
-	}
-
 	private static void validateLabelIds(Dataset dataset) {
 		List<UUID> labelIds = dataset.getLabelIds();
 		if (labelIds != null && labelIds.size() > Dataset.MAX_LABEL_IDS) {
@@ -1,12 +1,12 @@
 package fi.csc.chipster.sessiondb.resource;
 
-import java.math.BigInteger;
 import java.net.URI;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -21,16 +21,17 @@ import fi.csc.chipster.rest.AdminResource;
 import fi.csc.chipster.rest.Config;
 import fi.csc.chipster.rest.JerseyStatisticsSource;
 import fi.csc.chipster.rest.RestUtils;
+import fi.csc.chipster.rest.exception.ConflictException;
 import fi.csc.chipster.rest.hibernate.HibernateUtil;
 import fi.csc.chipster.rest.hibernate.Transaction;
 import fi.csc.chipster.rest.websocket.PubSubServer;
 import fi.csc.chipster.sessiondb.model.Dataset;
 import fi.csc.chipster.sessiondb.model.File;
 import fi.csc.chipster.sessiondb.model.FileState;
-import fi.csc.chipster.sessiondb.model.Job;
 import fi.csc.chipster.sessiondb.model.News;
 import fi.csc.chipster.sessiondb.model.Rule;
 import fi.csc.chipster.sessiondb.model.Session;
+import fi.csc.chipster.sessiondb.model.UserUsage;
 import jakarta.annotation.security.RolesAllowed;
 import jakarta.validation.constraints.NotNull;
 import jakarta.ws.rs.BadRequestException;
@@ -55,24 +56,13 @@ public class SessionDbAdminResource extends AdminResource {
 	public static final String PATH_USERS_SESSIONS = "users/sessions";
 	public static final String PATH_USERS_QUOTA = "users/quota";
 	public static final String PATH_FILES = "files";
+	public static final String PATH_RECONCILE_USAGE = "reconcile-usage";
+	public static final String PATH_CHECK_ORPHANS = "check-orphans";
+	public static final String PATH_DELETE_ORPHANS = "delete-orphans";
+	public static final String PATH_ORPHANS = "orphans";
 
-	// private final static String SQL_ORPHAN_FILES = "from File f left join Dataset
-	// d on f.fileId = d.file where d.file is null";
-	// private final static String SQL_ORPHAN_DATASETS = "from Dataset d left join
-	// Session s on d.datasetIdPair.sessionId = s.sessionId where s.sessionId is
-	// null";
-	// private final static String SQL_ORPHAN_JOBS = "from Job j left join Session s
-	// on j.jobIdPair.sessionId = s.sessionId where s.sessionId is null";
-	// private final static String SQL_ORPHAN_RULES = "from Rule r left join Session
-	// s on r.session.sessionId = s.sessionId where s.sessionId is null";
-	// private final static String SQL_ORPHAN_SESSIONS = "from Session s left join
-	// Rule r on s = r.session where r.session is null";
-
-	private final static String SQL_ORPHAN_FILES = "from file f    where not exists ( select from dataset d where f.fileid = d.fileid)";
-	private final static String SQL_ORPHAN_DATASETS = "from dataset d where not exists ( select from session s where d.sessionid = s.sessionid)";
-	private final static String SQL_ORPHAN_JOBS = "from job j     where not exists ( select from session s where j.sessionid = s.sessionid)";
-	private final static String SQL_ORPHAN_SESSIONS = "from session s where not exists ( select from rule r    where s.sessionid = r.sessionid)";
-	private final static String SQL_ORPHAN_RULES = "from rule r    where not exists ( select from session s where r.sessionid = s.sessionid)";
+	private final static String SQL_JOB_COUNTS = "select count(*), coalesce(sum(jsonb_array_length(inputs)), 0), "
+			+ "coalesce(sum(jsonb_array_length(parameters)), 0) from job where sessionid = :sessionId";
 
 	private HibernateUtil hibernate;
 
@@ -81,6 +71,8 @@ public class SessionDbAdminResource extends AdminResource {
 	private NewsApi newsApi;
 	private SessionDbApi sessionDbApi;
 	private RuleTable ruleTable;
+	private UserUsageTable userUsageTable;
+	private OrphanCleaner orphanCleaner;
 
 	/**
 	 * @param hibernate
@@ -92,16 +84,23 @@ public class SessionDbAdminResource extends AdminResource {
 	 *                     the class ourselves.
 	 * @param newsApi
 	 * @param ruleTable
+	 * @param sessionAccessedUpdater
 	 */
 	public SessionDbAdminResource(HibernateUtil hibernate, JerseyStatisticsSource jerseyStats,
 			PubSubServer pubSubServer, @SuppressWarnings("rawtypes") Class[] classes, NewsApi newsApi,
-			SessionDbApi sessionDbApi, RuleTable ruleTable, Config config) {
-		super(hibernate, Arrays.asList(classes), config, jerseyStats, pubSubServer);
+			SessionDbApi sessionDbApi, RuleTable ruleTable, SessionAccessedUpdater sessionAccessedUpdater,
+			SessionDbCacheInvalidator cacheInvalidator, UserUsageTable userUsageTable, OrphanCleaner orphanCleaner,
+			SessionDbEventBus eventBus, Config config) {
+		super(hibernate, Arrays.asList(classes), config, jerseyStats, pubSubServer,
+				ruleTable.getAuthorizationCache(), sessionAccessedUpdater, cacheInvalidator, userUsageTable,
+				orphanCleaner, sessionDbApi.getChangeLog(), eventBus);
 		this.hibernate = hibernate;
 		this.pubSubServer = pubSubServer;
 		this.newsApi = newsApi;
 		this.sessionDbApi = sessionDbApi;
 		this.ruleTable = ruleTable;
+		this.userUsageTable = userUsageTable;
+		this.orphanCleaner = orphanCleaner;
 	}
 
 	@GET
@@ -121,7 +120,7 @@ public class SessionDbAdminResource extends AdminResource {
 	@Path("storages")
 	@RolesAllowed({ Role.ADMIN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Object getStorages(@Context SecurityContext sc) {
 
 		List<Object[]> dbStorages = hibernate.session()
@@ -146,76 +145,60 @@ public class SessionDbAdminResource extends AdminResource {
 	}
 
 	@POST
-	@Path("check-orphans")
+	@Path(PATH_CHECK_ORPHANS)
 	@RolesAllowed({ Role.ADMIN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
-	public Object checkOrphans(@Context SecurityContext sc) {
-
-		final String SELECT_COUNT = "select count(*) ";
-
-		BigInteger orphanFiles = hibernate.session()
-				.createNativeQuery(SELECT_COUNT + SQL_ORPHAN_FILES, BigInteger.class)
-				.getSingleResult();
-		BigInteger orphanDatasets = hibernate.session()
-				.createNativeQuery(SELECT_COUNT + SQL_ORPHAN_DATASETS, BigInteger.class).getSingleResult();
-		BigInteger orphanJobs = hibernate.session().createNativeQuery(SELECT_COUNT + SQL_ORPHAN_JOBS, BigInteger.class)
-				.getSingleResult();
-		BigInteger orphanRules = hibernate.session()
-				.createNativeQuery(SELECT_COUNT + SQL_ORPHAN_RULES, BigInteger.class)
-				.getSingleResult();
-		BigInteger orphanSessions = hibernate.session()
-				.createNativeQuery(SELECT_COUNT + SQL_ORPHAN_SESSIONS, BigInteger.class).getSingleResult();
-
-		HashMap<String, Object> orphans = new HashMap<String, Object>() {
-			{
-				put("orphanFiles", orphanFiles);
-				put("orphanDatasets", orphanDatasets);
-				put("orphanJobs", orphanJobs);
-				put("orphanRules", orphanRules);
-				put("orphanSessions", orphanSessions);
-			}
-		};
-
-		for (String key : orphans.keySet()) {
-			logger.info("check orphans: " + key + " " + orphans.get(key));
-		}
-
-		return orphans;
+	public Response checkOrphans(@Context SecurityContext sc) {
+		return startOrphanCleaner(false);
 	}
 
 	@POST
-	@Path("delete-orphans")
+	@Path(PATH_DELETE_ORPHANS)
 	@RolesAllowed({ Role.ADMIN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
-	public Object deleteOrphans(@Context SecurityContext sc) {
-
-		final String DELETE = "delete ";
-
-		int orphanSessions = hibernate.session().createNativeQuery(DELETE + SQL_ORPHAN_SESSIONS, Void.class)
-				.executeUpdate();
-		int orphanRules = hibernate.session().createNativeQuery(DELETE + SQL_ORPHAN_RULES, Void.class).executeUpdate();
-		int orphanJobs = hibernate.session().createNativeQuery(DELETE + SQL_ORPHAN_JOBS, Void.class).executeUpdate();
-		int orphanDatasets = hibernate.session().createNativeQuery(DELETE + SQL_ORPHAN_DATASETS, Void.class)
-				.executeUpdate();
-		int orphanFiles = hibernate.session().createNativeQuery(DELETE + SQL_ORPHAN_FILES, Void.class).executeUpdate();
-
-		HashMap<String, Object> orphans = new HashMap<String, Object>() {
-			{
-				put("orphanFiles", orphanFiles);
-				put("orphanDatasets", orphanDatasets);
-				put("orphanJobs", orphanJobs);
-				put("orphanRules", orphanRules);
-				put("orphanSessions", orphanSessions);
-			}
-		};
+	public Response deleteOrphans(@Context SecurityContext sc) {
+		return startOrphanCleaner(true);
+	}
 
-		for (String key : orphans.keySet()) {
-			logger.info("deleted orphans: " + key + " " + orphans.get(key));
+	/**
+	 * Start the orphan check or deletion in the background
+	 * 
+	 * @param delete
+	 * @return 202 and the progress, which can be followed from GET orphans or the
+	 *         admin status
+	 */
+	private Response startOrphanCleaner(boolean delete) {
+		if (!orphanCleaner.start(delete)) {
+			throw new ConflictException("previous orphan check or deletion is still running");
 		}
+		return Response.accepted(orphanCleaner.getProgress()).build();
+	}
 
-		return orphans;
+	@GET
+	@Path(PATH_ORPHANS)
+	@RolesAllowed({ Role.ADMIN })
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getOrphans(@Context SecurityContext sc) {
+		return Response.ok(orphanCleaner.getProgress()).build();
+	}
+
+	/**
+	 * Write the pending usage deltas and recalculate the changed users now
+	 * 
+	 * The reconciliation runs periodically anyway, but this allows tests and
+	 * admins to see the result right away.
+	 * 
+	 * @param sc
+	 * @return the reconciliation counters
+	 */
+	@POST
+	@Path(PATH_RECONCILE_USAGE)
+	@RolesAllowed({ Role.ADMIN })
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response reconcileUsage(@Context SecurityContext sc) {
+		userUsageTable.writeDeltas();
+		userUsageTable.reconcile();
+		return Response.ok(userUsageTable.getStatus()).build();
 	}
 
 	@GET
@@ -232,13 +215,16 @@ public class SessionDbAdminResource extends AdminResource {
 	@Path("users/quota")
 	@RolesAllowed({ Role.ADMIN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response getQuota(@QueryParam("userId") List<String> userId, @Context SecurityContext sc) {
 
 		List<String> userIdsToGet;
+		// stored usages of all users, when all are needed
+		Map<String, UserUsage> usages = Map.of();
 		if (userId == null || userId.size() == 0) {
 			logger.info("get quotas for all users");
 			userIdsToGet = ruleTable.getUsers();
+			usages = userUsageTable.getUsages();
 			logger.info("got " + userIdsToGet.size() + " users");
 		} else {
 			logger.info("get quotas for " + userId);
@@ -253,22 +239,15 @@ public class SessionDbAdminResource extends AdminResource {
 			if (uId != null && !uId.equals("null")) {
 				try {
 
-					long size = ruleTable.getTotalSize(uId);
-
-					Long readWriteSessions = (Long) hibernate.session()
-							.createQuery("select count(*) from Rule where username=:username and readWrite=true",
-									Long.class)
-							.setParameter("username", uId).uniqueResult();
-
-					Long readOnlySessions = (Long) hibernate.session()
-							.createQuery("select count(*) from Rule where username=:username and readWrite=false",
-									Long.class)
-							.setParameter("username", uId).uniqueResult();
+					UserUsage usage = usages.get(uId);
+					if (usage == null) {
+						usage = userUsageTable.getUsage(uId);
+					}
 
 					singleUserQuotas.put("userId", uId);
-					singleUserQuotas.put("readWriteSessions", readWriteSessions);
-					singleUserQuotas.put("readOnlySessions", readOnlySessions);
-					singleUserQuotas.put("size", size);
+					singleUserQuotas.put("readWriteSessions", usage.getReadWriteSessions());
+					singleUserQuotas.put("readOnlySessions", usage.getReadOnlySessions());
+					singleUserQuotas.put("size", usage.getSize());
 
 				} catch (Exception e) {
 					logger.warn("failed to get quota for user " + uId, e);
@@ -292,7 +271,7 @@ public class SessionDbAdminResource extends AdminResource {
 	@Path(PATH_USERS_SESSIONS)
 	@RolesAllowed({ Role.ADMIN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response getSessions(@NotNull @QueryParam("userId") List<String> userId, @Context SecurityContext sc) {
 
 		List<HashMap<String, Object>> results = new ArrayList<HashMap<String, Object>>();
@@ -306,22 +285,18 @@ public class SessionDbAdminResource extends AdminResource {
 
 				List<Dataset> datasets = SessionDbApi.getDatasets(hibernate.session(), session);
 
-				/*
-				 * Full jobs are needed for parameter count, but getting 1k jobs may take more
-				 * than 30 seconds.
-				 * Get the parameter count directly from db or remove it if this becomes a
-				 * problem.
-				 */
-				List<Job> jobs = SessionDbApi.getJobs(hibernate.session(), session);
+				// count the jobs, inputs and parameters in the db instead of loading the jobs
+				Object[] jobCounts = hibernate.session().createNativeQuery(SQL_JOB_COUNTS, Object[].class)
+						.setParameter("sessionId", session.getSessionId()).getSingleResult();
 
 				long sessionSize = datasets.stream().map(dataset -> dataset.getFile()).filter(file -> file != null)
 						.collect(Collectors.toMap(file -> file.getFileId(), file -> file)).values().stream()
 						.collect(Collectors.summingLong(file -> file.getSize()));
 
 				long datasetsCount = datasets.size();
-				long jobCount = jobs.size();
-				long inputCount = jobs.stream().flatMap(job -> job.getInputs().stream()).count();
-				long parameterCount = jobs.stream().flatMap(job -> job.getParameters().stream()).count();
+				long jobCount = ((Number) jobCounts[0]).longValue();
+				long inputCount = ((Number) jobCounts[1]).longValue();
+				long parameterCount = ((Number) jobCounts[2]).longValue();
 				long metadataCount = datasets.stream().flatMap(dataset -> dataset.getMetadataFiles().stream()).count();
 
 				sessionSizes.add(new HashMap<String, Object>() {
@@ -1,9 +1,14 @@
 package fi.csc.chipster.sessiondb.resource;
 
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -12,7 +17,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hibernate.SessionEventListener;
 
+import fi.csc.chipster.comp.JobState;
 import fi.csc.chipster.rest.RestUtils;
+import fi.csc.chipster.rest.exception.ConflictException;
 import fi.csc.chipster.rest.hibernate.HibernateUtil;
 import fi.csc.chipster.rest.hibernate.HibernateUtil.HibernateRunnable;
 import fi.csc.chipster.rest.websocket.PubSubServer;
@@ -24,6 +31,7 @@ import fi.csc.chipster.sessiondb.model.File;
 import fi.csc.chipster.sessiondb.model.FileState;
 import fi.csc.chipster.sessiondb.model.Job;
 import fi.csc.chipster.sessiondb.model.JobIdPair;
+import fi.csc.chipster.sessiondb.model.JobProgress;
 import fi.csc.chipster.sessiondb.model.Label;
 import fi.csc.chipster.sessiondb.model.LabelIdPair;
 import fi.csc.chipster.sessiondb.model.Rule;
@@ -32,6 +40,7 @@ import fi.csc.chipster.sessiondb.model.SessionEvent;
 import fi.csc.chipster.sessiondb.model.SessionEvent.EventType;
 import fi.csc.chipster.sessiondb.model.SessionEvent.ResourceType;
 import fi.csc.chipster.sessiondb.model.SessionState;
+import jakarta.persistence.Tuple;
 import jakarta.persistence.criteria.CriteriaBuilder;
 import jakarta.persistence.criteria.CriteriaQuery;
 import jakarta.persistence.criteria.JoinType;
@@ -39,18 +48,48 @@ import jakarta.persistence.criteria.Root;
 import jakarta.validation.constraints.NotNull;
 import jakarta.ws.rs.BadRequestException;
 import jakarta.ws.rs.ForbiddenException;
+import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.core.StreamingOutput;
 
 public class SessionDbApi {
 	private static Logger logger = LogManager.getLogger();
 
+	private static final String SQL_LOCK_JOB = "select state, screenOutput from Job where sessionId = ? and jobId = ? for update";
+	private static final String SQL_CREATE_SCREEN_OUTPUT = "update Job set screenOutput = lo_from_bytea(0, ?) where sessionId = ? and jobId = ?";
+	// open for reading (INV_READ) and seek to the end
+	private static final String SQL_LOB_SIZE = "select lo_lseek64(lo_open(?, 262144), 0, 2)";
+	private static final String SQL_LOB_PUT = "select lo_put(?, ?, ?)";
+
+	// rows to delete in one transaction when a session is deleted
+	private static final int DELETE_CHUNK_SIZE = 1000;
+
+	/**
+	 * Large object fields of the Job, which are loaded only when requested in the
+	 * job lists
+	 */
+	public static final List<String> JOB_LOB_FIELDS = List.of("toolDescription", "sourceCode", "screenOutput",
+			"stateDetail");
+
+	private static final List<String> JOB_FIELDS = List.of("jobIdPair", "toolId", "state", "toolCategory",
+			"toolName", "created", "startTime", "endTime", "module", "memoryUsage", "storageUsage", "memoryLimit",
+			"cpuLimit", "storageLimit", "slotLimit", "createdBy", "comp", "parameters", "inputs", "outputs",
+			"metadataFiles");
+
 	private HibernateUtil hibernate;
 	private RuleTable ruleTable;
+	private UserUsageTable userUsageTable;
+	private SessionChangeLog changeLog;
 	private PubSubServer events;
+	// null if there is only one session-db replica
+	private SessionDbEventBus eventBus;
 
-	public SessionDbApi(HibernateUtil hibernate, RuleTable ruleTable) {
+	public SessionDbApi(HibernateUtil hibernate, RuleTable ruleTable, UserUsageTable userUsageTable,
+			SessionChangeLog changeLog) {
 		this.hibernate = hibernate;
 		this.ruleTable = ruleTable;
+		this.userUsageTable = userUsageTable;
+		this.changeLog = changeLog;
 
 	}
 
@@ -85,6 +124,9 @@ public class SessionDbApi {
 			boolean deleteSessionIfLastRule) {
 
 		ruleTable.delete(session.getSessionId(), rule, hibernate.session());
+		userUsageTable.markRule(rule, -1,
+				rule.isReadWrite() ? userUsageTable.getSessionSize(session.getSessionId(), hibernate.session()) : 0,
+				hibernate.session());
 
 		// why session.getRules() complains: failed to lazily initialize a collection,
 		// could not initialize proxy - no Session?
@@ -100,6 +142,8 @@ public class SessionDbApi {
 
 	public void publishRuleEvent(UUID sessionId, Collection<Rule> sessionRules, Rule rule, EventType eventType) {
 
+		invalidateAuthorization(sessionId, hibernate.session());
+
 		publish(SessionDbTopicConfig.SESSIONS_TOPIC_PREFIX + sessionId.toString(),
 				new SessionEvent(sessionId, ResourceType.RULE, rule.getRuleId(), eventType),
 				hibernate.session());
@@ -125,36 +169,99 @@ public class SessionDbApi {
 		}
 	}
 
+	/**
+	 * Invalidate the cached access levels of the session
+	 * 
+	 * Invalidate right away to make the change visible in this transaction and
+	 * again after the transaction is completed. Otherwise a concurrent request
+	 * could load the old rules before the commit and cache them after the first
+	 * invalidation.
+	 * 
+	 * @param sessionId
+	 * @param hibernateSession
+	 */
+	public void invalidateAuthorization(UUID sessionId, org.hibernate.Session hibernateSession) {
+		ruleTable.invalidateAuthorization(sessionId);
+
+		hibernateSession.addEventListeners(new SessionEventListener() {
+			@Override
+			public void transactionCompletion(boolean successful) {
+				ruleTable.invalidateAuthorization(sessionId);
+			}
+		});
+	}
+
 	public void publish(final String topic, final SessionEvent obj, org.hibernate.Session hibernateSession) {
+		// the other replicas get the event only if this transaction is committed
+		if (eventBus != null) {
+			eventBus.send(topic, obj, hibernateSession);
+		}
+
 		// publish the event only after the transaction is completed to make
 		// sure that the modifications are visible
 		hibernateSession.addEventListeners(new SessionEventListener() {
 			@Override
 			public void transactionCompletion(boolean successful) {
-				// publish the original event
-				events.publish(topic, obj);
-
-				// global topics for servers
-				if (ResourceType.JOB == obj.getResourceType()) {
-					events.publish(SessionDbTopicConfig.ALL_JOBS_TOPIC, obj);
-				}
-				// global AUTHORIZATIONS_TOPIC and SESSIONS_TOPIC and DATASETS_TOPIC hasn't been
-				// needed yet
+				deliver(topic, obj);
 			}
 		});
 	}
 
+	/**
+	 * Publish the event to the websocket subscribers of this replica
+	 * 
+	 * Called after the transaction has completed, both for the events of this
+	 * replica and for the events of the other replicas.
+	 * 
+	 * @param topic
+	 * @param obj
+	 */
+	void deliver(String topic, SessionEvent obj) {
+		// number the session events for the delta sync. Rule events are published
+		// also to user topics, but those don't need numbers
+		if (topic.startsWith(SessionDbTopicConfig.SESSIONS_TOPIC_PREFIX)) {
+			changeLog.add(obj);
+		}
+
+		// publish the original event
+		events.publish(topic, obj);
+
+		// global topics for servers
+		if (ResourceType.JOB == obj.getResourceType()) {
+			events.publish(SessionDbTopicConfig.ALL_JOBS_TOPIC, obj);
+		}
+
+		// for the caches of the other session-db replicas. Rule events are
+		// published also to user topics, but one event is enough
+		if (topic.startsWith(SessionDbTopicConfig.SESSIONS_TOPIC_PREFIX)) {
+			if (ResourceType.SESSION == obj.getResourceType() || ResourceType.LABEL == obj.getResourceType()) {
+				events.publish(SessionDbTopicConfig.ALL_SESSIONS_TOPIC, obj);
+			} else if (ResourceType.RULE == obj.getResourceType()) {
+				events.publish(SessionDbTopicConfig.ALL_AUTHORIZATIONS_TOPIC, obj);
+			}
+		}
+		// global DATASETS_TOPIC hasn't been needed yet
+	}
+
 	public void publishAllTopics(SessionEvent event, org.hibernate.Session hibernateSession, Set<String> topicsToSkip) {
+		if (eventBus != null) {
+			eventBus.sendAllTopics(event, topicsToSkip, hibernateSession);
+		}
+
 		// publish the event only after the transaction is completed to make
 		// sure that the modifications are visible
 		hibernateSession.addEventListeners(new SessionEventListener() {
 			@Override
 			public void transactionCompletion(boolean successful) {
-				events.publishAllTopics(event, topicsToSkip);
+				deliverAllTopics(event, topicsToSkip);
 			}
 		});
 	}
 
+	void deliverAllTopics(SessionEvent event, Set<String> topicsToSkip) {
+		events.publishAllTopics(event, topicsToSkip);
+	}
+
 	public void deleteSessionIfOrphan(Session session) {
 
 		// don't count public read-only rules, because those can't be deleted afterwards
@@ -173,6 +280,8 @@ public class SessionDbApi {
 
 		UUID sessionId = session.getSessionId();
 
+		invalidateAuthorization(sessionId, hibernate.session());
+
 		/*
 		 * Run in separate transaction so that others will see the state change
 		 * immediately. The method sessionFactory.getCurrentSession() will still return
@@ -187,35 +296,53 @@ public class SessionDbApi {
 		}, hibernate.getSessionFactory(), false);
 
 		/*
-		 * All datasets have to be removed first, because the dataset owns the reference
-		 * between the dataset and the session. This also generates the necessary events
-		 * e.g. to remove files.
+		 * Delete the contents of the session with set-based DELETE statements in
+		 * separate short transactions. The session is already in the DELETE state, so
+		 * if something fails, the deletion can be simply started again.
+		 * 
+		 * Individual events are not sent about the deleted datasets, jobs, labels and
+		 * rules in the session topic. The clients following the session get only the
+		 * final SESSION DELETE event below. Unfinished jobs are still announced,
+		 * because the scheduler has to cancel those, and the deleted files, because
+		 * the file-storage has to delete those.
 		 */
-		for (Dataset dataset : SessionDbApi.getDatasets(hibernate.session(), session)) {
-			deleteDataset(dataset, sessionId);
-		}
+		long startTime = System.currentTimeMillis();
+		int deleted;
+
+		// before the datasets are deleted, to subtract it from the usage of the users
+		long sessionSize = userUsageTable.getSessionSize(sessionId, hibernate.session());
 
-		// see the note about datasets above
-		for (Job job : getJobs(hibernate.session(), session)) {
-			deleteJob(job, sessionId, hibernate.session());
+		int datasetCount = 0;
+		while ((deleted = deleteDatasetChunk(sessionId)) > 0) {
+			datasetCount += deleted;
 		}
 
-		// see the note about datasets above
-		for (Rule rule : ruleTable.getRules(sessionId)) {
-			// argument "deleteSessionIfLastRule" is set to false, because it would call
-			// this method again
-			deleteRule(session, rule, hibernate.session(), false);
+		int jobCount = 0;
+		while ((deleted = deleteJobChunk(sessionId)) > 0) {
+			jobCount += deleted;
 		}
 
 		// Labels have no JPA relationship or database cascade to the session, so
-		// they must be deleted explicitly or they would be orphaned. The datasets
-		// that referenced these labels are already deleted above, so there is no
-		// need to scrub labelIds from datasets the way deleteLabel() does.
-		for (Label label : getLabels(hibernate.session(), sessionId)) {
-			HibernateUtil.delete(label, label.getLabelIdPair(), hibernate.session());
-			publish(SessionDbTopicConfig.SESSIONS_TOPIC_PREFIX + sessionId.toString(),
-					new SessionEvent(sessionId, ResourceType.LABEL, label.getLabelId(), EventType.DELETE),
-					hibernate.session());
+		// they must be deleted explicitly or they would be orphaned
+		int labelCount = runDeleteTransaction(innerSession -> innerSession
+				.createMutationQuery("delete from Label l where l.labelIdPair.sessionId = :sessionId")
+				.setParameter("sessionId", sessionId)
+				.executeUpdate());
+
+		logger.debug("deleted " + datasetCount + " datasets, " + jobCount + " jobs and " + labelCount
+				+ " labels of session " + sessionId + " in " + (System.currentTimeMillis() - startTime) + " ms");
+
+		// there are only a few rules in each session
+		for (Rule rule : ruleTable.getRules(sessionId)) {
+			ruleTable.delete(sessionId, rule, hibernate.session());
+			userUsageTable.markRule(rule, -1, sessionSize, hibernate.session());
+
+			// update the session lists of the users
+			if (rule.getUsername() != null && !RuleTable.EVERYONE.equals(rule.getUsername())) {
+				publish(SessionDbTopicConfig.USERS_TOPIC_PREFIX + rule.getUsername(),
+						new SessionEvent(sessionId, ResourceType.RULE, rule.getRuleId(), EventType.DELETE),
+						hibernate.session());
+			}
 		}
 
 		HibernateUtil.delete(session, session.getSessionId(), hibernate.session());
@@ -225,6 +352,126 @@ public class SessionDbApi {
 		publish(SessionDbTopicConfig.SESSIONS_TOPIC_PREFIX + sessionId.toString(), event, hibernate.session());
 	}
 
+	/**
+	 * Delete the next chunk of datasets from the session
+	 * 
+	 * Files which are not referenced by any dataset anymore are deleted too.
+	 * 
+	 * @param sessionId
+	 * @return number of deleted datasets
+	 */
+	private int deleteDatasetChunk(UUID sessionId) {
+		return runDeleteTransaction(innerSession -> {
+
+			List<Object[]> rows = innerSession.createQuery(
+					"select d.datasetIdPair.datasetId, f.fileId from Dataset d left join d.file f where d.datasetIdPair.sessionId = :sessionId",
+					Object[].class)
+					.setParameter("sessionId", sessionId)
+					.setMaxResults(DELETE_CHUNK_SIZE)
+					.list();
+
+			if (rows.isEmpty()) {
+				return 0;
+			}
+
+			List<UUID> datasetIds = rows.stream().map(row -> (UUID) row[0]).collect(Collectors.toList());
+			Set<UUID> fileIds = rows.stream().filter(row -> row[1] != null).map(row -> (UUID) row[1])
+					.collect(Collectors.toSet());
+
+			int deleted = innerSession.createMutationQuery(
+					"delete from Dataset d where d.datasetIdPair.sessionId = :sessionId and d.datasetIdPair.datasetId in :datasetIds")
+					.setParameter("sessionId", sessionId)
+					.setParameterList("datasetIds", datasetIds)
+					.executeUpdate();
+
+			if (!fileIds.isEmpty()) {
+				// other sessions may still use the same files
+				List<File> orphanFiles = innerSession.createQuery(
+						"from File f where f.fileId in :fileIds and not exists (select 1 from Dataset d where d.file = f)",
+						File.class)
+						.setParameterList("fileIds", fileIds)
+						.list();
+
+				for (File file : orphanFiles) {
+					// delete from storage
+					publish(SessionDbTopicConfig.ALL_FILES_TOPIC,
+							new SessionEvent(null, ResourceType.FILE, file.getFileId(), EventType.DELETE, null,
+									RestUtils.asJson(file), null),
+							innerSession);
+				}
+
+				if (!orphanFiles.isEmpty()) {
+					innerSession.createMutationQuery("delete from File f where f.fileId in :fileIds")
+							.setParameterList("fileIds",
+									orphanFiles.stream().map(f -> f.getFileId()).collect(Collectors.toList()))
+							.executeUpdate();
+				}
+			}
+
+			return deleted;
+		});
+	}
+
+	/**
+	 * Delete the next chunk of jobs from the session
+	 * 
+	 * @param sessionId
+	 * @return number of deleted jobs
+	 */
+	private int deleteJobChunk(UUID sessionId) {
+		return runDeleteTransaction(innerSession -> {
+
+			// select only the light columns
+			List<Object[]> rows = innerSession.createQuery(
+					"select j.jobIdPair.jobId, j.state from Job j where j.jobIdPair.sessionId = :sessionId",
+					Object[].class)
+					.setParameter("sessionId", sessionId)
+					.setMaxResults(DELETE_CHUNK_SIZE)
+					.list();
+
+			if (rows.isEmpty()) {
+				return 0;
+			}
+
+			List<UUID> jobIds = rows.stream().map(row -> (UUID) row[0]).collect(Collectors.toList());
+
+			int deleted = innerSession.createMutationQuery(
+					"delete from Job j where j.jobIdPair.sessionId = :sessionId and j.jobIdPair.jobId in :jobIds")
+					.setParameter("sessionId", sessionId)
+					.setParameterList("jobIds", jobIds)
+					.executeUpdate();
+
+			for (Object[] row : rows) {
+				JobState state = (JobState) row[1];
+				// let the scheduler cancel the unfinished jobs
+				if (state == null || !state.isFinished()) {
+					publish(SessionDbTopicConfig.SESSIONS_TOPIC_PREFIX + sessionId.toString(),
+							new SessionEvent(sessionId, ResourceType.JOB, (UUID) row[0], EventType.DELETE, state),
+							innerSession);
+				}
+			}
+
+			return deleted;
+		});
+	}
+
+	/**
+	 * Run a deletion in a separate transaction
+	 * 
+	 * @param runnable
+	 * @return number of deleted rows
+	 * @throws IllegalStateException if the transaction failed
+	 */
+	private int runDeleteTransaction(HibernateRunnable<Integer> runnable) {
+		Integer deleted = HibernateUtil.runInTransaction(runnable, hibernate.getSessionFactory(), false);
+
+		if (deleted == null) {
+			// the exception was logged already
+			throw new IllegalStateException("session deletion failed");
+		}
+		return deleted;
+	}
+
 	public void setSessionState(Session session, SessionState state, org.hibernate.Session hibernateSession) {
 		session.setState(state);
 		// otherwise Hibernate won't recognize the change
@@ -250,6 +497,19 @@ public class SessionDbApi {
 		this.events = pubSubServer;
 	}
 
+	/**
+	 * Send the events also to the other session-db replicas
+	 * 
+	 * @param eventBus
+	 */
+	public void setEventBus(SessionDbEventBus eventBus) {
+		this.eventBus = eventBus;
+	}
+
+	public SessionChangeLog getChangeLog() {
+		return changeLog;
+	}
+
 	public void deleteDataset(Dataset dataset, UUID sessionId) {
 
 		HibernateUtil.delete(dataset, dataset.getDatasetIdPair(), hibernate.session());
@@ -263,6 +523,12 @@ public class SessionDbApi {
 			// why do we still see it?
 			fileDatasets.remove(dataset);
 
+			// the session size changes only if this was the last dataset of the file in
+			// this session
+			boolean lastInSession = fileDatasets.stream().noneMatch(d -> sessionId.equals(d.getSessionId()));
+			userUsageTable.markSession(sessionId, lastInSession ? -dataset.getFile().getSize() : 0,
+					hibernate.session());
+
 			// there isn't anymore anyone using this file and the file-broker
 			// can delete it
 			if (fileDatasets.isEmpty()) {
@@ -306,15 +572,66 @@ public class SessionDbApi {
 
 	public static List<Dataset> getDatasets(org.hibernate.Session hibernateSession, Session session) {
 
+		List<Dataset> datasets = hibernateSession.createQuery(getDatasetsQuery(hibernateSession, session.getSessionId()))
+				.getResultList();
+
+		return datasets;
+	}
+
+	private static CriteriaQuery<Dataset> getDatasetsQuery(org.hibernate.Session hibernateSession, UUID sessionId) {
 		CriteriaBuilder cb = hibernateSession.getCriteriaBuilder();
 		CriteriaQuery<Dataset> c = cb.createQuery(Dataset.class);
 		Root<Dataset> r = c.from(Dataset.class);
 		r.fetch("file", JoinType.LEFT);
 		c.select(r);
-		c.where(cb.equal(r.get("datasetIdPair").get("sessionId"), session.getSessionId()));
-		List<Dataset> datasets = hibernateSession.createQuery(c).getResultList();
+		c.where(cb.equal(r.get("datasetIdPair").get("sessionId"), sessionId));
+		return c;
+	}
 
-		return datasets;
+	/**
+	 * Stream all datasets of the session as a json array
+	 * 
+	 * See {@link HibernateUtil#streamJsonArray(java.util.function.Function, java.util.function.Function)}
+	 * 
+	 * @param sessionId
+	 * @return
+	 */
+	public StreamingOutput streamDatasets(UUID sessionId) {
+		return hibernate.streamJsonArray(
+				hibernateSession -> hibernateSession.createQuery(getDatasetsQuery(hibernateSession, sessionId)),
+				dataset -> dataset);
+	}
+
+	/**
+	 * Get the listed datasets of a session
+	 * 
+	 * Files are fetched in the same query, instead of finding the datasets one by
+	 * one.
+	 * 
+	 * @param hibernateSession
+	 * @param sessionId
+	 * @param datasetIds
+	 * @return datasets by datasetId. Datasets that weren't found in this session
+	 *         are missing from the map.
+	 */
+	public static Map<UUID, Dataset> getDatasets(org.hibernate.Session hibernateSession, UUID sessionId,
+			Collection<UUID> datasetIds) {
+
+		if (datasetIds.isEmpty()) {
+			// mutable and allows containsKey(null) like the result below
+			return new HashMap<>();
+		}
+
+		CriteriaBuilder cb = hibernateSession.getCriteriaBuilder();
+		CriteriaQuery<Dataset> c = cb.createQuery(Dataset.class);
+		Root<Dataset> r = c.from(Dataset.class);
+		r.fetch("file", JoinType.LEFT);
+		c.select(r);
+		c.where(cb.equal(r.get("datasetIdPair").get("sessionId"), sessionId),
+				r.get("datasetIdPair").get("datasetId").in(datasetIds));
+
+		return hibernateSession.createQuery(c).getResultList().stream()
+				.collect(Collectors.toMap(d -> d.getDatasetId(), d -> d, (d1, d2) -> d1, HashMap::new));
 	}
 
 	public void updateDataset(Dataset newDataset, Dataset dbDataset, UUID sessionId,
@@ -323,6 +640,14 @@ public class SessionDbApi {
 		FileState fileState = null;
 
 		if (newDataset.getFile() != null) {
+
+			if (dbDataset.getFile() == null) {
+				userUsageTable.markSession(sessionId, newDataset.getFile().getSize(), hibernateSession);
+			} else if (dbDataset.getFile().getSize() != newDataset.getFile().getSize()) {
+				userUsageTable.markSession(sessionId,
+						newDataset.getFile().getSize() - dbDataset.getFile().getSize(), hibernateSession);
+			}
+
 			if (dbDataset.getFile() == null) {
 				HibernateUtil.persist(newDataset.getFile(), hibernateSession);
 			} else {
@@ -349,6 +674,8 @@ public class SessionDbApi {
 			// why CascadeType.PERSIST isn't enough?
 			HibernateUtil.persist(dataset.getFile(), hibernateSession);
 
+			userUsageTable.markSession(sessionId, dataset.getFile().getSize(), hibernateSession);
+
 			fileState = dataset.getFile().getState();
 		}
 		HibernateUtil.persist(dataset, hibernateSession);
@@ -408,6 +735,125 @@ public class SessionDbApi {
 				.multiLoad(jobIdPairs);
 	}
 
+	/**
+	 * Get jobs of the session without loading all large object fields
+	 * 
+	 * Each large object field is a separate large object in the DB and reading
+	 * those for thousands of jobs is slow. Select only the other fields and the
+	 * requested large object fields. The returned jobs are not managed by
+	 * Hibernate.
+	 * 
+	 * @param hibernateSession
+	 * @param session
+	 * @param jobIds           get only these jobs or all jobs of the session if
+	 *                         null. The result list has the same order and
+	 *                         nulls for the missing jobs, like in
+	 *                         {@link #getJobs(org.hibernate.Session, Session, List)}
+	 * @param lobFields        large object fields to load, see
+	 *                         {@link #JOB_LOB_FIELDS}
+	 * @return
+	 */
+	public static List<Job> getJobs(org.hibernate.Session hibernateSession, Session session, List<UUID> jobIds,
+			Set<String> lobFields) {
+
+		if (jobIds != null && jobIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		List<Job> jobs = new ArrayList<>();
+
+		for (Tuple tuple : hibernateSession
+				.createQuery(getJobsQuery(hibernateSession, session.getSessionId(), jobIds, lobFields))
+				.getResultList()) {
+			jobs.add(toJob(tuple, lobFields));
+		}
+
+		if (jobIds == null) {
+			return jobs;
+		}
+
+		Map<UUID, Job> jobMap = jobs.stream().collect(Collectors.toMap(j -> j.getJobId(), j -> j));
+
+		return jobIds.stream().map(id -> jobMap.get(id)).collect(Collectors.toList());
+	}
+
+	/**
+	 * Stream all jobs of the session as a json array
+	 * 
+	 * Like {@link #getJobs(org.hibernate.Session, Session, List, Set)}, but see
+	 * {@link HibernateUtil#streamJsonArray(java.util.function.Function, java.util.function.Function)}
+	 * 
+	 * @param sessionId
+	 * @param lobFields large object fields to load
+	 * @return
+	 */
+	public StreamingOutput streamJobs(UUID sessionId, Set<String> lobFields) {
+		return hibernate.streamJsonArray(
+				hibernateSession -> hibernateSession
+						.createQuery(getJobsQuery(hibernateSession, sessionId, null, lobFields)),
+				tuple -> toJob(tuple, lobFields));
+	}
+
+	private static CriteriaQuery<Tuple> getJobsQuery(org.hibernate.Session hibernateSession, UUID sessionId,
+			List<UUID> jobIds, Set<String> lobFields) {
+
+		List<String> fields = new ArrayList<>(JOB_FIELDS);
+		JOB_LOB_FIELDS.stream().filter(lobFields::contains).forEach(fields::add);
+
+		CriteriaBuilder cb = hibernateSession.getCriteriaBuilder();
+		CriteriaQuery<Tuple> c = cb.createTupleQuery();
+		Root<Job> r = c.from(Job.class);
+		c.multiselect(fields.stream().map(f -> r.get(f).alias(f)).collect(Collectors.toList()));
+
+		if (jobIds == null) {
+			c.where(cb.equal(r.get("jobIdPair").get("sessionId"), sessionId));
+		} else {
+			c.where(cb.equal(r.get("jobIdPair").get("sessionId"), sessionId),
+					r.get("jobIdPair").get("jobId").in(jobIds));
+		}
+		return c;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Job toJob(Tuple tuple, Set<String> lobFields) {
+		Job job = new Job();
+		job.setJobIdPair(tuple.get("jobIdPair", JobIdPair.class));
+		job.setToolId(tuple.get("toolId", String.class));
+		job.setState(tuple.get("state", JobState.class));
+		job.setToolCategory(tuple.get("toolCategory", String.class));
+		job.setToolName(tuple.get("toolName", String.class));
+		job.setCreated(tuple.get("created", Instant.class));
+		job.setStartTime(tuple.get("startTime", Instant.class));
+		job.setEndTime(tuple.get("endTime", Instant.class));
+		job.setModule(tuple.get("module", String.class));
+		job.setMemoryUsage(tuple.get("memoryUsage", Long.class));
+		job.setStorageUsage(tuple.get("storageUsage", Long.class));
+		job.setMemoryLimit(tuple.get("memoryLimit", Long.class));
+		job.setCpuLimit(tuple.get("cpuLimit", Integer.class));
+		job.setStorageLimit(tuple.get("storageLimit", Long.class));
+		job.setSlotLimit(tuple.get("slotLimit", Integer.class));
+		job.setCreatedBy(tuple.get("createdBy", String.class));
+		job.setComp(tuple.get("comp", String.class));
+		job.setParameters(tuple.get("parameters", List.class));
+		job.setInputs(tuple.get("inputs", List.class));
+		job.setOutputs(tuple.get("outputs", List.class));
+		job.setMetadataFiles(tuple.get("metadataFiles", List.class));
+
+		if (lobFields.contains("toolDescription")) {
+			job.setToolDescription(tuple.get("toolDescription", String.class));
+		}
+		if (lobFields.contains("sourceCode")) {
+			job.setSourceCode(tuple.get("sourceCode", String.class));
+		}
+		if (lobFields.contains("screenOutput")) {
+			job.setScreenOutput(tuple.get("screenOutput", String.class));
+		}
+		if (lobFields.contains("stateDetail")) {
+			job.setStateDetail(tuple.get("stateDetail", String.class));
+		}
+		return job;
+	}
+
 	public static List<Job> getJobs(org.hibernate.Session hibernateSession, Session session) {
 
 		CriteriaBuilder cb = hibernateSession.getCriteriaBuilder();
@@ -434,6 +880,131 @@ public class SessionDbApi {
 		publish(SessionDbTopicConfig.SESSIONS_TOPIC_PREFIX + sessionId.toString(), event, hibernateSession);
 	}
 
+	/**
+	 * Update a running job without sending the whole job
+	 *
+	 * The job row is locked first, so that a concurrent PUT which finishes the job
+	 * can't be overwritten with the running state. The screen output delta is
+	 * written directly to the existing large object with lo_put(), so only the new
+	 * bytes are stored. Writing the same delta again to the same offset is
+	 * harmless, which makes the request safe to retry.
+	 *
+	 * If the state doesn't change, a lightweight UPDATE event is published with the
+	 * progress in the newObject field. Otherwise a normal UPDATE event is
+	 * published, because the scheduler and job-history have to react to the state
+	 * change.
+	 *
+	 * @param sessionId
+	 * @param jobId
+	 * @param progress
+	 * @param hibernateSession
+	 */
+	public void updateJobProgress(UUID sessionId, UUID jobId, JobProgress progress,
+			org.hibernate.Session hibernateSession) {
+
+		byte[] append = progress.getScreenOutputAppend() == null ? new byte[0]
+				: progress.getScreenOutputAppend().getBytes(StandardCharsets.UTF_8);
+
+		JobState dbState = hibernateSession.doReturningWork(connection -> {
+
+			Long screenOutputOid;
+			JobState state;
+
+			try (PreparedStatement select = connection.prepareStatement(SQL_LOCK_JOB)) {
+				select.setObject(1, sessionId);
+				select.setObject(2, jobId);
+				try (ResultSet rs = select.executeQuery()) {
+					if (!rs.next()) {
+						throw new NotFoundException("job doesn't exist");
+					}
+					// enums are stored as ordinals
+					state = JobState.values()[rs.getInt(1)];
+					screenOutputOid = rs.getLong(2);
+					if (rs.wasNull()) {
+						screenOutputOid = null;
+					}
+				}
+			}
+
+			if (state.isFinished()) {
+				throw new ForbiddenException("job is already in finished state: " + state);
+			}
+
+			if (append.length == 0) {
+				return state;
+			}
+
+			if (screenOutputOid == null) {
+				if (progress.getScreenOutputOffset() != 0) {
+					throw new ConflictException("screen output is empty, offset " + progress.getScreenOutputOffset());
+				}
+				try (PreparedStatement create = connection.prepareStatement(SQL_CREATE_SCREEN_OUTPUT)) {
+					create.setBytes(1, append);
+					create.setObject(2, sessionId);
+					create.setObject(3, jobId);
+					create.executeUpdate();
+				}
+			} else {
+				long size;
+				try (PreparedStatement sizeQuery = connection.prepareStatement(SQL_LOB_SIZE)) {
+					sizeQuery.setLong(1, screenOutputOid);
+					try (ResultSet rs = sizeQuery.executeQuery()) {
+						rs.next();
+						size = rs.getLong(1);
+					}
+				}
+				// allow overlapping writes for retries, but don't leave holes
+				if (progress.getScreenOutputOffset() > size) {
+					throw new ConflictException(
+							"screen output has " + size + " bytes, offset " + progress.getScreenOutputOffset());
+				}
+				try (PreparedStatement put = connection.prepareStatement(SQL_LOB_PUT)) {
+					put.setLong(1, screenOutputOid);
+					put.setLong(2, progress.getScreenOutputOffset());
+					put.setBytes(3, append);
+					put.execute();
+				}
+			}
+			return state;
+		});
+
+		if (progress.getState() != null || progress.getStateDetail() != null || progress.getStartTime() != null
+				|| progress.getMemoryUsage() != null || progress.getStorageUsage() != null) {
+
+			hibernateSession.createMutationQuery("update Job j set "
+					+ "j.state = coalesce(:state, j.state), "
+					+ "j.startTime = coalesce(:startTime, j.startTime), "
+					+ "j.memoryUsage = coalesce(:memoryUsage, j.memoryUsage), "
+					+ "j.storageUsage = coalesce(:storageUsage, j.storageUsage) "
+					+ "where j.jobIdPair = :jobIdPair")
+					.setParameter("state", progress.getState(), JobState.class)
+					.setParameter("startTime", progress.getStartTime(), Instant.class)
+					.setParameter("memoryUsage", progress.getMemoryUsage(), Long.class)
+					.setParameter("storageUsage", progress.getStorageUsage(), Long.class)
+					.setParameter("jobIdPair", new JobIdPair(sessionId, jobId))
+					.executeUpdate();
+
+			// the detail is a large object, update it only when given
+			if (progress.getStateDetail() != null) {
+				hibernateSession.createMutationQuery(
+						"update Job j set j.stateDetail = :stateDetail where j.jobIdPair = :jobIdPair")
+						.setParameter("stateDetail", progress.getStateDetail())
+						.setParameter("jobIdPair", new JobIdPair(sessionId, jobId))
+						.executeUpdate();
+			}
+		}
+
+		SessionEvent event;
+		if (progress.getState() == null || progress.getState() == dbState) {
+			progress.setState(dbState);
+			event = new SessionEvent(sessionId, ResourceType.JOB, jobId, EventType.UPDATE, dbState, null,
+					RestUtils.asJson(progress));
+		} else {
+			event = new SessionEvent(sessionId, ResourceType.JOB, jobId, EventType.UPDATE, progress.getState());
+		}
+		publish(SessionDbTopicConfig.SESSIONS_TOPIC_PREFIX + sessionId.toString(), event, hibernateSession);
+	}
+
 	public void createSession(Session session, Rule auth, org.hibernate.Session hibernateSession) {
 		HibernateUtil.persist(session, hibernateSession);
 
@@ -460,6 +1031,9 @@ public class SessionDbApi {
 		newRule.setCreated(Instant.now());
 
 		ruleTable.save(newRule, hibernate.session());
+		userUsageTable.markRule(newRule, 1,
+				newRule.isReadWrite() ? userUsageTable.getSessionSize(session.getSessionId(), hibernate.session()) : 0,
+				hibernate.session());
 
 		publishRuleEvent(session.getSessionId(), session.getRules(), newRule, EventType.CREATE);
 
@@ -504,9 +1078,43 @@ public class SessionDbApi {
 	}
 
 	public void update(File file) {
+		File dbFile = hibernate.session().find(File.class, file.getFileId());
+		long dbSize = dbFile != null ? dbFile.getSize() : 0;
+		userUsageTable.markFile(file.getFileId(), file.getSize() - dbSize, hibernate.session());
+		invalidateFileSessions(file.getFileId(), hibernate.session());
 		HibernateUtil.update(file, file.getFileId(), hibernate.session());
 	}
 
+	/**
+	 * Make the clients reload the sessions that have datasets of this file
+	 * 
+	 * The datasets include the file, but the file changes don't publish events.
+	 * 
+	 * @param fileId
+	 * @param hibernateSession
+	 */
+	private void invalidateFileSessions(UUID fileId, org.hibernate.Session hibernateSession) {
+		List<UUID> sessionIds = hibernateSession
+				.createNativeQuery("select distinct sessionid from dataset where fileid = :fileId", UUID.class)
+				.setParameter("fileId", fileId)
+				.list();
+
+		if (sessionIds.isEmpty()) {
+			return;
+		}
+
+		hibernateSession.addEventListeners(new SessionEventListener() {
+			@Override
+			public void transactionCompletion(boolean successful) {
+				if (successful) {
+					for (UUID sessionId : sessionIds) {
+						changeLog.invalidate(sessionId);
+					}
+				}
+			}
+		});
+	}
+
 	public File getFile(@NotNull UUID fileId, SecurityContext sc) {
 
 		File file = hibernate.session().find(File.class, fileId);
@@ -524,6 +1132,11 @@ public class SessionDbApi {
 	 */
 	public void deleteFileAndDatasets(UUID fileId) {
 
+		// before the datasets are gone
+		File file = hibernate.session().find(File.class, fileId);
+		userUsageTable.markFile(fileId, file != null ? -file.getSize() : 0, hibernate.session());
+		invalidateFileSessions(fileId, hibernate.session());
+
 		int datasetsDeleted = hibernate.session()
 				.createQuery("delete from Dataset where file.fileId=:fileId", null)
 				.setParameter("fileId", fileId)
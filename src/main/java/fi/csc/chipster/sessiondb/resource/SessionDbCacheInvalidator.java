@@ -0,0 +1,250 @@
+package fi.csc.chipster.sessiondb.resource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.Cache;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import fi.csc.chipster.rest.CredentialsProvider;
+import fi.csc.chipster.rest.StatusSource;
+import fi.csc.chipster.rest.hibernate.HibernateUtil;
+import fi.csc.chipster.rest.websocket.RetryHandler;
+import fi.csc.chipster.sessiondb.RestException;
+import fi.csc.chipster.sessiondb.SessionDbClient;
+import fi.csc.chipster.sessiondb.SessionDbTopicConfig;
+import fi.csc.chipster.sessiondb.model.Label;
+import fi.csc.chipster.sessiondb.model.LabelIdPair;
+import fi.csc.chipster.sessiondb.model.News;
+import fi.csc.chipster.sessiondb.model.Rule;
+import fi.csc.chipster.sessiondb.model.Session;
+import fi.csc.chipster.sessiondb.model.SessionEvent;
+
+/**
+ * Keep the caches of this session-db replica in sync with the other replicas
+ *
+ * Hibernate takes care of the second-level cache when the changes are made in
+ * this replica, but it doesn't know about the changes made in the other
+ * replicas. This follows the server topics ALL_SESSIONS_TOPIC and
+ * ALL_AUTHORIZATIONS_TOPIC of the other replicas and evicts the changed
+ * sessions, rules, labels and news from the second-level cache and the access
+ * levels from the SessionAuthorizationCache.
+ *
+ * The status shows also the hit counts of the cache regions, when db-statistics
+ * is enabled.
+ */
+public class SessionDbCacheInvalidator implements StatusSource {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	private static final String RULES_COLLECTION_ROLE = Session.class.getName() + ".rules";
+
+	private static final List<String> CACHE_REGIONS = List.of(Session.CACHE_REGION, Session.RULES_CACHE_REGION,
+			Rule.CACHE_REGION, Label.CACHE_REGION, News.CACHE_REGION);
+
+	private HibernateUtil hibernate;
+	private RuleTable ruleTable;
+
+	private List<SessionDbClient> peerClients = new ArrayList<>();
+	private List<RetryHandler> retryHandlers = new ArrayList<>();
+
+	private final LongAdder peerEvents = new LongAdder();
+	private final LongAdder failedSubscriptions = new LongAdder();
+	private final LongAdder peerReconnects = new LongAdder();
+
+	public SessionDbCacheInvalidator(HibernateUtil hibernate, RuleTable ruleTable) {
+		this.hibernate = hibernate;
+		this.ruleTable = ruleTable;
+	}
+
+	/**
+	 * Follow the changes in the other replicas
+	 *
+	 * If a replica can't be reached, the connection is retried in the background
+	 * with the same delays as the websocket reconnections. The events published
+	 * while a websocket is disconnected are lost, so all cached objects are
+	 * evicted when it reconnects.
+	 *
+	 * @param peerEventUrls event urls of the other session-db replicas
+	 * @param credentials   credentials of this session-db
+	 */
+	public void subscribe(List<String> peerEventUrls, CredentialsProvider credentials) {
+		for (String url : peerEventUrls) {
+			for (String topic : List.of(SessionDbTopicConfig.ALL_SESSIONS_TOPIC,
+					SessionDbTopicConfig.ALL_AUTHORIZATIONS_TOPIC)) {
+
+				try {
+					subscribe(url, topic, credentials);
+
+				} catch (RestException e) {
+					failedSubscriptions.increment();
+					logger.warn("failed to follow cache invalidations from " + url + " topic " + topic
+							+ ", retrying in the background", e);
+
+					Thread thread = new Thread(() -> retrySubscribe(url, topic, credentials, e),
+							"session-db-cache-retry");
+					thread.setDaemon(true);
+					thread.start();
+				}
+			}
+		}
+	}
+
+	private void subscribe(String url, String topic, CredentialsProvider credentials) throws RestException {
+		// one websocket for each topic
+		SessionDbClient client = new SessionDbClient(null, url, credentials);
+		client.setReconnectListener(() -> {
+			peerReconnects.increment();
+			logger.warn("cache invalidations from " + url + " topic " + topic + " reconnected, evict all");
+			// the events of the disconnection were lost
+			evictAll();
+		});
+		client.subscribe(topic, e -> {
+			peerEvents.increment();
+			evict(e);
+		}, "session-db-cache-" + topic);
+
+		synchronized (peerClients) {
+			peerClients.add(client);
+		}
+		logger.info("follow cache invalidations from " + url + " topic " + topic);
+	}
+
+	private void retrySubscribe(String url, String topic, CredentialsProvider credentials, RestException error) {
+		RetryHandler retryHandler = new RetryHandler("session-db-cache-" + topic);
+		synchronized (retryHandlers) {
+			retryHandlers.add(retryHandler);
+		}
+
+		while (retryHandler.onConnectFailure(error)) {
+			try {
+				Thread.sleep(retryHandler.getDelay() * 1000);
+				subscribe(url, topic, credentials);
+
+				// the peer may have changed objects before the subscription
+				evictAll();
+				return;
+
+			} catch (RestException e) {
+				failedSubscriptions.increment();
+				error = e;
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+		logger.error("gave up following cache invalidations from " + url + " topic " + topic);
+	}
+
+	/**
+	 * Evict the changed object from the caches
+	 *
+	 * @param event
+	 */
+	public void evict(SessionEvent event) {
+
+		UUID sessionId = event.getSessionId();
+		Cache cache = hibernate.getSessionFactory().getCache();
+
+		switch (event.getResourceType()) {
+		case SESSION:
+			cache.evictEntityData(Session.class, sessionId);
+			cache.evictCollectionData(RULES_COLLECTION_ROLE, sessionId);
+			ruleTable.invalidateAuthorization(sessionId);
+			break;
+		case RULE:
+			cache.evictEntityData(Rule.class, event.getResourceId());
+			cache.evictCollectionData(RULES_COLLECTION_ROLE, sessionId);
+			ruleTable.invalidateAuthorization(sessionId);
+			break;
+		case LABEL:
+			cache.evictEntityData(Label.class, new LabelIdPair(sessionId, event.getResourceId()));
+			break;
+		case NEWS:
+			cache.evictEntityData(News.class, event.getResourceId());
+			break;
+		default:
+			// other objects are not cached
+			break;
+		}
+	}
+
+	/**
+	 * Evict everything that the other replicas may have changed
+	 *
+	 * Use this when some events may have been lost.
+	 */
+	public void evictAll() {
+		Cache cache = hibernate.getSessionFactory().getCache();
+
+		cache.evictEntityData(Session.class);
+		cache.evictCollectionData(RULES_COLLECTION_ROLE);
+		cache.evictEntityData(Rule.class);
+		cache.evictEntityData(Label.class);
+		cache.evictEntityData(News.class);
+		ruleTable.getAuthorizationCache().clear();
+	}
+
+	public void close() {
+		synchronized (retryHandlers) {
+			for (RetryHandler retryHandler : retryHandlers) {
+				retryHandler.close();
+			}
+		}
+		synchronized (peerClients) {
+			for (SessionDbClient client : peerClients) {
+				try {
+					client.close();
+				} catch (IOException e) {
+					logger.warn("failed to close the cache invalidation client", e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public Map<String, Object> getStatus() {
+		HashMap<String, Object> status = new HashMap<>();
+
+		synchronized (peerClients) {
+			status.put("dbCachePeers", peerClients.size());
+		}
+		status.put("dbCachePeerEvents", peerEvents.sum());
+		status.put("dbCachePeerSubscribeFailures", failedSubscriptions.sum());
+		status.put("dbCachePeerReconnects", peerReconnects.sum());
+
+		Statistics statistics = hibernate.getSessionFactory().getStatistics();
+
+		if (!statistics.isStatisticsEnabled()) {
+			// the region counts are collected only with db-statistics
+			return status;
+		}
+
+		for (String region : CACHE_REGIONS) {
+			CacheRegionStatistics regionStatistics;
+			try {
+				regionStatistics = statistics.getDomainDataRegionStatistics(region);
+			} catch (IllegalArgumentException e) {
+				// region doesn't exist when the second-level cache is disabled
+				regionStatistics = null;
+			}
+
+			if (regionStatistics != null) {
+				String tag = ",region=" + region;
+				status.put("dbCacheHits" + tag, regionStatistics.getHitCount());
+				status.put("dbCacheMisses" + tag, regionStatistics.getMissCount());
+				status.put("dbCachePuts" + tag, regionStatistics.getPutCount());
+				status.put("dbCacheSize" + tag, regionStatistics.getElementCountInMemory());
+			}
+		}
+
+		return status;
+	}
+}
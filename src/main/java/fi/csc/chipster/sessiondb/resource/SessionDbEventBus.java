@@ -0,0 +1,371 @@
+package fi.csc.chipster.sessiondb.resource;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import fi.csc.chipster.rest.RestUtils;
+import fi.csc.chipster.rest.StatusSource;
+import fi.csc.chipster.rest.hibernate.HibernateUtil;
+import fi.csc.chipster.sessiondb.model.SessionEvent;
+
+/**
+ * Relay the session events between the session-db replicas
+ *
+ * SessionDbApi publishes the events only to the websockets that are connected
+ * to the same replica. When there are several replicas behind a load balancer,
+ * the clients and servers must get the events of all replicas.
+ *
+ * Each replica sends its events with PostgreSQL NOTIFY in the same transaction
+ * that makes the change. PostgreSQL delivers the notifications only when the
+ * transaction commits and in the order of the commits, so the events of each
+ * replica arrive in the same order in which the replica published them
+ * locally. Every replica listens to the channel on its own connection and
+ * publishes the events of the other replicas to its local topics. Its own
+ * events are skipped, because those have been published locally already.
+ *
+ * The payload of a notification is limited to 8000 bytes. Larger events are
+ * stored in the EventPayload table and the notification carries only the id
+ * of the row. Old rows are deleted periodically.
+ *
+ * Notifications are lost when the listening connection breaks. Waiting for
+ * the notifications only reads what the server has sent already, so the
+ * connection is checked with a query after each quiet poll interval. The
+ * socket timeout makes the query fail, if the connection is half-open. The
+ * reconnections are logged and counted in the status. After a reconnection, all
+ * cached sessions, rules, labels and access levels are evicted, because the
+ * lost events could have changed any of them.
+ */
+public class SessionDbEventBus implements StatusSource {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	public static final String CHANNEL = "session_db_events";
+
+	// the limit of PostgreSQL is 8000 bytes, leave some room
+	private static final int MAX_NOTIFY_BYTES = 7900;
+
+	private static final String SQL_NOTIFY = "select pg_notify(?, ?)";
+	private static final String SQL_INSERT_PAYLOAD = "insert into EventPayload (payload) values (?) returning payloadId";
+	private static final String SQL_SELECT_PAYLOAD = "select payload from EventPayload where payloadId = ?";
+	private static final String SQL_DELETE_PAYLOADS = "delete from EventPayload where created < now() - :age * interval '1 second'";
+
+	private static final int POLL_TIMEOUT = 10_000;
+	// seconds, longer than the poll timeout
+	private static final String SOCKET_TIMEOUT = "30";
+	private static final long RECONNECT_DELAY = 5_000;
+
+	// keep the large payloads long enough for slow listeners
+	private static final long PAYLOAD_MAX_AGE = 60 * 60;
+	private static final long PAYLOAD_CLEANUP_INTERVAL = 10 * 60 * 1000;
+
+	/**
+	 * The notification payload
+	 *
+	 * The event is either in the notification or in the EventPayload table. If
+	 * skipTopics isn't null, the event is published to all topics except these.
+	 */
+	public static class BusMessage {
+		private String origin;
+		private String topic;
+		private Set<String> skipTopics;
+		private SessionEvent event;
+		private Long payloadId;
+
+		public String getOrigin() {
+			return origin;
+		}
+
+		public void setOrigin(String origin) {
+			this.origin = origin;
+		}
+
+		public String getTopic() {
+			return topic;
+		}
+
+		public void setTopic(String topic) {
+			this.topic = topic;
+		}
+
+		public Set<String> getSkipTopics() {
+			return skipTopics;
+		}
+
+		public void setSkipTopics(Set<String> skipTopics) {
+			this.skipTopics = skipTopics;
+		}
+
+		public SessionEvent getEvent() {
+			return event;
+		}
+
+		public void setEvent(SessionEvent event) {
+			this.event = event;
+		}
+
+		public Long getPayloadId() {
+			return payloadId;
+		}
+
+		public void setPayloadId(Long payloadId) {
+			this.payloadId = payloadId;
+		}
+	}
+
+	private final String origin = RestUtils.createUUID().toString();
+
+	private HibernateUtil hibernate;
+	private SessionDbApi sessionDbApi;
+	private SessionDbCacheInvalidator cacheInvalidator;
+
+	private Thread listenerThread;
+	private Timer cleanupTimer;
+	private volatile boolean closed;
+	private volatile boolean connected;
+
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder sentLarge = new LongAdder();
+	private final LongAdder received = new LongAdder();
+	private final LongAdder relayed = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder reconnects = new LongAdder();
+
+	/**
+	 * @param hibernate
+	 * @param sessionDbApi     for publishing the events of the other replicas
+	 * @param cacheInvalidator for evicting the objects that the other replicas
+	 *                         have changed
+	 */
+	public SessionDbEventBus(HibernateUtil hibernate, SessionDbApi sessionDbApi,
+			SessionDbCacheInvalidator cacheInvalidator) {
+		this.hibernate = hibernate;
+		this.sessionDbApi = sessionDbApi;
+		this.cacheInvalidator = cacheInvalidator;
+	}
+
+	public void start() {
+		this.listenerThread = new Thread(() -> listen(), "session-db-event-bus");
+		this.listenerThread.setDaemon(true);
+		this.listenerThread.start();
+
+		this.cleanupTimer = new Timer("session-db-event-bus-cleanup", true);
+		this.cleanupTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					deleteOldPayloads();
+				} catch (Exception e) {
+					// keep the timer running
+					errors.increment();
+					logger.error("failed to delete old event payloads", e);
+				}
+			}
+		}, PAYLOAD_CLEANUP_INTERVAL, PAYLOAD_CLEANUP_INTERVAL);
+
+		logger.info("relay session events between session-db replicas on channel " + CHANNEL);
+	}
+
+	/**
+	 * Send the event to the other replicas when the transaction commits
+	 *
+	 * @param topic
+	 * @param event
+	 * @param hibernateSession
+	 */
+	public void send(String topic, SessionEvent event, org.hibernate.Session hibernateSession) {
+		BusMessage message = new BusMessage();
+		message.setTopic(topic);
+		message.setEvent(event);
+		send(message, hibernateSession);
+	}
+
+	/**
+	 * Send the event to the all topics of the other replicas when the transaction
+	 * commits
+	 *
+	 * @param event
+	 * @param skipTopics
+	 * @param hibernateSession
+	 */
+	public void sendAllTopics(SessionEvent event, Set<String> skipTopics, org.hibernate.Session hibernateSession) {
+		BusMessage message = new BusMessage();
+		message.setSkipTopics(skipTopics);
+		message.setEvent(event);
+		send(message, hibernateSession);
+	}
+
+	private void send(BusMessage message, org.hibernate.Session hibernateSession) {
+		message.setOrigin(origin);
+		String json = RestUtils.asJson(message);
+
+		hibernateSession.doWork(connection -> {
+			String payload = json;
+
+			if (json.getBytes(StandardCharsets.UTF_8).length > MAX_NOTIFY_BYTES) {
+				try (PreparedStatement insert = connection.prepareStatement(SQL_INSERT_PAYLOAD)) {
+					insert.setString(1, json);
+					try (ResultSet rs = insert.executeQuery()) {
+						rs.next();
+						BusMessage reference = new BusMessage();
+						reference.setOrigin(origin);
+						reference.setPayloadId(rs.getLong(1));
+						payload = RestUtils.asJson(reference);
+					}
+				}
+				sentLarge.increment();
+			}
+
+			try (PreparedStatement notify = connection.prepareStatement(SQL_NOTIFY)) {
+				notify.setString(1, CHANNEL);
+				notify.setString(2, payload);
+				notify.execute();
+			}
+		});
+		sent.increment();
+	}
+
+	private void listen() {
+		boolean firstConnection = true;
+
+		Properties properties = new Properties();
+		properties.put("tcpKeepAlive", "true");
+		properties.put("socketTimeout", SOCKET_TIMEOUT);
+
+		while (!closed) {
+			try (Connection connection = hibernate.openUnpooledConnection(properties);
+					Statement statement = connection.createStatement()) {
+
+				statement.execute("LISTEN " + CHANNEL);
+
+				if (!firstConnection) {
+					reconnects.increment();
+					logger.warn("event bus reconnected, events of the other replicas may have been lost");
+					// the lost events didn't evict the changed objects. Evict all after LISTEN,
+					// so that also the changes made during the reconnection are covered
+					cacheInvalidator.evictAll();
+				}
+				firstConnection = false;
+				connected = true;
+
+				PGConnection pgConnection = connection.unwrap(PGConnection.class);
+
+				while (!closed) {
+					PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT);
+					if (notifications != null && notifications.length > 0) {
+						for (PGNotification notification : notifications) {
+							receive(notification.getParameter(), connection);
+						}
+					} else {
+						// a half-open connection would wait quietly forever
+						statement.execute("select 1");
+					}
+				}
+			} catch (SQLException e) {
+				connected = false;
+				if (closed) {
+					break;
+				}
+				errors.increment();
+				logger.error("event bus connection failed, reconnect in " + RECONNECT_DELAY + "ms", e);
+				try {
+					Thread.sleep(RECONNECT_DELAY);
+				} catch (InterruptedException e1) {
+					break;
+				}
+			}
+		}
+		connected = false;
+	}
+
+	private void receive(String payload, Connection connection) {
+		received.increment();
+		try {
+			BusMessage message = RestUtils.parseJson(BusMessage.class, payload);
+
+			if (origin.equals(message.getOrigin())) {
+				// published locally already
+				return;
+			}
+
+			if (message.getPayloadId() != null) {
+				message = RestUtils.parseJson(BusMessage.class, getPayload(message.getPayloadId(), connection));
+			}
+
+			SessionEvent event = message.getEvent();
+
+			cacheInvalidator.evict(event);
+
+			if (message.getSkipTopics() != null) {
+				sessionDbApi.deliverAllTopics(event, message.getSkipTopics());
+			} else {
+				sessionDbApi.deliver(message.getTopic(), event);
+			}
+			relayed.increment();
+
+		} catch (SQLException | RuntimeException e) {
+			// skip this event, but keep listening
+			errors.increment();
+			logger.error("failed to relay an event from another replica", e);
+		}
+	}
+
+	private String getPayload(long payloadId, Connection connection) throws SQLException {
+		try (PreparedStatement select = connection.prepareStatement(SQL_SELECT_PAYLOAD)) {
+			select.setLong(1, payloadId);
+			try (ResultSet rs = select.executeQuery()) {
+				if (!rs.next()) {
+					throw new SQLException("event payload " + payloadId + " not found");
+				}
+				return rs.getString(1);
+			}
+		}
+	}
+
+	private void deleteOldPayloads() {
+		Integer count = hibernate.runInTransaction(hibernateSession -> {
+			return hibernateSession.createNativeQuery(SQL_DELETE_PAYLOADS, Void.class)
+					.setParameter("age", PAYLOAD_MAX_AGE)
+					.executeUpdate();
+		});
+		logger.debug("deleted " + count + " old event payloads");
+	}
+
+	public void close() {
+		closed = true;
+		if (cleanupTimer != null) {
+			cleanupTimer.cancel();
+		}
+		if (listenerThread != null) {
+			listenerThread.interrupt();
+		}
+	}
+
+	@Override
+	public Map<String, Object> getStatus() {
+		HashMap<String, Object> status = new HashMap<>();
+		status.put("eventBusConnected", connected ? 1 : 0);
+		status.put("eventBusSent", sent.sum());
+		status.put("eventBusSentLarge", sentLarge.sum());
+		status.put("eventBusReceived", received.sum());
+		status.put("eventBusRelayed", relayed.sum());
+		status.put("eventBusErrors", errors.sum());
+		status.put("eventBusReconnects", reconnects.sum());
+		return status;
+	}
+}
@@ -3,8 +3,9 @@ package fi.csc.chipster.sessiondb.resource;
 import java.net.URI;
 import java.time.Instant;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -23,6 +24,7 @@ import fi.csc.chipster.rest.hibernate.Transaction;
 import fi.csc.chipster.sessiondb.model.Dataset;
 import fi.csc.chipster.sessiondb.model.Input;
 import fi.csc.chipster.sessiondb.model.Job;
+import fi.csc.chipster.sessiondb.model.JobProgress;
 import fi.csc.chipster.sessiondb.model.Session;
 import jakarta.annotation.security.RolesAllowed;
 import jakarta.ws.rs.BadRequestException;
@@ -36,9 +38,11 @@ import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Context;
-import jakarta.ws.rs.core.GenericEntity;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.SecurityContext;
 import jakarta.ws.rs.core.UriInfo;
@@ -47,6 +51,9 @@ public class SessionJobResource {
 
 	private static Logger logger = LogManager.getLogger();
 
+	public static final String QUERY_PARAM_FIELDS = "fields";
+	public static final String FIELDS_ALL = "all";
+
 	final private UUID sessionId;
 
 	private SessionResource sessionResource;
@@ -75,7 +82,7 @@ public class SessionJobResource {
 	@Path("{id}")
 	@RolesAllowed({ Role.CLIENT, Role.SERVER, Role.SESSION_TOKEN }) // don't allow Role.UNAUTHENTICATED
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response get(@PathParam("id") UUID jobId, @Context SecurityContext sc) {
 
 		// checks authorization
@@ -101,7 +108,7 @@ public class SessionJobResource {
 	@Path("ids")
 	@RolesAllowed({ Role.CLIENT, Role.SERVER, Role.SESSION_TOKEN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response getIds(@Context SecurityContext sc) {
 
 		// checks authorization
@@ -121,6 +128,10 @@ public class SessionJobResource {
 	 * 
 	 * This should be GET, but browsers don't allow having a body in a GET request
 	 * 
+	 * All fields are returned by default, because the app shows the screen output
+	 * of these jobs. The large object fields can be limited with the query
+	 * parameter "fields", see getAll().
+	 * 
 	 */
 	@POST
 	@Path("arrayGet")
@@ -128,7 +139,8 @@ public class SessionJobResource {
 	@Consumes(MediaType.APPLICATION_JSON)
 	@Produces(MediaType.APPLICATION_JSON)
 	@Transaction
-	public Response getArray(List<UUID> jobIds, @Context SecurityContext sc) {
+	public Response getArray(List<UUID> jobIds, @QueryParam(QUERY_PARAM_FIELDS) String fields,
+			@Context SecurityContext sc) {
 
 		if (jobIds == null) {
 			throw new BadRequestException("no job IDs given");
@@ -136,7 +148,12 @@ public class SessionJobResource {
 		// checks authorization
 		Session session = sessionResource.getRuleTable().checkSessionReadAuthorization(sc, sessionId, true);
 
-		List<Job> jobs = SessionDbApi.getJobs(getHibernate().session(), session, jobIds);
+		List<Job> jobs;
+		if (fields == null) {
+			jobs = SessionDbApi.getJobs(getHibernate().session(), session, jobIds);
+		} else {
+			jobs = SessionDbApi.getJobs(getHibernate().session(), session, jobIds, parseLobFields(fields));
+		}
 
 		return Response.ok(jobs).build();
 	}
@@ -146,20 +163,30 @@ public class SessionJobResource {
 	 * 
 	 * Useful for server components that do not communicate through Ingress and
 	 * don't have to get response in 30 seconds.
+	 * 
+	 * The large object fields (toolDescription, sourceCode, screenOutput and
+	 * stateDetail) are left out, unless those are listed in the comma-separated
+	 * query parameter "fields". Use "fields=all" to get all of them. Single job
+	 * GET always returns all fields.
 	 */
 	@GET
 	@RolesAllowed({ Role.CLIENT, Role.SERVER, Role.SESSION_TOKEN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
-	public Response getAll(@Context SecurityContext sc) {
+	@Transaction(readOnly = true)
+	public Response getAll(@QueryParam(QUERY_PARAM_FIELDS) String fields, @Context SecurityContext sc,
+			@Context Request request) {
 
-		// checks authorization
-		Session session = sessionResource.getRuleTable().checkSessionReadAuthorization(sc, sessionId);
+		// before reading the objects
+		EntityTag etag = sessionResource.getEntityTag(sessionId);
 
-		List<Job> result = SessionDbApi.getJobs(getHibernate().session(), session);
+		// checks authorization
+		sessionResource.getRuleTable().checkSessionReadAuthorization(sc, sessionId);
 
+		// stream in batches to keep the memory usage low also in huge sessions
 		// if nothing is found, just return 200 (OK) and an empty list
-		return Response.ok(toJaxbList(result)).build();
+		return SessionResource.conditionalResponse(request, etag,
+				() -> Response.ok(sessionDbApi.streamJobs(sessionId, parseLobFields(fields)))
+						.type(MediaType.APPLICATION_JSON));
 	}
 
 	@POST
@@ -305,10 +332,16 @@ public class SessionJobResource {
 	 */
 	private void checkNewInputs(Session session, Job requestJob) {
 
+		Set<UUID> datasetIds = requestJob.getInputs().stream().map(input -> UUID.fromString(input.getDatasetId()))
+				.collect(Collectors.toSet());
+
+		Map<UUID, Dataset> datasets = SessionDbApi.getDatasets(getHibernate().session(), session.getSessionId(),
+				datasetIds);
+
 		// if this a new job, check that all datasets are in the session
 		for (Input input : requestJob.getInputs()) {
 			UUID datasetId = UUID.fromString(input.getDatasetId());
-			Dataset dataset = SessionDbApi.getDataset(session.getSessionId(), datasetId, getHibernate().session());
+			Dataset dataset = datasets.get(datasetId);
 
 			// check that the requested dataset is in the session
 			// otherwise anyone with a session can access any dataset
@@ -363,6 +396,49 @@ public class SessionJobResource {
 		return Response.noContent().build();
 	}
 
+	/**
+	 * Append screen output and update the state fields of a running job
+	 *
+	 * Comps call this about once a second while the job is running. Unlike put(),
+	 * this doesn't need the whole job, which would include all the large objects
+	 * like the tool description, source code and the whole screen output. The job
+	 * must be finished with put(), because that sets the outputs too.
+	 *
+	 * @param progress
+	 * @param jobId
+	 * @param sc
+	 * @return
+	 */
+	@POST
+	@Path("{id}/progress")
+	@RolesAllowed({ Role.CLIENT, Role.SERVER, Role.SESSION_TOKEN }) // don't allow Role.UNAUTHENTICATED
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Transaction
+	public Response postProgress(JobProgress progress, @PathParam("id") UUID jobId, @Context SecurityContext sc) {
+
+		if (progress == null) {
+			throw new BadRequestException("no progress given");
+		}
+
+		if (progress.getState() != null && progress.getState().isFinished()) {
+			throw new BadRequestException("job must be finished with a PUT request, state: " + progress.getState());
+		}
+
+		if (progress.getScreenOutputOffset() < 0) {
+			throw new BadRequestException("negative screen output offset");
+		}
+
+		// check that user has write authorization for the session
+		Session session = sessionResource.getRuleTable().checkSessionReadWriteAuthorization(sc, sessionId);
+
+		// checks that the job exists and isn't finished yet
+		sessionDbApi.updateJobProgress(sessionId, jobId, progress, getHibernate().session());
+
+		sessionDbApi.sessionModified(session, getHibernate().session());
+
+		return Response.noContent().build();
+	}
+
 	@DELETE
 	@Path("{id}")
 	@RolesAllowed({ Role.CLIENT, Role.SERVER }) // don't allow Role.UNAUTHENTICATED
@@ -387,19 +463,28 @@ public class SessionJobResource {
 	}
 
 	/**
-	 * Make a list compatible with JSON conversion
+	 * Parse the large object fields requested in the query parameter "fields"
 	 * 
-	 * Default Java collections don't define the XmlRootElement annotation and thus
-	 * can't be converted directly to JSON.
-	 * 
-	 * @param <T>
-	 * 
-	 * @param result
+	 * @param fields comma-separated field names, "all" or null
 	 * @return
 	 */
-	private GenericEntity<Collection<Job>> toJaxbList(Collection<Job> result) {
-		return new GenericEntity<Collection<Job>>(result) {
-		};
+	private Set<String> parseLobFields(String fields) {
+		if (fields == null || fields.isBlank()) {
+			return Set.of();
+		}
+
+		if (FIELDS_ALL.equals(fields)) {
+			return Set.copyOf(SessionDbApi.JOB_LOB_FIELDS);
+		}
+
+		Set<String> lobFields = new HashSet<>();
+		for (String field : fields.split(",")) {
+			// other fields are always returned
+			if (SessionDbApi.JOB_LOB_FIELDS.contains(field.trim())) {
+				lobFields.add(field.trim());
+			}
+		}
+		return lobFields;
 	}
 
 	private HibernateUtil getHibernate() {
@@ -62,7 +62,7 @@ public class SessionLabelResource {
 	@Path("{id}")
 	@RolesAllowed({ Role.CLIENT, Role.SERVER, Role.SESSION_TOKEN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response get(@PathParam("id") UUID labelId, @Context SecurityContext sc) {
 
 		sessionResource.getRuleTable().checkSessionReadAuthorization(sc, sessionId);
@@ -79,7 +79,7 @@ public class SessionLabelResource {
 	@GET
 	@RolesAllowed({ Role.CLIENT, Role.SERVER, Role.SESSION_TOKEN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response getAll(@Context SecurityContext sc) {
 
 		sessionResource.getRuleTable().checkSessionReadAuthorization(sc, sessionId);
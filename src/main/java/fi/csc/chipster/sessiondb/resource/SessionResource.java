@@ -3,18 +3,24 @@ package fi.csc.chipster.sessiondb.resource;
 import java.io.IOException;
 import java.net.URI;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hibernate.Hibernate;
+import org.hibernate.query.Query;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -23,9 +29,15 @@ import fi.csc.chipster.rest.Config;
 import fi.csc.chipster.rest.RestUtils;
 import fi.csc.chipster.rest.exception.NotAuthorizedException;
 import fi.csc.chipster.rest.hibernate.HibernateUtil;
+import fi.csc.chipster.rest.hibernate.HibernateUtil.JsonStreamWriter;
 import fi.csc.chipster.rest.hibernate.Transaction;
+import fi.csc.chipster.sessiondb.model.Dataset;
+import fi.csc.chipster.sessiondb.model.Job;
+import fi.csc.chipster.sessiondb.model.Label;
 import fi.csc.chipster.sessiondb.model.Rule;
 import fi.csc.chipster.sessiondb.model.Session;
+import fi.csc.chipster.sessiondb.model.SessionChanges;
+import fi.csc.chipster.sessiondb.model.SessionEvent;
 import fi.csc.chipster.sessiondb.model.SessionState;
 import jakarta.annotation.security.RolesAllowed;
 import jakarta.ws.rs.BadRequestException;
@@ -40,11 +52,16 @@ import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.CacheControl;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.GenericEntity;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.ResponseBuilder;
 import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.core.StreamingOutput;
 import jakarta.ws.rs.core.UriInfo;
 
 @Path("sessions")
@@ -54,8 +71,19 @@ public class SessionResource {
 	private static final String QUERY_PARAM_PREVIEW = "preview";
 	public static final String QUERY_PARAM_USER_ID = "userId";
 	public static final String QUERY_PARAM_APP_ID = "appId";
+	public static final String PATH_LIST = "list";
+	public static final String PATH_CHANGES = "changes";
+	public static final String QUERY_PARAM_SINCE = "since";
+	public static final String QUERY_PARAM_SORT = "sort";
+	public static final String QUERY_PARAM_AFTER = "after";
+	public static final String QUERY_PARAM_LIMIT = "limit";
+	public static final String SORT_ACCESSED = "accessed";
+	public static final String SORT_CREATED = "created";
+
+	private static final int LIST_DEFAULT_LIMIT = 100;
+	private static final int LIST_MAX_LIMIT = 1000;
+	private static final String LIST_CURSOR_SEPARATOR = "_";
 
-	@SuppressWarnings("unused")
 	private static Logger logger = LogManager.getLogger();
 
 	private HibernateUtil hibernate;
@@ -65,11 +93,28 @@ public class SessionResource {
 
 	private Config config;
 
+	private SessionAccessedUpdater accessedUpdater;
+
+	private UserUsageTable userUsageTable;
+
+	private SessionChangeLog changeLog;
+
+	// other session-db replicas don't add their events to our change log
+	private boolean entityTagsEnabled;
+
 	public SessionResource(HibernateUtil hibernate, SessionDbApi sessionDbApi, RuleTable authorizationTable,
+			SessionAccessedUpdater accessedUpdater, UserUsageTable userUsageTable, SessionChangeLog changeLog,
 			Config config) {
 		this.hibernate = hibernate;
 		this.ruleTable = authorizationTable;
 		this.sessionDbApi = sessionDbApi;
+		this.accessedUpdater = accessedUpdater;
+		this.userUsageTable = userUsageTable;
+		this.changeLog = changeLog;
+		// the events of the other replicas arrive later, so their changes could be
+		// missing from the ETags of this replica
+		this.entityTagsEnabled = config.getString(Config.KEY_SESSION_DB_CACHE_PEERS).trim().isEmpty()
+				&& !config.getBoolean(Config.KEY_SESSION_DB_EVENT_BUS);
 		this.config = config;
 	}
 
@@ -99,9 +144,12 @@ public class SessionResource {
 	@Path("{id}")
 	@RolesAllowed({ Role.CLIENT, Role.SERVER, Role.SESSION_TOKEN })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response get(@PathParam("id") UUID sessionId, @Context SecurityContext sc,
-			@QueryParam(QUERY_PARAM_PREVIEW) String preview) throws IOException {
+			@QueryParam(QUERY_PARAM_PREVIEW) String preview, @Context Request request) throws IOException {
+
+		// before reading the session, see getEntityTag()
+		EntityTag etag = getEntityTag(sessionId);
 
 		// checks authorization
 		Session dbSession = ruleTable.checkSessionReadAuthorization(sc, sessionId);
@@ -127,17 +175,183 @@ public class SessionResource {
 		// empty string when set, otherwise null (boolean without value would have been
 		// false)
 		if (preview == null) {
+			/*
+			 * Don't update the DB in every request. The read-only Hibernate session won't
+			 * persist this change, the accessedUpdater will do it later in a batch.
+			 */
 			dbSession.setAccessed(Instant.now());
-			getHibernate().update(dbSession, sessionId);
+			accessedUpdater.accessed(sessionId, dbSession.getAccessed());
 		}
 
-		return Response.ok(dbSession).build();
+		return conditionalResponse(request, etag, () -> Response.ok(dbSession));
 	}
 
+	/**
+	 * Weak ETag of the session and its contents
+	 * 
+	 * Call this before reading the objects from the db. Changes that are committed
+	 * after this will change the ETag, even if the response already includes them.
+	 * 
+	 * The ETag is given only when this session-db sees all changes and reads them
+	 * from the primary db. A replica might not have the changes of the latest
+	 * events yet and the client would keep the old contents with the new ETag.
+	 * 
+	 * @param sessionId
+	 * @return ETag or null
+	 */
+	EntityTag getEntityTag(UUID sessionId) {
+		if (!entityTagsEnabled || hibernate.isReplicaBound()) {
+			return null;
+		}
+		return changeLog.getEntityTag(sessionId);
+	}
+
+	/**
+	 * Respond with 304 Not Modified if the client has this version already
+	 * 
+	 * @param request
+	 * @param etag    ETag of the current version or null
+	 * @param ok      builds the normal response, called only if needed
+	 * @return
+	 */
+	static Response conditionalResponse(Request request, EntityTag etag, Supplier<ResponseBuilder> ok) {
+		if (etag == null) {
+			return ok.get().build();
+		}
+
+		// the client must revalidate the contents on every use
+		CacheControl cacheControl = new CacheControl();
+		cacheControl.setNoCache(true);
+
+		ResponseBuilder notModified = request.evaluatePreconditions(etag);
+		if (notModified != null) {
+			return notModified.cacheControl(cacheControl).build();
+		}
+		return ok.get().tag(etag).cacheControl(cacheControl).build();
+	}
+
+	/**
+	 * Get the changes of the session after the given eventNumber
+	 * 
+	 * Clients can use this after a websocket reconnection to get the objects that
+	 * have changed while the connection was down, instead of loading the whole
+	 * session again. If the change log doesn't reach so far back, the response
+	 * tells the client to reload the session.
+	 * 
+	 * The change log is in the memory of this replica. Run this in the primary db,
+	 * because the replica might not have the latest changes yet.
+	 * 
+	 * @param sessionId
+	 * @param since     eventNumber of the latest event that the client has seen
+	 * @param sc
+	 * @return
+	 */
 	@GET
-	@RolesAllowed({ Role.CLIENT, Role.SERVER }) // don't allow Role.UNAUTHENTICATED
+	@Path("{id}/" + PATH_CHANGES)
+	@RolesAllowed({ Role.CLIENT, Role.SERVER, Role.SESSION_TOKEN })
 	@Produces(MediaType.APPLICATION_JSON)
 	@Transaction
+	public Response getChanges(@PathParam("id") UUID sessionId, @QueryParam(QUERY_PARAM_SINCE) Long since,
+			@Context SecurityContext sc) {
+
+		// checks authorization
+		Session dbSession = ruleTable.checkSessionReadAuthorization(sc, sessionId);
+
+		if (dbSession == null) {
+			throw new NotFoundException();
+		}
+
+		SessionChanges changes = new SessionChanges();
+
+		/*
+		 * Take the number before reading the objects. The events of the changes that
+		 * are committed after this will have a bigger number and the client will get
+		 * them in the next request, even if those changes are already visible below.
+		 */
+		changes.setEventNumber(changeLog.getEventNumber());
+
+		List<SessionEvent> events = since == null ? null : changeLog.getEvents(sessionId, since);
+
+		if (events == null) {
+			changes.setReload(true);
+			return Response.ok(changes).build();
+		}
+
+		Set<UUID> datasetIds = new LinkedHashSet<>();
+		Set<UUID> jobIds = new LinkedHashSet<>();
+		Set<UUID> labelIds = new LinkedHashSet<>();
+		boolean sessionChanged = false;
+
+		for (SessionEvent event : events) {
+			switch (event.getResourceType()) {
+			case DATASET:
+				datasetIds.add(event.getResourceId());
+				break;
+			case JOB:
+				jobIds.add(event.getResourceId());
+				break;
+			case LABEL:
+				labelIds.add(event.getResourceId());
+				break;
+			case SESSION:
+			case RULE:
+				sessionChanged = true;
+				break;
+			default:
+				break;
+			}
+		}
+
+		org.hibernate.Session hibernateSession = hibernate.session();
+
+		Map<UUID, Dataset> datasets = SessionDbApi.getDatasets(hibernateSession, sessionId, datasetIds);
+		for (UUID datasetId : datasetIds) {
+			if (datasets.containsKey(datasetId)) {
+				changes.getDatasets().add(datasets.get(datasetId));
+			} else {
+				changes.getDeletedDatasets().add(datasetId);
+			}
+		}
+
+		List<UUID> jobIdList = new ArrayList<>(jobIds);
+		// same order as the ids, nulls for the deleted jobs
+		List<Job> jobs = jobIdList.isEmpty() ? List.of()
+				: SessionDbApi.getJobs(hibernateSession, dbSession, jobIdList);
+		for (int i = 0; i < jobIdList.size(); i++) {
+			if (jobs.get(i) != null) {
+				changes.getJobs().add(jobs.get(i));
+			} else {
+				changes.getDeletedJobs().add(jobIdList.get(i));
+			}
+		}
+
+		if (!labelIds.isEmpty()) {
+			Map<UUID, Label> labels = new HashMap<>();
+			for (Label label : SessionDbApi.getLabels(hibernateSession, sessionId)) {
+				labels.put(label.getLabelId(), label);
+			}
+			for (UUID labelId : labelIds) {
+				if (labels.containsKey(labelId)) {
+					changes.getLabels().add(labels.get(labelId));
+				} else {
+					changes.getDeletedLabels().add(labelId);
+				}
+			}
+		}
+
+		if (sessionChanged) {
+			// see get()
+			Hibernate.initialize(dbSession.getRules());
+			changes.setSession(dbSession);
+		}
+
+		return Response.ok(changes).build();
+	}
+
+	@GET
+	@RolesAllowed({ Role.CLIENT, Role.SERVER }) // don't allow Role.UNAUTHENTICATED
+	@Produces(MediaType.APPLICATION_JSON)
+	@Transaction(readOnly = true)
 	public Response getAll(@QueryParam(QUERY_PARAM_USER_ID) String userIdString,
 			@QueryParam(QUERY_PARAM_APP_ID) String appId, @Context SecurityContext sc) {
 
@@ -198,11 +412,164 @@ public class SessionResource {
 		return sessions;
 	}
 
+	/**
+	 * Get one page of the user's own sessions
+	 * 
+	 * Unlike getAll(), this doesn't load the Session entities. Only the fields
+	 * needed in the session list and the user's own rule are selected in one
+	 * query, ordered by the "accessed" or "created" time, newest first. Pages are
+	 * selected with a cursor of the last row (keyset pagination), so the cost of a
+	 * page doesn't depend on how far the client has paged already. The result is
+	 * streamed to the client without building an entity graph in memory.
+	 * 
+	 * The response is a SessionPage object, where "next" is the cursor for the
+	 * query parameter "after" or null if this was the last page.
+	 * 
+	 * @param userIdString
+	 * @param sort
+	 * @param after
+	 * @param limit
+	 * @param sc
+	 * @return
+	 */
+	@GET
+	@Path(PATH_LIST)
+	@RolesAllowed({ Role.CLIENT, Role.SERVER }) // don't allow Role.UNAUTHENTICATED
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getList(@QueryParam(QUERY_PARAM_USER_ID) String userIdString,
+			@QueryParam(QUERY_PARAM_SORT) String sort, @QueryParam(QUERY_PARAM_AFTER) String after,
+			@QueryParam(QUERY_PARAM_LIMIT) Integer limit, @Context SecurityContext sc) {
+
+		String authenticatedUserId = sc.getUserPrincipal().getName();
+		String username;
+
+		// the same rules as in getAll()
+		if (Role.SESSION_WORKER.equals(authenticatedUserId) || Role.FILE_STORAGE.equals(authenticatedUserId)
+				|| Role.FILE_BROKER.equals(authenticatedUserId)) {
+			if (userIdString == null) {
+				throw new ForbiddenException("query parameter " + QUERY_PARAM_USER_ID + " is null");
+			}
+			username = userIdString;
+		} else {
+			if (userIdString != null) {
+				throw new ForbiddenException(
+						"query parameter " + QUERY_PARAM_USER_ID + " not allowed for the user " + authenticatedUserId);
+			}
+			username = authenticatedUserId;
+		}
+
+		// sessions without the accessed time are sorted by the created time
+		String sortKey;
+		if (sort == null || SORT_ACCESSED.equals(sort)) {
+			sortKey = "coalesce(s.accessed, s.created, :epoch)";
+		} else if (SORT_CREATED.equals(sort)) {
+			sortKey = "coalesce(s.created, :epoch)";
+		} else {
+			throw new BadRequestException("unknown sort: " + sort);
+		}
+
+		int pageSize = limit == null ? LIST_DEFAULT_LIMIT : limit;
+
+		if (pageSize < 1 || pageSize > LIST_MAX_LIMIT) {
+			throw new BadRequestException(QUERY_PARAM_LIMIT + " must be between 1 and " + LIST_MAX_LIMIT);
+		}
+
+		Instant afterTime = null;
+		UUID afterId = null;
+
+		if (after != null) {
+			try {
+				int separator = after.lastIndexOf(LIST_CURSOR_SEPARATOR);
+				afterTime = Instant.parse(after.substring(0, separator));
+				afterId = UUID.fromString(after.substring(separator + 1));
+			} catch (IndexOutOfBoundsException | DateTimeParseException | IllegalArgumentException e) {
+				throw new BadRequestException("unparseable " + QUERY_PARAM_AFTER + ": " + after);
+			}
+		}
+
+		String hql = "select s.sessionId, s.name, s.created, s.accessed, s.state, "
+				+ "r.ruleId, r.readWrite, r.sharedBy, r.created, " + sortKey
+				+ " from Rule r join r.session s where r.username = :username";
+
+		if (after != null) {
+			hql += " and (" + sortKey + " < :afterTime or (" + sortKey
+					+ " = :afterTime and s.sessionId < :afterId))";
+		}
+
+		hql += " order by " + sortKey + " desc, s.sessionId desc";
+
+		String query = hql;
+		Instant queryAfterTime = afterTime;
+		UUID queryAfterId = afterId;
+
+		StreamingOutput stream = hibernate.streamJson(hibernateSession -> {
+
+			Query<Object[]> q = hibernateSession.createQuery(query, Object[].class);
+			q.setParameter("username", username);
+			q.setParameter("epoch", Instant.EPOCH);
+			if (queryAfterTime != null) {
+				q.setParameter("afterTime", queryAfterTime);
+				q.setParameter("afterId", queryAfterId);
+			}
+			// one extra row to know if there is a next page
+			q.setMaxResults(pageSize + 1);
+			return q;
+
+		}, new JsonStreamWriter<Object[]>() {
+
+			private int count = 0;
+			private String next = null;
+			private String lastCursor = null;
+
+			@Override
+			public void writeStart(JsonGenerator jg) throws IOException {
+				jg.writeStartObject();
+				jg.writeArrayFieldStart("sessions");
+			}
+
+			@Override
+			public boolean write(JsonGenerator jg, Object[] row) throws IOException {
+
+				if (count == pageSize) {
+					next = lastCursor;
+					return false;
+				}
+
+				Session session = new Session();
+				session.setSessionId((UUID) row[0]);
+				session.setName((String) row[1]);
+				session.setCreated((Instant) row[2]);
+				session.setAccessed((Instant) row[3]);
+				session.setState((SessionState) row[4]);
+
+				Rule rule = new Rule(username, (Boolean) row[6], (String) row[7]);
+				rule.setRuleId((UUID) row[5]);
+				rule.setCreated((Instant) row[8]);
+				session.setRules(new HashSet<>(Set.of(rule)));
+
+				jg.writeObject(session);
+
+				lastCursor = row[9] + LIST_CURSOR_SEPARATOR + row[0];
+				count++;
+				return true;
+			}
+
+			@Override
+			public void writeEnd(JsonGenerator jg) throws IOException {
+				jg.writeEndArray();
+				jg.writeStringField("next", next);
+				jg.writeEndObject();
+			}
+		});
+
+		return Response.ok().entity(stream).type(MediaType.APPLICATION_JSON).build();
+	}
+
 	@GET
 	@Path(PATH_SHARES)
 	@RolesAllowed({ Role.CLIENT, Role.SERVER }) // don't allow Role.UNAUTHENTICATED
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response getShares(@Context SecurityContext sc) {
 
 		List<Rule> result = ruleTable.getShares(sc.getUserPrincipal().getName());
@@ -325,14 +692,14 @@ public class SessionResource {
 	@Path("stats")
 	@RolesAllowed({ Role.CLIENT, Role.SERVER }) // don't allow Role.UNAUTHENTICATED
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response getStats(@Context SecurityContext sc) {
 
 		String authenticatedUserId = sc.getUserPrincipal().getName();
 
 		HashMap<String, Object> responseObj = new HashMap<String, Object>() {
 			{
-				put("size", ruleTable.getTotalSize(authenticatedUserId));
+				put("size", userUsageTable.getUsage(authenticatedUserId).getSize());
 			}
 		};
 
@@ -33,7 +33,7 @@ public class UserResource {
 	@GET
 	@RolesAllowed({ Role.ADMIN, Role.FILE_STORAGE, Role.FILE_BROKER })
 	@Produces(MediaType.APPLICATION_JSON)
-	@Transaction
+	@Transaction(readOnly = true)
 	public Response getAll(@Context SecurityContext sc) {
 		List<String> users = ruleTable.getUsers();
 		return Response.ok(users).build();
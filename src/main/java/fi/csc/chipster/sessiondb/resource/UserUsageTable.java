@@ -0,0 +1,450 @@
+package fi.csc.chipster.sessiondb.resource;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.SessionEventListener;
+
+import fi.csc.chipster.rest.StatusSource;
+import fi.csc.chipster.rest.hibernate.HibernateUtil;
+import fi.csc.chipster.sessiondb.model.Rule;
+import fi.csc.chipster.sessiondb.model.UserUsage;
+
+/**
+ * Per-user storage usage and session counts
+ *
+ * Calculating these from the rules, datasets and files takes several aggregate
+ * queries for each user. Now the results are stored in the UserUsage table.
+ *
+ * The changes of rules and dataset files are collected as deltas of the
+ * affected users. Updating the row of the user in the request transaction would
+ * lock it until the commit and the parallel requests of the same user would
+ * wait for each other. Instead, the deltas of the committed transactions are
+ * summed in memory and written to the db in the reconciliation timer. These
+ * deltas keep the values close enough for reading, but they can't be exact in
+ * all cases, e.g. when the same file is in several sessions of the user. Each
+ * write increments the changes counter too, and the reconciliation recalculates
+ * the changed users, correcting the stored values in place. All users are
+ * recalculated once in a while to fix any changes that were missed.
+ *
+ * The values are calculated on the fly only for users who haven't been
+ * reconciled even once yet.
+ */
+public class UserUsageTable implements StatusSource {
+
+	private static Logger logger = LogManager.getLogger();
+
+	private static final String SQL_INSERT = "insert into UserUsage (username, readWriteSessions, readOnlySessions, size, changes, reconciledChanges) ";
+
+	private static final String SQL_ON_CONFLICT = " on conflict (username) do update set "
+			+ "readWriteSessions = UserUsage.readWriteSessions + excluded.readWriteSessions, "
+			+ "readOnlySessions = UserUsage.readOnlySessions + excluded.readOnlySessions, "
+			+ "size = UserUsage.size + excluded.size, changes = UserUsage.changes + excluded.changes";
+
+	// lock the rows always in the same order to avoid deadlocks
+	private static final String SQL_ORDER = " order by username";
+
+	private static final String SQL_WRITE_DELTA = SQL_INSERT
+			+ "values (:username, :readWriteSessions, :readOnlySessions, :size, :changes, 0)" + SQL_ON_CONFLICT;
+
+	private static final String SQL_SESSION_USERS = "select distinct username from Rule where sessionId = :sessionId and readWrite = true and username is not null";
+
+	private static final String SQL_FILE_USERS = "select distinct rule.username from Rule rule inner join Dataset dataset on rule.sessionId = dataset.sessionId "
+			+ "where dataset.fileId = :fileId and rule.readWrite = true and rule.username is not null";
+
+	// also the users who don't have a row yet. Doesn't change the values, only
+	// schedules the recalculation
+	private static final String SQL_MARK_ALL = SQL_INSERT
+			+ "select distinct username, 0, 0, 0, 1, 0 from Rule where username is not null"
+			+ SQL_ORDER + SQL_ON_CONFLICT;
+
+	private static final int RECONCILE_BATCH_SIZE = 1000;
+
+	/**
+	 * Changes of one user, which haven't been written to the db yet
+	 */
+	private static class Delta {
+		private long readWriteSessions;
+		private long readOnlySessions;
+		private long size;
+		private long changes;
+
+		private Delta(long readWriteSessions, long readOnlySessions, long size, long changes) {
+			this.readWriteSessions = readWriteSessions;
+			this.readOnlySessions = readOnlySessions;
+			this.size = size;
+			this.changes = changes;
+		}
+
+		private Delta add(Delta other) {
+			return new Delta(readWriteSessions + other.readWriteSessions, readOnlySessions + other.readOnlySessions,
+					size + other.size, changes + other.changes);
+		}
+	}
+
+	private HibernateUtil hibernate;
+
+	private ConcurrentHashMap<String, Delta> pending = new ConcurrentHashMap<>();
+
+	private Timer reconcileTimer;
+
+	private final LongAdder reconcileCount = new LongAdder();
+	private final LongAdder reconcileErrors = new LongAdder();
+	private final LongAdder usersReconciled = new LongAdder();
+	private final LongAdder calculatedOnRead = new LongAdder();
+	private final LongAdder deltasWritten = new LongAdder();
+
+	/**
+	 * @param hibernate
+	 * @param reconcileInterval    seconds between the recalculations of the
+	 *                             changed users
+	 * @param reconcileAllInterval hours between the recalculations of all users, 0
+	 *                             to disable
+	 */
+	public UserUsageTable(HibernateUtil hibernate, long reconcileInterval, long reconcileAllInterval) {
+		this.hibernate = hibernate;
+
+		if (reconcileInterval < 1) {
+			throw new IllegalArgumentException(
+					"reconcile interval must be at least 1 second, got: " + reconcileInterval);
+		}
+
+		this.reconcileTimer = new Timer("user-usage-reconcile", true);
+		this.reconcileTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					writeDeltas();
+					reconcile();
+				} catch (Exception e) {
+					// keep the timer running
+					reconcileErrors.increment();
+					logger.error("failed to reconcile user usage", e);
+				}
+			}
+		}, reconcileInterval * 1000, reconcileInterval * 1000);
+
+		if (reconcileAllInterval > 0) {
+			long interval = reconcileAllInterval * 60 * 60 * 1000;
+			this.reconcileTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						markAll();
+					} catch (Exception e) {
+						reconcileErrors.increment();
+						logger.error("failed to mark all users for reconciliation", e);
+					}
+				}
+				// first time soon after start to initialize the new users
+			}, reconcileInterval * 1000, interval);
+		}
+	}
+
+	/**
+	 * A rule was created or deleted
+	 *
+	 * @param rule
+	 * @param sign             1 if the rule was created, -1 if it was deleted
+	 * @param sessionSize      size of the session, see
+	 *                         {@link #getSessionSize(UUID, org.hibernate.Session)}
+	 * @param hibernateSession
+	 */
+	public void markRule(Rule rule, int sign, long sessionSize, org.hibernate.Session hibernateSession) {
+		if (rule.getUsername() == null) {
+			return;
+		}
+		Delta delta = new Delta(rule.isReadWrite() ? sign : 0, rule.isReadWrite() ? 0 : sign,
+				rule.isReadWrite() ? sign * sessionSize : 0, 1);
+		addAfterCommit(List.of(rule.getUsername()), delta, hibernateSession);
+	}
+
+	/**
+	 * The size of the session has changed
+	 *
+	 * @param sessionId
+	 * @param sizeDelta        change of the session size in bytes
+	 * @param hibernateSession
+	 */
+	public void markSession(UUID sessionId, long sizeDelta, org.hibernate.Session hibernateSession) {
+		List<String> usernames = hibernateSession.createNativeQuery(SQL_SESSION_USERS, String.class)
+				.setParameter("sessionId", sessionId)
+				.list();
+		addAfterCommit(usernames, new Delta(0, 0, sizeDelta, 1), hibernateSession);
+	}
+
+	/**
+	 * The size of the file has changed or its datasets are going to be deleted
+	 *
+	 * @param fileId
+	 * @param sizeDelta        change of the file size in bytes
+	 * @param hibernateSession
+	 */
+	public void markFile(UUID fileId, long sizeDelta, org.hibernate.Session hibernateSession) {
+		List<String> usernames = hibernateSession.createNativeQuery(SQL_FILE_USERS, String.class)
+				.setParameter("fileId", fileId)
+				.list();
+		addAfterCommit(usernames, new Delta(0, 0, sizeDelta, 1), hibernateSession);
+	}
+
+	/**
+	 * Add the delta to the pending deltas of the users when the transaction
+	 * commits
+	 *
+	 * @param usernames
+	 * @param delta
+	 * @param hibernateSession
+	 */
+	private void addAfterCommit(List<String> usernames, Delta delta, org.hibernate.Session hibernateSession) {
+		if (usernames.isEmpty()) {
+			return;
+		}
+		hibernateSession.addEventListeners(new SessionEventListener() {
+			@Override
+			public void transactionCompletion(boolean successful) {
+				if (successful) {
+					for (String username : usernames) {
+						pending.merge(username, delta, Delta::add);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Write the pending deltas to the db
+	 *
+	 * Called periodically from the timer before the reconciliation, so that the
+	 * written users are recalculated right after. A delta of a change that the
+	 * recalculation has seen already may be added on top of it, but writing it
+	 * increments the changes counter, so the user is recalculated again on the next
+	 * round.
+	 */
+	public synchronized void writeDeltas() {
+
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		// take the deltas out one by one, new ones can arrive concurrently
+		TreeMap<String, Delta> batch = new TreeMap<>();
+		for (String username : pending.keySet()) {
+			Delta delta = pending.remove(username);
+			if (delta != null) {
+				batch.put(username, delta);
+			}
+		}
+
+		// the TreeMap locks the rows in the order of the usernames
+		Boolean written = hibernate.runInTransaction(hibernateSession -> {
+			for (String username : batch.keySet()) {
+				Delta delta = batch.get(username);
+				hibernateSession.createNativeQuery(SQL_WRITE_DELTA, Void.class)
+						.setParameter("username", username)
+						.setParameter("readWriteSessions", delta.readWriteSessions)
+						.setParameter("readOnlySessions", delta.readOnlySessions)
+						.setParameter("size", delta.size)
+						.setParameter("changes", delta.changes)
+						.addSynchronizedEntityClass(UserUsage.class)
+						.executeUpdate();
+			}
+			return true;
+		});
+
+		if (written == null) {
+			// the transaction failed and it was logged already. Put the deltas back to try
+			// again later
+			reconcileErrors.increment();
+			for (String username : batch.keySet()) {
+				pending.merge(username, batch.get(username), Delta::add);
+			}
+		} else {
+			deltasWritten.add(batch.size());
+		}
+	}
+
+	/**
+	 * Size of the files in the session
+	 *
+	 * @param sessionId
+	 * @param hibernateSession
+	 * @return
+	 */
+	public long getSessionSize(UUID sessionId, org.hibernate.Session hibernateSession) {
+		BigDecimal size = hibernateSession.createNativeQuery(
+				"select sum(size) from file where fileid in (select fileid from dataset where sessionid=:sessionId)",
+				BigDecimal.class)
+				.setParameter("sessionId", sessionId).getSingleResult();
+
+		// null if there are no datasets
+		return size == null ? 0 : size.longValue();
+	}
+
+	private void markAll() {
+		Integer count = hibernate.runInTransaction(hibernateSession -> {
+			return hibernateSession.createNativeQuery(SQL_MARK_ALL, Void.class)
+					.addSynchronizedEntityClass(UserUsage.class)
+					.executeUpdate();
+		});
+		logger.info("marked " + count + " users for usage reconciliation");
+	}
+
+	/**
+	 * Get the usage of the user
+	 *
+	 * The stored values are used if the user has been reconciled at least once.
+	 * Otherwise the values are calculated, but not stored, because this may run in
+	 * a read-only transaction.
+	 *
+	 * @param username
+	 * @return
+	 */
+	public UserUsage getUsage(String username) {
+		UserUsage usage = hibernate.session().find(UserUsage.class, username);
+
+		if (usage != null && usage.getReconciled() != null) {
+			return usage;
+		}
+
+		calculatedOnRead.increment();
+		return calculate(username, hibernate.session());
+	}
+
+	/**
+	 * Get the usage of all users
+	 *
+	 * @return usage of the users who have any rules, by username
+	 */
+	public Map<String, UserUsage> getUsages() {
+		HashMap<String, UserUsage> usages = new HashMap<>();
+
+		for (UserUsage usage : hibernate.session().createQuery("from UserUsage", UserUsage.class).list()) {
+			if (usage.getReconciled() != null) {
+				usages.put(usage.getUsername(), usage);
+			} else {
+				calculatedOnRead.increment();
+				usages.put(usage.getUsername(), calculate(usage.getUsername(), hibernate.session()));
+			}
+		}
+		return usages;
+	}
+
+	/**
+	 * Recalculate the changed users
+	 *
+	 * Each user is updated in its own transaction. If there are new changes
+	 * while the user is calculated, the result is not stored, because it may not
+	 * include the deltas of those changes. The user is calculated again on the next
+	 * round.
+	 */
+	public synchronized void reconcile() {
+
+		reconcileCount.increment();
+
+		List<Object[]> changed = hibernate.runInTransaction(hibernateSession -> {
+			return hibernateSession.createQuery(
+					"select u.username, u.changes from UserUsage u where u.changes <> u.reconciledChanges",
+					Object[].class)
+					.setMaxResults(RECONCILE_BATCH_SIZE)
+					.list();
+		});
+
+		if (changed == null || changed.isEmpty()) {
+			return;
+		}
+
+		long startTime = System.currentTimeMillis();
+
+		for (Object[] row : changed) {
+			String username = (String) row[0];
+			long changes = (Long) row[1];
+
+			Integer updated = hibernate.runInTransaction(hibernateSession -> {
+				UserUsage usage = calculate(username, hibernateSession);
+
+				return hibernateSession.createMutationQuery("update UserUsage set readWriteSessions = :readWriteSessions, "
+						+ "readOnlySessions = :readOnlySessions, size = :size, reconciledChanges = :changes, "
+						+ "reconciled = :reconciled where username = :username and changes = :changes")
+						.setParameter("readWriteSessions", usage.getReadWriteSessions())
+						.setParameter("readOnlySessions", usage.getReadOnlySessions())
+						.setParameter("size", usage.getSize())
+						.setParameter("changes", changes)
+						.setParameter("reconciled", Instant.now())
+						.setParameter("username", username)
+						.executeUpdate();
+			});
+
+			if (updated != null && updated > 0) {
+				usersReconciled.increment();
+			}
+		}
+
+		logger.debug("reconciled the usage of " + changed.size() + " users in "
+				+ (System.currentTimeMillis() - startTime) + " ms");
+	}
+
+	/**
+	 * Calculate the usage of the user from the rules, datasets and files
+	 *
+	 * @param username
+	 * @param hibernateSession
+	 * @return
+	 */
+	private UserUsage calculate(String username, org.hibernate.Session hibernateSession) {
+
+		UserUsage usage = new UserUsage(username);
+
+		// native query, because Hibernate doesn't support subqueries in from or
+		// join clauses
+		BigDecimal size = hibernateSession.createNativeQuery(
+				"select sum(size) from file inner join ("
+						+ "    select distinct dataset.fileid from rule "
+						+ "        inner join dataset on rule.sessionid=dataset.sessionid "
+						+ "    where rule.username=:username and readWrite=true) as dataset_fileid on dataset_fileid.fileid=file.fileid",
+				BigDecimal.class)
+				.setParameter("username", username).getSingleResult();
+
+		// null if there are no sessions or datasets
+		usage.setSize(size == null ? 0 : size.longValue());
+
+		usage.setReadWriteSessions(hibernateSession
+				.createQuery("select count(*) from Rule where username=:username and readWrite=true", Long.class)
+				.setParameter("username", username).uniqueResult());
+
+		usage.setReadOnlySessions(hibernateSession
+				.createQuery("select count(*) from Rule where username=:username and readWrite=false", Long.class)
+				.setParameter("username", username).uniqueResult());
+
+		return usage;
+	}
+
+	public void close() {
+		reconcileTimer.cancel();
+		// the changed users would be recalculated in the next full reconciliation
+		// anyway, but this keeps the values closer until then
+		writeDeltas();
+	}
+
+	@Override
+	public Map<String, Object> getStatus() {
+		HashMap<String, Object> status = new HashMap<>();
+		status.put("userUsageReconcileCount", reconcileCount.sum());
+		status.put("userUsageReconcileErrors", reconcileErrors.sum());
+		status.put("userUsageUsersReconciled", usersReconciled.sum());
+		status.put("userUsageCalculatedOnRead", calculatedOnRead.sum());
+		status.put("userUsageDeltasPending", pending.size());
+		status.put("userUsageDeltasWritten", deltasWritten.sum());
+		return status;
+	}
+}
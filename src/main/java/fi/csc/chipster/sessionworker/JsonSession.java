@@ -307,7 +307,8 @@ public class JsonSession {
 			UUID sessionId, ArrayList<InputStreamEntry> entries) throws RestException {
 
 		Collection<Dataset> datasets = sessionDb.getDatasets(sessionId).values();
-		Collection<Job> jobs = sessionDb.getJobs(sessionId).values();
+		// the session file must contain the whole jobs
+		Collection<Job> jobs = sessionDb.getJobs(sessionId, true).values();
 		Collection<Label> labels = sessionDb.getLabels(sessionId).values();
 
 		// we can't know if a username would refer to same person on the server where
@@ -236,6 +236,7 @@ public class ToolboxService implements ServerComponent {
 		URI baseUri = URI.create(this.url);
 		this.httpServer = GrizzlyHttpServerFactory.createHttpServer(baseUri, rc, false);
 		RestUtils.configureGrizzlyThreads(httpServer, Role.TOOLBOX, false, config);
+		RestUtils.configureGrizzlyCompression(httpServer, Role.TOOLBOX, config);
 		RestUtils.configureGrizzlyRequestLog(this.httpServer, Role.TOOLBOX, LogType.API);
 
 		jerseyStatisticsSource.collectConnectionStatistics(httpServer);
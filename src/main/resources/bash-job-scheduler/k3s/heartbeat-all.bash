@@ -0,0 +1,23 @@
+# get the heartbeat of all comp job pods with one kubectl call
+# print one line per pod: "<pod name> <alive|dead> <message>"
+# jobs that are not printed are checked with heartbeat.bash
+
+set -o pipefail
+
+kubectl get pods -l comp-job -o json | jq -r '
+  .items[] | .metadata.name as $name | .status as $status | $status.containerStatuses[0].state as $state |
+  if $state.running != null then
+    "\($name) alive running"
+  elif $state.terminated != null then
+    "\($name) dead terminated: \($state.terminated.reason)"
+  elif $state.waiting != null then
+    if $state.waiting.reason == "ContainerCreating" then
+      "\($name) alive waiting: \($state.waiting.reason)"
+    else
+      "\($name) dead waiting: \($state.waiting.reason)"
+    end
+  elif $status.phase == "Pending" then
+    "\($name) alive pending: \($status.conditions[0].reason) (\($status.conditions[0].message))"
+  else
+    "\($name) dead unknown status: \($status.phase)"
+  end'
@@ -0,0 +1,14 @@
+create table UserUsage (
+    username varchar(255) not null,
+    readWriteSessions bigint not null,
+    readOnlySessions bigint not null,
+    size bigint not null,
+    changes bigint not null,
+    reconciledChanges bigint not null,
+    reconciled timestamp(6) with time zone,
+    primary key (username)
+);
+
+-- the values are calculated later by the reconciliation job
+insert into UserUsage (username, readWriteSessions, readOnlySessions, size, changes, reconciledChanges)
+    select distinct username, 0, 0, 0, 1, 0 from Rule where username is not null;
@@ -0,0 +1,9 @@
+-- session events that are too large for the payload of PostgreSQL NOTIFY
+create table EventPayload (
+    payloadId bigserial not null,
+    created timestamp(6) with time zone not null default now(),
+    payload text not null,
+    primary key (payloadId)
+);
+
+create index eventpayload_created_index on EventPayload (created);
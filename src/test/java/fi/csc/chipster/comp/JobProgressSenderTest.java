@@ -0,0 +1,65 @@
+package fi.csc.chipster.comp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import fi.csc.chipster.sessiondb.RestException;
+import fi.csc.chipster.sessiondb.SessionDbClient;
+import fi.csc.chipster.sessiondb.model.JobProgress;
+
+public class JobProgressSenderTest {
+
+	/**
+	 * Collect the progress updates instead of sending them
+	 */
+	private static class RecordingClient extends SessionDbClient {
+
+		private List<JobProgress> sent = new ArrayList<>();
+
+		public RecordingClient() {
+			super((String) null, null, null);
+		}
+
+		@Override
+		public void updateJobProgress(UUID sessionId, UUID jobId, JobProgress progress) throws RestException {
+			sent.add(progress);
+		}
+	}
+
+	@Test
+	public void unchangedStateDetailIsNotSent() throws RestException {
+		RecordingClient client = new RecordingClient();
+		JobProgressSender sender = new JobProgressSender(client);
+		UUID sessionId = UUID.randomUUID();
+		UUID jobId = UUID.randomUUID();
+
+		// the first update is sent as a whole job
+		sender.jobUpdated(jobId, JobState.RUNNING, "a", "running");
+
+		for (String output : List.of("ab", "abc", "abcd")) {
+			GenericResultMessage result = new GenericResultMessage(jobId.toString(), JobState.RUNNING, "running",
+					null, output);
+			Assertions.assertTrue(sender.sendProgress(sessionId, jobId, result, "running", null, null));
+		}
+
+		GenericResultMessage result = new GenericResultMessage(jobId.toString(), JobState.RUNNING, "step 2", null,
+				"abcde");
+		Assertions.assertTrue(sender.sendProgress(sessionId, jobId, result, "step 2", null, null));
+		Assertions.assertTrue(sender.sendProgress(sessionId, jobId, result, "step 2", null, null));
+
+		Assertions.assertEquals(5, client.sent.size());
+		Assertions.assertNull(client.sent.get(0).getStateDetail());
+		Assertions.assertNull(client.sent.get(1).getStateDetail());
+		Assertions.assertNull(client.sent.get(2).getStateDetail());
+		Assertions.assertEquals("step 2", client.sent.get(3).getStateDetail());
+		Assertions.assertNull(client.sent.get(4).getStateDetail());
+
+		// the screen output is still appended
+		Assertions.assertEquals("e", client.sent.get(3).getScreenOutputAppend());
+		Assertions.assertEquals("", client.sent.get(4).getScreenOutputAppend());
+	}
+}
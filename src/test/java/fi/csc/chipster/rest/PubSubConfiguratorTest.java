@@ -0,0 +1,63 @@
+package fi.csc.chipster.rest;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import fi.csc.chipster.rest.WebSocketClientTest.TestReplyHandler;
+import fi.csc.chipster.rest.WebSocketClientTest.TestTopicConfig;
+import fi.csc.chipster.rest.websocket.PubSubConfigurator;
+import fi.csc.chipster.rest.websocket.PubSubServer;
+import jakarta.servlet.ServletException;
+import jakarta.websocket.Extension;
+
+public class PubSubConfiguratorTest {
+
+	private static final String URI = "ws://127.0.0.1:8201";
+
+	@Test
+	public void compressionEnabled() throws ServletException {
+		Assertions.assertEquals(List.of(PubSubConfigurator.PERMESSAGE_DEFLATE), negotiate(true));
+	}
+
+	@Test
+	public void compressionDisabled() throws ServletException {
+		Assertions.assertEquals(List.of(), negotiate(false));
+	}
+
+	/**
+	 * Negotiate the extensions when the client asks for the compression
+	 *
+	 * @param compression websocket-compression of the server
+	 * @return names of the negotiated extensions
+	 * @throws ServletException
+	 */
+	private List<String> negotiate(boolean compression) throws ServletException {
+		// not started, only the configuration is needed
+		PubSubServer server = new PubSubServer(URI, new TestReplyHandler(), new TestTopicConfig(),
+				"test-pub-sub-server");
+		server.setCompression(compression);
+
+		List<Extension> extensions = List.of(extension(PubSubConfigurator.PERMESSAGE_DEFLATE));
+
+		return new PubSubConfigurator(server).getNegotiatedExtensions(extensions, extensions).stream()
+				.map(Extension::getName)
+				.collect(Collectors.toList());
+	}
+
+	private Extension extension(String name) {
+		return new Extension() {
+			@Override
+			public String getName() {
+				return name;
+			}
+
+			@Override
+			public List<Parameter> getParameters() {
+				return List.of();
+			}
+		};
+	}
+}
@@ -0,0 +1,191 @@
+package fi.csc.chipster.rest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import fi.csc.chipster.rest.WebSocketClientTest.TestReplyHandler;
+import fi.csc.chipster.rest.WebSocketClientTest.TestTopicConfig;
+import fi.csc.chipster.rest.websocket.PubSubEndpoint;
+import fi.csc.chipster.rest.websocket.PubSubServer;
+import fi.csc.chipster.rest.websocket.WebSocketClient;
+import jakarta.websocket.MessageHandler;
+
+/**
+ * Load test of the PubSubServer fan-out
+ *
+ * Starts a PubSubServer in this JVM with the websocket settings of the
+ * configuration, connects the clients to it and publishes messages at a fixed
+ * rate to the topics in turn. Each message carries its publish time, so the
+ * clients can measure the latency from the publish() call to the client's
+ * message handler. Prints the latency percentiles, throughput and the
+ * disconnections of slow clients.
+ *
+ * Run with "./gradlew pubSubLoadTest -Pclients=1000 -Ptopics=100 -Prate=1000
+ * -Pduration=30 -Psize=1000".
+ */
+public class PubSubLoadTest {
+
+	private static final String PROPERTY_PREFIX = "pubsub-load-test-";
+
+	public static final String URI = "ws://127.0.0.1:8201";
+
+	// microsecond buckets up to 10 seconds, slower messages go to the last one
+	private static final int BUCKETS = 10_000_000;
+
+	private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS + 1);
+	private final LongAdder received = new LongAdder();
+
+	private int clientCount;
+	private int topicCount;
+	private int rate;
+	private int duration;
+	private int size;
+
+	public PubSubLoadTest(int clientCount, int topicCount, int rate, int duration, int size) {
+		this.clientCount = clientCount;
+		this.topicCount = topicCount;
+		this.rate = rate;
+		this.duration = duration;
+		this.size = size;
+	}
+
+	public static void main(String[] args) throws Exception {
+		PubSubLoadTest test = new PubSubLoadTest(
+				Integer.getInteger(PROPERTY_PREFIX + "clients", 100),
+				Integer.getInteger(PROPERTY_PREFIX + "topics", 10),
+				Integer.getInteger(PROPERTY_PREFIX + "rate", 1000),
+				Integer.getInteger(PROPERTY_PREFIX + "duration", 10),
+				Integer.getInteger(PROPERTY_PREFIX + "size", 1000));
+		test.run();
+		System.exit(0);
+	}
+
+	public void run() throws Exception {
+
+		System.out.println("clients: " + clientCount + ", topics: " + topicCount + ", rate: " + rate
+				+ " messages/s, duration: " + duration + " s, message size: " + size + " bytes");
+
+		Config config = new Config();
+		PubSubServer server = new PubSubServer(URI, new TestReplyHandler(), new TestTopicConfig(),
+				"pubsub-load-test");
+		server.setIdleTimeout(config.getLong(PubSubServer.KEY_WEBSOCKET_IDLE_TIMEOUT));
+		server.setPingInterval(config.getLong(PubSubServer.KEY_WEBSOCKET_PING_INTERVAL));
+		server.setMaxQueueSize(config.getInt(PubSubServer.KEY_WEBSOCKET_SUBSCRIBER_QUEUE_SIZE));
+		server.setCompression(config.getBoolean(PubSubServer.KEY_WEBSOCKET_COMPRESSION));
+		server.start();
+
+		List<WebSocketClient> clients = new ArrayList<>();
+		try {
+			long connectStart = System.currentTimeMillis();
+			for (int i = 0; i < clientCount; i++) {
+				String uri = URI + "?" + PubSubEndpoint.TOPIC_KEY + "=" + getTopic(i % topicCount);
+				clients.add(new WebSocketClient(uri, new LatencyHandler(), false, "load-test-client-" + i,
+						new StaticCredentials("token", "password")));
+			}
+			System.out.println("connected in " + (System.currentTimeMillis() - connectStart) + " ms");
+
+			String padding = "x".repeat(size);
+
+			long messages = (long) rate * duration;
+			long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+			long start = System.nanoTime();
+
+			for (long i = 0; i < messages; i++) {
+				long publishTime = start + i * interval;
+				long wait = publishTime - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(wait);
+				}
+				server.publish(getTopic((int) (i % topicCount)), Map.of("t", System.nanoTime(), "p", padding));
+			}
+			long publishEnd = System.nanoTime();
+
+			// each client gets the messages of its own topic
+			long expected = 0;
+			for (int t = 0; t < topicCount; t++) {
+				long topicMessages = messages / topicCount + (t < messages % topicCount ? 1 : 0);
+				long topicClients = clientCount / topicCount + (t < clientCount % topicCount ? 1 : 0);
+				expected += topicMessages * topicClients;
+			}
+
+			// let the queues drain
+			long drainEnd = System.currentTimeMillis() + 10_000;
+			while (received.sum() < expected && System.currentTimeMillis() < drainEnd) {
+				Thread.sleep(100);
+			}
+			long end = System.nanoTime();
+
+			System.out.println("published " + messages + " messages in "
+					+ TimeUnit.NANOSECONDS.toMillis(publishEnd - start) + " ms");
+			System.out.println("received " + received.sum() + " of " + expected + " messages, "
+					+ (received.sum() * TimeUnit.SECONDS.toNanos(1) / (end - start)) + " messages/s");
+			System.out.println("latency p50: " + percentile(0.5) + " us, p90: " + percentile(0.9) + " us, p99: "
+					+ percentile(0.99) + " us, p99.9: " + percentile(0.999) + " us, max: " + percentile(1)
+					+ " us");
+
+		} finally {
+			for (WebSocketClient client : clients) {
+				try {
+					client.shutdown();
+				} catch (IOException e) {
+					System.err.println("client shutdown failed: " + e.getMessage());
+				}
+			}
+
+			// queue-full disconnects are counted when the subscribers are removed
+			Map<String, Object> status = server.getStatus();
+			System.out.println("queue full disconnects: " + status.get("wsQueueFullDisconnects")
+					+ ", messages sent: " + status.get("wsMessagesSent")
+					+ ", bytes sent: " + status.get("wsBytesSent"));
+			server.stop();
+		}
+	}
+
+	private static String getTopic(int i) {
+		return "load-test-" + i;
+	}
+
+	private class LatencyHandler implements MessageHandler.Whole<String> {
+		@Override
+		public void onMessage(String message) {
+			long now = System.nanoTime();
+
+			// parse only the timestamp, to keep the client cost small
+			int start = message.indexOf("\"t\":") + 4;
+			int end = start;
+			while (end < message.length() && (Character.isDigit(message.charAt(end)) || message.charAt(end) == '-')) {
+				end++;
+			}
+			long latency = TimeUnit.NANOSECONDS.toMicros(now - Long.parseLong(message.substring(start, end)));
+
+			latencies.incrementAndGet((int) Math.min(Math.max(latency, 0), BUCKETS));
+			received.increment();
+		}
+	}
+
+	/**
+	 * @param quantile
+	 * @return latency in microseconds
+	 */
+	private long percentile(double quantile) {
+		long total = 0;
+		for (int i = 0; i <= BUCKETS; i++) {
+			total += latencies.get(i);
+		}
+		long target = (long) Math.ceil(total * quantile);
+		long count = 0;
+		for (int i = 0; i <= BUCKETS; i++) {
+			count += latencies.get(i);
+			if (count >= target && count > 0) {
+				return i;
+			}
+		}
+		return 0;
+	}
+}
@@ -5,6 +5,7 @@ import java.io.OutputStream;
 import java.io.Writer;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
 import java.util.Collections;
 import java.util.HashMap;
@@ -12,12 +13,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import fi.csc.chipster.rest.websocket.MessageSequence;
 import fi.csc.chipster.rest.websocket.Subscriber;
 import fi.csc.chipster.rest.websocket.Topic;
 import jakarta.websocket.CloseReason;
@@ -83,6 +88,22 @@ public class SubscriberTest {
 		}
 	}
 
+	/**
+	 * Collect the sent messages
+	 */
+	private static class RecordingBasic extends StubBasic {
+		private final LinkedBlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+		@Override
+		public void sendText(String text) throws IOException {
+			received.add(text);
+		}
+
+		public String poll() throws InterruptedException {
+			return received.poll(5, TimeUnit.SECONDS);
+		}
+	}
+
 	private static class StubSession implements Session {
 		private final RemoteEndpoint.Basic basic;
 
@@ -316,4 +337,224 @@ public class SubscriberTest {
 		slowSub.stop();
 		fastSub.stop();
 	}
+
+	@Test
+	public void resumeReplaysMissedMessages() throws Exception {
+		RecordingBasic basic = new RecordingBasic();
+
+		// sequence numbers 1-5, the buffer keeps 3-5
+		Topic topic = resumableTopic(3, 1000, new AtomicLong(), MessageSequence.counter(0));
+		for (int i = 1; i <= 5; i++) {
+			topic.publish("{\"i\":" + i + "}");
+		}
+
+		Subscriber subscriber = Subscriber.create(new StubSession(basic), "user", 100, true);
+		try {
+			Assertions.assertEquals(2, topic.add(subscriber, 3));
+			topic.publish("{\"i\":6}");
+
+			Assertions.assertEquals("{\"sequence\":5,\"resumed\":true}", basic.poll());
+			Assertions.assertEquals("{\"sequence\":4,\"message\":{\"i\":4}}", basic.poll());
+			Assertions.assertEquals("{\"sequence\":5,\"message\":{\"i\":5}}", basic.poll());
+			Assertions.assertEquals("{\"sequence\":6,\"message\":{\"i\":6}}", basic.poll());
+		} finally {
+			subscriber.stop();
+		}
+	}
+
+	@Test
+	public void resumeFromTooOldSequence() throws Exception {
+		RecordingBasic basic = new RecordingBasic();
+
+		Topic topic = resumableTopic(3, 1000, new AtomicLong(), MessageSequence.counter(0));
+		for (int i = 1; i <= 5; i++) {
+			topic.publish("{\"i\":" + i + "}");
+		}
+
+		Subscriber subscriber = Subscriber.create(new StubSession(basic), "user", 100, true);
+		try {
+			// message 2 isn't in the buffer anymore
+			Assertions.assertEquals(-1, topic.add(subscriber, 1));
+			Assertions.assertEquals("{\"sequence\":5,\"resumed\":false}", basic.poll());
+		} finally {
+			subscriber.stop();
+		}
+	}
+
+	@Test
+	public void replayStartsWithSequencedSubscriber() throws Exception {
+		AtomicLong replayBytes = new AtomicLong();
+		Topic topic = new Topic(3, 1000, replayBytes, MessageSequence.counter(0));
+
+		// nobody has asked for the sequence numbers yet
+		topic.publish("{\"i\":1}");
+		Assertions.assertEquals(0, replayBytes.get());
+
+		Subscriber subscriber = Subscriber.create(new StubSession(new StubBasic()), "user", 100, true);
+		try {
+			Assertions.assertEquals(0, topic.add(subscriber, 1));
+			topic.publish("{\"i\":2}");
+			Assertions.assertEquals(7, replayBytes.get());
+
+			// the removed topic releases its share
+			topic.clearReplay();
+			Assertions.assertEquals(0, replayBytes.get());
+		} finally {
+			subscriber.stop();
+		}
+	}
+
+	@Test
+	public void replayBytesAreLimitedOverTopics() throws Exception {
+		AtomicLong replayBytes = new AtomicLong();
+		MessageSequence sequence = MessageSequence.counter(0);
+		Topic topic1 = resumableTopic(100, 20, replayBytes, sequence);
+		Topic topic2 = resumableTopic(100, 20, replayBytes, sequence);
+
+		// 7 characters each
+		topic1.publish("{\"i\":1}");
+		topic1.publish("{\"i\":2}");
+		Assertions.assertEquals(14, replayBytes.get());
+
+		// the oldest message of topic2 itself is dropped
+		topic2.publish("{\"i\":3}");
+		topic2.publish("{\"i\":4}");
+		Assertions.assertEquals(14, replayBytes.get());
+
+		RecordingBasic basic = new RecordingBasic();
+		Subscriber subscriber = Subscriber.create(new StubSession(basic), "user", 100, true);
+		try {
+			// sequence numbers are shared, topic1 has 1 and 2 and topic2 had 3 and 4
+			Assertions.assertEquals(-1, topic2.add(subscriber, 2));
+			Assertions.assertEquals("{\"sequence\":4,\"resumed\":false}", basic.poll());
+		} finally {
+			subscriber.stop();
+		}
+	}
+
+	@Test
+	public void smallerNumberStopsReplay() throws Exception {
+		// the numbers of the messages come from the service
+		AtomicLong next = new AtomicLong();
+		MessageSequence sequence = new MessageSequence() {
+			@Override
+			public long next(Object message) {
+				return next.get();
+			}
+
+			@Override
+			public long latest() {
+				return 6;
+			}
+		};
+		Topic topic = resumableTopic(10, 1000, new AtomicLong(), sequence);
+
+		next.set(7);
+		topic.publish("{\"i\":7}");
+		// published after 7, but a subscriber may have received 7 and disconnected
+		next.set(5);
+		topic.publish("{\"i\":5}");
+
+		Subscriber subscriber = Subscriber.create(new StubSession(new StubBasic()), "user", 100, true);
+		try {
+			Assertions.assertEquals(-1, topic.add(subscriber, 7));
+		} finally {
+			subscriber.stop();
+		}
+	}
+
+	/**
+	 * Topic that has had a sequenced subscriber, so it keeps the replay buffer
+	 */
+	private static Topic resumableTopic(int replaySize, long maxReplayBytes, AtomicLong replayBytes,
+			MessageSequence sequence) {
+		Topic topic = new Topic(replaySize, maxReplayBytes, replayBytes, sequence);
+		Subscriber subscriber = Subscriber.create(new StubSession(new StubBasic()), "user", 100, true);
+		topic.add(subscriber);
+		topic.remove(subscriber.getRemote());
+		subscriber.stop();
+		return topic;
+	}
+
+	@Test
+	public void queuedMessagesAreBatched() throws Exception {
+		CountDownLatch blockSend = new CountDownLatch(1);
+
+		RecordingBasic basic = new RecordingBasic() {
+			@Override
+			public void sendText(String text) throws IOException {
+				super.sendText(text);
+				try {
+					blockSend.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted");
+				}
+			}
+		};
+
+		Subscriber subscriber = Subscriber.create(new StubSession(basic), "user", 100, false, 1000);
+		try {
+			subscriber.enqueue("{\"i\":1}");
+			Assertions.assertEquals("[{\"i\":1}]", basic.poll());
+
+			// the sender is blocked, so these wait in the queue
+			subscriber.enqueue("{\"i\":2}");
+			subscriber.enqueue("{\"i\":3}");
+			subscriber.enqueue("{\"i\":4}");
+			blockSend.countDown();
+
+			Assertions.assertEquals("[{\"i\":2},{\"i\":3},{\"i\":4}]", basic.poll());
+		} finally {
+			subscriber.stop();
+		}
+	}
+
+	@Test
+	public void payloadBytesAreCountedWhenSent() throws Exception {
+		RecordingBasic basic = new RecordingBasic();
+
+		LongAdder payloadBytes = new LongAdder();
+		Subscriber subscriber = Subscriber.create(new StubSession(basic), "user", 100);
+		subscriber.setPayloadBytesCounter(payloadBytes);
+		try {
+			// 1, 2, 3 and 4 bytes in UTF-8
+			String text = "a\u00e4\u20ac\ud83d\ude00";
+			subscriber.enqueue(text);
+			Assertions.assertEquals(text, basic.poll());
+
+			// counted after the send returns
+			long deadline = System.currentTimeMillis() + 5000;
+			while (payloadBytes.sum() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			Assertions.assertEquals(text.getBytes(StandardCharsets.UTF_8).length, payloadBytes.sum());
+			Assertions.assertEquals(10, payloadBytes.sum());
+		} finally {
+			subscriber.stop();
+		}
+	}
+
+	@Test
+	public void filteredMessagesAreNotSent() throws Exception {
+		RecordingBasic basic = new RecordingBasic();
+
+		Topic topic = new Topic();
+		Subscriber subscriber = Subscriber.create(new StubSession(basic), "user", 100);
+		subscriber.setFilter(message -> "accepted".equals(message));
+		topic.add(subscriber);
+		try {
+			Assertions.assertEquals(0, topic.publish("rejected", "\"rejected\""));
+			Assertions.assertEquals(1, topic.publish("accepted", "\"accepted\""));
+			Assertions.assertEquals(1, topic.getFiltered());
+
+			// plain strings can't be filtered
+			Assertions.assertEquals(1, topic.publish("\"plain\""));
+
+			Assertions.assertEquals("\"accepted\"", basic.poll());
+			Assertions.assertEquals("\"plain\"", basic.poll());
+		} finally {
+			subscriber.stop();
+		}
+	}
 }
@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import jakarta.servlet.ServletException;
 
@@ -129,6 +130,9 @@ public class WebSocketClientTest {
 			}
 		}, true, "test-ws-client", new StaticCredentials("user", "password"));
 
+		AtomicInteger reconnects = new AtomicInteger();
+		client.setReconnectListener(() -> reconnects.incrementAndGet());
+
 		server.stop();
 		server = new PubSubServer(uri, new TestReplyHandler(), new TestTopicConfig(), "test-pub-sub-server");
 		server.start();
@@ -139,6 +143,13 @@ public class WebSocketClientTest {
 		client.waitForConnection();
 
 		client.ping();
+
+		// the listener is called after the connection check
+		for (int i = 0; i < 100 && reconnects.get() == 0; i++) {
+			Thread.sleep(10);
+		}
+		Assertions.assertEquals(1, reconnects.get());
+
 		// client must be shutdown when the retry is enabled
 		client.shutdown();
 		server.stop();
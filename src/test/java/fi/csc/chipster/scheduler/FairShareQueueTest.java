@@ -0,0 +1,106 @@
+package fi.csc.chipster.scheduler;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import fi.csc.chipster.toolbox.ToolboxTool;
+
+public class FairShareQueueTest {
+
+	private static IdPair addJob(SchedulerJobs jobs, String userId, int slots, String toolId)
+			throws InterruptedException {
+		// make the timestamps unique
+		Thread.sleep(1);
+		IdPair idPair = new IdPair(UUID.randomUUID(), UUID.randomUUID());
+		ToolboxTool tool = new ToolboxTool(toolId, null, null, null, null, null, null);
+		jobs.addNewJob(idPair, userId, slots, null, tool, null);
+		return idPair;
+	}
+
+	@Test
+	public void usersTakeTurns() throws InterruptedException {
+		SchedulerJobs jobs = new SchedulerJobs();
+
+		IdPair a1 = addJob(jobs, "a", 1, "tool");
+		IdPair a2 = addJob(jobs, "a", 1, "tool");
+		IdPair a3 = addJob(jobs, "a", 1, "tool");
+		IdPair b1 = addJob(jobs, "b", 1, "tool");
+		IdPair b2 = addJob(jobs, "b", 1, "tool");
+
+		FairShareQueue queue = new FairShareQueue(true, Map.of(), Map.of(), 3600);
+		Assertions.assertEquals(List.of(a1, b1, a2, b2, a3), queue.order(jobs.getNewJobs()));
+
+		FairShareQueue oldestFirst = new FairShareQueue(false, Map.of(), Map.of(), 3600);
+		Assertions.assertEquals(List.of(a1, a2, a3, b1, b2), oldestFirst.order(jobs.getNewJobs()));
+	}
+
+	@Test
+	public void slotsAndWeights() throws InterruptedException {
+		SchedulerJobs jobs = new SchedulerJobs();
+
+		IdPair a1 = addJob(jobs, "a", 2, "tool");
+		IdPair a2 = addJob(jobs, "a", 2, "tool");
+		IdPair b1 = addJob(jobs, "b", 1, "tool");
+		IdPair b2 = addJob(jobs, "b", 1, "tool");
+		IdPair b3 = addJob(jobs, "b", 1, "tool");
+		IdPair b4 = addJob(jobs, "b", 1, "tool");
+
+		// a's two slot jobs need two rounds each
+		FairShareQueue queue = new FairShareQueue(true, Map.of(), Map.of(), 3600);
+		Assertions.assertEquals(List.of(b1, a1, b2, b3, a2, b4), queue.order(jobs.getNewJobs()));
+
+		// with weight 2, a gets a job every round
+		FairShareQueue weighted = new FairShareQueue(true, Map.of("a", 2), Map.of(), 3600);
+		Assertions.assertEquals(List.of(a1, b1, a2, b2, b3, b4), weighted.order(jobs.getNewJobs()));
+	}
+
+	@Test
+	public void priorityAndStarvation() throws InterruptedException {
+		SchedulerJobs jobs = new SchedulerJobs();
+
+		IdPair a1 = addJob(jobs, "a", 1, "slow-tool");
+		IdPair b1 = addJob(jobs, "b", 1, "fast-tool");
+
+		FairShareQueue queue = new FairShareQueue(true, Map.of(), Map.of("fast-tool", 1), 3600);
+		Assertions.assertEquals(List.of(b1, a1), queue.order(jobs.getNewJobs()));
+
+		// all jobs have waited too long, the oldest job of each user first
+		FairShareQueue starved = new FairShareQueue(true, Map.of(), Map.of("fast-tool", 1), -1);
+		Assertions.assertEquals(List.of(a1, b1), starved.order(jobs.getNewJobs()));
+	}
+
+	@Test
+	public void starvedBacklogDoesNotTakeOver() throws InterruptedException {
+		SchedulerJobs jobs = new SchedulerJobs();
+
+		IdPair a1 = addJob(jobs, "a", 1, "tool");
+		IdPair a2 = addJob(jobs, "a", 1, "tool");
+		IdPair a3 = addJob(jobs, "a", 1, "tool");
+		IdPair a4 = addJob(jobs, "a", 1, "tool");
+		IdPair b1 = addJob(jobs, "b", 1, "tool");
+		IdPair b2 = addJob(jobs, "b", 1, "tool");
+
+		// the whole backlog of a has waited too long, but only its oldest job is
+		// promoted and the rest take turns with b
+		FairShareQueue starved = new FairShareQueue(true, Map.of(), Map.of(), -1);
+		Assertions.assertEquals(List.of(a1, b1, a2, b2, a3, a4), starved.order(jobs.getNewJobs()));
+	}
+
+	@Test
+	public void status() throws InterruptedException {
+		SchedulerJobs jobs = new SchedulerJobs();
+		addJob(jobs, "a", 1, "tool");
+		addJob(jobs, "a", 1, "tool");
+		addJob(jobs, "b", 1, "tool");
+
+		Map<String, Object> status = new FairShareQueue(true, Map.of(), Map.of(), 3600)
+				.getStatus(jobs.getNewJobs());
+		Assertions.assertEquals(2, status.get("newJobCount,user=a"));
+		Assertions.assertEquals(1, status.get("newJobCount,user=b"));
+		Assertions.assertEquals(2, status.get("newJobUserCount"));
+	}
+}
@@ -0,0 +1,141 @@
+package fi.csc.chipster.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import fi.csc.chipster.scheduler.SchedulerJob.State;
+
+public class SchedulerJobsTest {
+
+	private static IdPair newIdPair() {
+		return new IdPair(UUID.randomUUID(), UUID.randomUUID());
+	}
+
+	@Test
+	public void countersFollowStateChanges() {
+		SchedulerJobs jobs = new SchedulerJobs();
+
+		IdPair job1 = newIdPair();
+		IdPair job2 = newIdPair();
+		IdPair job3 = newIdPair();
+
+		jobs.addNewJob(job1, "user1", 2, 100, null, null);
+		jobs.addNewJob(job2, "user1", 3, null, null, null);
+		jobs.addRunningJob(job3, "user2", 1, 50, null, null);
+
+		Assertions.assertEquals(5, jobs.getNewSlots("user1"));
+		Assertions.assertEquals(100, jobs.getNewStorage("user1"));
+		Assertions.assertEquals(1, jobs.getRunningSlots("user2"));
+		Assertions.assertEquals(50, jobs.getRunningStorage("user2"));
+		Assertions.assertEquals(0, jobs.getRunningSlots("user1"));
+
+		jobs.get(job1).setScheduleTimestamp();
+		Assertions.assertEquals(3, jobs.getNewSlots("user1"));
+		Assertions.assertEquals(2, jobs.getScheduledSlots("user1"));
+		Assertions.assertEquals(100, jobs.getScheduledStorage("user1"));
+		Assertions.assertEquals(0, jobs.getNewStorage("user1"));
+		Assertions.assertTrue(jobs.getScheduledJobs().containsKey(job1));
+
+		// busy
+		jobs.get(job1).removeScheduled();
+		Assertions.assertEquals(5, jobs.getNewSlots("user1"));
+		Assertions.assertEquals(0, jobs.getScheduledSlots("user1"));
+
+		jobs.get(job1).setScheduleTimestamp();
+		jobs.get(job1).setRunningTimestamp();
+		Assertions.assertEquals(2, jobs.getRunningSlots("user1"));
+		Assertions.assertEquals(0, jobs.getScheduledSlots("user1"));
+		Assertions.assertEquals(3, jobs.getSlots(State.RUNNING));
+
+		jobs.get(job1).setStorage(200);
+		Assertions.assertEquals(200, jobs.getRunningStorage("user1"));
+
+		jobs.remove(job1);
+		Assertions.assertEquals(0, jobs.getRunningSlots("user1"));
+		Assertions.assertEquals(0, jobs.getRunningStorage("user1"));
+		Assertions.assertEquals(1, jobs.getJobCount(State.RUNNING));
+		Assertions.assertEquals(1, jobs.getJobCount(State.NEW));
+	}
+
+	@Test
+	public void removedJobDoesNotChangeCounters() {
+		SchedulerJobs jobs = new SchedulerJobs();
+		IdPair idPair = newIdPair();
+
+		SchedulerJob job = jobs.addNewJob(idPair, "user1", 2, null, null, null);
+		jobs.remove(idPair);
+
+		// the caller may still hold the removed job
+		job.setScheduleTimestamp();
+		Assertions.assertEquals(0, jobs.getScheduledSlots("user1"));
+		Assertions.assertEquals(0, jobs.getJobCount(State.SCHEDULED));
+	}
+
+	@Test
+	public void replacedJobIsCountedOnce() {
+		SchedulerJobs jobs = new SchedulerJobs();
+		IdPair idPair = newIdPair();
+
+		jobs.addNewJob(idPair, "user1", 2, null, null, null);
+		jobs.addRunningJob(idPair, "user1", 2, null, null, null);
+
+		Assertions.assertEquals(0, jobs.getNewSlots("user1"));
+		Assertions.assertEquals(2, jobs.getRunningSlots("user1"));
+		Assertions.assertEquals(1, jobs.getJobCount(State.RUNNING));
+	}
+
+	/**
+	 * The per-user checks of Scheduler.schedule() shouldn't slow down when the
+	 * queue grows
+	 * 
+	 * A benchmark, because the wall-clock times are too noisy for a unit test.
+	 */
+	// @Test
+	public void scheduleCostIsFlat() {
+		long small = measureScheduleChecks(1_000);
+		long large = measureScheduleChecks(10_000);
+
+		System.out.println("200k schedule checks with 1k jobs: " + small / 1000_000 + " ms, with 10k jobs: "
+				+ large / 1000_000 + " ms");
+
+		// the old implementation went through all jobs, making this 10x
+		Assertions.assertTrue(large < small * 5, "schedule checks slowed down from " + small + " to " + large);
+	}
+
+	private long measureScheduleChecks(int jobCount) {
+		SchedulerJobs jobs = new SchedulerJobs();
+		List<SchedulerJob> newJobs = new ArrayList<>();
+
+		for (int i = 0; i < jobCount; i++) {
+			SchedulerJob job = jobs.addNewJob(newIdPair(), "user" + (i % 100), 1, 10, null, null);
+			if (i % 10 == 0) {
+				job.setScheduleTimestamp();
+			} else if (i % 10 == 1) {
+				job.setRunningTimestamp();
+			} else {
+				newJobs.add(job);
+			}
+		}
+
+		int rounds = 200_000;
+		long sum = 0;
+		// warm up and measure
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				String userId = newJobs.get(i % newJobs.size()).getUserId();
+				sum += jobs.getNewSlots(userId) + jobs.getScheduledSlots(userId) + jobs.getRunningSlots(userId)
+						+ jobs.getScheduledStorage(userId) + jobs.getRunningStorage(userId);
+			}
+			if (round == 1) {
+				Assertions.assertTrue(sum > 0);
+				return System.nanoTime() - start;
+			}
+		}
+		return 0;
+	}
+}
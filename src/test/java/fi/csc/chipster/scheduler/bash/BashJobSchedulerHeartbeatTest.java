@@ -0,0 +1,49 @@
+package fi.csc.chipster.scheduler.bash;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import fi.csc.chipster.scheduler.IdPair;
+import fi.csc.chipster.scheduler.bash.BashJobScheduler.Heartbeat;
+
+public class BashJobSchedulerHeartbeatTest {
+
+	@Test
+	public void parseHeartbeats() {
+		IdPair job1 = new IdPair(UUID.randomUUID(), UUID.randomUUID());
+		IdPair job2 = new IdPair(UUID.randomUUID(), UUID.randomUUID());
+		IdPair job3 = new IdPair(UUID.randomUUID(), UUID.randomUUID());
+		Map<String, IdPair> podNames = Map.of("pod1", job1, "pod2", job2, "pod3", job3);
+
+		String stdout = "pod1 alive running\n"
+				+ "pod2 dead OOMKilled after 2 hours\n"
+				// finished job or a pod of another scheduler
+				+ "pod4 alive running\n"
+				// without the state
+				+ "pod3\n"
+				+ "\n";
+
+		List<Heartbeat> heartbeats = BashJobScheduler.parseHeartbeats(stdout, podNames);
+
+		Assertions.assertEquals(List.of(new Heartbeat(job1, true, "running"),
+				new Heartbeat(job2, false, "OOMKilled after 2 hours")), heartbeats);
+	}
+
+	@Test
+	public void withoutMessage() {
+		IdPair job1 = new IdPair(UUID.randomUUID(), UUID.randomUUID());
+
+		List<Heartbeat> heartbeats = BashJobScheduler.parseHeartbeats("  pod1 alive  \n", Map.of("pod1", job1));
+
+		Assertions.assertEquals(List.of(new Heartbeat(job1, true, "")), heartbeats);
+	}
+
+	@Test
+	public void emptyOutput() {
+		Assertions.assertEquals(List.of(), BashJobScheduler.parseHeartbeats("", Map.of()));
+	}
+}
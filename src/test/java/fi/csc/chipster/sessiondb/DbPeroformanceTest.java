@@ -4,6 +4,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -24,6 +25,7 @@ import fi.csc.chipster.sessiondb.model.Input;
 import fi.csc.chipster.sessiondb.model.Job;
 import fi.csc.chipster.sessiondb.model.Parameter;
 import fi.csc.chipster.sessiondb.model.Session;
+import fi.csc.chipster.sessiondb.model.SessionPage;
 
 public class DbPeroformanceTest {
 
@@ -316,10 +318,94 @@ public class DbPeroformanceTest {
 		client.getJobs(datasetSessionId);
 	}
 
+	/**
+	 * Compare the session list endpoints with a large number of sessions
+	 * 
+	 * Creates 10k sessions for user2, so this isn't run by default.
+	 */
+	// @Test
+	public void getSessionListLarge() throws IOException, InterruptedException, RestException {
+
+		final int sessionCount = 10_000;
+		final Queue<UUID> ids = new ConcurrentLinkedQueue<>();
+
+		SessionDbClient user2Client = new SessionDbClient(launcher.getServiceLocator(), launcher.getUser2Token(),
+				Role.CLIENT);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		for (int i = 0; i < sessionCount; i++) {
+			executor.submit(() -> {
+				try {
+					ids.add(user2Client.createSession(RestUtils.getRandomSession()));
+				} catch (RestException e) {
+					e.printStackTrace();
+				}
+			});
+		}
+		executor.shutdown();
+		assertEquals(true, executor.awaitTermination(600, TimeUnit.SECONDS));
+
+		long t = System.currentTimeMillis();
+		int allCount = user2Client.getSessions().size();
+		System.out.println("get all sessions: " + (System.currentTimeMillis() - t) + " ms");
+
+		t = System.currentTimeMillis();
+		user2Client.getSessionPage(null, null, 100);
+		System.out.println("get the first page: " + (System.currentTimeMillis() - t) + " ms");
+
+		t = System.currentTimeMillis();
+		int pageCount = 0;
+		String next = null;
+		do {
+			SessionPage page = user2Client.getSessionPage(null, next, 1000);
+			pageCount += page.getSessions().size();
+			next = page.getNext();
+		} while (next != null);
+		System.out.println("get all pages: " + (System.currentTimeMillis() - t) + " ms");
+
+		assertEquals(allCount, pageCount);
+
+		executor = Executors.newFixedThreadPool(8);
+		for (UUID id : ids) {
+			executor.submit(() -> {
+				try {
+					user2Client.deleteSession(id);
+				} catch (RestException e) {
+					e.printStackTrace();
+				}
+			});
+		}
+		executor.shutdown();
+		assertEquals(true, executor.awaitTermination(600, TimeUnit.SECONDS));
+	}
+
 	@Test
 	public void getSessionsSerial() throws RestException {
 		for (UUID id : sessionIds) {
 			client.getSession(id);
 		}
 	}
+
+	/**
+	 * Latency of repeated session gets
+	 * 
+	 * Compare the results with db-second-level-cache-session-db true and false.
+	 * 
+	 * @throws RestException
+	 */
+	// @Test
+	public void getSessionLatency() throws RestException {
+		int rounds = 100;
+		ArrayList<Long> times = new ArrayList<>();
+		for (int i = 0; i < rounds; i++) {
+			for (UUID id : sessionIds) {
+				long t = System.nanoTime();
+				client.getSession(id);
+				times.add(System.nanoTime() - t);
+			}
+		}
+		Collections.sort(times);
+		System.out.println("get session p50: " + times.get(times.size() / 2) / 1000 + " us, p99: "
+				+ times.get(times.size() * 99 / 100) / 1000 + " us");
+	}
 }
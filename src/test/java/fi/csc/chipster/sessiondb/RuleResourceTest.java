@@ -446,6 +446,106 @@ public class RuleResourceTest {
 		user2Client.deleteSession(sessionId1);
 	}
 
+	/**
+	 * Access levels are cached in RuleTable. Check that a new read-write rule is
+	 * noticed after the read-only access has been cached.
+	 */
+	@Test
+	public void cachedReadOnlyToReadWrite() throws IOException, RestException {
+
+		deleteShares(user1Client);
+
+		Session session = RestUtils.getRandomSession();
+		UUID sessionId = user1Client.createSession(session);
+
+		user1Client.createRule(sessionId, new Rule(launcher.getUser2Credentials().getUsername(), false));
+
+		// cache the read-only access
+		user2Client.getSession(sessionId);
+		SessionResourceTest.testUpdateSession(403, session, user2Client);
+
+		user1Client.createRule(sessionId, new Rule(launcher.getUser2Credentials().getUsername(), true));
+
+		// the read-write rule is effective immediately
+		user2Client.updateSession(session);
+
+		user1Client.deleteSession(sessionId);
+	}
+
+	/**
+	 * Check that a deleted rule is noticed after the read-write access has been
+	 * cached
+	 */
+	@Test
+	public void cachedReadWriteRevoked() throws IOException, RestException {
+
+		deleteShares(user1Client);
+
+		Session session = RestUtils.getRandomSession();
+		UUID sessionId = user1Client.createSession(session);
+
+		UUID ruleId = user1Client.createRule(sessionId,
+				new Rule(launcher.getUser2Credentials().getUsername(), true));
+
+		// cache the read-write access
+		user2Client.updateSession(session);
+		user2Client.getSession(sessionId);
+
+		user1Client.deleteRule(sessionId, ruleId);
+
+		SessionResourceTest.testUpdateSession(403, session, user2Client);
+		SessionResourceTest.testGetSession(403, sessionId, user2Client);
+
+		// the owner's cached access is still valid
+		user1Client.getSession(sessionId);
+		user1Client.deleteSession(sessionId);
+	}
+
+	/**
+	 * Check that a deleted session isn't found even if the access was cached
+	 */
+	@Test
+	public void cachedSessionDeleted() throws IOException, RestException {
+
+		Session session = RestUtils.getRandomSession();
+		UUID sessionId = user1Client.createSession(session);
+
+		// cache the access
+		user1Client.getSession(sessionId);
+		user1Client.getDatasets(sessionId);
+
+		user1Client.deleteSession(sessionId);
+
+		SessionResourceTest.testGetSession(404, sessionId, user1Client);
+		SessionDatasetResourceTest.testGetDatasets(404, sessionId, user1Client);
+	}
+
+	/**
+	 * Check that the removal of the rule of everyone is noticed after the
+	 * example session was cached for other users
+	 */
+	@Test
+	public void cachedEveryoneRevoked() throws IOException, RestException {
+
+		deleteShares(exampleSessionOwnerClient);
+
+		Session session = RestUtils.getRandomSession();
+		UUID sessionId = exampleSessionOwnerClient.createSession(session);
+
+		UUID ruleId = exampleSessionOwnerClient.createRule(sessionId, new Rule(RuleTable.EVERYONE, false));
+
+		// cache the read-only access of both users
+		user1Client.getSession(sessionId);
+		user2Client.getSession(sessionId);
+
+		exampleSessionOwnerClient.deleteRule(sessionId, ruleId);
+
+		SessionResourceTest.testGetSession(403, sessionId, user1Client);
+		SessionResourceTest.testGetSession(403, sessionId, user2Client);
+
+		exampleSessionOwnerClient.deleteSession(sessionId);
+	}
+
 	public static void testGetRule(int expected, UUID sessionId, UUID ruleId, SessionDbClient client) {
 		try {
 			client.getRule(sessionId, ruleId);
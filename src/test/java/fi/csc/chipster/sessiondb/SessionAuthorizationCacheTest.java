@@ -0,0 +1,48 @@
+package fi.csc.chipster.sessiondb;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import fi.csc.chipster.sessiondb.resource.SessionAuthorizationCache;
+import fi.csc.chipster.sessiondb.resource.SessionAuthorizationCache.Access;
+
+public class SessionAuthorizationCacheTest {
+
+	@Test
+	public void concurrentChangeIsNotCached() {
+		SessionAuthorizationCache cache = new SessionAuthorizationCache(10);
+		UUID sessionId = UUID.randomUUID();
+
+		// the rules are loaded, but the rule is revoked before the result is stored
+		long generation = cache.getGeneration();
+		cache.invalidate(sessionId);
+		cache.put(sessionId, "user1", Access.READ_WRITE, generation, false);
+
+		Assertions.assertNull(cache.get(sessionId, "user1"));
+		Assertions.assertEquals(1l, cache.getStatus().get("authCacheStalePuts"));
+	}
+
+	@Test
+	public void revokedRuleFromLaggingReplicaIsNotCached() {
+		SessionAuthorizationCache cache = new SessionAuthorizationCache(10);
+		UUID sessionId = UUID.randomUUID();
+
+		cache.put(sessionId, "user1", Access.READ_WRITE, cache.getGeneration(), false);
+		Assertions.assertEquals(Access.READ_WRITE, cache.get(sessionId, "user1"));
+
+		// revoke the rule in the primary
+		cache.invalidate(sessionId);
+
+		// the replica hasn't received the change yet and still returns the old rule
+		cache.put(sessionId, "user1", Access.READ_WRITE, cache.getGeneration(), true);
+
+		Assertions.assertNull(cache.get(sessionId, "user1"));
+		Assertions.assertEquals(1l, cache.getStatus().get("authCacheReplicaPuts"));
+
+		// the next read from the primary is cached
+		cache.put(sessionId, "user1", Access.NONE, cache.getGeneration(), false);
+		Assertions.assertEquals(Access.NONE, cache.get(sessionId, "user1"));
+	}
+}
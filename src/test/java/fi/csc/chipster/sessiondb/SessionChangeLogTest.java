@@ -0,0 +1,70 @@
+package fi.csc.chipster.sessiondb;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import fi.csc.chipster.rest.RestUtils;
+import fi.csc.chipster.sessiondb.model.SessionEvent;
+import fi.csc.chipster.sessiondb.model.SessionEvent.EventType;
+import fi.csc.chipster.sessiondb.model.SessionEvent.ResourceType;
+import fi.csc.chipster.sessiondb.resource.SessionChangeLog;
+
+public class SessionChangeLogTest {
+
+	@Test
+	public void eventsAfterOwnNumber() {
+		SessionChangeLog log = new SessionChangeLog(10, 10);
+		UUID sessionId = RestUtils.createUUID();
+
+		long since = log.getEventNumber();
+		log.add(datasetEvent(sessionId));
+		log.add(datasetEvent(sessionId));
+
+		Assertions.assertEquals(2, log.getEvents(sessionId, since).size());
+		Assertions.assertEquals(0, log.getEvents(sessionId, log.getEventNumber()).size());
+
+		// a session without events since the start
+		Assertions.assertEquals(0, log.getEvents(RestUtils.createUUID(), since).size());
+	}
+
+	@Test
+	public void numberFromAnotherReplicaReloads() {
+		// replicas that have seen the same events, but numbered them independently
+		SessionChangeLog log1 = new SessionChangeLog(10, 10);
+		SessionChangeLog log2 = new SessionChangeLog(10, 10);
+		UUID sessionId = RestUtils.createUUID();
+
+		for (SessionChangeLog log : List.of(log1, log2)) {
+			log.add(datasetEvent(sessionId));
+		}
+		long since1 = log1.getEventNumber();
+
+		for (SessionChangeLog log : List.of(log1, log2)) {
+			log.add(datasetEvent(sessionId));
+		}
+
+		Assertions.assertEquals(1, log1.getEvents(sessionId, since1).size());
+
+		// log2 didn't give this number, so it can't know which events are missing
+		Assertions.assertNull(log2.getEvents(sessionId, since1));
+		Assertions.assertNull(log2.getEvents(RestUtils.createUUID(), since1));
+
+		// the numbers are exact in JavaScript
+		Assertions.assertTrue(log1.getEventNumber() > 0);
+		Assertions.assertTrue(log1.getEventNumber() < 1l << 53);
+	}
+
+	@Test
+	public void zeroReloads() {
+		SessionChangeLog log = new SessionChangeLog(10, 10);
+
+		Assertions.assertNull(log.getEvents(RestUtils.createUUID(), 0));
+	}
+
+	private SessionEvent datasetEvent(UUID sessionId) {
+		return new SessionEvent(sessionId, ResourceType.DATASET, RestUtils.createUUID(), EventType.UPDATE);
+	}
+}
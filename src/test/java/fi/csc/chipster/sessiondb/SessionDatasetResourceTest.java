@@ -2,12 +2,17 @@ package fi.csc.chipster.sessiondb;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.UUID;
 
 import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -15,8 +20,16 @@ import fi.csc.chipster.auth.model.Role;
 import fi.csc.chipster.rest.Config;
 import fi.csc.chipster.rest.RestUtils;
 import fi.csc.chipster.rest.TestServerLauncher;
+import fi.csc.chipster.rest.hibernate.HibernateUtil;
 import fi.csc.chipster.sessiondb.model.Dataset;
 import fi.csc.chipster.sessiondb.model.File;
+import fi.csc.chipster.sessiondb.model.Job;
+import fi.csc.chipster.sessiondb.model.Label;
+import fi.csc.chipster.sessiondb.model.News;
+import fi.csc.chipster.sessiondb.model.Rule;
+import fi.csc.chipster.sessiondb.model.Session;
+import fi.csc.chipster.sessiondb.model.UserUsage;
+import jakarta.ws.rs.core.StreamingOutput;
 
 public class SessionDatasetResourceTest {
 	private static TestServerLauncher launcher;
@@ -168,6 +181,64 @@ public class SessionDatasetResourceTest {
 		assertEquals(false, user2Client.getDatasets(sessionId2).containsKey(id1));
 	}
 
+	@Test
+	public void getAllStreamed() throws RestException, IOException {
+
+		UUID sessionId = user1Client.createSession(RestUtils.getRandomSession());
+
+		// more than two batches of the stream
+		List<Dataset> datasets = new ArrayList<>();
+		for (int i = 0; i < 1200; i++) {
+			Dataset dataset = RestUtils.getRandomDataset();
+			dataset.setName("dataset" + i);
+			datasets.add(dataset);
+		}
+		List<UUID> ids = user1Client.createDatasets(sessionId, datasets);
+
+		HashMap<UUID, Dataset> result = user1Client.getDatasets(sessionId);
+
+		assertEquals(new HashSet<>(ids), result.keySet());
+		for (int i = 0; i < ids.size(); i++) {
+			assertEquals("dataset" + i, result.get(ids.get(i)).getName());
+		}
+	}
+
+	/**
+	 * A failure in the middle of the stream must not end with a valid json array
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void streamAbortsOnError() throws Exception {
+
+		HibernateUtil hibernate = new HibernateUtil(new Config(), Role.SESSION_DB, List.of(Rule.class,
+				Session.class, Dataset.class, Job.class, File.class, News.class, Label.class, UserUsage.class));
+
+		try {
+			StreamingOutput stream = hibernate.streamJsonArray(
+					hibernateSession -> hibernateSession.createNativeQuery(
+							"select x from generate_series(1, 1200) x", Integer.class),
+					x -> {
+						if (x == 700) {
+							throw new IllegalStateException("test failure");
+						}
+						return x;
+					});
+
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+			Assertions.assertThrows(IOException.class, () -> stream.write(output));
+
+			// the first batch was written before the failure, but the array isn't closed
+			String json = output.toString(StandardCharsets.UTF_8);
+			Assertions.assertTrue(json.startsWith("[1,2,"));
+			Assertions.assertFalse(json.endsWith("]"));
+
+		} finally {
+			hibernate.close();
+		}
+	}
+
 	public static void testGetDatasets(int expected, UUID sessionId, SessionDbClient client) {
 		try {
 			client.getDatasets(sessionId);
@@ -195,6 +266,27 @@ public class SessionDatasetResourceTest {
 		testUpdateDataset(404, sessionId2, dataset, user2Client);
 	}
 
+	@Test
+	public void putList() throws RestException {
+
+		Dataset dataset = RestUtils.getRandomDataset();
+		UUID datasetId = user1Client.createDataset(sessionId1, dataset);
+
+		dataset.setName("new name");
+		user1Client.updateDatasets(sessionId1, List.of(dataset));
+		assertEquals("new name", user1Client.getDataset(sessionId1, datasetId).getName());
+
+		// dataset without id
+		Dataset noId = RestUtils.getRandomDataset();
+		noId.setDatasetIdPair(null);
+		try {
+			user1Client.updateDatasets(sessionId1, List.of(noId));
+			assertEquals(true, false);
+		} catch (RestException e) {
+			assertEquals(400, e.getResponse().getStatus());
+		}
+	}
+
 	public static void testUpdateDataset(int expected, UUID sessionId, Dataset dataset, SessionDbClient client) {
 		try {
 			client.updateDataset(sessionId, dataset);
@@ -8,11 +8,13 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -22,14 +24,21 @@ import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import fi.csc.chipster.auth.model.Role;
+import fi.csc.chipster.comp.JobState;
 import fi.csc.chipster.filebroker.FileResourceTest;
 import fi.csc.chipster.rest.Config;
 import fi.csc.chipster.rest.RestUtils;
 import fi.csc.chipster.rest.TestServerLauncher;
+import fi.csc.chipster.rest.hibernate.HibernateUtil;
 import fi.csc.chipster.sessiondb.model.Dataset;
 import fi.csc.chipster.sessiondb.model.File;
 import fi.csc.chipster.sessiondb.model.FileState;
+import fi.csc.chipster.sessiondb.model.Job;
+import fi.csc.chipster.sessiondb.model.Label;
+import fi.csc.chipster.sessiondb.model.News;
+import fi.csc.chipster.sessiondb.model.Rule;
 import fi.csc.chipster.sessiondb.model.Session;
+import fi.csc.chipster.sessiondb.model.UserUsage;
 import jakarta.ws.rs.client.WebTarget;
 
 public class SessionDbAdminResourceTest {
@@ -40,6 +49,7 @@ public class SessionDbAdminResourceTest {
     private static SessionDbClient user2Client;
     private static SessionDbAdminClient sessionDbClientForFileBroker;
     private static WebTarget fileBrokerTarget1;
+    private static HibernateUtil hibernate;
 
     @BeforeAll
     public static void setUp() throws Exception {
@@ -56,10 +66,15 @@ public class SessionDbAdminResourceTest {
         user2Client = new SessionDbClient(launcher.getServiceLocator(), launcher.getUser2Token(), Role.CLIENT);
 
         fileBrokerTarget1 = launcher.getUser1Target(Role.FILE_BROKER);
+
+        // for creating orphan rows
+        hibernate = new HibernateUtil(config, Role.SESSION_DB, List.of(Rule.class, Session.class, Dataset.class,
+                Job.class, File.class, News.class, Label.class, UserUsage.class));
     }
 
     @AfterAll
     public static void tearDown() throws Exception {
+        hibernate.close();
         launcher.stop();
     }
 
@@ -106,6 +121,157 @@ public class SessionDbAdminResourceTest {
         assertTrue((Integer) user2Quotas.get("readWriteSessions") >= 2);
     }
 
+    @Test
+    public void reconciledUsage() throws IOException, RestException {
+
+        UUID sessionId = user1Client.createSession(RestUtils.getRandomSession());
+        user1Client.createDataset(sessionId, getDatasetWithFile(1000));
+
+        // store the calculated values
+        adminClient.reconcileUsage();
+        long size1 = user1Client.getStats().getSize();
+        long calculated = getCalculatedOnRead();
+
+        // the changes are collected in memory and written to the stored row later
+        user1Client.createDataset(sessionId, getDatasetWithFile(500));
+        adminClient.reconcileUsage();
+        assertEquals(size1 + 500, user1Client.getStats().getSize());
+
+        user1Client.deleteSession(sessionId);
+        adminClient.reconcileUsage();
+        assertEquals(size1 - 1000, user1Client.getStats().getSize());
+
+        // the reconciled row was read, not calculated
+        assertEquals(calculated, getCalculatedOnRead());
+    }
+
+    @Test
+    public void deleteOrphans() throws RestException, InterruptedException {
+
+        // session without rules, its job, dataset and file will be orphans after it
+        UUID orphanSessionId = user1Client.createSession(RestUtils.getRandomSession());
+        UUID orphanJobId = user1Client.createJob(orphanSessionId, RestUtils.getRandomJob());
+        Dataset orphanDataset = getDatasetWithFile(100);
+        UUID orphanDatasetId = user1Client.createDataset(orphanSessionId, orphanDataset);
+        execute("delete from rule where sessionid = :id", orphanSessionId);
+
+        // rule without a session
+        UUID ruleSessionId = user1Client.createSession(RestUtils.getRandomSession());
+        UUID orphanRuleId = user1Client.getRules(ruleSessionId).get(0).getRuleId();
+        execute("delete from session where sessionid = :id", ruleSessionId);
+
+        UUID liveSessionId = user1Client.createSession(RestUtils.getRandomSession());
+        UUID liveJobId = user1Client.createJob(liveSessionId, RestUtils.getRandomJob());
+        Dataset liveDataset = getDatasetWithFile(100);
+        UUID liveDatasetId = user1Client.createDataset(liveSessionId, liveDataset);
+
+        // the check doesn't delete anything
+        adminClient.checkOrphans();
+        Map<String, Object> progress = waitForOrphans();
+        assertEquals(false, progress.get("delete"));
+        assertEquals(1, count("select count(*) from session where sessionid = :id", orphanSessionId));
+
+        adminClient.deleteOrphans();
+        progress = waitForOrphans();
+
+        assertEquals(true, progress.get("delete"));
+        assertEquals(null, progress.get("error"));
+        assertTrue(progress.get("endTime") != null);
+        assertTrue(((Number) progress.get("chunks")).longValue() >= 5);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> orphans = (Map<String, Object>) progress.get("orphans");
+        for (String table : List.of("session", "rule", "job", "dataset", "file")) {
+            assertTrue(((Number) orphans.get(table)).longValue() >= 1, "orphans in table " + table);
+        }
+
+        assertEquals(0, count("select count(*) from session where sessionid = :id", orphanSessionId));
+        assertEquals(0, count("select count(*) from rule where ruleid = :id", orphanRuleId));
+        assertEquals(0, count("select count(*) from job where jobid = :id", orphanJobId));
+        assertEquals(0, count("select count(*) from dataset where datasetid = :id", orphanDatasetId));
+        assertEquals(0, count("select count(*) from file where fileid = :id", orphanDataset.getFile().getFileId()));
+
+        assertEquals(1, count("select count(*) from session where sessionid = :id", liveSessionId));
+        assertEquals(1, count("select count(*) from rule where sessionid = :id", liveSessionId));
+        assertEquals(1, count("select count(*) from job where jobid = :id", liveJobId));
+        assertEquals(1, count("select count(*) from dataset where datasetid = :id", liveDatasetId));
+        assertEquals(1, count("select count(*) from file where fileid = :id", liveDataset.getFile().getFileId()));
+
+        // the deleted session was evicted from the cache too
+        SessionResourceTest.testGetSession(404, orphanSessionId, user1Client);
+
+        user1Client.deleteSession(liveSessionId);
+    }
+
+    @Test
+    public void orphanConflict() throws RestException, InterruptedException {
+
+        // enough orphan files for several chunks, so that the run takes a while
+        hibernate.runInTransaction(hibernateSession -> {
+            return hibernateSession.createNativeQuery(
+                    "insert into file (fileid, size) select gen_random_uuid(), 0 from generate_series(1, 5000)",
+                    Void.class).executeUpdate();
+        });
+
+        Map<String, Object> progress = adminClient.deleteOrphans();
+        assertEquals(true, progress.get("running"));
+
+        try {
+            adminClient.checkOrphans();
+            assertTrue(false, "second run was started");
+        } catch (RestException e) {
+            assertEquals(409, e.getResponse().getStatus());
+        }
+
+        // the progress is shown while running
+        progress = adminClient.getOrphans();
+        assertEquals(true, progress.get("delete"));
+
+        progress = waitForOrphans();
+        assertTrue(((Number) ((Map<?, ?>) progress.get("orphans")).get("file")).longValue() >= 5000);
+
+        // and a new run can be started after it
+        adminClient.checkOrphans();
+        waitForOrphans();
+    }
+
+    private Map<String, Object> waitForOrphans() throws RestException, InterruptedException {
+        for (int i = 0; i < 600; i++) {
+            Map<String, Object> progress = adminClient.getOrphans();
+            if (!(Boolean) progress.get("running")) {
+                return progress;
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError("orphan run didn't finish");
+    }
+
+    private void execute(String sql, UUID id) {
+        hibernate.runInTransaction(hibernateSession -> {
+            return hibernateSession.createNativeQuery(sql, Void.class).setParameter("id", id).executeUpdate();
+        });
+    }
+
+    private long count(String sql, UUID id) {
+        return hibernate.runInTransaction(hibernateSession -> {
+            return hibernateSession.createNativeQuery(sql, Long.class).setParameter("id", id).getSingleResult();
+        });
+    }
+
+    private Dataset getDatasetWithFile(long size) {
+        Dataset dataset = RestUtils.getRandomDataset();
+        dataset.setDatasetIdPair(null);
+        File file = new File();
+        file.setFileId(RestUtils.createUUID());
+        file.setSize(size);
+        dataset.setFile(file);
+        return dataset;
+    }
+
+    private long getCalculatedOnRead() throws RestException {
+        return ((Number) adminClient.getStatus().get("userUsageCalculatedOnRead")).longValue();
+    }
+
     @Test
     public void getSessionsForUser() throws IOException, RestException {
 
@@ -187,6 +353,71 @@ public class SessionDbAdminResourceTest {
         assertTrue(user1Sessions.size() == 0);
     }
 
+    @Test
+    public void deleteSessionContents() throws IOException, RestException {
+
+        Map<String, Object> before = adminClient.getStatus();
+
+        UUID sessionId = user1Client.createSession(RestUtils.getRandomSession());
+        for (int i = 0; i < 3; i++) {
+            user1Client.createDataset(sessionId, RestUtils.getRandomDataset());
+        }
+        for (int i = 0; i < 2; i++) {
+            Job job = RestUtils.getRandomJob();
+            job.setState(JobState.COMPLETED);
+            user1Client.createJob(sessionId, job);
+        }
+        user1Client.createLabel(sessionId, RestUtils.getRandomLabel());
+
+        user1Client.deleteSession(sessionId);
+
+        SessionResourceTest.testGetSession(404, sessionId, user1Client);
+
+        // all rows of the session are deleted
+        Map<String, Object> after = adminClient.getStatus();
+        for (String key : List.of("sessionCount", "datasetCount", "jobCount", "labelCount", "ruleCount")) {
+            assertEquals(((Number) before.get(key)).longValue(), ((Number) after.get(key)).longValue(), key);
+        }
+    }
+
+    @Test
+    public void getDatasetsFetchCount() throws IOException, RestException {
+
+        // the fetch counts are collected only with db-statistics
+        Assumptions.assumeTrue(adminClient.getStatus().containsKey("dbEntityFetchCount"),
+                "db-statistics is disabled");
+
+        int datasetCount = 20;
+
+        UUID sessionId = user1Client.createSession(RestUtils.getRandomSession());
+        for (int i = 0; i < datasetCount; i++) {
+            Dataset dataset = RestUtils.getRandomDataset();
+            File file = new File();
+            file.setFileId(RestUtils.createUUID());
+            file.setSize(i);
+            dataset.setFile(file);
+            user1Client.createDataset(sessionId, dataset);
+        }
+
+        Map<String, Object> before = adminClient.getStatus();
+
+        List<Dataset> datasets = List.copyOf(user1Client.getDatasets(sessionId).values());
+        datasets.forEach(d -> d.setX(d.getX() + 10));
+        user1Client.updateDatasets(sessionId, datasets);
+
+        Map<String, Object> after = adminClient.getStatus();
+
+        // files are fetched with datasets, not one by one
+        long fetchCount = ((Number) after.get("dbEntityFetchCount")).longValue()
+                - ((Number) before.get("dbEntityFetchCount")).longValue();
+        assertTrue(fetchCount < datasetCount, "entity fetch count " + fetchCount);
+
+        assertEquals(datasetCount, user1Client.getDatasets(sessionId).values().stream()
+                .filter(d -> d.getFile() != null && d.getX() == 110).count());
+
+        user1Client.deleteSession(sessionId);
+    }
+
     @Test
     public void deleteSessionsForMultipleUsers() throws IOException, RestException {
 
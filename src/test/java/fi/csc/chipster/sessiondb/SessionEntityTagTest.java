@@ -0,0 +1,193 @@
+package fi.csc.chipster.sessiondb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import fi.csc.chipster.auth.model.Role;
+import fi.csc.chipster.rest.Config;
+import fi.csc.chipster.rest.RestUtils;
+import fi.csc.chipster.rest.TestServerLauncher;
+import fi.csc.chipster.sessiondb.model.Dataset;
+import fi.csc.chipster.sessiondb.model.File;
+import jakarta.ws.rs.client.Invocation.Builder;
+import jakarta.ws.rs.client.WebTarget;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * ETags and compression of the session contents
+ */
+public class SessionEntityTagTest {
+
+	private static TestServerLauncher launcher;
+	private static Config config;
+
+	private static SessionDbClient user1Client;
+	private static SessionDbAdminClient fileBrokerClient;
+	private static WebTarget user1Target;
+
+	@BeforeAll
+	public static void setUp() throws Exception {
+		config = new Config();
+		launcher = new TestServerLauncher(config);
+
+		user1Client = new SessionDbClient(launcher.getServiceLocator(), launcher.getUser1Token(), Role.CLIENT);
+		fileBrokerClient = new SessionDbAdminClient(launcher.getServiceLocatorForScheduler(),
+				launcher.getFileBrokerToken());
+		user1Target = launcher.getUser1Target(Role.SESSION_DB);
+	}
+
+	@AfterAll
+	public static void tearDown() throws Exception {
+		launcher.stop();
+	}
+
+	@Test
+	public void notModified() throws RestException {
+		UUID sessionId = user1Client.createSession(RestUtils.getRandomSession());
+		user1Client.createDataset(sessionId, getDatasetWithFile());
+
+		for (String path : new String[] { "", "datasets", "jobs" }) {
+			String etag = getEntityTag(sessionId, path);
+			assertEquals(304, get(sessionId, path, etag).getStatus(), path);
+		}
+	}
+
+	@Test
+	public void datasetUpdate() throws RestException {
+		UUID sessionId = user1Client.createSession(RestUtils.getRandomSession());
+		Dataset dataset = getDatasetWithFile();
+		user1Client.createDataset(sessionId, dataset);
+		String etag = getEntityTag(sessionId, "datasets");
+
+		dataset.setName("new name");
+		user1Client.updateDataset(sessionId, dataset);
+
+		assertEquals(200, get(sessionId, "datasets", etag).getStatus());
+	}
+
+	@Test
+	public void fileUpdate() throws RestException {
+		UUID sessionId = user1Client.createSession(RestUtils.getRandomSession());
+		Dataset dataset = getDatasetWithFile();
+		UUID datasetId = user1Client.createDataset(sessionId, dataset);
+		String etag = getEntityTag(sessionId, "datasets");
+		long since = user1Client.getSessionChanges(sessionId, null).getEventNumber();
+
+		// file-broker updates the file without an event
+		File file = user1Client.getDataset(sessionId, datasetId).getFile();
+		file.setSize(2000);
+		fileBrokerClient.updateFile(file);
+
+		assertEquals(200, get(sessionId, "datasets", etag).getStatus());
+		assertTrue(user1Client.getSessionChanges(sessionId, since).isReload());
+	}
+
+	@Test
+	public void fileAndDatasetsDelete() throws RestException {
+		UUID sessionId = user1Client.createSession(RestUtils.getRandomSession());
+		Dataset dataset = getDatasetWithFile();
+		user1Client.createDataset(sessionId, dataset);
+		String etag = getEntityTag(sessionId, "datasets");
+		long since = user1Client.getSessionChanges(sessionId, null).getEventNumber();
+
+		// file-broker deletes the datasets without events
+		fileBrokerClient.deleteFileAndDatasets(dataset.getFile().getFileId());
+
+		assertEquals(200, get(sessionId, "datasets", etag).getStatus());
+		assertTrue(user1Client.getSessionChanges(sessionId, since).isReload());
+	}
+
+	@Test
+	public void accessedUpdate() throws RestException, InterruptedException {
+		UUID sessionId = user1Client.createSession(RestUtils.getRandomSession());
+		String etag = getEntityTag(sessionId, "");
+
+		// get without the preview parameter updates the accessed timestamp
+		user1Client.getSession(sessionId);
+
+		long flushInterval = config.getLong(Config.KEY_SESSION_DB_ACCESSED_FLUSH_INTERVAL);
+		for (int i = 0; i < (flushInterval + 5) * 10; i++) {
+			if (get(sessionId, "", etag).getStatus() == 200) {
+				return;
+			}
+			Thread.sleep(100);
+		}
+		throw new AssertionError("ETag didn't change after the accessed timestamp was written");
+	}
+
+	@Test
+	public void compression() throws RestException {
+		int minSize = Integer.parseInt(config.getString(RestUtils.CONF_SERVER_COMPRESSION_MIN_SIZE,
+				Role.SESSION_DB));
+		Assumptions.assumeTrue(minSize >= 0, "compression is disabled");
+
+		UUID sessionId = user1Client.createSession(RestUtils.getRandomSession());
+
+		// one session is smaller than the limit
+		String json = request(sessionId, "").get(String.class);
+		assertTrue(json.length() < minSize, "session json is " + json.length() + " bytes");
+		Response response = request(sessionId, "").header(HttpHeaders.ACCEPT_ENCODING, "gzip").get();
+		assertEquals(200, response.getStatus());
+		assertEquals(null, response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+
+		// enough datasets to exceed it
+		while (json.length() <= minSize) {
+			user1Client.createDataset(sessionId, RestUtils.getRandomDataset());
+			json = request(sessionId, "datasets").get(String.class);
+		}
+		response = request(sessionId, "datasets").header(HttpHeaders.ACCEPT_ENCODING, "gzip").get();
+		assertEquals(200, response.getStatus());
+		assertEquals("gzip", response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+	}
+
+	private String getEntityTag(UUID sessionId, String path) {
+		Response response = get(sessionId, path, null);
+		assertEquals(200, response.getStatus());
+
+		String etag = response.getHeaderString(HttpHeaders.ETAG);
+		// not given when there are other session-db replicas
+		Assumptions.assumeTrue(etag != null, "ETags are disabled");
+		return etag;
+	}
+
+	/**
+	 * Get the session or its contents with the preview parameter
+	 *
+	 * The preview doesn't update the accessed timestamp, which would change the
+	 * ETag.
+	 */
+	private Response get(UUID sessionId, String path, String etag) {
+		Builder request = user1Target.path("sessions").path(sessionId.toString()).path(path)
+				.queryParam("preview", "").request();
+		if (etag != null) {
+			request = request.header(HttpHeaders.IF_NONE_MATCH, etag);
+		}
+		Response response = request.get();
+		// release the connection
+		response.close();
+		return response;
+	}
+
+	private Builder request(UUID sessionId, String path) {
+		return user1Target.path("sessions").path(sessionId.toString()).path(path).queryParam("preview", "")
+				.request();
+	}
+
+	private Dataset getDatasetWithFile() {
+		Dataset dataset = RestUtils.getRandomDataset();
+		dataset.setDatasetIdPair(null);
+		File file = new File();
+		file.setFileId(RestUtils.createUUID());
+		file.setSize(1000);
+		dataset.setFile(file);
+		return dataset;
+	}
+}
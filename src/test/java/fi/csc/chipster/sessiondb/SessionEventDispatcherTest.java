@@ -0,0 +1,115 @@
+package fi.csc.chipster.sessiondb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import fi.csc.chipster.sessiondb.model.SessionEvent;
+import fi.csc.chipster.sessiondb.model.SessionEvent.EventType;
+import fi.csc.chipster.sessiondb.model.SessionEvent.ResourceType;
+
+public class SessionEventDispatcherTest {
+
+	private static SessionEvent jobEvent(UUID jobId, EventType type) {
+		return new SessionEvent(UUID.randomUUID(), ResourceType.JOB, jobId, type);
+	}
+
+	@Test
+	public void eventsOfSameJobAreInOrder() throws InterruptedException {
+
+		List<UUID> jobIds = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			jobIds.add(UUID.randomUUID());
+		}
+
+		Map<UUID, List<EventType>> handled = new ConcurrentHashMap<>();
+		CountDownLatch latch = new CountDownLatch(jobIds.size() * 3);
+
+		SessionEventDispatcher dispatcher = new SessionEventDispatcher(e -> {
+			handled.computeIfAbsent(e.getResourceId(), id -> Collections.synchronizedList(new ArrayList<>()))
+					.add(e.getType());
+			latch.countDown();
+		}, 4, 100, "test-dispatcher");
+
+		for (EventType type : List.of(EventType.CREATE, EventType.UPDATE, EventType.DELETE)) {
+			for (UUID jobId : jobIds) {
+				dispatcher.onEvent(jobEvent(jobId, type));
+			}
+		}
+
+		Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		for (UUID jobId : jobIds) {
+			Assertions.assertEquals(List.of(EventType.CREATE, EventType.UPDATE, EventType.DELETE), handled.get(jobId));
+		}
+		Assertions.assertEquals(60l, dispatcher.getStatus().get("sessionEventDispatchReceived"));
+		dispatcher.close();
+	}
+
+	@Test
+	public void slowJobDoesNotBlockOthers() throws InterruptedException {
+
+		UUID slowJobId = UUID.randomUUID();
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch otherHandled = new CountDownLatch(1);
+
+		// separate the jobs with the key, because the hashes of random ids could
+		// end up in the same lane
+		SessionEventDispatcher dispatcher = new SessionEventDispatcher(e -> {
+			try {
+				if (slowJobId.equals(e.getResourceId())) {
+					release.await();
+				} else {
+					otherHandled.countDown();
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}, 2, 100, "test-dispatcher", e -> slowJobId.equals(e.getResourceId()) ? 0 : 1);
+
+		dispatcher.onEvent(jobEvent(slowJobId, EventType.UPDATE));
+		dispatcher.onEvent(jobEvent(UUID.randomUUID(), EventType.UPDATE));
+
+		Assertions.assertTrue(otherHandled.await(5, TimeUnit.SECONDS));
+		release.countDown();
+		dispatcher.close();
+	}
+
+	@Test
+	public void fullQueueBlocksCaller() throws InterruptedException {
+
+		CountDownLatch release = new CountDownLatch(1);
+
+		SessionEventDispatcher dispatcher = new SessionEventDispatcher(e -> {
+			try {
+				release.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}, 1, 1, "test-dispatcher");
+
+		UUID jobId = UUID.randomUUID();
+
+		// the first one is being handled and the second one waits in the queue
+		dispatcher.onEvent(jobEvent(jobId, EventType.CREATE));
+		Thread.sleep(100);
+		dispatcher.onEvent(jobEvent(jobId, EventType.UPDATE));
+
+		Thread caller = Thread.ofVirtual().start(() -> dispatcher.onEvent(jobEvent(jobId, EventType.DELETE)));
+		Thread.sleep(100);
+		Assertions.assertTrue(caller.isAlive());
+
+		release.countDown();
+		caller.join(5000);
+		Assertions.assertFalse(caller.isAlive());
+		Assertions.assertEquals(1l, dispatcher.getStatus().get("sessionEventDispatchBlocked"));
+		dispatcher.close();
+	}
+}
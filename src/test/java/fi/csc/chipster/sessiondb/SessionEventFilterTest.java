@@ -0,0 +1,41 @@
+package fi.csc.chipster.sessiondb;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import fi.csc.chipster.sessiondb.model.SessionEvent;
+import fi.csc.chipster.sessiondb.model.SessionEvent.EventType;
+import fi.csc.chipster.sessiondb.model.SessionEvent.ResourceType;
+
+public class SessionEventFilterTest {
+
+	@Test
+	public void resourceTypeAndProgress() {
+		SessionEventFilter filter = SessionEventFilter.fromQueryParameters(Map.of(
+				SessionEventFilter.QUERY_PARAM_RESOURCE_TYPE, List.of("JOB"),
+				SessionEventFilter.QUERY_PARAM_PROGRESS, List.of("false")));
+
+		UUID sessionId = UUID.randomUUID();
+		SessionEvent dataset = new SessionEvent(sessionId, ResourceType.DATASET, UUID.randomUUID(),
+				EventType.CREATE);
+		SessionEvent progress = new SessionEvent(sessionId, ResourceType.JOB, UUID.randomUUID(),
+				EventType.UPDATE, null, null, "{}");
+		SessionEvent job = new SessionEvent(sessionId, ResourceType.JOB, UUID.randomUUID(), EventType.UPDATE);
+
+		Assertions.assertFalse(filter.accept(dataset));
+		Assertions.assertFalse(filter.accept(progress));
+		Assertions.assertTrue(filter.accept(job));
+
+		// other messages can't be filtered
+		Assertions.assertTrue(filter.accept("plain"));
+	}
+
+	@Test
+	public void noParameters() {
+		Assertions.assertNull(SessionEventFilter.fromQueryParameters(Map.of()));
+	}
+}
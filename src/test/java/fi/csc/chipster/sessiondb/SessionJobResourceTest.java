@@ -4,6 +4,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.UUID;
 
@@ -21,6 +23,7 @@ import fi.csc.chipster.rest.RestUtils;
 import fi.csc.chipster.rest.TestServerLauncher;
 import fi.csc.chipster.sessiondb.model.Input;
 import fi.csc.chipster.sessiondb.model.Job;
+import fi.csc.chipster.sessiondb.model.JobProgress;
 
 public class SessionJobResourceTest {
 
@@ -199,6 +202,56 @@ public class SessionJobResourceTest {
 		assertEquals(false, user2Client.getJobs(sessionId2).containsKey(id1));
 	}
 
+	@Test
+	public void getAllStreamed() throws RestException, IOException {
+
+		UUID sessionId = user1Client.createSession(RestUtils.getRandomSession());
+
+		// more than two batches of the stream
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < 1200; i++) {
+			Job job = RestUtils.getRandomJob();
+			job.setToolId("tool" + i);
+			// don't let the scheduler run these
+			job.setState(JobState.COMPLETED);
+			jobs.add(job);
+		}
+		List<UUID> ids = user1Client.createJobs(sessionId, jobs);
+
+		HashMap<UUID, Job> result = user1Client.getJobs(sessionId);
+
+		assertEquals(new HashSet<>(ids), result.keySet());
+		for (int i = 0; i < ids.size(); i++) {
+			assertEquals("tool" + i, result.get(ids.get(i)).getToolId());
+		}
+	}
+
+	@Test
+	public void getAllLargeFields() throws RestException {
+
+		Job job = RestUtils.getRandomJob();
+		job.setSourceCode("source code");
+		job.setScreenOutput("screen output");
+		UUID jobId = user1Client.createJob(sessionId1, job);
+
+		// large object fields are not included in the list by default
+		Job listJob = user1Client.getJobs(sessionId1).get(jobId);
+		assertEquals(job.getToolName(), listJob.getToolName());
+		assertEquals(job.getParameters().size(), listJob.getParameters().size());
+		assertEquals(null, listJob.getSourceCode());
+		assertEquals(null, listJob.getScreenOutput());
+		assertEquals(null, listJob.getToolDescription());
+
+		// unless requested
+		listJob = user1Client.getJobs(sessionId1, true).get(jobId);
+		assertEquals("source code", listJob.getSourceCode());
+		assertEquals("screen output", listJob.getScreenOutput());
+		assertEquals(job.getToolDescription(), listJob.getToolDescription());
+
+		// single job GET returns all fields
+		assertEquals("screen output", user1Client.getJob(sessionId1, jobId).getScreenOutput());
+	}
+
 	public static void testGetJobs(int expected, UUID sessionId, SessionDbClient client) {
 		try {
 			client.getJobs(sessionId);
@@ -346,6 +399,73 @@ public class SessionJobResourceTest {
 		assertEquals(JobState.COMPLETED, user1Client.getJob(sessionId1, jobId).getState());
 	}
 
+	@Test
+	public void progress() throws RestException {
+		Job job = RestUtils.getRandomRunningJob();
+		UUID jobId = user1Client.createJob(sessionId1, job);
+
+		// the first append creates the screen output
+		user1Client.updateJobProgress(sessionId1, jobId, getProgress(0, "first line\n"));
+		assertEquals("first line\n", user1Client.getJob(sessionId1, jobId).getScreenOutput());
+
+		// multibyte characters
+		user1Client.updateJobProgress(sessionId1, jobId, getProgress(11, "äö\n"));
+		assertEquals("first line\näö\n", user1Client.getJob(sessionId1, jobId).getScreenOutput());
+
+		// retrying the same append doesn't change anything
+		user1Client.updateJobProgress(sessionId1, jobId, getProgress(11, "äö\n"));
+		assertEquals("first line\näö\n", user1Client.getJob(sessionId1, jobId).getScreenOutput());
+
+		// the state fields are updated
+		JobProgress progress = getProgress(16, "third line\n");
+		progress.setState(JobState.RUNNING);
+		progress.setMemoryUsage(1024l);
+		user1Client.updateJobProgress(sessionId1, jobId, progress);
+
+		Job dbJob = user1Client.getJob(sessionId1, jobId);
+		assertEquals("first line\näö\nthird line\n", dbJob.getScreenOutput());
+		assertEquals(JobState.RUNNING, dbJob.getState());
+		assertEquals(1024l, dbJob.getMemoryUsage());
+		// other fields are not touched
+		assertEquals(job.getToolName(), dbJob.getToolName());
+
+		// holes are not allowed
+		testUpdateJobProgress(409, sessionId1, jobId, getProgress(1000, "gap"), user1Client);
+
+		// wrong user
+		testUpdateJobProgress(403, sessionId1, jobId, getProgress(27, "x"), user2Client);
+
+		// jobs must be finished with PUT
+		progress = getProgress(27, "x");
+		progress.setState(JobState.COMPLETED);
+		testUpdateJobProgress(400, sessionId1, jobId, progress, user1Client);
+
+		// finished jobs can't be updated
+		dbJob.setState(JobState.COMPLETED);
+		user1Client.updateJob(sessionId1, dbJob);
+		testUpdateJobProgress(403, sessionId1, jobId, getProgress(27, "x"), user1Client);
+
+		// job doesn't exist
+		testUpdateJobProgress(404, sessionId1, RestUtils.createUUID(), getProgress(0, "x"), user1Client);
+	}
+
+	private static JobProgress getProgress(long offset, String append) {
+		JobProgress progress = new JobProgress();
+		progress.setScreenOutputOffset(offset);
+		progress.setScreenOutputAppend(append);
+		return progress;
+	}
+
+	public static void testUpdateJobProgress(int expected, UUID sessionId, UUID jobId, JobProgress progress,
+			SessionDbClient client) {
+		try {
+			client.updateJobProgress(sessionId, jobId, progress);
+			assertEquals(true, false);
+		} catch (RestException e) {
+			assertEquals(expected, e.getResponse().getStatus());
+		}
+	}
+
 	public static void testUpdateJob(int expected, UUID sessionId, Job job, SessionDbClient client) {
 		try {
 			client.updateJob(sessionId, job);
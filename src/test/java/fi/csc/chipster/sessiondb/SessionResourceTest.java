@@ -3,6 +3,7 @@ package fi.csc.chipster.sessiondb;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.UUID;
 
 import org.junit.jupiter.api.AfterAll;
@@ -16,7 +17,10 @@ import fi.csc.chipster.rest.TestServerLauncher;
 import fi.csc.chipster.sessiondb.model.Dataset;
 import fi.csc.chipster.sessiondb.model.File;
 import fi.csc.chipster.sessiondb.model.Session;
+import fi.csc.chipster.sessiondb.model.SessionChanges;
+import fi.csc.chipster.sessiondb.model.SessionPage;
 import fi.csc.chipster.sessiondb.model.SessionState;
+import fi.csc.chipster.sessiondb.resource.SessionResource;
 
 public class SessionResourceTest {
 
@@ -123,6 +127,51 @@ public class SessionResourceTest {
         testGetSession(401, sessionId1, noAuthClient);
     }
 
+    @Test
+    public void getList() throws IOException, RestException {
+
+        Session session1 = RestUtils.getRandomSession();
+        Session session2 = RestUtils.getRandomSession();
+        Session session3 = RestUtils.getRandomSession();
+        UUID sessionId1 = user1Client.createSession(session1);
+        UUID sessionId2 = user1Client.createSession(session2);
+        UUID sessionId3 = user1Client.createSession(session3);
+
+        // newest first, one session per page
+        SessionPage page1 = user1Client.getSessionPage(SessionResource.SORT_CREATED, null, 1);
+        SessionPage page2 = user1Client.getSessionPage(SessionResource.SORT_CREATED, page1.getNext(), 1);
+        SessionPage page3 = user1Client.getSessionPage(SessionResource.SORT_CREATED, page2.getNext(), 1);
+
+        assertEquals(1, page1.getSessions().size());
+        assertEquals(sessionId3, page1.getSessions().get(0).getSessionId());
+        assertEquals(sessionId2, page2.getSessions().get(0).getSessionId());
+        assertEquals(sessionId1, page3.getSessions().get(0).getSessionId());
+
+        Session listSession = page3.getSessions().get(0);
+        assertEquals(session1.getName(), listSession.getName());
+        assertEquals(1, listSession.getRules().size());
+        assertEquals(true, listSession.getRules().iterator().next().isReadWrite());
+
+        // user2 doesn't see user1's sessions
+        SessionPage user2Page = user2Client.getSessionPage(null, null, null);
+        assertEquals(true, user2Page.getSessions().stream()
+                .noneMatch(s -> sessionId1.equals(s.getSessionId())));
+
+        user1Client.deleteSession(sessionId1);
+        user1Client.deleteSession(sessionId2);
+        user1Client.deleteSession(sessionId3);
+
+        testGetSessionPage(400, "unknownSort", null, null, user1Client);
+        testGetSessionPage(400, null, "unparseableCursor", null, user1Client);
+        testGetSessionPage(400, null, null, 0, user1Client);
+
+        // auth tests
+        testGetSessionPage(401, null, null, null, unparseableTokenClient);
+        testGetSessionPage(403, null, null, null, tokenFailClient);
+        testGetSessionPage(401, null, null, null, authFailClient);
+        testGetSessionPage(401, null, null, null, noAuthClient);
+    }
+
     @Test
     public void getStats() throws IOException, RestException {
 
@@ -151,6 +200,9 @@ public class SessionResourceTest {
 
         user1Client.deleteSession(sessionId1);
 
+        // the usage table must notice the deletion too
+        assertEquals(size1, user1Client.getStats().getSize());
+
         // auth tests
         testGetStats(401, unparseableTokenClient);
         testGetStats(403, tokenFailClient);
@@ -163,6 +215,46 @@ public class SessionResourceTest {
         testGetStats(401, noAuthClient);
     }
 
+    @Test
+    public void getChanges() throws IOException, RestException {
+
+        UUID sessionId = user1Client.createSession(RestUtils.getRandomSession());
+
+        // without "since" the client only gets the current eventNumber
+        SessionChanges changes1 = user1Client.getSessionChanges(sessionId, null);
+        assertEquals(true, changes1.isReload());
+
+        Dataset dataset1 = RestUtils.getRandomDataset();
+        dataset1.setDatasetIdPair(null);
+        UUID datasetId1 = user1Client.createDataset(sessionId, dataset1);
+        Dataset dataset2 = RestUtils.getRandomDataset();
+        dataset2.setDatasetIdPair(null);
+        UUID datasetId2 = user1Client.createDataset(sessionId, dataset2);
+        user1Client.deleteDataset(sessionId, datasetId2);
+
+        SessionChanges changes2 = user1Client.getSessionChanges(sessionId, changes1.getEventNumber());
+        assertEquals(false, changes2.isReload());
+        assertEquals(1, changes2.getDatasets().size());
+        assertEquals(datasetId1, changes2.getDatasets().get(0).getDatasetId());
+        assertEquals(List.of(datasetId2), changes2.getDeletedDatasets());
+        assertEquals(null, changes2.getSession());
+
+        // nothing has changed after that
+        SessionChanges changes3 = user1Client.getSessionChanges(sessionId, changes2.getEventNumber());
+        assertEquals(false, changes3.isReload());
+        assertEquals(0, changes3.getDatasets().size());
+        assertEquals(0, changes3.getDeletedDatasets().size());
+
+        // too old or unknown numbers require a reload
+        assertEquals(true, user1Client.getSessionChanges(sessionId, 0l).isReload());
+        assertEquals(true, user1Client.getSessionChanges(sessionId, Long.MAX_VALUE).isReload());
+
+        testGetSessionChanges(403, sessionId, user2Client);
+        testGetSessionChanges(401, sessionId, noAuthClient);
+
+        user1Client.deleteSession(sessionId);
+    }
+
     @Test
     public void getSharesErrors() throws IOException, RestException {
 
@@ -182,6 +274,25 @@ public class SessionResourceTest {
         }
     }
 
+    public static void testGetSessionPage(int expected, String sort, String after, Integer limit,
+            SessionDbClient client) {
+        try {
+            client.getSessionPage(sort, after, limit);
+            assertEquals(true, false);
+        } catch (RestException e) {
+            assertEquals(expected, e.getResponse().getStatus());
+        }
+    }
+
+    public static void testGetSessionChanges(int expected, UUID sessionId, SessionDbClient client) {
+        try {
+            client.getSessionChanges(sessionId, 0l);
+            assertEquals(true, false);
+        } catch (RestException e) {
+            assertEquals(expected, e.getResponse().getStatus());
+        }
+    }
+
     public static void testGetStats(int expected, SessionDbClient client) {
         try {
             client.getStats();
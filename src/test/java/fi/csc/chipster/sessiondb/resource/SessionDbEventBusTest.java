@@ -0,0 +1,177 @@
+package fi.csc.chipster.sessiondb.resource;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import fi.csc.chipster.auth.model.Role;
+import fi.csc.chipster.rest.Config;
+import fi.csc.chipster.rest.RestUtils;
+import fi.csc.chipster.rest.hibernate.HibernateUtil;
+import fi.csc.chipster.sessiondb.SessionDbTopicConfig;
+import fi.csc.chipster.sessiondb.model.Dataset;
+import fi.csc.chipster.sessiondb.model.File;
+import fi.csc.chipster.sessiondb.model.Job;
+import fi.csc.chipster.sessiondb.model.Label;
+import fi.csc.chipster.sessiondb.model.News;
+import fi.csc.chipster.sessiondb.model.Rule;
+import fi.csc.chipster.sessiondb.model.Session;
+import fi.csc.chipster.sessiondb.model.SessionEvent;
+import fi.csc.chipster.sessiondb.model.SessionEvent.EventType;
+import fi.csc.chipster.sessiondb.model.SessionEvent.ResourceType;
+import fi.csc.chipster.sessiondb.model.UserUsage;
+
+/**
+ * Two event bus instances on the same db, like two session-db replicas
+ */
+public class SessionDbEventBusTest {
+
+	/**
+	 * Collect the relayed events instead of publishing them to the websockets
+	 */
+	private static class RecordingApi extends SessionDbApi {
+
+		private LinkedBlockingQueue<SessionEvent> delivered = new LinkedBlockingQueue<>();
+
+		public RecordingApi() {
+			super(null, null, null, null);
+		}
+
+		@Override
+		void deliver(String topic, SessionEvent obj) {
+			delivered.add(obj);
+		}
+
+		@Override
+		void deliverAllTopics(SessionEvent event, Set<String> topicsToSkip) {
+			delivered.add(event);
+		}
+
+		public SessionEvent poll() throws InterruptedException {
+			return delivered.poll(5, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * There is no cache to evict
+	 */
+	private static class StubInvalidator extends SessionDbCacheInvalidator {
+
+		public StubInvalidator() {
+			super(null, null);
+		}
+
+		@Override
+		public void evict(SessionEvent event) {
+		}
+
+		@Override
+		public void evictAll() {
+		}
+	}
+
+	private static HibernateUtil hibernate;
+
+	private static RecordingApi api1 = new RecordingApi();
+	private static RecordingApi api2 = new RecordingApi();
+	private static SessionDbEventBus bus1;
+	private static SessionDbEventBus bus2;
+
+	@BeforeAll
+	public static void setUp() throws Exception {
+		hibernate = new HibernateUtil(new Config(), Role.SESSION_DB, List.of(Rule.class, Session.class,
+				Dataset.class, Job.class, File.class, News.class, Label.class, UserUsage.class));
+
+		bus1 = new SessionDbEventBus(hibernate, api1, new StubInvalidator());
+		bus2 = new SessionDbEventBus(hibernate, api2, new StubInvalidator());
+		bus1.start();
+		bus2.start();
+
+		waitFor(() -> getStatus(bus1, "eventBusConnected") == 1 && getStatus(bus2, "eventBusConnected") == 1);
+	}
+
+	@AfterAll
+	public static void tearDown() throws Exception {
+		bus1.close();
+		bus2.close();
+		hibernate.close();
+	}
+
+	@Test
+	public void relay() throws InterruptedException {
+		SessionEvent event = datasetEvent("{}");
+		send(bus1, event);
+
+		SessionEvent relayed = api2.poll();
+		Assertions.assertNotNull(relayed);
+		Assertions.assertEquals(event.getResourceId(), relayed.getResourceId());
+		Assertions.assertEquals("{}", relayed.getNewObject());
+	}
+
+	@Test
+	public void relayLarge() throws InterruptedException {
+		long sentLarge = getStatus(bus1, "eventBusSentLarge");
+
+		// over the NOTIFY limit
+		String newObject = "{\"name\":\"" + "x".repeat(10_000) + "\"}";
+		SessionEvent event = datasetEvent(newObject);
+		send(bus1, event);
+
+		SessionEvent relayed = api2.poll();
+		Assertions.assertNotNull(relayed);
+		Assertions.assertEquals(event.getResourceId(), relayed.getResourceId());
+		Assertions.assertEquals(newObject, relayed.getNewObject());
+		Assertions.assertEquals(sentLarge + 1, getStatus(bus1, "eventBusSentLarge"));
+	}
+
+	@Test
+	public void ownEventsAreSkipped() throws InterruptedException {
+		long received = getStatus(bus2, "eventBusReceived");
+		long relayed = getStatus(bus2, "eventBusRelayed");
+
+		SessionEvent event = datasetEvent("{}");
+		send(bus2, event);
+
+		// bus1 relays it
+		Assertions.assertEquals(event.getResourceId(), api1.poll().getResourceId());
+
+		// bus2 gets its own notification too, but doesn't deliver it again
+		waitFor(() -> getStatus(bus2, "eventBusReceived") > received);
+		Assertions.assertEquals(relayed, getStatus(bus2, "eventBusRelayed"));
+		Assertions.assertNull(api2.delivered.poll(1, TimeUnit.SECONDS));
+	}
+
+	private static void send(SessionDbEventBus bus, SessionEvent event) {
+		hibernate.runInTransaction(hibernateSession -> {
+			bus.send(SessionDbTopicConfig.SESSIONS_TOPIC_PREFIX + event.getSessionId(), event, hibernateSession);
+			return null;
+		});
+	}
+
+	private static SessionEvent datasetEvent(String newObject) {
+		return new SessionEvent(RestUtils.createUUID(), ResourceType.DATASET, UUID.randomUUID(), EventType.UPDATE,
+				null, null, newObject);
+	}
+
+	private static long getStatus(SessionDbEventBus bus, String key) {
+		return ((Number) bus.getStatus().get(key)).longValue();
+	}
+
+	private static void waitFor(Supplier<Boolean> condition) throws InterruptedException {
+		for (int i = 0; i < 100; i++) {
+			if (condition.get()) {
+				return;
+			}
+			Thread.sleep(100);
+		}
+		throw new AssertionError("timeout");
+	}
+}